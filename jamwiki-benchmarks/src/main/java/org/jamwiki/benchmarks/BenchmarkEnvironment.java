@@ -0,0 +1,228 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.LocaleUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.db.WikiDatabase;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicVersion;
+import org.jamwiki.model.WikiUser;
+import org.jamwiki.parser.ParserInput;
+import org.jamwiki.parser.WikiLink;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Set up a throw-away JAMWiki instance for benchmarking, and provide the raw
+ * topic content that benchmarks are run against.  The instance is created in
+ * <code>target/benchmark-data</code> and is loaded with the parser test topics
+ * from <code>jamwiki-core/src/test/resources/data/topics</code> so that links,
+ * templates and categories in those topics resolve the same way that they do
+ * during unit tests.  An alternate topic directory can be specified using the
+ * <code>jamwiki.benchmarks.topics</code> system property.
+ */
+public class BenchmarkEnvironment {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(BenchmarkEnvironment.class.getName());
+	/** Topic name used for the synthetic large article. */
+	public static final String LARGE_ARTICLE_NAME = "Benchmark Large Article";
+	/** System property that can be used to specify the location of the topic files. */
+	public static final String PROP_TOPICS_DIR = "jamwiki.benchmarks.topics";
+	private static final String[] TOPIC_DIR_CANDIDATES = {
+		"../jamwiki-core/src/test/resources/data/topics",
+		"jamwiki-core/src/test/resources/data/topics"
+	};
+	private static final String VIRTUAL_WIKI = "en";
+	private static List<BenchmarkTopic> TOPICS = null;
+
+	/**
+	 *
+	 */
+	private BenchmarkEnvironment() {
+	}
+
+	/**
+	 * Create the benchmark JAMWiki instance and load the test topics.  This
+	 * method only performs setup the first time that it is called within a JVM.
+	 *
+	 * @return A list of all topics that were loaded, suitable for use as
+	 *  parser input.
+	 */
+	public static synchronized List<BenchmarkTopic> initialize() throws Exception {
+		if (TOPICS != null) {
+			return TOPICS;
+		}
+		File rootDirectory = new File("target", "benchmark-data");
+		if (rootDirectory.exists()) {
+			// each benchmark run starts from a clean database
+			FileUtils.deleteDirectory(rootDirectory);
+		}
+		rootDirectory.mkdirs();
+		logger.info("Setting up benchmark data installation in directory " + rootDirectory.getAbsolutePath());
+		Environment.setValue(Environment.PROP_BASE_FILE_DIR, rootDirectory.getAbsolutePath());
+		Environment.setValue(Environment.PROP_FILE_DIR_FULL_PATH, new File(rootDirectory, "files").getAbsolutePath());
+		Environment.setValue(Environment.PROP_FILE_DIR_RELATIVE_PATH, "/files/");
+		Environment.setValue(Environment.PROP_SERVER_URL, "http://example.com");
+		// search indexing is not part of parsing, so use the no-op unit test search engine
+		Environment.setValue(Environment.PROP_BASE_SEARCH_ENGINE, "org.jamwiki.TestSearchEngine");
+		WikiDatabase.setupDefaultDatabase(Environment.getInstance());
+		Locale locale = new Locale("en-US");
+		String username = "user";
+		String password = "password";
+		WikiBase.reset(locale, new WikiUser(username), username, password);
+		List<BenchmarkTopic> topics = new ArrayList<BenchmarkTopic>();
+		File[] topicFiles = BenchmarkEnvironment.retrieveTopicDirectory().listFiles();
+		if (topicFiles != null) {
+			for (File topicFile : topicFiles) {
+				String topicName = BenchmarkEnvironment.decodeTopicName(topicFile.getName());
+				String contents = FileUtils.readFileToString(topicFile, "UTF-8");
+				topics.add(new BenchmarkTopic(topicName, contents));
+				if (!topicName.toLowerCase().startsWith("file:")) {
+					// images require an associated file, so only their content is parsed
+					BenchmarkEnvironment.writeTopic(topicName, contents);
+				}
+			}
+		}
+		logger.info("Loaded " + topics.size() + " benchmark topics");
+		TOPICS = Collections.unmodifiableList(topics);
+		return TOPICS;
+	}
+
+	/**
+	 * Generate a large synthetic article that exercises the most common wiki
+	 * syntax - headings, paragraphs with formatting and links, lists, tables,
+	 * template calls, references and categories.  Content is deterministic so
+	 * that results are comparable between runs.
+	 *
+	 * @param sections The number of top-level sections to generate.
+	 * @return Raw wiki text for the synthetic article.
+	 */
+	public static String buildLargeArticle(int sections) {
+		StringBuilder raw = new StringBuilder();
+		raw.append("{{Test Template}}\n");
+		raw.append("'''").append(LARGE_ARTICLE_NAME).append("''' is a synthetic article used to measure parser performance.\n\n");
+		for (int i = 1; i <= sections; i++) {
+			raw.append("== Section ").append(i).append(" ==\n");
+			raw.append("This is paragraph ").append(i).append(" with ''italic'', '''bold''' and '''''bold italic''''' text, ");
+			raw.append("a link to [[Example1]], a piped link to [[Example2|another example]], ");
+			raw.append("a link to a [[Nonexistent Topic ").append(i).append("]] and an external link to ");
+			raw.append("[http://www.jamwiki.org/ JAMWiki].<ref>Reference number ").append(i).append(".</ref>\n\n");
+			raw.append("=== Subsection ").append(i).append(".1 ===\n");
+			raw.append("* List item one\n* List item two with <nowiki>[[no link]]</nowiki>\n** Nested item\n# Numbered item\n# Second numbered item\n");
+			raw.append(";Term\n:Definition of the term &amp; an entity.\n\n");
+			raw.append("{| class=\"wikitable\"\n|-\n! Header 1 !! Header 2\n|-\n| Cell ").append(i).append(" || [[Example1]]\n|-\n| {{Test Template}} || <span style=\"color:red\">text</span>\n|}\n\n");
+			raw.append("=== Subsection ").append(i).append(".2 ===\n");
+			raw.append(" preformatted text line\n\n");
+			raw.append("<!-- comment ").append(i).append(" -->Text after a comment.\n\n");
+		}
+		raw.append("== References ==\n<references />\n\n");
+		raw.append("[[Category:Benchmark]]\n");
+		return raw.toString();
+	}
+
+	/**
+	 * Generate a generic ParserInput object that can be used when parsing
+	 * benchmark topics.
+	 */
+	public static ParserInput parserInput(String topicName) {
+		ParserInput parserInput = new ParserInput(VIRTUAL_WIKI, topicName);
+		parserInput.setContext("/wiki");
+		parserInput.setLocale(LocaleUtils.toLocale("en_US"));
+		parserInput.setWikiUser(null);
+		parserInput.setUserDisplay("0.0.0.0");
+		parserInput.setAllowSectionEdit(true);
+		return parserInput;
+	}
+
+	/**
+	 * Topic files cannot contain colons or slashes, so convert the file name
+	 * back into a topic name using the same rules as the core unit tests.
+	 */
+	private static String decodeTopicName(String fileName) {
+		String result = StringUtils.replace(fileName, "_-_", ":");
+		result = StringUtils.replace(result, "_", " ");
+		return StringUtils.replace(result, "~", "/");
+	}
+
+	/**
+	 *
+	 */
+	private static File retrieveTopicDirectory() throws IOException {
+		String topicDirectory = System.getProperty(PROP_TOPICS_DIR);
+		if (!StringUtils.isBlank(topicDirectory)) {
+			return new File(topicDirectory);
+		}
+		for (String candidate : TOPIC_DIR_CANDIDATES) {
+			File directory = new File(candidate);
+			if (directory.isDirectory()) {
+				return directory;
+			}
+		}
+		throw new IOException("Unable to find the benchmark topic directory; specify it using -D" + PROP_TOPICS_DIR);
+	}
+
+	/**
+	 *
+	 */
+	private static void writeTopic(String topicName, String contents) throws Exception {
+		WikiLink wikiLink = new WikiLink(null, VIRTUAL_WIKI, topicName);
+		Topic topic = new Topic(VIRTUAL_WIKI, wikiLink.getNamespace(), wikiLink.getArticle());
+		topic.setTopicContent(contents);
+		TopicVersion topicVersion = new TopicVersion(null, "127.0.0.1", null, contents, contents.length());
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null, null);
+	}
+
+	/**
+	 * Raw topic content used as benchmark input.
+	 */
+	public static class BenchmarkTopic {
+
+		private final String contents;
+		private final String topicName;
+
+		/**
+		 *
+		 */
+		public BenchmarkTopic(String topicName, String contents) {
+			this.topicName = topicName;
+			this.contents = contents;
+		}
+
+		/**
+		 *
+		 */
+		public String getContents() {
+			return this.contents;
+		}
+
+		/**
+		 *
+		 */
+		public String getTopicName() {
+			return this.topicName;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jamwiki.benchmarks.BenchmarkEnvironment.BenchmarkTopic;
+import org.jamwiki.parser.ParserException;
+import org.jamwiki.parser.ParserInput;
+import org.jamwiki.parser.ParserOutput;
+import org.jamwiki.parser.jflex.JFlexParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks for the JFlex parser.  Each benchmark method measures one
+ * parser entry point or lexer stage:
+ *
+ * <ul>
+ * <li><code>template</code> - template processing only (MODE_TEMPLATE).</li>
+ * <li><code>preprocess</code> - template, custom tag and pre-processor lexers
+ *  (MODE_PREPROCESS).</li>
+ * <li><code>process</code> - all stages through the processor lexer, without
+ *  layout (MODE_PROCESS).</li>
+ * <li><code>postprocess</code> - a full parse including layout and the
+ *  post-processor lexer (MODE_POSTPROCESS), as performed when displaying a
+ *  topic.</li>
+ * <li><code>slice</code> and <code>splice</code> - section retrieval and
+ *  replacement as performed when editing a section.</li>
+ * <li><code>editComment</code> - edit comment parsing.</li>
+ * </ul>
+ *
+ * Since each parser stage consumes the output of the previous stage, the cost
+ * of an individual stage is the difference between its score and the score of
+ * the stage before it.  The <code>corpus</code> parameter selects either all
+ * parser test topics (one operation parses every topic) or a single synthetic
+ * large article.  Use {@link BenchmarkRunner} to run the benchmarks with the GC
+ * profiler so that allocation rates are reported along with throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JFlexParserBenchmark {
+
+	/** Corpus consisting of all topics in the parser test topic directory. */
+	public static final String CORPUS_TOPICS = "topics";
+	/** Corpus consisting of a single large synthetic article. */
+	public static final String CORPUS_LARGE = "large";
+	private static final String[] EDIT_COMMENTS = {
+		"/* Section 1 */ fixed a typo",
+		"Reverted edits by [[User:Example|Example]] ([[User comments:Example|talk]])",
+		"moved [[Example1]] to [[Example2]]: better title",
+		"/* References */ added a link to [http://www.jamwiki.org/ JAMWiki]",
+		"Created page with '''bold''' text"
+	};
+	private static final int LARGE_ARTICLE_SECTIONS = 500;
+	private static final String SPLICE_REPLACEMENT = "== Replacement ==\nReplacement text with a [[Example1|link]].\n";
+
+	@Param({CORPUS_TOPICS, CORPUS_LARGE})
+	public String corpus;
+	private final JFlexParser parser = new JFlexParser();
+	private List<BenchmarkTopic> topics;
+
+	/**
+	 * Initialize the benchmark JAMWiki instance and load the topics for the
+	 * selected corpus.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		List<BenchmarkTopic> allTopics = BenchmarkEnvironment.initialize();
+		if (CORPUS_LARGE.equals(this.corpus)) {
+			this.topics = new ArrayList<BenchmarkTopic>();
+			this.topics.add(new BenchmarkTopic(BenchmarkEnvironment.LARGE_ARTICLE_NAME, BenchmarkEnvironment.buildLargeArticle(LARGE_ARTICLE_SECTIONS)));
+		} else {
+			this.topics = allTopics;
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void editComment(Blackhole blackhole) throws ParserException {
+		for (BenchmarkTopic topic : this.topics) {
+			ParserInput parserInput = BenchmarkEnvironment.parserInput(topic.getTopicName());
+			for (String comment : EDIT_COMMENTS) {
+				blackhole.consume(this.parser.parseEditComment(parserInput, new ParserOutput(), comment));
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void postprocess(Blackhole blackhole) throws ParserException {
+		for (BenchmarkTopic topic : this.topics) {
+			ParserInput parserInput = BenchmarkEnvironment.parserInput(topic.getTopicName());
+			blackhole.consume(this.parser.parseHTML(parserInput, new ParserOutput(), topic.getContents()));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void preprocess(Blackhole blackhole) throws ParserException {
+		this.parseFragments(blackhole, JFlexParser.MODE_PREPROCESS);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void process(Blackhole blackhole) throws ParserException {
+		this.parseFragments(blackhole, JFlexParser.MODE_PROCESS);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void slice(Blackhole blackhole) throws ParserException {
+		for (BenchmarkTopic topic : this.topics) {
+			ParserInput parserInput = BenchmarkEnvironment.parserInput(topic.getTopicName());
+			blackhole.consume(this.parser.parseSlice(parserInput, new ParserOutput(), topic.getContents(), 1));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void splice(Blackhole blackhole) throws ParserException {
+		for (BenchmarkTopic topic : this.topics) {
+			ParserInput parserInput = BenchmarkEnvironment.parserInput(topic.getTopicName());
+			blackhole.consume(this.parser.parseSplice(parserInput, new ParserOutput(), topic.getContents(), 1, SPLICE_REPLACEMENT));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void template(Blackhole blackhole) throws ParserException {
+		this.parseFragments(blackhole, JFlexParser.MODE_TEMPLATE);
+	}
+
+	/**
+	 * Parse every topic in the corpus using the specified parser mode.  A new
+	 * ParserInput is used for each topic so that per-parse caches such as link
+	 * resolution are included in the measurement.
+	 */
+	private void parseFragments(Blackhole blackhole, int mode) throws ParserException {
+		for (BenchmarkTopic topic : this.topics) {
+			ParserInput parserInput = BenchmarkEnvironment.parserInput(topic.getTopicName());
+			blackhole.consume(this.parser.parseFragment(parserInput, new ParserOutput(), topic.getContents(), mode));
+		}
+	}
+}
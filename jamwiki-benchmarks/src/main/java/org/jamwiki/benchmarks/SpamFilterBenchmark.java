@@ -0,0 +1,159 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.web.utils.MultiPatternMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks comparing the spam filter {@link MultiPatternMatcher} with a
+ * single java.util.regex alternation of all blacklist entries, which is how
+ * the spam filter previously worked.  Both matchers are run against a large
+ * synthetic article that does not contain spam, so every pattern must be
+ * checked against the entire text.
+ *
+ * The <code>extraEntries</code> parameter adds generated blacklist entries
+ * (mostly domain names, with some regular expressions) to the default
+ * blacklist to simulate a wiki with a large blacklist.  The
+ * <code>compileAlternation</code> and <code>compileMatcher</code> benchmarks
+ * measure the cost of loading the blacklist.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpamFilterBenchmark {
+
+	/** System property that can be used to specify the spam blacklist file. */
+	public static final String PROP_BLACKLIST_FILE = "jamwiki.benchmarks.blacklist";
+	private static final String[] BLACKLIST_FILE_CANDIDATES = {
+		"../jamwiki-war/src/main/resources/setup/spam-blacklist.txt",
+		"jamwiki-war/src/main/resources/setup/spam-blacklist.txt"
+	};
+	private static final int LARGE_ARTICLE_SECTIONS = 300;
+
+	@Param({"0", "5000"})
+	public int extraEntries;
+	private Pattern alternation;
+	private String content;
+	private MultiPatternMatcher matcher;
+	private List<String> patterns;
+
+	/**
+	 * Load the blacklist, add generated entries, and compile both matchers.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		this.patterns = new ArrayList<String>(Arrays.asList(FileUtils.readFileToString(this.retrieveBlacklistFile(), "UTF-8").trim().split("\n")));
+		for (int i = 0; i < this.extraEntries; i++) {
+			if (i % 10 == 0) {
+				this.patterns.add("spam[ \\-_\\.]?site" + i + "[0-9]*\\.(com|net|org)");
+			} else {
+				this.patterns.add("spam-domain-" + i + "\\.example\\.com");
+			}
+		}
+		this.alternation = this.compileAlternation();
+		this.matcher = this.compileMatcher();
+		this.content = BenchmarkEnvironment.buildLargeArticle(LARGE_ARTICLE_SECTIONS);
+		if (this.alternation.matcher(this.content).find() || this.matcher.find(this.content) != null) {
+			throw new IllegalStateException("Benchmark content should not match the spam blacklist");
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public Pattern compileAlternation() {
+		StringBuilder regex = new StringBuilder();
+		for (String pattern : this.patterns) {
+			if (StringUtils.isBlank(pattern)) {
+				continue;
+			}
+			if (regex.length() > 0) {
+				regex.append('|');
+			}
+			regex.append(pattern.trim());
+		}
+		return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public MultiPatternMatcher compileMatcher() {
+		return new MultiPatternMatcher(this.patterns);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public String findAlternation() {
+		Matcher m = this.alternation.matcher(this.content);
+		return (m.find()) ? m.group(0) : null;
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public String findMatcher() {
+		return this.matcher.find(this.content);
+	}
+
+	/**
+	 *
+	 */
+	private File retrieveBlacklistFile() throws IOException {
+		String blacklistFile = System.getProperty(PROP_BLACKLIST_FILE);
+		if (!StringUtils.isBlank(blacklistFile)) {
+			return new File(blacklistFile);
+		}
+		for (String candidate : BLACKLIST_FILE_CANDIDATES) {
+			File file = new File(candidate);
+			if (file.isFile()) {
+				return file;
+			}
+		}
+		throw new IOException("Unable to find the spam blacklist file; specify it using -D" + PROP_BLACKLIST_FILE);
+	}
+}
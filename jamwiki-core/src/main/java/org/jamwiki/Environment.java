@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 // FIXME - remove this import
@@ -65,6 +66,8 @@ public class Environment {
 	public static final String PROP_DBCP_TEST_WHILE_IDLE = "dbcp-test-while-idle";
 	public static final String PROP_DBCP_TIME_BETWEEN_EVICTION_RUNS = "dbcp-time-between-eviction-runs";
 	public static final String PROP_DBCP_WHEN_EXHAUSTED_ACTION = "dbcp-when-exhausted-action";
+	public static final String PROP_DIFF_ENGINE = "diff-engine";
+	public static final String PROP_DIFF_WORD_LEVEL = "diff-word-level";
 	public static final String PROP_EMAIL_SMTP_ENABLE = "smtp-enable";
 	public static final String PROP_EMAIL_SMTP_REQUIRES_AUTH = "smtp-authentication";
 	public static final String PROP_EMAIL_SMTP_USERNAME = "smtp-username";
@@ -92,8 +95,12 @@ public class Environment {
 	public static final String PROP_HONEYPOT_ACCESS_KEY = "honeypot-access-key";
 	public static final String PROP_HONEYPOT_FILTER_ENABLED = "honeypot-enabled";
 	public static final String PROP_IMAGE_RESIZE_INCREMENT = "image-resize-increment";
+	public static final String PROP_IMAGE_RESIZE_PREGENERATE_WIDTHS = "image-resize-pregenerate-widths";
+	public static final String PROP_IMAGE_RESIZE_THREADS = "image-resize-threads";
 	public static final String PROP_MAX_RECENT_CHANGES = "max-recent-changes";
 	public static final String PROP_MAX_TOPIC_VERSION_EXPORT = "max-topic-version-export";
+	public static final String PROP_METRICS_PROMETHEUS_ADDRESSES = "metrics-prometheus-addresses";
+	public static final String PROP_METRICS_PROMETHEUS_TOKEN = "metrics-prometheus-token";
 	public static final String PROP_PARSER_ALLOW_CAPITALIZATION = "allow-capitalization";
 	public static final String PROP_PARSER_ALLOW_HTML = "allowHTML";
 	public static final String PROP_PARSER_ALLOW_JAVASCRIPT = "allow-javascript";
@@ -128,13 +135,17 @@ public class Environment {
 	public static final String PROP_RECENT_CHANGES_NUM = "recent-changes-days";
 	public static final String PROP_RSS_ALLOWED = "rss-allowed";
 	public static final String PROP_RSS_TITLE = "rss-title";
+	public static final String PROP_SEARCH_INDEX_ASYNCHRONOUS = "search-index-asynchronous";
 	public static final String PROP_SERVER_URL = "server-url";
 	public static final String PROP_SHARED_UPLOAD_VIRTUAL_WIKI = "shared-upload-virtual-wiki";
 	public static final String PROP_SITE_NAME = "site-name";
 	public static final String PROP_TOPIC_EDITOR = "default-editor";
+	public static final String PROP_TOPIC_METADATA_REBUILD_THREADS = "topic-metadata-rebuild-threads";
 	public static final String PROP_TOPIC_SPAM_FILTER = "use-spam-filter";
 	public static final String PROP_TOPIC_USE_PREVIEW = "use-preview";
 	public static final String PROP_TOPIC_USE_SHOW_CHANGES = "use-show-changes";
+	public static final String PROP_TOPIC_VERSION_DELTA_STORAGE = "topic-version-delta-storage";
+	public static final String PROP_TOPIC_VERSION_KEYFRAME_INTERVAL = "topic-version-keyframe-interval";
 	public static final String PROP_VIRTUAL_WIKI_DEFAULT = "virtual-wiki-default";
 	// Lookup properties file location from system properties first.
 	private static final String PROPERTY_FILE_NAME = System.getProperty("jamwiki.property.file", "jamwiki.properties");
@@ -154,6 +165,8 @@ public class Environment {
 	public static final String PROP_ROLE_REGISTER = "role-register";
 
 	private static Environment ENVIRONMENT_INSTANCE = null;
+	/** Incremented each time the configuration is saved. */
+	private static final AtomicLong CONFIGURATION_REVISION = new AtomicLong(System.currentTimeMillis());
 	private Properties defaults = null;
 	private SortedProperties props = null;
 
@@ -239,6 +252,8 @@ public class Environment {
 		this.defaults.setProperty(PROP_DBCP_TEST_WHILE_IDLE, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_DBCP_TIME_BETWEEN_EVICTION_RUNS, "120");
 		this.defaults.setProperty(PROP_DBCP_WHEN_EXHAUSTED_ACTION, String.valueOf(GenericObjectPool.WHEN_EXHAUSTED_GROW));
+		this.defaults.setProperty(PROP_DIFF_ENGINE, "org.jamwiki.web.utils.MyersDiffEngine");
+		this.defaults.setProperty(PROP_DIFF_WORD_LEVEL, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_EMAIL_SMTP_ENABLE,Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_EMAIL_SMTP_REQUIRES_AUTH,Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_EMAIL_SMTP_USERNAME,"");
@@ -267,8 +282,15 @@ public class Environment {
 		this.defaults.setProperty(PROP_HONEYPOT_ACCESS_KEY, "");
 		this.defaults.setProperty(PROP_HONEYPOT_FILTER_ENABLED, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_IMAGE_RESIZE_INCREMENT, "100");
+		// comma-separated list of image widths to generate when a new image is uploaded
+		this.defaults.setProperty(PROP_IMAGE_RESIZE_PREGENERATE_WIDTHS, "120,220");
+		// resized images are generated in the background unless this value is zero
+		this.defaults.setProperty(PROP_IMAGE_RESIZE_THREADS, "2");
 		this.defaults.setProperty(PROP_MAX_RECENT_CHANGES, "10000");
 		this.defaults.setProperty(PROP_MAX_TOPIC_VERSION_EXPORT, "1000");
+		// comma-separated list of addresses that may retrieve Prometheus metrics without a token
+		this.defaults.setProperty(PROP_METRICS_PROMETHEUS_ADDRESSES, "127.0.0.1,0:0:0:0:0:0:0:1");
+		this.defaults.setProperty(PROP_METRICS_PROMETHEUS_TOKEN, "");
 		this.defaults.setProperty(PROP_PARSER_ALLOW_CAPITALIZATION, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_PARSER_ALLOW_HTML, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_PARSER_ALLOW_JAVASCRIPT, Boolean.FALSE.toString());
@@ -299,14 +321,18 @@ public class Environment {
 		this.defaults.setProperty(PROP_RECENT_CHANGES_NUM, "100");
 		this.defaults.setProperty(PROP_RSS_ALLOWED, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_RSS_TITLE, "Wiki Recent Changes");
+		this.defaults.setProperty(PROP_SEARCH_INDEX_ASYNCHRONOUS, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_SERVER_URL, "");
 		this.defaults.setProperty(PROP_SHARED_UPLOAD_VIRTUAL_WIKI, "");
 		this.defaults.setProperty(PROP_SITE_NAME, "JAMWiki");
 		// FIXME - hard coding
 		this.defaults.setProperty(PROP_TOPIC_EDITOR, "toolbar");
+		this.defaults.setProperty(PROP_TOPIC_METADATA_REBUILD_THREADS, "4");
 		this.defaults.setProperty(PROP_TOPIC_SPAM_FILTER, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_TOPIC_USE_PREVIEW, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_TOPIC_USE_SHOW_CHANGES, Boolean.TRUE.toString());
+		this.defaults.setProperty(PROP_TOPIC_VERSION_DELTA_STORAGE, Boolean.FALSE.toString());
+		this.defaults.setProperty(PROP_TOPIC_VERSION_KEYFRAME_INTERVAL, "20");
 		this.defaults.setProperty(PROP_VIRTUAL_WIKI_DEFAULT, "en");
 		this.defaults.setProperty(PROP_ROLE_ADMIN, "ROLE_ADMIN");
 		this.defaults.setProperty(PROP_ROLE_ANONYMOUS, "ROLE_ANONYMOUS");
@@ -336,6 +362,17 @@ public class Environment {
 		return Boolean.valueOf(getValue(name));
 	}
 
+	/**
+	 * Return a value that changes each time the configuration is saved.  This
+	 * value can be used to determine whether output generated using an earlier
+	 * configuration is still current.
+	 *
+	 * @return The current configuration revision.
+	 */
+	public static long getConfigurationRevision() {
+		return CONFIGURATION_REVISION.get();
+	}
+
 	/**
 	 * Return an instance of the current properties object.  The property instance
 	 * returned should not be directly modified.
@@ -493,6 +530,7 @@ public class Environment {
 			// do not use WikiBase.getDataHandler() directly since properties are
 			// being changed
 			WikiBase.getDataHandler().writeConfiguration(propertiesToMap(getInstance()));
+			CONFIGURATION_REVISION.incrementAndGet();
 		} catch (IOException e) {
 			throw new WikiException(new WikiMessage("error.unknown", e.getMessage()));
 		} catch (DataAccessException e) {
@@ -22,11 +22,16 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.Environment;
@@ -51,6 +56,7 @@ import org.jamwiki.model.Watchlist;
 import org.jamwiki.model.WikiFile;
 import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiGroup;
+import org.jamwiki.model.WikiImageMetadata;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.model.WikiUserDetails;
 import org.jamwiki.parser.LinkUtil;
@@ -60,6 +66,7 @@ import org.jamwiki.parser.ParserUtil;
 import org.jamwiki.utils.Encryption;
 import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.ResourceUtil;
+import org.jamwiki.utils.TextDelta;
 import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
@@ -72,6 +79,8 @@ public class AnsiDataHandler {
 
 	/** Any topic lookup that takes longer than the specified time (in ms) will trigger a log message. */
 	private static final int TIME_LIMIT_TOPIC_LOOKUP = 20;
+	/** Cache image metadata by the relative URL of the image file version. */
+	private static final WikiCache<String, WikiImageMetadata> CACHE_IMAGE_METADATA = new WikiCache<String, WikiImageMetadata>("org.jamwiki.db.AnsiDataHandler.CACHE_IMAGE_METADATA");
 	private static final WikiCache<String, List<Interwiki>> CACHE_INTERWIKI_LIST = new WikiCache<String, List<Interwiki>>("org.jamwiki.db.AnsiDataHandler.CACHE_INTERWIKI_LIST");
 	private static final WikiCache<String, List<Namespace>> CACHE_NAMESPACE_LIST = new WikiCache<String, List<Namespace>>("org.jamwiki.db.AnsiDataHandler.CACHE_NAMESPACE_LIST");
 	private static final WikiCache<String, List<RoleMap>> CACHE_ROLE_MAP_GROUP = new WikiCache<String, List<RoleMap>>("org.jamwiki.db.AnsiDataHandler.CACHE_ROLE_MAP_GROUP");
@@ -109,6 +118,40 @@ public class AnsiDataHandler {
 
 	protected final QueryHandler queryHandler;
 	protected AnsiDataValidator dataValidator = new AnsiDataValidator();
+	/**
+	 * Filter of all topic names (including deleted topics) for each virtual wiki,
+	 * used to quickly determine that a topic does not exist.
+	 */
+	private final TopicNameStoreManager<TopicNameFilter> topicNameFilters = new TopicNameStoreManager<TopicNameFilter>("topic name filter") {
+		protected TopicNameFilter create(int virtualWikiId, TopicNameFilter existing) throws DataAccessException, SQLException {
+			int expectedEntries = queryHandler().lookupTopicCount(virtualWikiId, 0, findMaxNamespaceId());
+			if (existing != null) {
+				expectedEntries = Math.max(expectedEntries, existing.size());
+			}
+			return new TopicNameFilter(expectedEntries);
+		}
+		protected int lookupVirtualWikiId(String virtualWiki) throws DataAccessException {
+			return AnsiDataHandler.this.lookupVirtualWikiId(virtualWiki);
+		}
+		protected void populate(int virtualWikiId, TopicNameFilter topicNameFilter) throws SQLException {
+			queryHandler().populateTopicNameFilter(virtualWikiId, topicNameFilter);
+		}
+	};
+	/**
+	 * Index of all non-deleted topic names for each virtual wiki, used to
+	 * suggest topic names matching a prefix.
+	 */
+	private final TopicNameStoreManager<TopicNameIndex> topicNameIndexes = new TopicNameStoreManager<TopicNameIndex>("topic name index") {
+		protected TopicNameIndex create(int virtualWikiId, TopicNameIndex existing) {
+			return new TopicNameIndex();
+		}
+		protected int lookupVirtualWikiId(String virtualWiki) throws DataAccessException {
+			return AnsiDataHandler.this.lookupVirtualWikiId(virtualWiki);
+		}
+		protected void populate(int virtualWikiId, TopicNameIndex topicNameIndex) throws SQLException {
+			queryHandler().populateTopicNameIndex(virtualWikiId, topicNameIndex);
+		}
+	};
 
 	/**
 	 *
@@ -187,20 +230,7 @@ public class AnsiDataHandler {
 	 *
 	 */
 	private void addTopicLinks(List<String> links, String virtualWiki, int topicId, Connection conn) throws DataAccessException {
-		// strip any links longer than 200 characters and any duplicates
-		Map<String, Topic> linksMap = new HashMap<String, Topic>();
-		for (String link : links) {
-			if (link.length() <= 200) {
-				Namespace namespace = LinkUtil.retrieveTopicNamespace(virtualWiki, link);
-				String pageName = LinkUtil.retrieveTopicPageName(namespace, virtualWiki, link);
-				// FIXE - link to records are always capitalized, which will cause problems for the
-				// rare case of two topics such as "eBay" and "EBay".
-				pageName = StringUtils.capitalize(pageName);
-				Topic topic = new Topic(virtualWiki, namespace, pageName);
-				linksMap.put(topic.getName(), topic);
-			}
-		}
-		List<Topic> topicLinks = new ArrayList<Topic>(linksMap.values());
+		List<Topic> topicLinks = this.buildTopicLinkRecords(links, virtualWiki);
 		try {
 			this.queryHandler().insertTopicLinks(topicLinks, topicId, conn);
 		} catch (SQLException e) {
@@ -208,6 +238,18 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	private void addTopicTemplates(List<String> templates, String virtualWiki, int topicId, Connection conn) throws DataAccessException {
+		List<Topic> topicTemplates = this.buildTopicLinkRecords(templates, virtualWiki);
+		try {
+			this.queryHandler().insertTopicTemplates(topicTemplates, topicId, conn);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -375,6 +417,34 @@ public class AnsiDataHandler {
 		return cacheKey.toString();
 	}
 
+	/**
+	 * Convert a list of topic names into a list of Topic objects suitable for
+	 * use when writing link or template association records.  Names longer than
+	 * 200 characters and duplicates are stripped.
+	 */
+	private List<Topic> buildTopicLinkRecords(List<String> topicNames, String virtualWiki) {
+		Map<String, Topic> linksMap = new HashMap<String, Topic>();
+		for (String topicName : topicNames) {
+			if (topicName.length() <= 200) {
+				Topic topic = this.buildTopicLinkRecord(virtualWiki, topicName);
+				linksMap.put(topic.getName(), topic);
+			}
+		}
+		return new ArrayList<Topic>(linksMap.values());
+	}
+
+	/**
+	 *
+	 */
+	private Topic buildTopicLinkRecord(String virtualWiki, String topicName) {
+		Namespace namespace = LinkUtil.retrieveTopicNamespace(virtualWiki, topicName);
+		String pageName = LinkUtil.retrieveTopicPageName(namespace, virtualWiki, topicName);
+		// FIXE - link to records are always capitalized, which will cause problems for the
+		// rare case of two topics such as "eBay" and "EBay".
+		pageName = StringUtils.capitalize(pageName);
+		return new Topic(virtualWiki, namespace, pageName);
+	}
+
 	/**
 	 * Call this method whenever a topic is updated to update all relevant caches
 	 * for the topic.
@@ -391,6 +461,7 @@ public class AnsiDataHandler {
 		String key = this.cacheTopicKey(topic.getVirtualWiki(), topic.getNamespace(), topic.getPageName());
 		boolean useAltKey = (altKey != null && !key.equals(altKey));
 		if (removeExisting) {
+			RequestDataContext.invalidate();
 			// because some topics may be cached in a case-insensitive manner remove
 			// all possible cache keys for the topic, regardless of case
 			WikiBase.CACHE_PARSED_TOPIC_CONTENT.removeFromCacheCaseInsensitive(key);
@@ -405,6 +476,7 @@ public class AnsiDataHandler {
 				CACHE_TOPIC_IDS_BY_NAME.removeFromCacheCaseInsensitive(altKey);
 			}
 		}
+		this.addToTopicNameFilter(topic);
 		if (topic.getDeleteDate() == null) {
 			// topic name cache does not include deleted topics
 			CACHE_TOPIC_NAMES_BY_NAME.addToCache(key, topic.getName());
@@ -419,6 +491,22 @@ public class AnsiDataHandler {
 		CACHE_TOPICS_BY_ID.addToCache(topic.getTopicId(), new Topic(topic));
 	}
 
+	/**
+	 * Add a topic to the topic name filter for its virtual wiki, if a filter has
+	 * been created.
+	 */
+	private void addToTopicNameFilter(Topic topic) {
+		this.topicNameFilters.update(topic.getVirtualWiki(), topic.getTopicId(), topic.getNamespace().getId(), topic.getPageName(), topic.getName(), topic.getDeleteDate() != null);
+	}
+
+	/**
+	 * Update the topic name index for the topic's virtual wiki, if an index
+	 * has been created.
+	 */
+	private void updateTopicNameIndex(Topic topic) {
+		this.topicNameIndexes.update(topic.getVirtualWiki(), topic.getTopicId(), topic.getNamespace().getId(), topic.getPageName(), topic.getName(), topic.getDeleteDate() != null);
+	}
+
 	/**
 	 * Determine if a topic can be moved to a new location.  If the
 	 * destination is not an existing topic, is a topic that has been deleted,
@@ -448,6 +536,61 @@ public class AnsiDataHandler {
 		return false;
 	}
 
+	/**
+	 * Re-write the stored content of every version of a topic using the current
+	 * topic version storage settings.  If delta storage is enabled then older
+	 * versions are converted to deltas against the next newer version (except
+	 * for keyframes), otherwise all versions are converted to full text.  Versions
+	 * are read directly from the database rather than through the topic version
+	 * cache so that converting a large wiki does not flush the cache.
+	 *
+	 * @param topic The topic whose versions are being converted.
+	 * @return The number of topic versions whose stored content was changed.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public int convertTopicVersionStorage(Topic topic) throws DataAccessException {
+		boolean deltaStorage = Environment.getBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE);
+		int numConverted = 0;
+		TransactionStatus status = null;
+		try {
+			status = DatabaseConnection.startTransaction();
+			Connection conn = DatabaseConnection.getConnection();
+			List<Integer> topicVersionIds = this.queryHandler().lookupTopicVersionIds(topic.getTopicId(), conn);
+			// work from newest to oldest so that each delta base has already been processed
+			Integer newerTopicVersionId = null;
+			String newerVersionContent = null;
+			for (int i = topicVersionIds.size() - 1; i >= 0; i--) {
+				int topicVersionId = topicVersionIds.get(i);
+				TopicVersion storedTopicVersion = this.queryHandler().lookupTopicVersion(topicVersionId, conn);
+				String versionContent = this.reconstructTopicVersionContent(storedTopicVersion, newerTopicVersionId, newerVersionContent, conn);
+				String storedContent = versionContent;
+				Integer deltaBaseTopicVersionId = null;
+				if (deltaStorage && newerTopicVersionId != null && !this.isTopicVersionKeyframe(i + 1)) {
+					String delta = TextDelta.encode(newerVersionContent, versionContent);
+					if (delta.length() < versionContent.length()) {
+						storedContent = delta;
+						deltaBaseTopicVersionId = newerTopicVersionId;
+					}
+				}
+				boolean deltaBaseChanged = (deltaBaseTopicVersionId == null) ? (storedTopicVersion.getDeltaBaseTopicVersionId() != null) : !deltaBaseTopicVersionId.equals(storedTopicVersion.getDeltaBaseTopicVersionId());
+				if (deltaBaseChanged || !storedContent.equals(StringUtils.defaultString(storedTopicVersion.getVersionContent()))) {
+					this.queryHandler().updateTopicVersionContent(topicVersionId, storedContent, deltaBaseTopicVersionId, conn);
+					numConverted++;
+				}
+				newerTopicVersionId = topicVersionId;
+				newerVersionContent = versionContent;
+			}
+		} catch (DataAccessException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			throw e;
+		} catch (SQLException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			throw new DataAccessException(e);
+		}
+		DatabaseConnection.commit(status);
+		return numConverted;
+	}
+
 	/**
 	 * Delete an interwiki record from the interwiki table.
 	 *
@@ -467,6 +610,31 @@ public class AnsiDataHandler {
 		CACHE_INTERWIKI_LIST.removeAllFromCache();
 	}
 
+	/**
+	 * Remove entries from the search index queue once the corresponding topics
+	 * have been indexed.  An entry is only removed if its topic version still
+	 * matches the indexed version, so a newer edit queued in the meantime will
+	 * remain queued.
+	 *
+	 * @param entries A map of topic ID to indexed topic version ID, as returned
+	 *  by {@link #getSearchIndexQueue(int)}.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public void deleteSearchIndexQueue(Map<Integer, Integer> entries) throws DataAccessException {
+		TransactionStatus status = null;
+		try {
+			status = DatabaseConnection.startTransaction();
+			Connection conn = DatabaseConnection.getConnection();
+			for (Map.Entry<Integer, Integer> entry : entries.entrySet()) {
+				this.queryHandler().deleteSearchIndexQueue(entry.getKey(), entry.getValue(), conn);
+			}
+		} catch (SQLException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			throw new DataAccessException(e);
+		}
+		DatabaseConnection.commit(status);
+	}
+
 	/**
 	 *
 	 */
@@ -506,7 +674,7 @@ public class AnsiDataHandler {
 			// should be empty since no links or categories to update.
 			ParserOutput parserOutput = new ParserOutput();
 			topic.setDeleteDate(new Timestamp(System.currentTimeMillis()));
-			this.writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
+			this.writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks(), parserOutput.getTemplates());
 		} catch (DataAccessException e) {
 			DatabaseConnection.rollbackOnException(status, e);
 			throw e;
@@ -542,6 +710,17 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	private void deleteTopicTemplates(int topicId, Connection conn) throws DataAccessException {
+		try {
+			this.queryHandler().deleteTopicTemplates(topicId, conn);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -919,6 +1098,27 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Return topics that have been modified but not yet added to the search
+	 * index, oldest first.
+	 *
+	 * @param limit The maximum number of entries to return.
+	 * @return A map of topic ID to the topic version ID that was queued for
+	 *  indexing.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public Map<Integer, Integer> getSearchIndexQueue(int limit) throws DataAccessException {
+		Connection conn = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			return this.queryHandler().getSearchIndexQueue(limit, conn);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		} finally {
+			DatabaseConnection.closeConnection(conn);
+		}
+	}
+
 	/**
 	 * Return a map of all active user blocks, where the key is the ip or user id
 	 * of the blocked user and the value is the UserBlock object.
@@ -991,21 +1191,28 @@ public class AnsiDataHandler {
 	 * @throws DataAccessException Thrown if any error occurs during method execution.
 	 */
 	public List<VirtualWiki> getVirtualWikiList() throws DataAccessException {
-		List<VirtualWiki> virtualWikis = CACHE_VIRTUAL_WIKI_LIST.retrieveFromCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName());
-		if (virtualWikis != null || CACHE_VIRTUAL_WIKI_LIST.isKeyInCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName())) {
+		RequestDataContext context = RequestDataContext.current();
+		List<VirtualWiki> virtualWikis = (context != null) ? context.getVirtualWikis() : null;
+		if (virtualWikis != null) {
 			return virtualWikis;
 		}
-		virtualWikis = new ArrayList<VirtualWiki>();
-		Connection conn = null;
-		try {
-			conn = DatabaseConnection.getConnection();
-			virtualWikis = this.queryHandler().getVirtualWikis(conn);
-		} catch (SQLException e) {
-			throw new DataAccessException(e);
-		} finally {
-			DatabaseConnection.closeConnection(conn);
+		virtualWikis = CACHE_VIRTUAL_WIKI_LIST.retrieveFromCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName());
+		if (virtualWikis == null && !CACHE_VIRTUAL_WIKI_LIST.isKeyInCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName())) {
+			RequestDataContext.recordDatabaseLookup(RequestDataContext.LOOKUP_VIRTUAL_WIKIS);
+			Connection conn = null;
+			try {
+				conn = DatabaseConnection.getConnection();
+				virtualWikis = this.queryHandler().getVirtualWikis(conn);
+			} catch (SQLException e) {
+				throw new DataAccessException(e);
+			} finally {
+				DatabaseConnection.closeConnection(conn);
+			}
+			CACHE_VIRTUAL_WIKI_LIST.addToCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName(), virtualWikis);
+		}
+		if (context != null) {
+			context.putVirtualWikis(virtualWikis);
 		}
-		CACHE_VIRTUAL_WIKI_LIST.addToCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName(), virtualWikis);
 		return virtualWikis;
 	}
 
@@ -1051,6 +1258,42 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Keyframe versions are always stored with their full text so that the
+	 * number of deltas that must be applied to re-create any version is bounded.
+	 */
+	private boolean isTopicVersionKeyframe(int ordinal) {
+		int keyframeInterval = Environment.getIntValue(Environment.PROP_TOPIC_VERSION_KEYFRAME_INTERVAL);
+		return (keyframeInterval > 0 && ordinal % keyframeInterval == 0);
+	}
+
+	/**
+	 * Return <code>true</code> if a full text topic version is preceded by a run
+	 * of deltas that is one less than the keyframe interval long, in which case
+	 * the version must be kept as a keyframe.  Only the versions in the run are
+	 * read, so the cost is bounded by the keyframe interval rather than by the
+	 * length of the topic history.
+	 */
+	private boolean isTopicVersionDeltaRunComplete(TopicVersion topicVersion, Connection conn) throws SQLException {
+		int keyframeInterval = Environment.getIntValue(Environment.PROP_TOPIC_VERSION_KEYFRAME_INTERVAL);
+		if (keyframeInterval <= 0) {
+			return false;
+		}
+		TopicVersion newerTopicVersion = topicVersion;
+		for (int runLength = 0; runLength < keyframeInterval - 1; runLength++) {
+			Integer olderTopicVersionId = newerTopicVersion.getPreviousTopicVersionId();
+			if (olderTopicVersionId == null) {
+				return false;
+			}
+			TopicVersion olderTopicVersion = this.queryHandler().lookupTopicVersion(olderTopicVersionId, conn);
+			if (olderTopicVersion == null || olderTopicVersion.getTopicId() != topicVersion.getTopicId() || !Integer.valueOf(newerTopicVersion.getTopicVersionId()).equals(olderTopicVersion.getDeltaBaseTopicVersionId())) {
+				return false;
+			}
+			newerTopicVersion = olderTopicVersion;
+		}
+		return true;
+	}
+
 	/**
 	 * Retrieve a List of Category objects corresponding to all topics
 	 * that belong to the category, sorted by either the topic name, or
@@ -1088,6 +1331,68 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Retrieve the stored metadata for an image file version.  The returned
+	 * object may be shared with other threads and must not be modified.
+	 *
+	 * @param url The relative URL of the image file version.  See
+	 *  {@link org.jamwiki.model.WikiFileVersion#getUrl}.
+	 * @return The image metadata for the file version, or <code>null</code> if
+	 *  no metadata has been stored for the file version.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public WikiImageMetadata lookupImageMetadata(String url) throws DataAccessException {
+		if (StringUtils.isBlank(url)) {
+			return null;
+		}
+		WikiImageMetadata imageMetadata = CACHE_IMAGE_METADATA.retrieveFromCache(url);
+		if (imageMetadata != null || CACHE_IMAGE_METADATA.isKeyInCache(url)) {
+			return imageMetadata;
+		}
+		Connection conn = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			imageMetadata = this.queryHandler().lookupImageMetadata(url, conn);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		} finally {
+			DatabaseConnection.closeConnection(conn);
+		}
+		CACHE_IMAGE_METADATA.addToCache(url, imageMetadata);
+		return imageMetadata;
+	}
+
+	/**
+	 * Retrieve the stored metadata for the current versions of a group of
+	 * images using as few queries as possible, adding the results to the
+	 * image metadata cache.  This method is intended to be used when a page
+	 * containing many images is rendered.
+	 *
+	 * @param virtualWiki The virtual wiki for the images being retrieved.
+	 * @param pageNames The page names (topic names without the file namespace)
+	 *  of the images being retrieved.
+	 * @return A map of page name and image metadata.  Page names that do not
+	 *  correspond to an image with stored metadata, such as images in a shared
+	 *  virtual wiki, are not included in the map.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public Map<String, WikiImageMetadata> lookupImageMetadata(String virtualWiki, Collection<String> pageNames) throws DataAccessException {
+		if (StringUtils.isBlank(virtualWiki) || pageNames.isEmpty()) {
+			return new HashMap<String, WikiImageMetadata>();
+		}
+		Map<String, WikiImageMetadata> results;
+		try {
+			int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+			results = this.queryHandler().lookupImageMetadata(virtualWikiId, pageNames);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+		for (WikiImageMetadata imageMetadata : results.values()) {
+			CACHE_IMAGE_METADATA.addToCache(imageMetadata.getUrl(), imageMetadata);
+		}
+		return results;
+	}
+
 	/**
 	 * Given an interwiki prefix, return the Interwiki that corresponds to that prefix,
 	 * or <code>null</code> if no match exists.
@@ -1186,22 +1491,30 @@ public class AnsiDataHandler {
 	 * @throws DataAccessException Thrown if any error occurs during method execution.
 	 */
 	public List<Namespace> lookupNamespaces() throws DataAccessException {
-		// first check the cache
-		List<Namespace> namespaces = CACHE_NAMESPACE_LIST.retrieveFromCache(CACHE_NAMESPACE_LIST.getCacheName());
-		if (namespaces != null || CACHE_NAMESPACE_LIST.isKeyInCache(CACHE_NAMESPACE_LIST.getCacheName())) {
+		// first check the request context and cache
+		RequestDataContext context = RequestDataContext.current();
+		List<Namespace> namespaces = (context != null) ? context.getNamespaces() : null;
+		if (namespaces != null) {
 			return namespaces;
 		}
-		// if not in the cache, go to the database
-		Connection conn = null;
-		try {
-			conn = DatabaseConnection.getConnection();
-			namespaces = this.queryHandler().lookupNamespaces(conn);
-		} catch (SQLException e) {
-			throw new DataAccessException(e);
-		} finally {
-			DatabaseConnection.closeConnection(conn);
+		namespaces = CACHE_NAMESPACE_LIST.retrieveFromCache(CACHE_NAMESPACE_LIST.getCacheName());
+		if (namespaces == null && !CACHE_NAMESPACE_LIST.isKeyInCache(CACHE_NAMESPACE_LIST.getCacheName())) {
+			// if not in the cache, go to the database
+			RequestDataContext.recordDatabaseLookup(RequestDataContext.LOOKUP_NAMESPACES);
+			Connection conn = null;
+			try {
+				conn = DatabaseConnection.getConnection();
+				namespaces = this.queryHandler().lookupNamespaces(conn);
+			} catch (SQLException e) {
+				throw new DataAccessException(e);
+			} finally {
+				DatabaseConnection.closeConnection(conn);
+			}
+			CACHE_NAMESPACE_LIST.addToCache(CACHE_NAMESPACE_LIST.getCacheName(), namespaces);
+		}
+		if (context != null) {
+			context.putNamespaces(namespaces);
 		}
-		CACHE_NAMESPACE_LIST.addToCache(CACHE_NAMESPACE_LIST.getCacheName(), namespaces);
 		return namespaces;
 	}
 
@@ -1260,6 +1573,32 @@ public class AnsiDataHandler {
 	 *
 	 */
 	private Topic lookupTopic(String virtualWiki, Namespace namespace, String pageName, boolean deleteOK, Connection conn) throws DataAccessException {
+		// the request context is not used during transactions for the same reasons
+		// that the cache is not used
+		RequestDataContext context = (conn == null) ? RequestDataContext.current() : null;
+		if (context == null || namespace == null || StringUtils.isBlank(virtualWiki)) {
+			return this.retrieveTopic(virtualWiki, namespace, pageName, deleteOK, conn);
+		}
+		// deleted topics are filtered from results, so deleteOK is part of the key
+		String key = this.cacheTopicKey(virtualWiki, namespace, pageName) + ((deleteOK) ? "#deleteOK" : "");
+		if (!context.containsTopic(key)) {
+			Topic topic = this.retrieveTopic(virtualWiki, namespace, pageName, deleteOK, conn);
+			context.putTopic(key, (topic == null) ? null : new Topic(topic));
+			return topic;
+		}
+		Topic topic = context.getTopic(key);
+		return (topic == null) ? null : new Topic(topic);
+	}
+
+	/**
+	 * Retrieve a topic from the cache or, if not cached, from the database.
+	 */
+	private Topic retrieveTopic(String virtualWiki, Namespace namespace, String pageName, boolean deleteOK, Connection conn) throws DataAccessException {
+		if (conn == null && !this.isPossibleTopic(virtualWiki, namespace, pageName)) {
+			// skip the filter during transactions since the topic may have been added
+			// as part of the transaction
+			return null;
+		}
 		long start = System.currentTimeMillis();
 		String key = this.cacheTopicKey(virtualWiki, namespace, pageName);
 		if (conn == null) {
@@ -1284,6 +1623,9 @@ public class AnsiDataHandler {
 		}
 		Topic topic = null;
 		try {
+			if (conn == null) {
+				RequestDataContext.recordDatabaseLookup(RequestDataContext.LOOKUP_TOPIC);
+			}
 			int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
 			topic = this.queryHandler().lookupTopic(virtualWikiId, namespace, pageName, conn);
 			if (topic == null && Environment.getBooleanValue(Environment.PROP_PARSER_ALLOW_CAPITALIZATION)) {
@@ -1328,6 +1670,30 @@ public class AnsiDataHandler {
 		return this.lookupTopicById(topicId, null);
 	}
 
+	/**
+	 * Retrieve a page of non-deleted topics from a virtual wiki, ordered by
+	 * topic ID.  Results are read directly from the database and are not
+	 * cached, making this method suitable for processing every topic in a
+	 * large wiki.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics being retrieved.
+	 * @param afterTopicId Only topics with an ID greater than this value are
+	 *  returned.  Pass the ID of the last topic from the previous page to
+	 *  retrieve the next page, or zero to retrieve the first page.
+	 * @param maxResults The maximum number of topics to return.
+	 * @return A list of topics ordered by topic ID, or an empty list if no
+	 *  further topics are available.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public List<Topic> lookupTopics(String virtualWiki, int afterTopicId, int maxResults) throws DataAccessException {
+		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+		try {
+			return this.queryHandler().lookupTopics(virtualWikiId, afterTopicId, maxResults);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -1403,6 +1769,21 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Use the topic name filter for a virtual wiki to determine whether a topic
+	 * might exist.  A return value of <code>false</code> indicates that the topic
+	 * definitely does not exist, while a return value of <code>true</code> means
+	 * that a normal lookup is required.
+	 */
+	private boolean isPossibleTopic(String virtualWiki, Namespace namespace, String pageName) {
+		if (this.useSharedVirtualWiki(virtualWiki, namespace)) {
+			// the topic may also exist in the shared virtual wiki
+			return true;
+		}
+		TopicNameFilter topicNameFilter = this.topicNameFilters.retrieve(virtualWiki);
+		return (topicNameFilter == null || topicNameFilter.mightContain(namespace.getId(), pageName));
+	}
+
 	/**
 	 * This method is used primarily to determine if a topic with a given name exists,
 	 * taking as input a topic name and virtual wiki and returning the corresponding
@@ -1422,6 +1803,9 @@ public class AnsiDataHandler {
 		if (StringUtils.isBlank(virtualWiki) || StringUtils.isBlank(pageName)) {
 			return null;
 		}
+		if (!this.isPossibleTopic(virtualWiki, namespace, pageName)) {
+			return null;
+		}
 		long start = System.currentTimeMillis();
 		String key = this.cacheTopicKey(virtualWiki, namespace, pageName);
 		String topicName = CACHE_TOPIC_NAMES_BY_NAME.retrieveFromCache(key);
@@ -1456,6 +1840,94 @@ public class AnsiDataHandler {
 		return topicName;
 	}
 
+	/**
+	 * Return the names of existing topics that begin with the given text,
+	 * ignoring case, with the most-linked topics first.  Results are served
+	 * from an in-memory index of topic names, so once the index for a virtual
+	 * wiki has been loaded this method does not query the database.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics being queried.
+	 * @param namespace If not <code>null</code> then only topics within this
+	 *  namespace are returned and the prefix is matched against the topic page
+	 *  name.  If <code>null</code> then the prefix is matched against the full
+	 *  topic name, including any namespace label.
+	 * @param prefix The text that matching topic names begin with.
+	 * @param limit The maximum number of topic names to return.  Values less
+	 *  than one are treated as one.
+	 * @return A list of matching topic names, or an empty list if no topics
+	 *  match.
+	 */
+	public List<String> lookupTopicNameSuggestions(String virtualWiki, Namespace namespace, String prefix, int limit) {
+		TopicNameIndex topicNameIndex = this.topicNameIndexes.retrieve(virtualWiki);
+		if (topicNameIndex == null) {
+			return new ArrayList<String>();
+		}
+		return topicNameIndex.suggest((namespace != null) ? namespace.getId() : null, prefix, limit);
+	}
+
+	/**
+	 * Determine which of a group of page names within a namespace correspond to
+	 * existing topics.  This method returns the same results as calling
+	 * {@link #lookupTopicName(String, Namespace, String)} for each page name, but
+	 * page names that are not cached are retrieved using a single bulk query
+	 * rather than one query per page name.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics being queried.
+	 * @param namespace The Namespace for the topics being retrieved.
+	 * @param pageNames The topic page names (topic names without the namespace)
+	 *  for the topics being retrieved.
+	 * @return A map of page name and the corresponding topic name for every
+	 *  page name in the input collection.  If no matching topic exists for a
+	 *  page name then the map value is <code>null</code>.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public Map<String, String> lookupTopicNames(String virtualWiki, Namespace namespace, Collection<String> pageNames) throws DataAccessException {
+		Map<String, String> results = new HashMap<String, String>();
+		if (StringUtils.isBlank(virtualWiki)) {
+			return results;
+		}
+		Set<String> uncachedPageNames = new LinkedHashSet<String>();
+		for (String pageName : pageNames) {
+			if (StringUtils.isBlank(pageName) || results.containsKey(pageName)) {
+				continue;
+			}
+			if (!this.isPossibleTopic(virtualWiki, namespace, pageName)) {
+				results.put(pageName, null);
+				continue;
+			}
+			String key = this.cacheTopicKey(virtualWiki, namespace, pageName);
+			String topicName = CACHE_TOPIC_NAMES_BY_NAME.retrieveFromCache(key);
+			if (topicName != null || CACHE_TOPIC_NAMES_BY_NAME.isKeyInCache(key)) {
+				results.put(pageName, topicName);
+			} else {
+				uncachedPageNames.add(pageName);
+			}
+		}
+		if (uncachedPageNames.isEmpty()) {
+			return results;
+		}
+		if (this.useSharedVirtualWiki(virtualWiki, namespace)) {
+			// shared upload virtual wiki lookups may require a second query per page, so
+			// use the single topic lookup
+			for (String pageName : uncachedPageNames) {
+				results.put(pageName, this.lookupTopicName(virtualWiki, namespace, pageName));
+			}
+			return results;
+		}
+		try {
+			int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+			Map<String, String> topicNames = this.queryHandler().lookupTopicNames(virtualWikiId, namespace, uncachedPageNames);
+			for (String pageName : uncachedPageNames) {
+				String topicName = topicNames.get(pageName);
+				CACHE_TOPIC_NAMES_BY_NAME.addToCache(this.cacheTopicKey(virtualWiki, namespace, pageName), topicName);
+				results.put(pageName, topicName);
+			}
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+		return results;
+	}
+
 	/**
 	 * Find the names for all topics that link to a specified topic.
 	 *
@@ -1468,12 +1940,7 @@ public class AnsiDataHandler {
 	 */
 	public List<String[]> lookupTopicLinks(String virtualWiki, String topicName) throws DataAccessException {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		Namespace namespace = LinkUtil.retrieveTopicNamespace(virtualWiki, topicName);
-		String pageName = LinkUtil.retrieveTopicPageName(namespace, virtualWiki, topicName);
-		// FIXE - link to records are always capitalized, which will cause problems for the
-		// rare case of two topics such as "eBay" and "EBay".
-		pageName = StringUtils.capitalize(pageName);
-		Topic topic = new Topic(virtualWiki, namespace, pageName);
+		Topic topic = this.buildTopicLinkRecord(virtualWiki, topicName);
 		try {
 			return this.queryHandler().lookupTopicLinks(virtualWikiId, topic);
 		} catch (SQLException e) {
@@ -1500,6 +1967,47 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Find the names for all topics whose rendered output depends on a specified
+	 * template, either because they transclude the template directly or because
+	 * they transclude another template that (directly or indirectly) transcludes
+	 * it.  The templates recorded for a topic include templates transcluded by
+	 * other templates, so only dependents in the template namespace need to be
+	 * searched, in case a template started using another template after a
+	 * topic using it was last saved.
+	 *
+	 * @param virtualWiki The virtual wiki for the template.
+	 * @param templateName The name of the template, including namespace.
+	 * @return A list of topic names for all topics that depend on the specified
+	 *  template, not including the template itself.  If no results are found
+	 *  then an empty list is returned.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public List<String> lookupTopicTemplateDependents(String virtualWiki, String templateName) throws DataAccessException {
+		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+		// breadth-first walk of the template graph; the visited set guards against
+		// template loops, which the parser allows up to a maximum inclusion depth
+		Set<String> results = new LinkedHashSet<String>();
+		LinkedList<String> pending = new LinkedList<String>();
+		pending.add(templateName);
+		try {
+			while (!pending.isEmpty()) {
+				Topic template = this.buildTopicLinkRecord(virtualWiki, pending.removeFirst());
+				for (String dependent : this.queryHandler().lookupTopicTemplateDependents(virtualWikiId, template)) {
+					if (dependent.equals(templateName) || !results.add(dependent)) {
+						continue;
+					}
+					if (LinkUtil.retrieveTopicNamespace(virtualWiki, dependent).getId() == Namespace.TEMPLATE_ID) {
+						pending.add(dependent);
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+		return new ArrayList<String>(results);
+	}
+
 	/**
 	 * Retrieve a TopicVersion object for a given topic version ID.
 	 *
@@ -1515,6 +2023,9 @@ public class AnsiDataHandler {
 		}
 		try {
 			topicVersion = this.queryHandler().lookupTopicVersion(topicVersionId);
+			if (topicVersion != null && topicVersion.getDeltaBaseTopicVersionId() != null) {
+				this.reconstructTopicVersion(topicVersion);
+			}
 		} catch (SQLException e) {
 			throw new DataAccessException(e);
 		}
@@ -1522,6 +2033,35 @@ public class AnsiDataHandler {
 		return topicVersion;
 	}
 
+	/**
+	 * Retrieve a TopicVersion object for a given topic version ID without
+	 * re-creating the version content.  Versions that are stored as deltas are
+	 * returned with <code>null</code> content, so this method should be used
+	 * when only the version author, date, etc are needed.
+	 *
+	 * @param topicVersionId The ID of the topic version being retrieved.
+	 * @return A TopicVersion object matching the given topic version ID,
+	 *  or <code>null</code> if no matching topic version is found.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public TopicVersion lookupTopicVersionInfo(int topicVersionId) throws DataAccessException {
+		TopicVersion topicVersion = CACHE_TOPIC_VERSIONS.retrieveFromCache(topicVersionId);
+		if (topicVersion != null || CACHE_TOPIC_VERSIONS.isKeyInCache(topicVersionId)) {
+			return topicVersion;
+		}
+		try {
+			topicVersion = this.queryHandler().lookupTopicVersion(topicVersionId);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+		if (topicVersion == null || topicVersion.getDeltaBaseTopicVersionId() == null) {
+			CACHE_TOPIC_VERSIONS.addToCache(topicVersionId, topicVersion);
+		} else {
+			topicVersion.setVersionContent(null);
+		}
+		return topicVersion;
+	}
+
 	/**
 	 * Retrieve the next topic version ID chronologically for a given topic
 	 * version, or <code>null</code> if there is no next topic version ID.
@@ -1681,16 +2221,23 @@ public class AnsiDataHandler {
 	 * @throws DataAccessException Thrown if any error occurs during method execution.
 	 */
 	public WikiUser lookupWikiUser(int userId) throws DataAccessException {
+		RequestDataContext context = RequestDataContext.current();
+		if (context != null && context.containsWikiUser(userId)) {
+			return context.getWikiUser(userId);
+		}
 		WikiUser user = CACHE_USER_BY_USER_ID.retrieveFromCache(userId);
-		if (user != null || CACHE_USER_BY_USER_ID.isKeyInCache(userId)) {
-			return user;
+		if (user == null && !CACHE_USER_BY_USER_ID.isKeyInCache(userId)) {
+			RequestDataContext.recordDatabaseLookup(RequestDataContext.LOOKUP_WIKI_USER);
+			try {
+				user = this.queryHandler().lookupWikiUser(userId);
+			} catch (SQLException e) {
+				throw new DataAccessException(e);
+			}
+			CACHE_USER_BY_USER_ID.addToCache(userId, user);
 		}
-		try {
-			user = this.queryHandler().lookupWikiUser(userId);
-		} catch (SQLException e) {
-			throw new DataAccessException(e);
+		if (context != null) {
+			context.putWikiUser(userId, user);
 		}
-		CACHE_USER_BY_USER_ID.addToCache(userId, user);
 		return user;
 	}
 
@@ -1703,22 +2250,29 @@ public class AnsiDataHandler {
 	 * @throws DataAccessException Thrown if any error occurs during method execution.
 	 */
 	public WikiUser lookupWikiUser(String username) throws DataAccessException {
-		WikiUser result = CACHE_USER_BY_USER_NAME.retrieveFromCache(username);
-		if (result != null || CACHE_USER_BY_USER_NAME.isKeyInCache(username)) {
-			return result;
+		RequestDataContext context = RequestDataContext.current();
+		if (context != null && context.containsWikiUser(username)) {
+			return context.getWikiUser(username);
 		}
-		Connection conn = null;
-		try {
-			conn = DatabaseConnection.getConnection();
-			int userId = this.queryHandler().lookupWikiUser(username, conn);
-			if (userId != -1) {
-				result = lookupWikiUser(userId);
+		WikiUser result = CACHE_USER_BY_USER_NAME.retrieveFromCache(username);
+		if (result == null && !CACHE_USER_BY_USER_NAME.isKeyInCache(username)) {
+			RequestDataContext.recordDatabaseLookup(RequestDataContext.LOOKUP_WIKI_USER);
+			Connection conn = null;
+			try {
+				conn = DatabaseConnection.getConnection();
+				int userId = this.queryHandler().lookupWikiUser(username, conn);
+				if (userId != -1) {
+					result = lookupWikiUser(userId);
+				}
+				CACHE_USER_BY_USER_NAME.addToCache(username, result);
+			} catch (SQLException e) {
+				throw new DataAccessException(e);
 			}
-			CACHE_USER_BY_USER_NAME.addToCache(username, result);
-			return result;
-		} catch (SQLException e) {
-			throw new DataAccessException(e);
 		}
+		if (context != null) {
+			context.putWikiUser(username, result);
+		}
+		return result;
 	}
 
 	public WikiUser lookupPwResetChallengeData(String username) throws DataAccessException {
@@ -1816,14 +2370,14 @@ public class AnsiDataHandler {
 			fromVersion.setRecentChangeAllowed(false);
 			// handle categories
 			ParserOutput fromParserOutput = ParserUtil.parserOutput(fromTopic.getTopicContent(), fromTopic.getVirtualWiki(), fromTopic.getName());
-			writeTopic(fromTopic, fromVersion, fromParserOutput.getCategories(), fromParserOutput.getLinks());
+			writeTopic(fromTopic, fromVersion, fromParserOutput.getCategories(), fromParserOutput.getLinks(), fromParserOutput.getTemplates());
 			// now either create a new topic that is a redirect with the
 			// source topic's old name, or else undelete the new topic and
 			// rename.
 			if (detinationExistsFlag) {
 				// target topic was deleted, so rename and undelete
 				toTopic.setName(fromTopicName);
-				writeTopic(toTopic, null, null, null);
+				writeTopic(toTopic, null, null, null, null);
 				this.undeleteTopic(toTopic, null);
 			} else {
 				// create a new topic that redirects to the destination
@@ -1840,7 +2394,7 @@ public class AnsiDataHandler {
 			toVersion.setVersionContent(content);
 			toVersion.setRecentChangeAllowed(true);
 			ParserOutput toParserOutput = ParserUtil.parserOutput(toTopic.getTopicContent(), toTopic.getVirtualWiki(), toTopic.getName());
-			writeTopic(toTopic, toVersion, toParserOutput.getCategories(), toParserOutput.getLinks());
+			writeTopic(toTopic, toVersion, toParserOutput.getCategories(), toParserOutput.getLinks(), toParserOutput.getTemplates());
 		} catch (DataAccessException e) {
 			DatabaseConnection.rollbackOnException(status, e);
 			throw e;
@@ -1915,7 +2469,13 @@ public class AnsiDataHandler {
 				this.updateTopic(topic, conn);
 			}
 			// 4. if there is a topic version with this version as its
-			// previous_topic_version_id update it with the value from #2
+			// previous_topic_version_id update it with the value from #2.
+			// any versions stored as a delta against this version must
+			// also be re-written with their full text.
+			for (int dependentTopicVersionId : this.queryHandler().lookupTopicVersionDeltaDependents(topicVersionId, conn)) {
+				TopicVersion dependentTopicVersion = this.lookupTopicVersion(dependentTopicVersionId);
+				this.queryHandler().updateTopicVersionContent(dependentTopicVersionId, dependentTopicVersion.getVersionContent(), null, conn);
+			}
 			if (nextTopicVersionId != null) {
 				TopicVersion nextTopicVersion = this.lookupTopicVersion(nextTopicVersionId);
 				nextTopicVersion.setPreviousTopicVersionId(topicVersion.getPreviousTopicVersionId());
@@ -1931,6 +2491,7 @@ public class AnsiDataHandler {
 			CACHE_TOPIC_VERSIONS.removeFromCache(topicVersionId);
 			CACHE_TOPIC_VERSIONS.removeFromCache(nextTopicVersionId);
 			CACHE_TOPICS_BY_ID.removeFromCache(topic.getTopicId());
+			RequestDataContext.invalidate();
 		} catch (SQLException e) {
 			DatabaseConnection.rollbackOnException(status, e);
 			throw new DataAccessException(e);
@@ -1976,6 +2537,79 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Topic versions stored as deltas are re-created by following the chain of
+	 * delta base versions until a version with full text is found, and then
+	 * applying each delta in turn.  Intermediate versions that are re-created
+	 * along the way are also cached.
+	 */
+	private void reconstructTopicVersion(TopicVersion topicVersion) throws DataAccessException, SQLException {
+		LinkedList<TopicVersion> deltas = new LinkedList<TopicVersion>();
+		TopicVersion baseTopicVersion = topicVersion;
+		while (baseTopicVersion.getDeltaBaseTopicVersionId() != null) {
+			deltas.addFirst(baseTopicVersion);
+			Integer baseTopicVersionId = baseTopicVersion.getDeltaBaseTopicVersionId();
+			baseTopicVersion = CACHE_TOPIC_VERSIONS.retrieveFromCache(baseTopicVersionId);
+			if (baseTopicVersion == null) {
+				baseTopicVersion = this.queryHandler().lookupTopicVersion(baseTopicVersionId);
+				if (baseTopicVersion == null) {
+					throw new DataAccessException("Unable to find topic version " + baseTopicVersionId + " while re-creating topic version " + topicVersion.getTopicVersionId());
+				}
+				if (baseTopicVersion.getDeltaBaseTopicVersionId() == null) {
+					CACHE_TOPIC_VERSIONS.addToCache(baseTopicVersionId, baseTopicVersion);
+				}
+			}
+		}
+		String versionContent = baseTopicVersion.getVersionContent();
+		for (TopicVersion deltaTopicVersion : deltas) {
+			try {
+				versionContent = TextDelta.apply(versionContent, deltaTopicVersion.getVersionContent());
+			} catch (IllegalArgumentException e) {
+				throw new DataAccessException("Invalid delta found while re-creating topic version " + deltaTopicVersion.getTopicVersionId(), e);
+			}
+			deltaTopicVersion.setVersionContent(versionContent);
+			deltaTopicVersion.setDeltaBaseTopicVersionId(null);
+			if (deltaTopicVersion != topicVersion) {
+				CACHE_TOPIC_VERSIONS.addToCache(deltaTopicVersion.getTopicVersionId(), deltaTopicVersion);
+			}
+		}
+	}
+
+	/**
+	 * Re-create the full text of a stored topic version without reading from or
+	 * adding to the topic version cache.  If the delta chain reaches the newer
+	 * version whose content is already known then that content is used as the
+	 * base rather than reading the rest of the chain.
+	 */
+	private String reconstructTopicVersionContent(TopicVersion storedTopicVersion, Integer newerTopicVersionId, String newerVersionContent, Connection conn) throws DataAccessException, SQLException {
+		LinkedList<TopicVersion> deltas = new LinkedList<TopicVersion>();
+		TopicVersion baseTopicVersion = storedTopicVersion;
+		String versionContent = null;
+		while (baseTopicVersion.getDeltaBaseTopicVersionId() != null) {
+			deltas.addFirst(baseTopicVersion);
+			Integer baseTopicVersionId = baseTopicVersion.getDeltaBaseTopicVersionId();
+			if (baseTopicVersionId.equals(newerTopicVersionId)) {
+				versionContent = newerVersionContent;
+				break;
+			}
+			baseTopicVersion = this.queryHandler().lookupTopicVersion(baseTopicVersionId, conn);
+			if (baseTopicVersion == null) {
+				throw new DataAccessException("Unable to find topic version " + baseTopicVersionId + " while re-creating topic version " + storedTopicVersion.getTopicVersionId());
+			}
+		}
+		if (versionContent == null) {
+			versionContent = StringUtils.defaultString(baseTopicVersion.getVersionContent());
+		}
+		for (TopicVersion deltaTopicVersion : deltas) {
+			try {
+				versionContent = TextDelta.apply(versionContent, deltaTopicVersion.getVersionContent());
+			} catch (IllegalArgumentException e) {
+				throw new DataAccessException("Invalid delta found while re-creating topic version " + deltaTopicVersion.getTopicVersionId(), e);
+			}
+		}
+		return versionContent;
+	}
+
 	/**
 	 * Delete all existing log entries and reload the log item table based
 	 * on the most recent topic versions, uploads, and user signups.
@@ -2018,6 +2652,38 @@ public class AnsiDataHandler {
 		DatabaseConnection.commit(status);
 	}
 
+	/**
+	 * Remove rendered output from the cache for a modified topic and for all
+	 * topics whose rendered output depends on it.
+	 *
+	 * @param topic The topic that was modified.
+	 * @param existenceChanged Set to <code>true</code> if the topic was created,
+	 *  deleted, undeleted or moved, in which case output for topics that link to
+	 *  the topic is also removed so that link styles for non-existent topics are
+	 *  refreshed.
+	 */
+	private void removeRenderedTopics(Topic topic, boolean existenceChanged) {
+		Set<String> topicNames = new HashSet<String>();
+		topicNames.add(topic.getName());
+		try {
+			topicNames.addAll(this.lookupTopicTemplateDependents(topic.getVirtualWiki(), topic.getName()));
+			if (existenceChanged) {
+				for (String[] link : this.lookupTopicLinks(topic.getVirtualWiki(), topic.getName())) {
+					topicNames.add(link[0]);
+					if (link[1] != null) {
+						topicNames.add(link[1]);
+					}
+				}
+			}
+		} catch (DataAccessException e) {
+			// the dependency information is not available, so flush everything
+			logger.warn("Failure while retrieving dependencies for topic " + topic.getVirtualWiki() + ':' + topic.getName() + ", flushing all rendered topics", e);
+			ParserUtil.removeAllRenderedTopics();
+			return;
+		}
+		ParserUtil.removeRenderedTopics(topic.getVirtualWiki(), topicNames);
+	}
+
 	/**
 	 * Perform any required setup steps for the DataHandler instance.
 	 *
@@ -2115,7 +2781,7 @@ public class AnsiDataHandler {
 			// also needed.
 			ParserOutput parserOutput = ParserUtil.parserOutput(topic.getTopicContent(), topic.getVirtualWiki(), topic.getName());
 			topic.setDeleteDate(null);
-			this.writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
+			this.writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks(), parserOutput.getTemplates());
 		} catch (DataAccessException e) {
 			DatabaseConnection.rollbackOnException(status, e);
 			throw e;
@@ -2161,7 +2827,7 @@ public class AnsiDataHandler {
 			// FIXME - hard coding
 			TopicVersion topicVersion = new TopicVersion(null, userDisplay, "Automatically updated by system upgrade", contents, charactersChanged);
 			ParserOutput parserOutput = ParserUtil.parserOutput(topic.getTopicContent(), virtualWiki, topicName);
-			writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
+			writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks(), parserOutput.getTemplates());
 		} catch (DataAccessException e) {
 			DatabaseConnection.rollbackOnException(status, e);
 			throw e;
@@ -2276,6 +2942,38 @@ public class AnsiDataHandler {
 		}
 	}
 	
+	/**
+	 * Start building the topic name filters and topic name indexes for all
+	 * virtual wikis on a background thread.  Until a virtual wiki's filter is
+	 * ready topic lookups are answered from the database, and until its index
+	 * is ready no topic name suggestions are returned.  This method should be
+	 * called at startup so that the stores are ready before they are needed.
+	 */
+	public void loadTopicNameStores() {
+		List<VirtualWiki> virtualWikis;
+		try {
+			virtualWikis = this.getVirtualWikiList();
+		} catch (DataAccessException e) {
+			logger.warn("Unable to load topic name filters and indexes", e);
+			return;
+		}
+		for (VirtualWiki virtualWiki : virtualWikis) {
+			this.topicNameFilters.loadInBackground(virtualWiki.getName());
+			this.topicNameIndexes.loadInBackground(virtualWiki.getName());
+		}
+	}
+
+	/**
+	 * Discard the topic name filters and topic name indexes for all virtual
+	 * wikis and rebuild them from the database in the background.  This method
+	 * should be called if topics may have been added to the database by some
+	 * means other than this class.
+	 */
+	public void resetTopicNameFilters() {
+		this.topicNameFilters.reset();
+		this.topicNameIndexes.reset();
+	}
+
 	/**
 	 * Utility method to determine whether to check a shared virtual wiki when
 	 * performing a topic lookup.
@@ -2349,6 +3047,7 @@ public class AnsiDataHandler {
 			if (imageData != null) {
 				// No more needs of old resized images
 				this.queryHandler().deleteResizedImages(wikiFile.getFileId(), conn);
+				this.queryHandler().clearImageMetadataResizedWidths(wikiFile.getFileId(), conn);
 				imageData.fileVersionId = wikiFileVersion.getFileVersionId();
 				this.queryHandler().insertImage(imageData, false, conn);
 			}
@@ -2363,6 +3062,78 @@ public class AnsiDataHandler {
 			throw e;
 		}
 		DatabaseConnection.commit(status);
+		if (imageData != null) {
+			// resized widths were cleared for all versions of the file
+			try {
+				for (WikiFileVersion fileVersion : this.queryHandler().getAllWikiFileVersions(wikiFile, false)) {
+					CACHE_IMAGE_METADATA.removeFromCache(fileVersion.getUrl());
+				}
+			} catch (SQLException e) {
+				logger.warn("Failure while retrieving versions for file " + wikiFile.getFileId() + ", flushing all image metadata", e);
+				CACHE_IMAGE_METADATA.removeAllFromCache();
+			}
+		}
+	}
+
+	/**
+	 * Add a metadata record for an image file version.  Metadata is normally
+	 * written when an image is uploaded, but for older images it is written the
+	 * first time that the image is displayed, so concurrent requests may write
+	 * the same record and an existing record is not treated as an error.
+	 *
+	 * @param imageMetadata The image metadata to write.  The file version ID
+	 *  and URL must be set.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public void writeImageMetadata(WikiImageMetadata imageMetadata) throws DataAccessException {
+		Connection conn = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			try {
+				this.queryHandler().insertImageMetadata(imageMetadata, conn);
+			} catch (SQLException e) {
+				// the record may have been written by another request
+				if (this.queryHandler().lookupImageMetadata(imageMetadata.getUrl(), conn) == null) {
+					throw e;
+				}
+			}
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		} finally {
+			DatabaseConnection.closeConnection(conn);
+		}
+		CACHE_IMAGE_METADATA.removeFromCache(imageMetadata.getUrl());
+	}
+
+	/**
+	 * Record that resized versions of a group of image file versions are
+	 * available so that later requests for the same sizes do not need to check
+	 * for the resized images.  All widths are written in a single transaction,
+	 * and file versions without stored metadata are ignored.
+	 *
+	 * @param resizedWidths A map of the relative URL of the original image file
+	 *  version and the widths of its resized images.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public void writeImageResizedWidths(Map<String, ? extends Collection<Integer>> resizedWidths) throws DataAccessException {
+		TransactionStatus status = null;
+		try {
+			status = DatabaseConnection.startTransaction();
+			Connection conn = DatabaseConnection.getConnection();
+			for (Map.Entry<String, ? extends Collection<Integer>> entry : resizedWidths.entrySet()) {
+				WikiImageMetadata imageMetadata = this.queryHandler().lookupImageMetadata(entry.getKey(), conn);
+				if (imageMetadata != null && imageMetadata.getResizedWidths().addAll(entry.getValue())) {
+					this.queryHandler().updateImageMetadataResizedWidths(imageMetadata, conn);
+				}
+			}
+		} catch (SQLException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			throw new DataAccessException(e);
+		}
+		DatabaseConnection.commit(status);
+		for (String url : resizedWidths.keySet()) {
+			CACHE_IMAGE_METADATA.removeFromCache(url);
+		}
 	}
 
 	/**
@@ -2412,6 +3183,7 @@ public class AnsiDataHandler {
 		}
 		DatabaseConnection.commit(status);
 		CACHE_NAMESPACE_LIST.removeAllFromCache();
+		RequestDataContext.invalidate();
 	}
 
 	/**
@@ -2440,6 +3212,7 @@ public class AnsiDataHandler {
 		}
 		DatabaseConnection.commit(status);
 		CACHE_NAMESPACE_LIST.removeAllFromCache();
+		RequestDataContext.invalidate();
 	}
 
 	/**
@@ -2559,12 +3332,25 @@ public class AnsiDataHandler {
 	 * @param links A List of all topic names that are linked to from the
 	 *  current topic.  These will be passed to the search engine to create
 	 *  searchable metadata.
+	 * @param templates A List of all template names that are transcluded by the
+	 *  current topic, including templates transcluded by other templates.  If
+	 *  this value is <code>null</code> then existing template associations are
+	 *  left unchanged.
 	 * @throws DataAccessException Thrown if any error occurs during method execution.
 	 * @throws WikiException Thrown if the topic information is invalid.
 	 */
-	public void writeTopic(Topic topic, TopicVersion topicVersion, Map<String, String> categories, List<String> links) throws DataAccessException, WikiException {
+	public void writeTopic(Topic topic, TopicVersion topicVersion, Map<String, String> categories, List<String> links, List<String> templates) throws DataAccessException, WikiException {
 		long start = System.currentTimeMillis();
 		LinkUtil.validateTopicName(topic.getVirtualWiki(), topic.getName(), false);
+		// add the name to the topic name filter before writing so that lookups
+		// made immediately after the commit do not miss the new topic
+		this.addToTopicNameFilter(topic);
+		// creates, deletes, undeletes and moves change whether links to this topic are valid
+		boolean existenceChanged = (topic.getTopicId() <= 0);
+		if (topicVersion != null) {
+			int editType = topicVersion.getEditType();
+			existenceChanged = (existenceChanged || editType == TopicVersion.EDIT_DELETE || editType == TopicVersion.EDIT_UNDELETE || editType == TopicVersion.EDIT_MOVE || editType == TopicVersion.EDIT_UPLOAD);
+		}
 		TransactionStatus status = null;
 		try {
 			status = DatabaseConnection.startTransaction();
@@ -2585,6 +3371,9 @@ public class AnsiDataHandler {
 				List<TopicVersion> topicVersions = new ArrayList<TopicVersion>();
 				topicVersions.add(topicVersion);
 				addTopicVersions(topic, topicVersions, conn);
+				if (topicVersion.getPreviousTopicVersionId() != null && Environment.getBooleanValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE)) {
+					this.writePreviousTopicVersionDelta(topicVersion, conn);
+				}
 				// update the topic AFTER creating the version so that the current_topic_version_id parameter is set properly
 				topic.setCurrentVersionId(topicVersion.getTopicVersionId());
 				this.updateTopic(topic, conn);
@@ -2601,32 +3390,11 @@ public class AnsiDataHandler {
 					this.addRecentChange(change, conn);
 				}
 			}
-			if (categories != null) {
-				// add / remove categories associated with the topic
-				this.deleteTopicCategories(topic, conn);
-				if (topic.getDeleteDate() == null && !categories.isEmpty()) {
-					List<Category> categoryList = new ArrayList<Category>();
-					for (Map.Entry<String, String> entry : categories.entrySet()) {
-						Category category = new Category();
-						category.setName(entry.getKey());
-						category.setSortKey(entry.getValue());
-						category.setVirtualWiki(topic.getVirtualWiki());
-						category.setChildTopicName(topic.getName());
-						categoryList.add(category);
-					}
-					this.addCategories(categoryList, topic.getTopicId(), conn);
-				}
-			}
-			if (links != null) {
-				// add / remove links associated with the topic
-				this.deleteTopicLinks(topic.getTopicId(), conn);
-				if (topic.getDeleteDate() == null && !links.isEmpty()) {
-					this.addTopicLinks(links, topic.getVirtualWiki(), topic.getTopicId(), conn);
-				}
-			}
+			this.writeTopicMetadata(topic, categories, links, templates, conn);
 			if (topicVersion != null) {
-				// topic version is only null during changes that aren't user visible
-				WikiBase.getSearchEngine().updateInIndex(topic);
+				// topic version is only null during changes that aren't user visible.  the
+				// search index is updated from the queue after the transaction commits.
+				this.queryHandler().insertSearchIndexQueue(topic.getTopicId(), topicVersion.getTopicVersionId(), conn);
 			}
 		} catch (DataAccessException e) {
 			DatabaseConnection.rollbackOnException(status, e);
@@ -2641,8 +3409,114 @@ public class AnsiDataHandler {
 		DatabaseConnection.commit(status);
 		// update the cache AFTER the commit
 		this.cacheTopicRefresh(topic, true, null);
+		this.updateTopicNameIndex(topic);
+		if (topicVersion != null) {
+			this.removeRenderedTopics(topic, existenceChanged);
+			SearchIndexQueue.notifyQueued();
+		}
 		if (logger.isDebugEnabled()) {
-			logger.debug("Wrote topic " + topic.getVirtualWiki() + ':' + topic.getName() + " with params [categories is null: " + (categories == null) + "] / [links is null: " + (links == null) + "] in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+			logger.debug("Wrote topic " + topic.getVirtualWiki() + ':' + topic.getName() + " with params [categories is null: " + (categories == null) + "] / [links is null: " + (links == null) + "] / [templates is null: " + (templates == null) + "] in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+		}
+	}
+
+	/**
+	 * Re-write the category, link and template records for a group of topics
+	 * within a single transaction.  Topic and version records are not modified,
+	 * so this method is intended for regenerating metadata for existing topics.
+	 *
+	 * @param topics The topics whose metadata is being written.
+	 * @param parserOutputs The parser output for each topic, in the same order
+	 *  as the topic list.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 * @throws WikiException Thrown if the metadata is invalid.
+	 */
+	public void writeTopicMetadata(List<Topic> topics, List<ParserOutput> parserOutputs) throws DataAccessException, WikiException {
+		TransactionStatus status = null;
+		try {
+			status = DatabaseConnection.startTransaction();
+			Connection conn = DatabaseConnection.getConnection();
+			for (int i = 0; i < topics.size(); i++) {
+				ParserOutput parserOutput = parserOutputs.get(i);
+				this.writeTopicMetadata(topics.get(i), parserOutput.getCategories(), parserOutput.getLinks(), parserOutput.getTemplates(), conn);
+			}
+		} catch (DataAccessException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			throw e;
+		} catch (SQLException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			throw new DataAccessException(e);
+		} catch (WikiException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			throw e;
+		}
+		DatabaseConnection.commit(status);
+		// update the cache AFTER the commit
+		for (Topic topic : topics) {
+			this.cacheTopicRefresh(topic, true, null);
+			this.removeRenderedTopics(topic, false);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void writeTopicMetadata(Topic topic, Map<String, String> categories, List<String> links, List<String> templates, Connection conn) throws DataAccessException, WikiException {
+		if (categories != null) {
+			// add / remove categories associated with the topic
+			this.deleteTopicCategories(topic, conn);
+			if (topic.getDeleteDate() == null && !categories.isEmpty()) {
+				List<Category> categoryList = new ArrayList<Category>();
+				for (Map.Entry<String, String> entry : categories.entrySet()) {
+					Category category = new Category();
+					category.setName(entry.getKey());
+					category.setSortKey(entry.getValue());
+					category.setVirtualWiki(topic.getVirtualWiki());
+					category.setChildTopicName(topic.getName());
+					categoryList.add(category);
+				}
+				this.addCategories(categoryList, topic.getTopicId(), conn);
+			}
+		}
+		if (links != null) {
+			// add / remove links associated with the topic
+			this.deleteTopicLinks(topic.getTopicId(), conn);
+			if (topic.getDeleteDate() == null && !links.isEmpty()) {
+				this.addTopicLinks(links, topic.getVirtualWiki(), topic.getTopicId(), conn);
+			}
+		}
+		if (templates != null) {
+			// add / remove templates transcluded by the topic
+			this.deleteTopicTemplates(topic.getTopicId(), conn);
+			if (topic.getDeleteDate() == null && !templates.isEmpty()) {
+				this.addTopicTemplates(templates, topic.getVirtualWiki(), topic.getTopicId(), conn);
+			}
+		}
+	}
+
+	/**
+	 * The newest version of a topic is always stored with its full text, so when
+	 * a new version is added the version that it replaces can be re-written as a
+	 * delta against the new version.  This is skipped if the previous version is
+	 * a keyframe or if the delta would be larger than the full text.
+	 *
+	 * Rather than counting every version of the topic, the previous version is
+	 * treated as a keyframe when the run of deltas immediately before it is
+	 * already one less than the keyframe interval long, so at most that many
+	 * older versions are read.  For a history written entirely as deltas this
+	 * selects the same keyframes as {@link #convertTopicVersionStorage(Topic)}.
+	 */
+	private void writePreviousTopicVersionDelta(TopicVersion topicVersion, Connection conn) throws SQLException {
+		TopicVersion previousTopicVersion = this.queryHandler().lookupTopicVersion(topicVersion.getPreviousTopicVersionId(), conn);
+		if (previousTopicVersion == null || previousTopicVersion.getDeltaBaseTopicVersionId() != null || previousTopicVersion.getTopicId() != topicVersion.getTopicId()) {
+			return;
+		}
+		if (this.isTopicVersionDeltaRunComplete(previousTopicVersion, conn)) {
+			return;
+		}
+		String previousVersionContent = StringUtils.defaultString(previousTopicVersion.getVersionContent());
+		String delta = TextDelta.encode(StringUtils.defaultString(topicVersion.getVersionContent()), previousVersionContent);
+		if (delta.length() < previousVersionContent.length()) {
+			this.queryHandler().updateTopicVersionContent(previousTopicVersion.getTopicVersionId(), delta, topicVersion.getTopicVersionId(), conn);
 		}
 	}
 
@@ -2664,15 +3538,24 @@ public class AnsiDataHandler {
 			logger.warn("Attempt to call writeTopicVersions() with null topic or topic version list");
 			return;
 		}
-		Connection conn = null;
+		// write all versions in a single transaction to avoid a commit for every
+		// row of the batch insert
+		TransactionStatus status = null;
 		try {
-			conn = DatabaseConnection.getConnection();
+			status = DatabaseConnection.startTransaction();
+			Connection conn = DatabaseConnection.getConnection();
 			this.addTopicVersions(topic, topicVersions, conn);
+		} catch (DataAccessException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			throw e;
 		} catch (SQLException e) {
+			DatabaseConnection.rollbackOnException(status, e);
 			throw new DataAccessException(e);
-		} finally {
-			DatabaseConnection.closeConnection(conn);
+		} catch (WikiException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			throw e;
 		}
+		DatabaseConnection.commit(status);
 	}
 
 	/**
@@ -2754,6 +3637,7 @@ public class AnsiDataHandler {
 		DatabaseConnection.commit(status);
 		// flush the cache
 		CACHE_VIRTUAL_WIKI_LIST.removeAllFromCache();
+		RequestDataContext.invalidate();
 	}
 
 	/**
@@ -2926,6 +3810,7 @@ public class AnsiDataHandler {
 			// update the cache AFTER the commit
 			CACHE_USER_BY_USER_ID.addToCache(user.getUserId(), user);
 			CACHE_USER_BY_USER_NAME.addToCache(user.getUsername(), user);
+			RequestDataContext.invalidate();
 		} catch (DataAccessException e) {
 			DatabaseConnection.rollbackOnException(status, e);
 			throw e;
@@ -3030,4 +3915,64 @@ public class AnsiDataHandler {
 			throw new DataAccessException(e);
 		}
 	}
+
+	/**
+	 * Get info of desired version of image.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @return The image info or null if image version not found. Result's width
+	 * and height components must be negative when data are not an image. Result's
+	 * data component is null.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public ImageData getImageVersionInfo(int fileVersionId, int resized) throws DataAccessException {
+		try {
+			return this.queryHandler().getImageVersionInfo(fileVersionId, resized);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
+
+	/**
+	 * Stream the latest version of an image without loading the file data into
+	 * memory.
+	 *
+	 * @param fileId File identifier.
+	 * @param resized Image width or zero for original.
+	 * @param handler The handler that will be passed the image info and an
+	 *  input stream for reading the file data.
+	 * @return <code>true</code> if the image was found and passed to the handler,
+	 *  <code>false</code> otherwise.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 * @throws IOException Thrown if the handler fails while processing the data.
+	 */
+	public boolean streamImageData(int fileId, int resized, ImageStreamHandler handler) throws DataAccessException, IOException {
+		try {
+			return this.queryHandler().streamImageData(fileId, resized, handler);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
+
+	/**
+	 * Stream the desired version of an image without loading the file data into
+	 * memory.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @param handler The handler that will be passed the image info and an
+	 *  input stream for reading the file data.
+	 * @return <code>true</code> if the image version was found and passed to the
+	 *  handler, <code>false</code> otherwise.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 * @throws IOException Thrown if the handler fails while processing the data.
+	 */
+	public boolean streamImageVersionData(int fileVersionId, int resized, ImageStreamHandler handler) throws DataAccessException, IOException {
+		try {
+			return this.queryHandler().streamImageVersionData(fileVersionId, resized, handler);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
 }
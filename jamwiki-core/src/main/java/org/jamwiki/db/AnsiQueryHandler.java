@@ -16,6 +16,10 @@
  */
 package org.jamwiki.db;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -25,6 +29,8 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -33,6 +39,9 @@ import java.util.TreeMap;
 import java.util.Properties;
 
 // import org.apache.commons.lang.ObjectUtils.Null;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.model.Category;
@@ -52,10 +61,12 @@ import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.WikiFile;
 import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiGroup;
+import org.jamwiki.model.WikiImageMetadata;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.model.WikiUserDetails;
 import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.WikiLogger;
+import org.jamwiki.utils.WikiUtil;
 
 /**
  * Default implementation of the QueryHandler implementation for retrieving, inserting,
@@ -65,6 +76,10 @@ import org.jamwiki.utils.WikiLogger;
 public class AnsiQueryHandler implements QueryHandler {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(AnsiQueryHandler.class.getName());
+	/** Maximum number of parameters to use in a single SQL IN clause.  Some databases limit this to 1000. */
+	private static final int MAX_IN_CLAUSE_PARAMETERS = 500;
+	/** Database files up to this size in bytes are buffered in memory while being streamed. */
+	private static final int STREAM_IMAGE_BUFFER_SIZE = 1024 * 1024;
 	protected static final String SQL_PROPERTY_FILE_NAME = "sql/sql.ansi.properties";
 
 	protected static String STATEMENT_CONNECTION_VALIDATION_QUERY = null;
@@ -76,15 +91,19 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_CREATE_GROUP_MEMBERS_TABLE = null;
 	protected static String STATEMENT_CREATE_GROUP_TABLE = null;
 	protected static String STATEMENT_CREATE_INTERWIKI_TABLE = null;
+	protected static String STATEMENT_CREATE_LOG_DATE_INDEX = null;
 	protected static String STATEMENT_CREATE_LOG_TABLE = null;
 	protected static String STATEMENT_CREATE_NAMESPACE_TABLE = null;
 	protected static String STATEMENT_CREATE_NAMESPACE_TRANSLATION_TABLE = null;
+	protected static String STATEMENT_CREATE_RECENT_CHANGE_DATE_INDEX = null;
 	protected static String STATEMENT_CREATE_RECENT_CHANGE_TABLE = null;
 	protected static String STATEMENT_CREATE_ROLE_TABLE = null;
 	protected static String STATEMENT_CREATE_TOPIC_CURRENT_VERSION_CONSTRAINT = null;
 	protected static String STATEMENT_CREATE_TOPIC_TABLE = null;
 	protected static String STATEMENT_CREATE_TOPIC_LINKS_TABLE = null;
 	protected static String STATEMENT_CREATE_TOPIC_LINKS_INDEX = null;
+	protected static String STATEMENT_CREATE_TOPIC_TEMPLATE_TABLE = null;
+	protected static String STATEMENT_CREATE_TOPIC_TEMPLATE_INDEX = null;
 	protected static String STATEMENT_CREATE_TOPIC_PAGE_NAME_INDEX = null;
 	protected static String STATEMENT_CREATE_TOPIC_PAGE_NAME_LOWER_INDEX = null;
 	protected static String STATEMENT_CREATE_TOPIC_NAMESPACE_INDEX = null;
@@ -120,6 +139,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_DELETE_RECENT_CHANGES_TOPIC_VERSION = null;
 	protected static String STATEMENT_DELETE_TOPIC_CATEGORIES = null;
 	protected static String STATEMENT_DELETE_TOPIC_LINKS = null;
+	protected static String STATEMENT_DELETE_TOPIC_TEMPLATES = null;
 	protected static String STATEMENT_DELETE_TOPIC_VERSION = null;
 	protected static String STATEMENT_DELETE_WATCHLIST_ENTRY = null;
 	protected static String STATEMENT_DELETE_USER_PREFERENCES = null;
@@ -138,6 +158,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_DROP_TOPIC_CURRENT_VERSION_CONSTRAINT = null;
 	protected static String STATEMENT_DROP_TOPIC_TABLE = null;
 	protected static String STATEMENT_DROP_TOPIC_LINKS_TABLE = null;
+	protected static String STATEMENT_DROP_TOPIC_TEMPLATE_TABLE = null;
 	protected static String STATEMENT_DROP_TOPIC_VERSION_TABLE = null;
 	protected static String STATEMENT_DROP_USER_BLOCK_TABLE = null;
 	protected static String STATEMENT_DROP_USERS_TABLE = null;
@@ -172,6 +193,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_INSERT_TOPIC = null;
 	protected static String STATEMENT_INSERT_TOPIC_AUTO_INCREMENT = null;
 	protected static String STATEMENT_INSERT_TOPIC_LINKS = null;
+	protected static String STATEMENT_INSERT_TOPIC_TEMPLATES = null;
 	protected static String STATEMENT_INSERT_TOPIC_VERSION = null;
 	protected static String STATEMENT_INSERT_TOPIC_VERSION_AUTO_INCREMENT = null;
 	protected static String STATEMENT_INSERT_USER = null;
@@ -208,25 +230,36 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_INTERWIKIS = null;
 	protected static String STATEMENT_SELECT_LOG_ITEMS = null;
 	protected static String STATEMENT_SELECT_LOG_ITEMS_BY_TYPE = null;
+	protected static String STATEMENT_SELECT_LOG_ITEMS_BY_TYPE_CURSOR = null;
+	protected static String STATEMENT_SELECT_LOG_ITEMS_CURSOR = null;
 	protected static String STATEMENT_SELECT_NAMESPACE_SEQUENCE = null;
 	protected static String STATEMENT_SELECT_NAMESPACES = null;
 	protected static String STATEMENT_SELECT_PW_RESET_CHALLENGE_DATA = null;
 	protected static String STATEMENT_SELECT_RECENT_CHANGES = null;
+	protected static String STATEMENT_SELECT_RECENT_CHANGES_CURSOR = null;
 	protected static String STATEMENT_SELECT_ROLES = null;
 	protected static String STATEMENT_SELECT_TOPIC_BY_ID = null;
 	protected static String STATEMENT_SELECT_TOPIC_BY_TYPE = null;
 	protected static String STATEMENT_SELECT_TOPIC_COUNT = null;
 	protected static String STATEMENT_SELECT_TOPIC = null;
 	protected static String STATEMENT_SELECT_TOPIC_HISTORY = null;
+	protected static String STATEMENT_SELECT_TOPIC_HISTORY_CURSOR = null;
 	protected static String STATEMENT_SELECT_TOPIC_LINK_ORPHANS = null;
 	protected static String STATEMENT_SELECT_TOPIC_LINKS = null;
+	protected static String STATEMENT_SELECT_TOPIC_TEMPLATE_DEPENDENTS = null;
 	protected static String STATEMENT_SELECT_TOPIC_LOWER = null;
 	protected static String STATEMENT_SELECT_TOPIC_NAME = null;
 	protected static String STATEMENT_SELECT_TOPIC_NAME_LOWER = null;
+	protected static String STATEMENT_SELECT_TOPIC_NAME_INDEX = null;
 	protected static String STATEMENT_SELECT_TOPIC_NAMES = null;
+	protected static String STATEMENT_SELECT_TOPIC_NAMES_BY_PAGE_NAME = null;
+	protected static String STATEMENT_SELECT_TOPIC_PAGE_NAMES = null;
 	protected static String STATEMENT_SELECT_TOPICS_ADMIN = null;
+	protected static String STATEMENT_SELECT_TOPICS_AFTER_ID = null;
 	protected static String STATEMENT_SELECT_TOPIC_SEQUENCE = null;
 	protected static String STATEMENT_SELECT_TOPIC_VERSION = null;
+	protected static String STATEMENT_SELECT_TOPIC_VERSION_DELTA_DEPENDENTS = null;
+	protected static String STATEMENT_SELECT_TOPIC_VERSION_IDS = null;
 	protected static String STATEMENT_SELECT_TOPIC_VERSION_NEXT_ID = null;
 	protected static String STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE = null;
 	protected static String STATEMENT_SELECT_USER_BLOCKS = null;
@@ -243,7 +276,9 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_WIKI_FILE_VERSIONS = null;
 	protected static String STATEMENT_SELECT_WIKI_USER = null;
 	protected static String STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS = null;
+	protected static String STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS_CURSOR = null;
 	protected static String STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN = null;
+	protected static String STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN_CURSOR = null;
 	protected static String STATEMENT_SELECT_WIKI_USER_COUNT = null;
 	protected static String STATEMENT_SELECT_WIKI_USER_DETAILS_PASSWORD = null;
 	protected static String STATEMENT_SELECT_WIKI_USER_LOGIN = null;
@@ -259,6 +294,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_UPDATE_TOPIC = null;
 	protected static String STATEMENT_UPDATE_TOPIC_NAMESPACE = null;
 	protected static String STATEMENT_UPDATE_TOPIC_VERSION = null;
+	protected static String STATEMENT_UPDATE_TOPIC_VERSION_CONTENT = null;
 	protected static String STATEMENT_UPDATE_TOPIC_VERSION_PREVIOUS_VERSION_ID = null;
 	protected static String STATEMENT_UPDATE_USER = null;
 	protected static String STATEMENT_UPDATE_USER_BLOCK = null;
@@ -273,6 +309,20 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_FILE_INFO = null;
 	protected static String STATEMENT_SELECT_FILE_DATA = null;
 	protected static String STATEMENT_SELECT_FILE_VERSION_DATA = null;
+	protected static String STATEMENT_SELECT_FILE_VERSION_INFO = null;
+	protected static String STATEMENT_CREATE_IMAGE_METADATA_TABLE = null;
+	protected static String STATEMENT_DROP_IMAGE_METADATA_TABLE = null;
+	protected static String STATEMENT_INSERT_IMAGE_METADATA = null;
+	protected static String STATEMENT_SELECT_IMAGE_METADATA = null;
+	protected static String STATEMENT_SELECT_IMAGE_METADATA_BY_PAGE_NAME = null;
+	protected static String STATEMENT_UPDATE_IMAGE_METADATA_CLEAR_RESIZED_WIDTHS = null;
+	protected static String STATEMENT_UPDATE_IMAGE_METADATA_RESIZED_WIDTHS = null;
+	protected static String STATEMENT_CREATE_SEARCH_QUEUE_TABLE = null;
+	protected static String STATEMENT_DROP_SEARCH_QUEUE_TABLE = null;
+	protected static String STATEMENT_DELETE_SEARCH_QUEUE = null;
+	protected static String STATEMENT_DELETE_SEARCH_QUEUE_TOPIC = null;
+	protected static String STATEMENT_INSERT_SEARCH_QUEUE = null;
+	protected static String STATEMENT_SELECT_SEARCH_QUEUE = null;
 	protected static String STATEMENT_CREATE_SEQUENCES = null;
 	protected static String STATEMENT_DROP_SEQUENCES = null;
 	private Properties props = null;
@@ -341,6 +391,8 @@ public class AnsiQueryHandler implements QueryHandler {
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_TOPIC_CURRENT_VERSION_CONSTRAINT, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_TOPIC_LINKS_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_TOPIC_LINKS_INDEX, conn);
+		DatabaseConnection.executeUpdate(STATEMENT_CREATE_TOPIC_TEMPLATE_TABLE, conn);
+		DatabaseConnection.executeUpdate(STATEMENT_CREATE_TOPIC_TEMPLATE_INDEX, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_WIKI_FILE_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_WIKI_FILE_VERSION_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_CATEGORY_TABLE, conn);
@@ -351,17 +403,39 @@ public class AnsiQueryHandler implements QueryHandler {
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_AUTHORITIES_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_GROUP_AUTHORITIES_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_LOG_TABLE, conn);
+		DatabaseConnection.executeUpdate(STATEMENT_CREATE_LOG_DATE_INDEX, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_RECENT_CHANGE_TABLE, conn);
+		DatabaseConnection.executeUpdate(STATEMENT_CREATE_RECENT_CHANGE_DATE_INDEX, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_WATCHLIST_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_INTERWIKI_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_CONFIGURATION_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_USER_BLOCK_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_FILE_DATA_TABLE, conn);
+		DatabaseConnection.executeUpdate(STATEMENT_CREATE_IMAGE_METADATA_TABLE, conn);
+		DatabaseConnection.executeUpdate(STATEMENT_CREATE_SEARCH_QUEUE_TABLE, conn);
 		if (!StringUtils.isBlank(STATEMENT_CREATE_SEQUENCES)) {
 			DatabaseConnection.executeUpdate(STATEMENT_CREATE_SEQUENCES, conn);
 		}
 	}
 
+	/**
+	 * Cursor statements contain the syntax "{0} ?" for the cursor comparison,
+	 * "order by ... {1}" for the sort order and "{3}" for the database-specific
+	 * row limit, which need to be formatted as a message.  Pages following the
+	 * cursor are older results sorted descending, while pages preceding the
+	 * cursor are newer results sorted ascending and must be reversed after
+	 * retrieval.
+	 */
+	private Object[] cursorStatementParams(Pagination pagination, String extra) {
+		Object[] params = new Object[4];
+		params[0] = (pagination.isCursorPrevious()) ? ">" : "<";
+		params[1] = (pagination.isCursorPrevious()) ? "asc" : "desc";
+		params[2] = (extra != null) ? extra : "";
+		// format as a string to avoid locale-specific number formatting
+		params[3] = Integer.toString(pagination.getNumResults());
+		return params;
+	}
+
 	/**
 	 *
 	 */
@@ -458,6 +532,20 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public void deleteTopicTemplates(int topicId, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_DELETE_TOPIC_TEMPLATES);
+			stmt.setInt(1, topicId);
+			stmt.executeUpdate();
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -543,6 +631,8 @@ public class AnsiQueryHandler implements QueryHandler {
 		if (!StringUtils.isBlank(STATEMENT_DROP_SEQUENCES)) {
 			DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_SEQUENCES, conn);
 		}
+		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_SEARCH_QUEUE_TABLE, conn);
+		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_IMAGE_METADATA_TABLE, conn);
 		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_FILE_DATA_TABLE, conn);
 		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_USER_BLOCK_TABLE, conn);
 		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_CONFIGURATION_TABLE, conn);
@@ -558,6 +648,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_CATEGORY_TABLE, conn);
 		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_WIKI_FILE_VERSION_TABLE, conn);
 		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_WIKI_FILE_TABLE, conn);
+		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_TOPIC_TEMPLATE_TABLE, conn);
 		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_TOPIC_LINKS_TABLE, conn);
 		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_TOPIC_CURRENT_VERSION_CONSTRAINT, conn);
 		DatabaseConnection.executeUpdateNoException(STATEMENT_DROP_TOPIC_VERSION_TABLE, conn);
@@ -652,7 +743,10 @@ public class AnsiQueryHandler implements QueryHandler {
 		try {
 			// replace all single quotes with '' since otherwise MessageFormat
 			// will treat the content is a quoted string
-			return MessageFormat.format(sql.replaceAll("'", "''"), params);
+			String result = MessageFormat.format(sql.replaceAll("'", "''"), params);
+			// time the formatted statement under the name of the original SQL property
+			MeteredDataSource.registerStatement(MeteredDataSource.statementName(sql), result);
+			return result;
 		} catch (IllegalArgumentException e) {
 			String msg = "Unable to format " + sql + " with values: ";
 			for (int i = 0; i < params.length; i++) {
@@ -734,18 +828,42 @@ public class AnsiQueryHandler implements QueryHandler {
 		List<LogItem> logItems = new ArrayList<LogItem>();
 		try {
 			conn = DatabaseConnection.getConnection();
-			stmt = this.getLogItemsStatement(conn, virtualWikiId, virtualWikiName, logType, pagination, descending);
+			if (pagination.isCursor()) {
+				stmt = this.getLogItemsCursorStatement(conn, virtualWikiId, logType, pagination);
+			} else {
+				stmt = this.getLogItemsStatement(conn, virtualWikiId, virtualWikiName, logType, pagination, descending);
+			}
 			// FIXME - sort order ignored
 			rs = stmt.executeQuery();
 			while (rs.next()) {
 				logItems.add(this.initLogItem(rs, virtualWikiName));
 			}
+			if (pagination.isCursorPrevious()) {
+				Collections.reverse(logItems);
+			}
 			return logItems;
 		} finally {
 			DatabaseConnection.closeConnection(conn, stmt, rs);
 		}
 	}
 
+	/**
+	 *
+	 */
+	private PreparedStatement getLogItemsCursorStatement(Connection conn, int virtualWikiId, int logType, Pagination pagination) throws SQLException {
+		int index = 1;
+		PreparedStatement stmt = null;
+		if (logType == -1) {
+			stmt = conn.prepareStatement(this.formatStatement(STATEMENT_SELECT_LOG_ITEMS_CURSOR, this.cursorStatementParams(pagination, null)));
+		} else {
+			stmt = conn.prepareStatement(this.formatStatement(STATEMENT_SELECT_LOG_ITEMS_BY_TYPE_CURSOR, this.cursorStatementParams(pagination, null)));
+			stmt.setInt(index++, logType);
+		}
+		stmt.setInt(index++, virtualWikiId);
+		this.setCursorParams(stmt, index, pagination);
+		return stmt;
+	}
+
 	/**
 	 *
 	 */
@@ -773,19 +891,36 @@ public class AnsiQueryHandler implements QueryHandler {
 		ResultSet rs = null;
 		try {
 			conn = DatabaseConnection.getConnection();
-			stmt = this.getRecentChangesStatement(conn, virtualWiki, pagination, descending);
+			if (pagination.isCursor()) {
+				stmt = this.getRecentChangesCursorStatement(conn, virtualWiki, pagination);
+			} else {
+				stmt = this.getRecentChangesStatement(conn, virtualWiki, pagination, descending);
+			}
 			// FIXME - sort order ignored
 			rs = stmt.executeQuery();
 			List<RecentChange> recentChanges = new ArrayList<RecentChange>();
 			while (rs.next()) {
 				recentChanges.add(this.initRecentChange(rs));
 			}
+			if (pagination.isCursorPrevious()) {
+				Collections.reverse(recentChanges);
+			}
 			return recentChanges;
 		} finally {
 			DatabaseConnection.closeConnection(conn, stmt, rs);
 		}
 	}
 
+	/**
+	 *
+	 */
+	private PreparedStatement getRecentChangesCursorStatement(Connection conn, String virtualWiki, Pagination pagination) throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement(this.formatStatement(STATEMENT_SELECT_RECENT_CHANGES_CURSOR, this.cursorStatementParams(pagination, null)));
+		stmt.setString(1, virtualWiki);
+		this.setCursorParams(stmt, 2, pagination);
+		return stmt;
+	}
+
 	/**
 	 *
 	 */
@@ -1042,19 +1177,38 @@ public class AnsiQueryHandler implements QueryHandler {
 		ResultSet rs = null;
 		try {
 			conn = DatabaseConnection.getConnection();
-			stmt = getTopicHistoryStatement(conn, topicId, pagination, descending, selectDeleted);
+			if (pagination.isCursor()) {
+				stmt = this.getTopicHistoryCursorStatement(conn, topicId, pagination, selectDeleted);
+			} else {
+				stmt = getTopicHistoryStatement(conn, topicId, pagination, descending, selectDeleted);
+			}
 			// FIXME - sort order ignored
 			rs = stmt.executeQuery();
 			List<RecentChange> recentChanges = new ArrayList<RecentChange>();
 			while (rs.next()) {
 				recentChanges.add(this.initRecentChange(rs));
 			}
+			if (pagination.isCursorPrevious()) {
+				Collections.reverse(recentChanges);
+			}
 			return recentChanges;
 		} finally {
 			DatabaseConnection.closeConnection(conn, stmt, rs);
 		}
 	}
 
+	/**
+	 *
+	 */
+	private PreparedStatement getTopicHistoryCursorStatement(Connection conn, int topicId, Pagination pagination, boolean selectDeleted) throws SQLException {
+		// the SQL contains the syntax "is {2} null" in addition to the cursor parameters
+		String sql = this.formatStatement(STATEMENT_SELECT_TOPIC_HISTORY_CURSOR, this.cursorStatementParams(pagination, (selectDeleted) ? "not" : ""));
+		PreparedStatement stmt = conn.prepareStatement(sql);
+		stmt.setInt(1, topicId);
+		this.setCursorParams(stmt, 2, pagination);
+		return stmt;
+	}
+
 	/**
 	 *
 	 */
@@ -1140,13 +1294,20 @@ public class AnsiQueryHandler implements QueryHandler {
 		ResultSet rs = null;
 		try {
 			conn = DatabaseConnection.getConnection();
-			stmt = this.getUserContributionsByLoginStatement(conn, virtualWiki, login, pagination, descending);
+			if (pagination.isCursor()) {
+				stmt = this.getUserContributionsCursorStatement(conn, STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN_CURSOR, virtualWiki, login, pagination);
+			} else {
+				stmt = this.getUserContributionsByLoginStatement(conn, virtualWiki, login, pagination, descending);
+			}
 			// FIXME - sort order ignored
 			rs = stmt.executeQuery();
 			List<RecentChange> recentChanges = new ArrayList<RecentChange>();
 			while (rs.next()) {
 				recentChanges.add(this.initRecentChange(rs));
 			}
+			if (pagination.isCursorPrevious()) {
+				Collections.reverse(recentChanges);
+			}
 			return recentChanges;
 		} finally {
 			DatabaseConnection.closeConnection(conn, stmt, rs);
@@ -1174,19 +1335,37 @@ public class AnsiQueryHandler implements QueryHandler {
 		ResultSet rs = null;
 		try {
 			conn = DatabaseConnection.getConnection();
-			stmt = this.getUserContributionsByUserDisplayStatement(conn, virtualWiki, userDisplay, pagination, descending);
+			if (pagination.isCursor()) {
+				stmt = this.getUserContributionsCursorStatement(conn, STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS_CURSOR, virtualWiki, userDisplay, pagination);
+			} else {
+				stmt = this.getUserContributionsByUserDisplayStatement(conn, virtualWiki, userDisplay, pagination, descending);
+			}
 			// FIXME - sort order ignored
 			rs = stmt.executeQuery();
 			List<RecentChange> recentChanges = new ArrayList<RecentChange>();
 			while (rs.next()) {
 				recentChanges.add(this.initRecentChange(rs));
 			}
+			if (pagination.isCursorPrevious()) {
+				Collections.reverse(recentChanges);
+			}
 			return recentChanges;
 		} finally {
 			DatabaseConnection.closeConnection(conn, stmt, rs);
 		}
 	}
 
+	/**
+	 *
+	 */
+	private PreparedStatement getUserContributionsCursorStatement(Connection conn, String sql, String virtualWiki, String user, Pagination pagination) throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement(this.formatStatement(sql, this.cursorStatementParams(pagination, null)));
+		stmt.setString(1, virtualWiki);
+		stmt.setString(2, user);
+		this.setCursorParams(stmt, 3, pagination);
+		return stmt;
+	}
+
 	/**
 	 *
 	 */
@@ -1286,6 +1465,9 @@ public class AnsiQueryHandler implements QueryHandler {
 	 */
 	protected void init(Properties properties) {
 		this.props = properties;
+		for (String name : props.stringPropertyNames()) {
+			MeteredDataSource.registerStatement(name, props.getProperty(name));
+		}
 		STATEMENT_CONNECTION_VALIDATION_QUERY    = props.getProperty("STATEMENT_CONNECTION_VALIDATION_QUERY");
 		STATEMENT_CREATE_CONFIGURATION_TABLE     = props.getProperty("STATEMENT_CREATE_CONFIGURATION_TABLE");
 		STATEMENT_CREATE_GROUP_TABLE             = props.getProperty("STATEMENT_CREATE_GROUP_TABLE");
@@ -1303,6 +1485,8 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_CREATE_TOPIC_TABLE             = props.getProperty("STATEMENT_CREATE_TOPIC_TABLE");
 		STATEMENT_CREATE_TOPIC_LINKS_TABLE       = props.getProperty("STATEMENT_CREATE_TOPIC_LINKS_TABLE");
 		STATEMENT_CREATE_TOPIC_LINKS_INDEX       = props.getProperty("STATEMENT_CREATE_TOPIC_LINKS_INDEX");
+		STATEMENT_CREATE_TOPIC_TEMPLATE_TABLE    = props.getProperty("STATEMENT_CREATE_TOPIC_TEMPLATE_TABLE");
+		STATEMENT_CREATE_TOPIC_TEMPLATE_INDEX    = props.getProperty("STATEMENT_CREATE_TOPIC_TEMPLATE_INDEX");
 		STATEMENT_CREATE_TOPIC_PAGE_NAME_INDEX   = props.getProperty("STATEMENT_CREATE_TOPIC_PAGE_NAME_INDEX");
 		STATEMENT_CREATE_TOPIC_PAGE_NAME_LOWER_INDEX = props.getProperty("STATEMENT_CREATE_TOPIC_PAGE_NAME_LOWER_INDEX");
 		STATEMENT_CREATE_TOPIC_NAMESPACE_INDEX   = props.getProperty("STATEMENT_CREATE_TOPIC_NAMESPACE_INDEX");
@@ -1322,7 +1506,9 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_CREATE_CATEGORY_INDEX          = props.getProperty("STATEMENT_CREATE_CATEGORY_INDEX");
 		STATEMENT_CREATE_GROUP_AUTHORITIES_TABLE = props.getProperty("STATEMENT_CREATE_GROUP_AUTHORITIES_TABLE");
 		STATEMENT_CREATE_GROUP_MEMBERS_TABLE     = props.getProperty("STATEMENT_CREATE_GROUP_MEMBERS_TABLE");
+		STATEMENT_CREATE_LOG_DATE_INDEX          = props.getProperty("STATEMENT_CREATE_LOG_DATE_INDEX");
 		STATEMENT_CREATE_LOG_TABLE               = props.getProperty("STATEMENT_CREATE_LOG_TABLE");
+		STATEMENT_CREATE_RECENT_CHANGE_DATE_INDEX = props.getProperty("STATEMENT_CREATE_RECENT_CHANGE_DATE_INDEX");
 		STATEMENT_CREATE_RECENT_CHANGE_TABLE     = props.getProperty("STATEMENT_CREATE_RECENT_CHANGE_TABLE");
 		STATEMENT_CREATE_WATCHLIST_TABLE         = props.getProperty("STATEMENT_CREATE_WATCHLIST_TABLE");
 		STATEMENT_DELETE_AUTHORITIES             = props.getProperty("STATEMENT_DELETE_AUTHORITIES");
@@ -1339,6 +1525,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_DELETE_RECENT_CHANGES_TOPIC_VERSION = props.getProperty("STATEMENT_DELETE_RECENT_CHANGES_TOPIC_VERSION");
 		STATEMENT_DELETE_TOPIC_CATEGORIES        = props.getProperty("STATEMENT_DELETE_TOPIC_CATEGORIES");
 		STATEMENT_DELETE_TOPIC_LINKS             = props.getProperty("STATEMENT_DELETE_TOPIC_LINKS");
+		STATEMENT_DELETE_TOPIC_TEMPLATES         = props.getProperty("STATEMENT_DELETE_TOPIC_TEMPLATES");
 		STATEMENT_DELETE_TOPIC_VERSION           = props.getProperty("STATEMENT_DELETE_TOPIC_VERSION");
 		STATEMENT_DELETE_WATCHLIST_ENTRY         = props.getProperty("STATEMENT_DELETE_WATCHLIST_ENTRY");
 		STATEMENT_DELETE_USER_PREFERENCES        = props.getProperty("STATEMENT_DELETE_USER_PREFERENCES");
@@ -1357,6 +1544,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_DROP_TOPIC_CURRENT_VERSION_CONSTRAINT = props.getProperty("STATEMENT_DROP_TOPIC_CURRENT_VERSION_CONSTRAINT");
 		STATEMENT_DROP_TOPIC_TABLE               = props.getProperty("STATEMENT_DROP_TOPIC_TABLE");
 		STATEMENT_DROP_TOPIC_LINKS_TABLE         = props.getProperty("STATEMENT_DROP_TOPIC_LINKS_TABLE");
+		STATEMENT_DROP_TOPIC_TEMPLATE_TABLE      = props.getProperty("STATEMENT_DROP_TOPIC_TEMPLATE_TABLE");
 		STATEMENT_DROP_TOPIC_VERSION_TABLE       = props.getProperty("STATEMENT_DROP_TOPIC_VERSION_TABLE");
 		STATEMENT_DROP_USER_BLOCK_TABLE          = props.getProperty("STATEMENT_DROP_USER_BLOCK_TABLE");
 		STATEMENT_DROP_USERS_TABLE               = props.getProperty("STATEMENT_DROP_USERS_TABLE");
@@ -1391,6 +1579,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_INSERT_TOPIC                   = props.getProperty("STATEMENT_INSERT_TOPIC");
 		STATEMENT_INSERT_TOPIC_AUTO_INCREMENT    = props.getProperty("STATEMENT_INSERT_TOPIC_AUTO_INCREMENT");
 		STATEMENT_INSERT_TOPIC_LINKS             = props.getProperty("STATEMENT_INSERT_TOPIC_LINKS");
+		STATEMENT_INSERT_TOPIC_TEMPLATES         = props.getProperty("STATEMENT_INSERT_TOPIC_TEMPLATES");
 		STATEMENT_INSERT_TOPIC_VERSION           = props.getProperty("STATEMENT_INSERT_TOPIC_VERSION");
 		STATEMENT_INSERT_TOPIC_VERSION_AUTO_INCREMENT = props.getProperty("STATEMENT_INSERT_TOPIC_VERSION_AUTO_INCREMENT");
 		STATEMENT_INSERT_USER                    = props.getProperty("STATEMENT_INSERT_USER");
@@ -1427,25 +1616,36 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_INTERWIKIS              = props.getProperty("STATEMENT_SELECT_INTERWIKIS");
 		STATEMENT_SELECT_LOG_ITEMS               = props.getProperty("STATEMENT_SELECT_LOG_ITEMS");
 		STATEMENT_SELECT_LOG_ITEMS_BY_TYPE       = props.getProperty("STATEMENT_SELECT_LOG_ITEMS_BY_TYPE");
+		STATEMENT_SELECT_LOG_ITEMS_BY_TYPE_CURSOR = props.getProperty("STATEMENT_SELECT_LOG_ITEMS_BY_TYPE_CURSOR");
+		STATEMENT_SELECT_LOG_ITEMS_CURSOR        = props.getProperty("STATEMENT_SELECT_LOG_ITEMS_CURSOR");
 		STATEMENT_SELECT_NAMESPACE_SEQUENCE      = props.getProperty("STATEMENT_SELECT_NAMESPACE_SEQUENCE");
 		STATEMENT_SELECT_NAMESPACES              = props.getProperty("STATEMENT_SELECT_NAMESPACES");
 		STATEMENT_SELECT_PW_RESET_CHALLENGE_DATA = props.getProperty("STATEMENT_SELECT_PW_RESET_CHALLENGE_DATA");
 		STATEMENT_SELECT_RECENT_CHANGES          = props.getProperty("STATEMENT_SELECT_RECENT_CHANGES");
+		STATEMENT_SELECT_RECENT_CHANGES_CURSOR   = props.getProperty("STATEMENT_SELECT_RECENT_CHANGES_CURSOR");
 		STATEMENT_SELECT_ROLES                   = props.getProperty("STATEMENT_SELECT_ROLES");
 		STATEMENT_SELECT_TOPIC_BY_ID             = props.getProperty("STATEMENT_SELECT_TOPIC_BY_ID");
 		STATEMENT_SELECT_TOPIC_BY_TYPE           = props.getProperty("STATEMENT_SELECT_TOPIC_BY_TYPE");
 		STATEMENT_SELECT_TOPIC_COUNT             = props.getProperty("STATEMENT_SELECT_TOPIC_COUNT");
 		STATEMENT_SELECT_TOPIC                   = props.getProperty("STATEMENT_SELECT_TOPIC");
 		STATEMENT_SELECT_TOPIC_HISTORY           = props.getProperty("STATEMENT_SELECT_TOPIC_HISTORY");
+		STATEMENT_SELECT_TOPIC_HISTORY_CURSOR    = props.getProperty("STATEMENT_SELECT_TOPIC_HISTORY_CURSOR");
 		STATEMENT_SELECT_TOPIC_LINK_ORPHANS      = props.getProperty("STATEMENT_SELECT_TOPIC_LINK_ORPHANS");
 		STATEMENT_SELECT_TOPIC_LINKS             = props.getProperty("STATEMENT_SELECT_TOPIC_LINKS");
+		STATEMENT_SELECT_TOPIC_TEMPLATE_DEPENDENTS = props.getProperty("STATEMENT_SELECT_TOPIC_TEMPLATE_DEPENDENTS");
 		STATEMENT_SELECT_TOPIC_LOWER             = props.getProperty("STATEMENT_SELECT_TOPIC_LOWER");
 		STATEMENT_SELECT_TOPIC_NAME              = props.getProperty("STATEMENT_SELECT_TOPIC_NAME");
 		STATEMENT_SELECT_TOPIC_NAME_LOWER        = props.getProperty("STATEMENT_SELECT_TOPIC_NAME_LOWER");
+		STATEMENT_SELECT_TOPIC_NAME_INDEX        = props.getProperty("STATEMENT_SELECT_TOPIC_NAME_INDEX");
 		STATEMENT_SELECT_TOPIC_NAMES             = props.getProperty("STATEMENT_SELECT_TOPIC_NAMES");
+		STATEMENT_SELECT_TOPIC_NAMES_BY_PAGE_NAME = props.getProperty("STATEMENT_SELECT_TOPIC_NAMES_BY_PAGE_NAME");
+		STATEMENT_SELECT_TOPIC_PAGE_NAMES        = props.getProperty("STATEMENT_SELECT_TOPIC_PAGE_NAMES");
 		STATEMENT_SELECT_TOPICS_ADMIN            = props.getProperty("STATEMENT_SELECT_TOPICS_ADMIN");
+		STATEMENT_SELECT_TOPICS_AFTER_ID         = props.getProperty("STATEMENT_SELECT_TOPICS_AFTER_ID");
 		STATEMENT_SELECT_TOPIC_SEQUENCE          = props.getProperty("STATEMENT_SELECT_TOPIC_SEQUENCE");
 		STATEMENT_SELECT_TOPIC_VERSION           = props.getProperty("STATEMENT_SELECT_TOPIC_VERSION");
+		STATEMENT_SELECT_TOPIC_VERSION_DELTA_DEPENDENTS = props.getProperty("STATEMENT_SELECT_TOPIC_VERSION_DELTA_DEPENDENTS");
+		STATEMENT_SELECT_TOPIC_VERSION_IDS       = props.getProperty("STATEMENT_SELECT_TOPIC_VERSION_IDS");
 		STATEMENT_SELECT_TOPIC_VERSION_NEXT_ID   = props.getProperty("STATEMENT_SELECT_TOPIC_VERSION_NEXT_ID");
 		STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE  = props.getProperty("STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE");
 		STATEMENT_SELECT_USER_BLOCKS             = props.getProperty("STATEMENT_SELECT_USER_BLOCKS");
@@ -1462,7 +1662,9 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_WIKI_FILE_VERSIONS      = props.getProperty("STATEMENT_SELECT_WIKI_FILE_VERSIONS");
 		STATEMENT_SELECT_WIKI_USER               = props.getProperty("STATEMENT_SELECT_WIKI_USER");
 		STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS = props.getProperty("STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS");
+		STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS_CURSOR = props.getProperty("STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS_CURSOR");
 		STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN = props.getProperty("STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN");
+		STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN_CURSOR = props.getProperty("STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN_CURSOR");
 		STATEMENT_SELECT_WIKI_USER_COUNT         = props.getProperty("STATEMENT_SELECT_WIKI_USER_COUNT");
 		STATEMENT_SELECT_WIKI_USER_DETAILS_PASSWORD = props.getProperty("STATEMENT_SELECT_WIKI_USER_DETAILS_PASSWORD");
 		STATEMENT_SELECT_WIKI_USER_LOGIN         = props.getProperty("STATEMENT_SELECT_WIKI_USER_LOGIN");
@@ -1478,6 +1680,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_UPDATE_ROLE                    = props.getProperty("STATEMENT_UPDATE_ROLE");
 		STATEMENT_UPDATE_TOPIC                   = props.getProperty("STATEMENT_UPDATE_TOPIC");
 		STATEMENT_UPDATE_TOPIC_VERSION           = props.getProperty("STATEMENT_UPDATE_TOPIC_VERSION");
+		STATEMENT_UPDATE_TOPIC_VERSION_CONTENT   = props.getProperty("STATEMENT_UPDATE_TOPIC_VERSION_CONTENT");
 		STATEMENT_UPDATE_TOPIC_VERSION_PREVIOUS_VERSION_ID = props.getProperty("STATEMENT_UPDATE_TOPIC_VERSION_PREVIOUS_VERSION_ID");
 		STATEMENT_UPDATE_USER                    = props.getProperty("STATEMENT_UPDATE_USER");
 		STATEMENT_UPDATE_USER_BLOCK              = props.getProperty("STATEMENT_UPDATE_USER_BLOCK");
@@ -1492,6 +1695,20 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_FILE_INFO               = props.getProperty("STATEMENT_SELECT_FILE_INFO");
 		STATEMENT_SELECT_FILE_DATA               = props.getProperty("STATEMENT_SELECT_FILE_DATA");
 		STATEMENT_SELECT_FILE_VERSION_DATA       = props.getProperty("STATEMENT_SELECT_FILE_VERSION_DATA");
+		STATEMENT_SELECT_FILE_VERSION_INFO       = props.getProperty("STATEMENT_SELECT_FILE_VERSION_INFO");
+		STATEMENT_CREATE_IMAGE_METADATA_TABLE    = props.getProperty("STATEMENT_CREATE_IMAGE_METADATA_TABLE");
+		STATEMENT_DROP_IMAGE_METADATA_TABLE      = props.getProperty("STATEMENT_DROP_IMAGE_METADATA_TABLE");
+		STATEMENT_INSERT_IMAGE_METADATA          = props.getProperty("STATEMENT_INSERT_IMAGE_METADATA");
+		STATEMENT_SELECT_IMAGE_METADATA          = props.getProperty("STATEMENT_SELECT_IMAGE_METADATA");
+		STATEMENT_SELECT_IMAGE_METADATA_BY_PAGE_NAME = props.getProperty("STATEMENT_SELECT_IMAGE_METADATA_BY_PAGE_NAME");
+		STATEMENT_UPDATE_IMAGE_METADATA_CLEAR_RESIZED_WIDTHS = props.getProperty("STATEMENT_UPDATE_IMAGE_METADATA_CLEAR_RESIZED_WIDTHS");
+		STATEMENT_UPDATE_IMAGE_METADATA_RESIZED_WIDTHS = props.getProperty("STATEMENT_UPDATE_IMAGE_METADATA_RESIZED_WIDTHS");
+		STATEMENT_CREATE_SEARCH_QUEUE_TABLE      = props.getProperty("STATEMENT_CREATE_SEARCH_QUEUE_TABLE");
+		STATEMENT_DROP_SEARCH_QUEUE_TABLE        = props.getProperty("STATEMENT_DROP_SEARCH_QUEUE_TABLE");
+		STATEMENT_DELETE_SEARCH_QUEUE            = props.getProperty("STATEMENT_DELETE_SEARCH_QUEUE");
+		STATEMENT_DELETE_SEARCH_QUEUE_TOPIC      = props.getProperty("STATEMENT_DELETE_SEARCH_QUEUE_TOPIC");
+		STATEMENT_INSERT_SEARCH_QUEUE            = props.getProperty("STATEMENT_INSERT_SEARCH_QUEUE");
+		STATEMENT_SELECT_SEARCH_QUEUE            = props.getProperty("STATEMENT_SELECT_SEARCH_QUEUE");
 		STATEMENT_CREATE_SEQUENCES               = props.getProperty("STATEMENT_CREATE_SEQUENCES");
 		STATEMENT_DROP_SEQUENCES                 = props.getProperty("STATEMENT_DROP_SEQUENCES");
 	}
@@ -1642,6 +1859,10 @@ public class AnsiQueryHandler implements QueryHandler {
 		if (previousTopicVersionId > 0) {
 			topicVersion.setPreviousTopicVersionId(previousTopicVersionId);
 		}
+		int deltaBaseTopicVersionId = rs.getInt("delta_base_version_id");
+		if (deltaBaseTopicVersionId > 0) {
+			topicVersion.setDeltaBaseTopicVersionId(deltaBaseTopicVersionId);
+		}
 		int userId = rs.getInt("wiki_user_id");
 		if (userId > 0) {
 			topicVersion.setAuthorId(userId);
@@ -1996,6 +2217,28 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public void insertTopicTemplates(List<Topic> topicTemplates, int topicId, Connection conn) throws SQLException {
+		if (topicId == -1) {
+			throw new SQLException("Invalid topicId passed to method AnsiQueryHandler.insertTopicTemplates");
+		}
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_INSERT_TOPIC_TEMPLATES);
+			for (Topic topicTemplate : topicTemplates) {
+				stmt.setInt(1, topicId);
+				stmt.setInt(2, topicTemplate.getNamespace().getId());
+				stmt.setString(3, topicTemplate.getPageName());
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -2562,6 +2805,33 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public List<Topic> lookupTopics(int virtualWikiId, int afterTopicId, int maxResults) throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPICS_AFTER_ID);
+			// use JDBC rather than SQL to limit the result size since the SQL syntax
+			// for limiting results differs between databases
+			stmt.setMaxRows(maxResults);
+			stmt.setFetchSize(maxResults);
+			stmt.setInt(1, virtualWikiId);
+			stmt.setInt(2, afterTopicId);
+			rs = stmt.executeQuery();
+			List<Topic> results = new ArrayList<Topic>();
+			while (rs.next()) {
+				results.add(this.initTopic(rs));
+			}
+			return results;
+		} finally {
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -2708,6 +2978,30 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public List<String> lookupTopicTemplateDependents(int virtualWikiId, Topic template) throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPIC_TEMPLATE_DEPENDENTS);
+			stmt.setInt(1, virtualWikiId);
+			stmt.setInt(2, template.getNamespace().getId());
+			stmt.setString(3, template.getPageName());
+			rs = stmt.executeQuery();
+			List<String> results = new ArrayList<String>();
+			while (rs.next()) {
+				results.add(rs.getString("topic_name"));
+			}
+			return results;
+		} finally {
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -2731,6 +3025,122 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public Map<String, String> lookupTopicNames(int virtualWikiId, Namespace namespace, Collection<String> pageNames) throws SQLException {
+		Map<String, String> results = new HashMap<String, String>();
+		if (namespace.getId().equals(Namespace.SPECIAL_ID) || pageNames.isEmpty()) {
+			// invalid namespace
+			return results;
+		}
+		Map<String, String> topicNamesByPageName = new HashMap<String, String>();
+		Map<String, String> topicNamesByLowerPageName = new HashMap<String, String>();
+		List<String> batch = new ArrayList<String>();
+		Connection conn = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			for (String pageName : pageNames) {
+				batch.add(pageName.toLowerCase());
+				if (batch.size() == MAX_IN_CLAUSE_PARAMETERS) {
+					this.lookupTopicNames(virtualWikiId, namespace, batch, topicNamesByPageName, topicNamesByLowerPageName, conn);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				this.lookupTopicNames(virtualWikiId, namespace, batch, topicNamesByPageName, topicNamesByLowerPageName, conn);
+			}
+		} finally {
+			DatabaseConnection.closeConnection(conn);
+		}
+		for (String pageName : pageNames) {
+			// match the behavior of lookupTopicName(), which falls back to a lower-case
+			// match for case-insensitive namespaces
+			String topicName = topicNamesByPageName.get(pageName);
+			if (topicName == null && !namespace.isCaseSensitive() && !pageName.toLowerCase().equals(pageName)) {
+				topicName = topicNamesByLowerPageName.get(pageName.toLowerCase());
+			}
+			if (topicName != null) {
+				results.put(pageName, topicName);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Execute a single batch of a bulk topic name lookup.
+	 */
+	private void lookupTopicNames(int virtualWikiId, Namespace namespace, List<String> lowerPageNames, Map<String, String> topicNamesByPageName, Map<String, String> topicNamesByLowerPageName, Connection conn) throws SQLException {
+		StringBuilder parameters = new StringBuilder();
+		for (int i = 0; i < lowerPageNames.size(); i++) {
+			parameters.append((i == 0) ? "?" : ", ?");
+		}
+		String sql = this.formatStatement(STATEMENT_SELECT_TOPIC_NAMES_BY_PAGE_NAME, new Object[] {parameters.toString()});
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = conn.prepareStatement(sql);
+			stmt.setInt(1, virtualWikiId);
+			stmt.setInt(2, namespace.getId());
+			for (int i = 0; i < lowerPageNames.size(); i++) {
+				stmt.setString(i + 3, lowerPageNames.get(i));
+			}
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				topicNamesByPageName.put(rs.getString("page_name"), rs.getString("topic_name"));
+				if (!topicNamesByLowerPageName.containsKey(rs.getString("page_name_lower"))) {
+					topicNamesByLowerPageName.put(rs.getString("page_name_lower"), rs.getString("topic_name"));
+				}
+			}
+		} finally {
+			DatabaseConnection.closeConnection(null, stmt, rs);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void populateTopicNameFilter(int virtualWikiId, TopicNameFilter topicNameFilter) throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPIC_PAGE_NAMES);
+			stmt.setFetchSize(1000);
+			stmt.setInt(1, virtualWikiId);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				topicNameFilter.add(rs.getInt("namespace_id"), rs.getString("page_name"));
+			}
+		} finally {
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void populateTopicNameIndex(int virtualWikiId, TopicNameIndex topicNameIndex) throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPIC_NAME_INDEX);
+			stmt.setFetchSize(1000);
+			stmt.setInt(1, virtualWikiId);
+			rs = stmt.executeQuery();
+			List<TopicNameIndex.Entry> entries = new ArrayList<TopicNameIndex.Entry>();
+			while (rs.next()) {
+				entries.add(new TopicNameIndex.Entry(rs.getInt("topic_id"), rs.getInt("namespace_id"), rs.getString("page_name"), rs.getString("topic_name"), rs.getInt("link_count")));
+			}
+			topicNameIndex.load(entries);
+		} finally {
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -2745,10 +3155,9 @@ public class AnsiQueryHandler implements QueryHandler {
 	}
 
 	/**
-	 * Private version of lookupTopicVersion that works with an existing connection
-	 * to allow lookups as part of a transaction.
+	 *
 	 */
-	private TopicVersion lookupTopicVersion(int topicVersionId, Connection conn) throws SQLException {
+	public TopicVersion lookupTopicVersion(int topicVersionId, Connection conn) throws SQLException {
 		PreparedStatement stmt = null;
 		ResultSet rs = null;
 		try {
@@ -2762,6 +3171,48 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public List<Integer> lookupTopicVersionDeltaDependents(int topicVersionId, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPIC_VERSION_DELTA_DEPENDENTS);
+			stmt.setInt(1, topicVersionId);
+			rs = stmt.executeQuery();
+			List<Integer> results = new ArrayList<Integer>();
+			while (rs.next()) {
+				results.add(rs.getInt("topic_version_id"));
+			}
+			return results;
+		} finally {
+			// close only the statement and result set - leave the connection open for further use
+			DatabaseConnection.closeConnection(null, stmt, rs);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public List<Integer> lookupTopicVersionIds(int topicId, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPIC_VERSION_IDS);
+			stmt.setInt(1, topicId);
+			rs = stmt.executeQuery();
+			List<Integer> results = new ArrayList<Integer>();
+			while (rs.next()) {
+				results.add(rs.getInt("topic_version_id"));
+			}
+			return results;
+		} finally {
+			// close only the statement and result set - leave the connection open for further use
+			DatabaseConnection.closeConnection(null, stmt, rs);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -3405,6 +3856,19 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 * Set the cursor date and ID parameters for a cursor statement, starting at
+	 * the specified parameter index.  The statement SQL limits the number of
+	 * results, and the JDBC limit is also set for drivers that would otherwise
+	 * fetch further rows.
+	 */
+	private void setCursorParams(PreparedStatement stmt, int index, Pagination pagination) throws SQLException {
+		stmt.setTimestamp(index++, pagination.getCursorDate());
+		stmt.setTimestamp(index++, pagination.getCursorDate());
+		stmt.setInt(index++, pagination.getCursorId());
+		stmt.setMaxRows(pagination.getNumResults());
+	}
+
 	/**
 	 *
 	 */
@@ -3572,22 +4036,47 @@ public class AnsiQueryHandler implements QueryHandler {
 			stmt.setInt(1, topicVersion.getTopicId());
 			stmt.setString(2, topicVersion.getEditComment());
 			stmt.setString(3, topicVersion.getVersionContent());
-			if (topicVersion.getAuthorId() == null) {
+			if (topicVersion.getDeltaBaseTopicVersionId() == null) {
 				stmt.setNull(4, Types.INTEGER);
 			} else {
-				stmt.setInt(4, topicVersion.getAuthorId());
+				stmt.setInt(4, topicVersion.getDeltaBaseTopicVersionId());
 			}
-			stmt.setInt(5, topicVersion.getEditType());
-			stmt.setString(6, topicVersion.getAuthorDisplay());
-			stmt.setTimestamp(7, topicVersion.getEditDate());
+			if (topicVersion.getAuthorId() == null) {
+				stmt.setNull(5, Types.INTEGER);
+			} else {
+				stmt.setInt(5, topicVersion.getAuthorId());
+			}
+			stmt.setInt(6, topicVersion.getEditType());
+			stmt.setString(7, topicVersion.getAuthorDisplay());
+			stmt.setTimestamp(8, topicVersion.getEditDate());
 			if (topicVersion.getPreviousTopicVersionId() == null) {
-				stmt.setNull(8, Types.INTEGER);
+				stmt.setNull(9, Types.INTEGER);
+			} else {
+				stmt.setInt(9, topicVersion.getPreviousTopicVersionId());
+			}
+			stmt.setInt(10, topicVersion.getCharactersChanged());
+			stmt.setString(11, topicVersion.getVersionParamString());
+			stmt.setInt(12, topicVersion.getTopicVersionId());
+			stmt.executeUpdate();
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void updateTopicVersionContent(int topicVersionId, String versionContent, Integer deltaBaseTopicVersionId, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_UPDATE_TOPIC_VERSION_CONTENT);
+			stmt.setString(1, versionContent);
+			if (deltaBaseTopicVersionId == null) {
+				stmt.setNull(2, Types.INTEGER);
 			} else {
-				stmt.setInt(8, topicVersion.getPreviousTopicVersionId());
+				stmt.setInt(2, deltaBaseTopicVersionId);
 			}
-			stmt.setInt(9, topicVersion.getCharactersChanged());
-			stmt.setString(10, topicVersion.getVersionParamString());
-			stmt.setInt(11, topicVersion.getTopicVersionId());
+			stmt.setInt(3, topicVersionId);
 			stmt.executeUpdate();
 		} finally {
 			DatabaseConnection.closeStatement(stmt);
@@ -3817,7 +4306,18 @@ public class AnsiQueryHandler implements QueryHandler {
 			stmt.setInt(2, isResized ? imageData.width : 0);
 			stmt.setInt(3, imageData.width);
 			stmt.setInt(4, imageData.height);
-			stmt.setBytes(5, imageData.data);
+			if (imageData.data == null && imageData.dataStream != null) {
+				// stream large files rather than requiring them to be held in memory.  the
+				// long length overload is JDBC 4 and not supported by the DBCP 1.x pool,
+				// so it is only used for files that are too large for an int length.
+				if (imageData.dataLength <= Integer.MAX_VALUE) {
+					stmt.setBinaryStream(5, imageData.dataStream, (int)imageData.dataLength);
+				} else {
+					stmt.setBinaryStream(5, imageData.dataStream, imageData.dataLength);
+				}
+			} else {
+				stmt.setBytes(5, imageData.data);
+			}
 			stmt.executeUpdate();
 		} finally {
 			DatabaseConnection.closeStatement(stmt);
@@ -3838,6 +4338,122 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public void clearImageMetadataResizedWidths(int fileId, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_UPDATE_IMAGE_METADATA_CLEAR_RESIZED_WIDTHS);
+			stmt.setInt(1, fileId);
+			stmt.executeUpdate();
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void insertImageMetadata(WikiImageMetadata imageMetadata, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_INSERT_IMAGE_METADATA);
+			stmt.setInt(1, imageMetadata.getFileVersionId());
+			stmt.setInt(2, imageMetadata.getWidth());
+			stmt.setInt(3, imageMetadata.getHeight());
+			stmt.setInt(4, imageMetadata.getOrientation());
+			stmt.setString(5, imageMetadata.getResizedWidthsString());
+			stmt.executeUpdate();
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private WikiImageMetadata initImageMetadata(ResultSet rs) throws SQLException {
+		WikiImageMetadata imageMetadata = new WikiImageMetadata();
+		imageMetadata.setFileVersionId(rs.getInt("file_version_id"));
+		imageMetadata.setFileId(rs.getInt("file_id"));
+		imageMetadata.setUrl(rs.getString("file_url"));
+		imageMetadata.setMimeType(rs.getString("mime_type"));
+		imageMetadata.setWidth(rs.getInt("image_width"));
+		imageMetadata.setHeight(rs.getInt("image_height"));
+		imageMetadata.setOrientation(rs.getInt("image_orientation"));
+		imageMetadata.setResizedWidthsString(rs.getString("resized_widths"));
+		return imageMetadata;
+	}
+
+	/**
+	 *
+	 */
+	public WikiImageMetadata lookupImageMetadata(String url, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_SELECT_IMAGE_METADATA);
+			stmt.setString(1, url);
+			rs = stmt.executeQuery();
+			return (rs.next()) ? this.initImageMetadata(rs) : null;
+		} finally {
+			DatabaseConnection.closeConnection(null, stmt, rs);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public Map<String, WikiImageMetadata> lookupImageMetadata(int virtualWikiId, Collection<String> pageNames) throws SQLException {
+		Map<String, WikiImageMetadata> results = new HashMap<String, WikiImageMetadata>();
+		List<String> batch = new ArrayList<String>();
+		Connection conn = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			for (String pageName : pageNames) {
+				batch.add(pageName);
+				if (batch.size() == MAX_IN_CLAUSE_PARAMETERS) {
+					this.lookupImageMetadata(virtualWikiId, batch, results, conn);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				this.lookupImageMetadata(virtualWikiId, batch, results, conn);
+			}
+		} finally {
+			DatabaseConnection.closeConnection(conn);
+		}
+		return results;
+	}
+
+	/**
+	 * Execute a single batch of a bulk image metadata lookup.
+	 */
+	private void lookupImageMetadata(int virtualWikiId, List<String> pageNames, Map<String, WikiImageMetadata> results, Connection conn) throws SQLException {
+		StringBuilder parameters = new StringBuilder();
+		for (int i = 0; i < pageNames.size(); i++) {
+			parameters.append((i == 0) ? "?" : ", ?");
+		}
+		String sql = this.formatStatement(STATEMENT_SELECT_IMAGE_METADATA_BY_PAGE_NAME, new Object[] {parameters.toString()});
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = conn.prepareStatement(sql);
+			stmt.setInt(1, virtualWikiId);
+			stmt.setInt(2, Namespace.FILE_ID);
+			for (int i = 0; i < pageNames.size(); i++) {
+				stmt.setString(i + 3, pageNames.get(i));
+			}
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				results.put(rs.getString("page_name"), this.initImageMetadata(rs));
+			}
+		} finally {
+			DatabaseConnection.closeConnection(null, stmt, rs);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -3851,7 +4467,7 @@ public class AnsiQueryHandler implements QueryHandler {
 			stmt.setInt(1, fileId);
 			stmt.setInt(2, resized);
 			rs = stmt.executeQuery();
-			return (rs.next()) ? new ImageData(rs.getString(1), rs.getInt(2), rs.getInt(3), null) : null;
+			return (rs.next()) ? new ImageData(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getInt(4), null) : null;
 		} finally {
 			DatabaseConnection.closeConnection(conn, stmt, rs);
 		}
@@ -3894,4 +4510,156 @@ public class AnsiQueryHandler implements QueryHandler {
 			DatabaseConnection.closeConnection(conn, stmt, rs);
 		}
 	}
+
+	/**
+	 *
+	 */
+	public ImageData getImageVersionInfo(int fileVersionId, int resized) throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(STATEMENT_SELECT_FILE_VERSION_INFO);
+			stmt.setInt(1, fileVersionId);
+			stmt.setInt(2, resized);
+			rs = stmt.executeQuery();
+			return (rs.next()) ? new ImageData(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getInt(4), null) : null;
+		} finally {
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public boolean streamImageData(int fileId, int resized, ImageStreamHandler handler) throws IOException, SQLException {
+		return this.streamImage(STATEMENT_SELECT_FILE_DATA, fileId, resized, handler);
+	}
+
+	/**
+	 *
+	 */
+	public boolean streamImageVersionData(int fileVersionId, int resized, ImageStreamHandler handler) throws IOException, SQLException {
+		return this.streamImage(STATEMENT_SELECT_FILE_VERSION_DATA, fileVersionId, resized, handler);
+	}
+
+	/**
+	 * Execute a file data query and pass the result to the stream handler.  The
+	 * file data is copied to memory, or to a temporary file if it is larger than
+	 * {@link #STREAM_IMAGE_BUFFER_SIZE}, and the connection is released before
+	 * the handler is called so that the connection is not held while the data
+	 * is sent to a client.
+	 */
+	private boolean streamImage(String sql, int id, int resized, ImageStreamHandler handler) throws IOException, SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		InputStream data = null;
+		ImageData imageInfo = null;
+		DeferredFileOutputStream buffer = new DeferredFileOutputStream(STREAM_IMAGE_BUFFER_SIZE, "image", ".tmp", WikiUtil.getTempDirectory());
+		try {
+			try {
+				conn = DatabaseConnection.getConnection();
+				stmt = conn.prepareStatement(sql);
+				stmt.setInt(1, id);
+				stmt.setInt(2, resized);
+				rs = stmt.executeQuery();
+				if (!rs.next()) {
+					return false;
+				}
+				imageInfo = new ImageData(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getInt(4), null);
+				data = rs.getBinaryStream(5);
+				if (data != null) {
+					IOUtils.copyLarge(data, buffer);
+				}
+			} finally {
+				IOUtils.closeQuietly(data);
+				IOUtils.closeQuietly(buffer);
+				DatabaseConnection.closeConnection(conn, stmt, rs);
+			}
+			imageInfo.dataLength = buffer.getByteCount();
+			data = (buffer.isInMemory()) ? new ByteArrayInputStream(buffer.getData()) : new FileInputStream(buffer.getFile());
+			try {
+				handler.handleImageStream(imageInfo, data);
+			} finally {
+				IOUtils.closeQuietly(data);
+			}
+			return true;
+		} finally {
+			if (!buffer.isInMemory()) {
+				FileUtils.deleteQuietly(buffer.getFile());
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void updateImageMetadataResizedWidths(WikiImageMetadata imageMetadata, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_UPDATE_IMAGE_METADATA_RESIZED_WIDTHS);
+			stmt.setString(1, imageMetadata.getResizedWidthsString());
+			stmt.setInt(2, imageMetadata.getFileVersionId());
+			stmt.executeUpdate();
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void deleteSearchIndexQueue(int topicId, int topicVersionId, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_DELETE_SEARCH_QUEUE);
+			stmt.setInt(1, topicId);
+			stmt.setInt(2, topicVersionId);
+			stmt.executeUpdate();
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public Map<Integer, Integer> getSearchIndexQueue(int limit, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_SELECT_SEARCH_QUEUE);
+			stmt.setMaxRows(limit);
+			rs = stmt.executeQuery();
+			Map<Integer, Integer> results = new LinkedHashMap<Integer, Integer>();
+			while (rs.next()) {
+				results.put(rs.getInt("topic_id"), rs.getInt("topic_version_id"));
+			}
+			return results;
+		} finally {
+			DatabaseConnection.closeConnection(null, stmt, rs);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void insertSearchIndexQueue(int topicId, int topicVersionId, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		try {
+			// replace any entry for an earlier version of the topic
+			stmt = conn.prepareStatement(STATEMENT_DELETE_SEARCH_QUEUE_TOPIC);
+			stmt.setInt(1, topicId);
+			stmt.executeUpdate();
+			DatabaseConnection.closeStatement(stmt);
+			stmt = conn.prepareStatement(STATEMENT_INSERT_SEARCH_QUEUE);
+			stmt.setInt(1, topicId);
+			stmt.setInt(2, topicVersionId);
+			stmt.executeUpdate();
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
 }
@@ -30,7 +30,6 @@ import java.util.Map;
 import java.util.Properties;
 import org.jamwiki.Environment;
 import org.jamwiki.model.Category;
-import org.jamwiki.model.LogItem;
 import org.jamwiki.model.RecentChange;
 import org.jamwiki.model.TopicType;
 import org.jamwiki.model.TopicVersion;
@@ -104,28 +103,6 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 		return stmt;
 	}
 
-	/**
-	 *
-	 */
-	public List<LogItem> getLogItems(int virtualWikiId, String virtualWikiName, int logType, Pagination pagination, boolean descending) throws SQLException {
-		Connection conn = null;
-		PreparedStatement stmt = null;
-		ResultSet rs = null;
-		List<LogItem> logItems = new ArrayList<LogItem>();
-		try {
-			conn = DatabaseConnection.getConnection();
-			stmt = this.getLogItemsStatement(conn, virtualWikiId, virtualWikiName, logType, pagination, descending);
-			// FIXME - sort order ignored
-			rs = stmt.executeQuery();
-			while (rs.next()) {
-				logItems.add(this.initLogItem(rs, virtualWikiName));
-			}
-			return logItems;
-		} finally {
-			DatabaseConnection.closeConnection(conn, stmt, rs);
-		}
-	}
-
 	/**
 	 *
 	 */
@@ -144,28 +121,6 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 		return stmt;
 	}
 
-	/**
-	 *
-	 */
-	public List<RecentChange> getRecentChanges(String virtualWiki, Pagination pagination, boolean descending) throws SQLException {
-		Connection conn = null;
-		PreparedStatement stmt = null;
-		ResultSet rs = null;
-		try {
-			conn = DatabaseConnection.getConnection();
-			stmt = this.getRecentChangesStatement(conn, virtualWiki, pagination, descending);
-			// FIXME - sort order ignored
-			rs = stmt.executeQuery();
-			List<RecentChange> recentChanges = new ArrayList<RecentChange>();
-			while (rs.next()) {
-				recentChanges.add(this.initRecentChange(rs));
-			}
-			return recentChanges;
-		} finally {
-			DatabaseConnection.closeConnection(conn, stmt, rs);
-		}
-	}
-
 	/**
 	 *
 	 */
@@ -177,28 +132,6 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 		return stmt;
 	}
 
-	/**
-	 *
-	 */
-	public List<RecentChange> getTopicHistory(int topicId, Pagination pagination, boolean descending, boolean selectDeleted) throws SQLException {
-		Connection conn = null;
-		PreparedStatement stmt = null;
-		ResultSet rs = null;
-		try {
-			conn = DatabaseConnection.getConnection();
-			stmt = getTopicHistoryStatement(conn, topicId, pagination, descending, selectDeleted);
-			// FIXME - sort order ignored
-			rs = stmt.executeQuery();
-			List<RecentChange> recentChanges = new ArrayList<RecentChange>();
-			while (rs.next()) {
-				recentChanges.add(this.initRecentChange(rs));
-			}
-			return recentChanges;
-		} finally {
-			DatabaseConnection.closeConnection(conn, stmt, rs);
-		}
-	}
-
 	/**
 	 *
 	 */
@@ -248,28 +181,6 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 		return stmt;
 	}
 
-	/**
-	 *
-	 */
-	public List<RecentChange> getUserContributionsByLogin(String virtualWiki, String login, Pagination pagination, boolean descending) throws SQLException {
-		Connection conn = null;
-		PreparedStatement stmt = null;
-		ResultSet rs = null;
-		try {
-			conn = DatabaseConnection.getConnection();
-			stmt = this.getUserContributionsByLoginStatement(conn, virtualWiki, login, pagination, descending);
-			// FIXME - sort order ignored
-			rs = stmt.executeQuery();
-			List<RecentChange> recentChanges = new ArrayList<RecentChange>();
-			while (rs.next()) {
-				recentChanges.add(this.initRecentChange(rs));
-			}
-			return recentChanges;
-		} finally {
-			DatabaseConnection.closeConnection(conn, stmt, rs);
-		}
-	}
-
 	/**
 	 *
 	 */
@@ -282,28 +193,6 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 		return stmt;
 	}
 
-	/**
-	 *
-	 */
-	public List<RecentChange> getUserContributionsByUserDisplay(String virtualWiki, String userDisplay, Pagination pagination, boolean descending) throws SQLException {
-		Connection conn = null;
-		PreparedStatement stmt = null;
-		ResultSet rs = null;
-		try {
-			conn = DatabaseConnection.getConnection();
-			stmt = this.getUserContributionsByUserDisplayStatement(conn, virtualWiki, userDisplay, pagination, descending);
-			// FIXME - sort order ignored
-			rs = stmt.executeQuery();
-			List<RecentChange> recentChanges = new ArrayList<RecentChange>();
-			while (rs.next()) {
-				recentChanges.add(this.initRecentChange(rs));
-			}
-			return recentChanges;
-		} finally {
-			DatabaseConnection.closeConnection(conn, stmt, rs);
-		}
-	}
-
 	/**
 	 *
 	 */
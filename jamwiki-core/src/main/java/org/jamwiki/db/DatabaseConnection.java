@@ -253,6 +253,8 @@ public class DatabaseConnection {
 				throw new SQLException("Unable to configure JNDI data source with URL " + url + ": " + e.toString());
 			}
 		}
+		// record connection pool wait and statement execution times
+		targetDataSource = new MeteredDataSource(targetDataSource);
 		dataSource = new LazyConnectionDataSourceProxy(targetDataSource);
 		transactionManager = new DataSourceTransactionManager(targetDataSource);
 	}
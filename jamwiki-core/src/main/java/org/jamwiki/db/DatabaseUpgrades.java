@@ -105,4 +105,34 @@ public class DatabaseUpgrades {
 		}
 		DatabaseConnection.commit(status);
 	}
+
+	/**
+	 * Perform the required database upgrade steps when upgrading from versions
+	 * older than JAMWiki 2.0.
+	 */
+	public static void upgrade200(List<WikiMessage> messages) throws WikiException {
+		TransactionStatus status = null;
+		try {
+			status = DatabaseConnection.startTransaction(getTransactionDefinition());
+			Connection conn = DatabaseConnection.getConnection();
+			// New tables as of JAMWiki 2.0
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("STATEMENT_CREATE_TOPIC_TEMPLATE_TABLE", conn);
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("STATEMENT_CREATE_TOPIC_TEMPLATE_INDEX", conn);
+			messages.add(new WikiMessage("upgrade.message.db.table.added", "jam_topic_template"));
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("UPGRADE_200_ADD_TOPIC_VERSION_COLUMN_DELTA_BASE", conn);
+			messages.add(new WikiMessage("upgrade.message.db.column.added", "delta_base_version_id", "jam_topic_version"));
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("STATEMENT_CREATE_IMAGE_METADATA_TABLE", conn);
+			messages.add(new WikiMessage("upgrade.message.db.table.added", "jam_image_metadata"));
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("STATEMENT_CREATE_SEARCH_QUEUE_TABLE", conn);
+			messages.add(new WikiMessage("upgrade.message.db.table.added", "jam_search_queue"));
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("STATEMENT_CREATE_LOG_DATE_INDEX", conn);
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("STATEMENT_CREATE_RECENT_CHANGE_DATE_INDEX", conn);
+			messages.add(new WikiMessage("upgrade.message.db.object.added", "jam_i_log_date, jam_i_rchange_date"));
+		} catch (SQLException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			logger.error("Database failure during upgrade", e);
+			throw new WikiException(new WikiMessage("upgrade.error.fatal", e.getMessage()));
+		}
+		DatabaseConnection.commit(status);
+	}
 }
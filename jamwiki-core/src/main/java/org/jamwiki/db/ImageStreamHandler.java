@@ -0,0 +1,46 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.jamwiki.model.ImageData;
+
+/**
+ * Callback used when streaming file data stored in the database.  Database
+ * file data can be arbitrarily large, so rather than loading it into an
+ * {@link ImageData} byte array the data handler copies it to a bounded
+ * memory buffer or a temporary file and passes an input stream for the copy.
+ * The database connection is released before the handler is called, so a
+ * slow client does not hold a pooled connection.
+ */
+public interface ImageStreamHandler {
+
+	/**
+	 * Process the data for a database file.  The input stream is only valid
+	 * for the duration of this call and must not be closed or retained by the
+	 * implementing class.
+	 *
+	 * @param imageInfo The file version ID, MIME type and dimensions of the
+	 *  file being streamed.  The data component of this object is always
+	 *  <code>null</code>.
+	 * @param data An input stream for reading the file data.
+	 * @throws IOException Thrown if any error occurs while processing the
+	 *  file data.
+	 */
+	void handleImageStream(ImageData imageInfo, InputStream data) throws IOException;
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+import org.jamwiki.utils.WikiLogger;
+import org.jamwiki.utils.WikiMetrics;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * DataSource wrapper that records the time spent waiting for connections from
+ * the underlying pool and the execution time of each prepared statement.
+ * Statements are timed by the name of the SQL property that defines them, as
+ * registered by the query handler using {@link #registerStatement}.
+ */
+public class MeteredDataSource extends DelegatingDataSource {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(MeteredDataSource.class.getName());
+	/** Name used for statements whose SQL was not registered. */
+	private static final String UNNAMED_STATEMENT = "unnamed";
+	/** Formatted SQL is registered in addition to raw SQL, so cap the map size to avoid unbounded growth. */
+	private static final int MAX_STATEMENTS = 2500;
+	private static final ConcurrentMap<String, String> STATEMENT_NAMES = new ConcurrentHashMap<String, String>();
+	/** Set once the statement limit has been reached so that the warning is only logged once. */
+	private static final AtomicBoolean STATEMENT_LIMIT_REACHED = new AtomicBoolean(false);
+
+	/**
+	 *
+	 */
+	public MeteredDataSource(DataSource targetDataSource) {
+		super(targetDataSource);
+	}
+
+	/**
+	 * Retrieve a connection from the target DataSource, recording the time
+	 * spent waiting for it.
+	 */
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		Connection conn = super.getConnection();
+		WikiMetrics.recordTime(WikiMetrics.TIMER_DB_CONNECTION, "pool", start);
+		return MeteredDataSource.meteredConnection(conn);
+	}
+
+	/**
+	 * Retrieve a connection from the target DataSource, recording the time
+	 * spent waiting for it.
+	 */
+	public Connection getConnection(String username, String password) throws SQLException {
+		long start = System.nanoTime();
+		Connection conn = super.getConnection(username, password);
+		WikiMetrics.recordTime(WikiMetrics.TIMER_DB_CONNECTION, "pool", start);
+		return MeteredDataSource.meteredConnection(conn);
+	}
+
+	/**
+	 *
+	 */
+	private static Connection meteredConnection(Connection conn) {
+		return (Connection)Proxy.newProxyInstance(MeteredDataSource.class.getClassLoader(), new Class[] {Connection.class}, new ConnectionHandler(conn));
+	}
+
+	/**
+	 * Associate SQL text with the name used when timing its execution.
+	 *
+	 * @param name The statement name, generally the SQL property name such as
+	 *  <code>STATEMENT_SELECT_TOPIC</code>.
+	 * @param sql The SQL text that will be passed to the connection.
+	 */
+	protected static void registerStatement(String name, String sql) {
+		if (name == null || sql == null) {
+			return;
+		}
+		if (STATEMENT_NAMES.size() < MAX_STATEMENTS) {
+			STATEMENT_NAMES.put(sql, name);
+		} else if (!STATEMENT_NAMES.containsKey(sql) && STATEMENT_LIMIT_REACHED.compareAndSet(false, true)) {
+			logger.warn("Maximum of " + MAX_STATEMENTS + " statement names reached, further statements will be timed as \"" + UNNAMED_STATEMENT + "\"");
+		}
+	}
+
+	/**
+	 * Return the name registered for the given SQL, or <code>null</code> if
+	 * no name has been registered.
+	 */
+	protected static String statementName(String sql) {
+		return (sql == null) ? null : STATEMENT_NAMES.get(sql);
+	}
+
+	/**
+	 * Invoke a method on a proxied object, unwrapping any exception thrown.
+	 */
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	/**
+	 * Connection proxy that wraps each prepared statement it creates.
+	 */
+	private static class ConnectionHandler implements InvocationHandler {
+
+		private final Connection target;
+
+		/**
+		 *
+		 */
+		ConnectionHandler(Connection target) {
+			this.target = target;
+		}
+
+		/**
+		 *
+		 */
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("equals") && args != null && args.length == 1) {
+				// connections are compared by identity when releasing them
+				return (proxy == args[0]);
+			}
+			if (method.getName().equals("hashCode") && args == null) {
+				return System.identityHashCode(proxy);
+			}
+			Object result = MeteredDataSource.invokeTarget(this.target, method, args);
+			if (result instanceof PreparedStatement && args != null && args[0] instanceof String) {
+				String name = MeteredDataSource.statementName((String)args[0]);
+				Class<?> type = (result instanceof CallableStatement) ? CallableStatement.class : PreparedStatement.class;
+				result = Proxy.newProxyInstance(MeteredDataSource.class.getClassLoader(), new Class[] {type}, new StatementHandler((PreparedStatement)result, (name != null) ? name : UNNAMED_STATEMENT));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Statement proxy that times each execution of the statement.
+	 */
+	private static class StatementHandler implements InvocationHandler {
+
+		private final String name;
+		private final PreparedStatement target;
+
+		/**
+		 *
+		 */
+		StatementHandler(PreparedStatement target, String name) {
+			this.target = target;
+			this.name = name;
+		}
+
+		/**
+		 *
+		 */
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (!method.getName().startsWith("execute")) {
+				return MeteredDataSource.invokeTarget(this.target, method, args);
+			}
+			long start = System.nanoTime();
+			try {
+				return MeteredDataSource.invokeTarget(this.target, method, args);
+			} finally {
+				WikiMetrics.recordTime(WikiMetrics.TIMER_SQL, this.name, start);
+			}
+		}
+	}
+}
@@ -16,8 +16,10 @@
  */
 package org.jamwiki.db;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import org.jamwiki.model.Category;
@@ -37,6 +39,7 @@ import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.WikiFile;
 import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiGroup;
+import org.jamwiki.model.WikiImageMetadata;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.model.WikiUserDetails;
 import org.jamwiki.utils.Pagination;
@@ -168,6 +171,17 @@ public interface QueryHandler {
 	 */
 	void deleteTopicLinks(int topicId, Connection conn) throws SQLException;
 
+	/**
+	 * Delete all template association records for a topic.
+	 *
+	 * @param topicId The topic for which template association records are being
+	 *  deleted.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	void deleteTopicTemplates(int topicId, Connection conn) throws SQLException;
+
 	/**
 	 * Delete a topic version record.  This method will fail if there is a
 	 * topic with the version as its current version ID, or if there is
@@ -634,6 +648,21 @@ public interface QueryHandler {
 	 */
 	void insertTopicLinks(List<Topic> topicLinks, int topicId, Connection conn) throws SQLException;
 
+	/**
+	 * Add new template association records for a topic to the database.  Note
+	 * that this method will fail if an existing template of the same name is
+	 * already associated with the topic.
+	 *
+	 * @param topicTemplates A list of template records to create.  These are passed
+	 *  in the form of Topic objects, which need to be populated only with namespace
+	 *  and page name.
+	 * @param topicId The ID of the topic record that transcludes the templates.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	void insertTopicTemplates(List<Topic> topicTemplates, int topicId, Connection conn) throws SQLException;
+
 	/**
 	 * Add a new topic version record to the database.  The topic version must
 	 * not already exist in the database or else an error will be thrown.
@@ -837,6 +866,23 @@ public interface QueryHandler {
 	 */
 	public Topic lookupTopicById(int topicId, Connection conn) throws SQLException;
 
+	/**
+	 * Retrieve a page of non-deleted topics from a virtual wiki, ordered by
+	 * topic ID.  This method is intended for processing all topics in a large
+	 * wiki without loading every topic into memory at once.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the topics
+	 *  being retrieved.
+	 * @param afterTopicId Only topics with an ID greater than this value are
+	 *  returned.  Pass the ID of the last topic from the previous page to
+	 *  retrieve the next page, or zero to retrieve the first page.
+	 * @param maxResults The maximum number of topics to return.
+	 * @return A list of topics ordered by topic ID.  If no matching topics are
+	 *  found then an empty list is returned.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	List<Topic> lookupTopics(int virtualWikiId, int afterTopicId, int maxResults) throws SQLException;
+
 	/**
 	 * Retrieve a list of all topic names of a given type within a virtual wiki.
 	 *
@@ -922,6 +968,19 @@ public interface QueryHandler {
 	 */
 	List<String> lookupTopicLinkOrphans(int virtualWikiId, int namespaceId) throws SQLException;
 
+	/**
+	 * Find the names for all non-deleted topics that directly transclude a
+	 * specified template.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the template being queried.
+	 * @param template The template that is transcluded by all topics being
+	 *  returned by this method.
+	 * @return A list of topic names for all topics that transclude the specified
+	 *  template.  If no results are found then an empty list is returned.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	List<String> lookupTopicTemplateDependents(int virtualWikiId, Topic template) throws SQLException;
+
 	/**
 	 * Retrieve a result set containing a specific topic version.
 	 *
@@ -931,6 +990,42 @@ public interface QueryHandler {
 	 */
 	TopicVersion lookupTopicVersion(int topicVersionId) throws SQLException;
 
+	/**
+	 * Retrieve a result set containing a specific topic version using an
+	 * existing database connection.
+	 *
+	 * @param topicVersionId The id for the topic version record being retrieved.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @return A TopicVersion record, or <code>null</code> if no matching record is found.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	TopicVersion lookupTopicVersion(int topicVersionId, Connection conn) throws SQLException;
+
+	/**
+	 * Retrieve the IDs of all topic versions whose content is stored as a delta
+	 * against the specified topic version.
+	 *
+	 * @param topicVersionId The ID of the topic version that is the delta base.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @return A list of topic version IDs whose content is a delta against the
+	 *  specified topic version.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	List<Integer> lookupTopicVersionDeltaDependents(int topicVersionId, Connection conn) throws SQLException;
+
+	/**
+	 * Retrieve the IDs of all versions of a topic, ordered from oldest to newest.
+	 *
+	 * @param topicId The ID of the topic whose version IDs are being retrieved.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @return A list of topic version IDs ordered from oldest to newest.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	List<Integer> lookupTopicVersionIds(int topicId, Connection conn) throws SQLException;
+
 	/**
 	 * Retrieve the next topic version ID chronologically for a given topic
 	 * version, or <code>null</code> if there is no next topic version ID.
@@ -956,6 +1051,46 @@ public interface QueryHandler {
 	 */
 	Map<Integer, String> lookupTopicNames(int virtualWikiId, boolean includeDeleted, Connection conn) throws SQLException;
 
+	/**
+	 * Retrieve the topic names for a group of page names within a namespace
+	 * using a minimal number of queries.  This method is used when rendering
+	 * a page that contains many links in order to determine which link targets
+	 * exist, and each page name is matched as it would be by
+	 * {@link #lookupTopicName}.
+	 *
+	 * @param virtualWikiId The ID of the virtual wiki for the topics being queried.
+	 * @param namespace The Namespace for the topics being retrieved.
+	 * @param pageNames The topic page names (topic names without the namespace)
+	 *  for the topics being retrieved.
+	 * @return A map of page name and topic name for all page names that match
+	 *  an existing topic.  Page names that do not match an existing topic are
+	 *  not included in the map.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	Map<String, String> lookupTopicNames(int virtualWikiId, Namespace namespace, Collection<String> pageNames) throws SQLException;
+
+	/**
+	 * Add the names of all topics within a virtual wiki, including deleted
+	 * topics, to a topic name filter.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the topics
+	 *  being retrieved.
+	 * @param topicNameFilter The filter to which all topic names will be added.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	void populateTopicNameFilter(int virtualWikiId, TopicNameFilter topicNameFilter) throws SQLException;
+
+	/**
+	 * Load the name, namespace and number of incoming links for every
+	 * non-deleted topic within a virtual wiki into a topic name index.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the topics
+	 *  being retrieved.
+	 * @param topicNameIndex The index into which all topic names will be loaded.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	void populateTopicNameIndex(int virtualWikiId, TopicNameIndex topicNameIndex) throws SQLException;
+
 	/**
 	 * Retrieve a result set containing all wiki file information for a given WikiFile.
 	 *
@@ -1200,6 +1335,22 @@ public interface QueryHandler {
 	 */
 	public void updateTopicVersion(TopicVersion topicVersion, Connection conn) throws SQLException;
 
+	/**
+	 * Update the stored content of a topic version record without modifying any
+	 * other version metadata.
+	 *
+	 * @param topicVersionId The ID of the topic version record being updated.
+	 * @param versionContent The content to store, either the full topic text or
+	 *  a reverse delta.
+	 * @param deltaBaseTopicVersionId If the version content is a delta then this
+	 *  value is the ID of the topic version that the delta applies to, otherwise
+	 *  <code>null</code>.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	public void updateTopicVersionContent(int topicVersionId, String versionContent, Integer deltaBaseTopicVersionId, Connection conn) throws SQLException;
+
 	/**
 	 * Update user authentication credentials.
 	 *
@@ -1290,6 +1441,65 @@ public interface QueryHandler {
 	public void deleteResizedImages(int fileId, Connection conn) throws SQLException;
 
 	/**
+	 * Remove the list of available resized widths from the image metadata for
+	 * all versions of a file.  This method should be called whenever the
+	 * resized images for a file are deleted.
+	 *
+	 * @param fileId File identifier.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	void clearImageMetadataResizedWidths(int fileId, Connection conn) throws SQLException;
+
+	/**
+	 * Add a new image metadata record to the database.  The image metadata
+	 * object must have a valid file version ID.
+	 *
+	 * @param imageMetadata The image metadata record to add.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	void insertImageMetadata(WikiImageMetadata imageMetadata, Connection conn) throws SQLException;
+
+	/**
+	 * Retrieve the image metadata for the file version with the given URL.
+	 *
+	 * @param url The relative URL of the file version, as returned by
+	 *  {@link org.jamwiki.model.WikiFileVersion#getUrl}.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @return The image metadata for the file version, or <code>null</code> if
+	 *  no metadata has been stored for the file version.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	WikiImageMetadata lookupImageMetadata(String url, Connection conn) throws SQLException;
+
+	/**
+	 * Retrieve the image metadata for the current versions of a group of
+	 * images using as few queries as possible.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the images being retrieved.
+	 * @param pageNames The page names (topic names without the file namespace)
+	 *  of the images being retrieved.
+	 * @return A map of page name and image metadata.  Page names that do not
+	 *  correspond to an image with stored metadata are not included in the map.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	Map<String, WikiImageMetadata> lookupImageMetadata(int virtualWikiId, Collection<String> pageNames) throws SQLException;
+
+	/**
+	 * Update the list of available resized widths for an image version.
+	 *
+	 * @param imageMetadata The image metadata record to update.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	void updateImageMetadataResizedWidths(WikiImageMetadata imageMetadata, Connection conn) throws SQLException;
+
+	/**
 	 * @param fileId File identifier.
 	 * @param resized Image width or zero for original.
 	 * @return The image info or null if image not found. Result's width and height components must
@@ -1319,4 +1529,82 @@ public interface QueryHandler {
 	 * @throws SQLException Thrown if any error occurs during method execution.
 	 */
 	public ImageData getImageVersionData(int fileVersionId, int resized) throws SQLException;
+
+	/**
+	 * Get info of desired version of image without retrieving the file data.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @return The image info or null if image not found. Result's width and height components must
+	 * be negative when data are not an image. Result's data component is null.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	public ImageData getImageVersionInfo(int fileVersionId, int resized) throws SQLException;
+
+	/**
+	 * Stream the latest version of an image without loading the file data into
+	 * memory.
+	 *
+	 * @param fileId File identifier.
+	 * @param resized Image width or zero for original.
+	 * @param handler The handler that will be passed the image info and an
+	 *  input stream for reading the file data.
+	 * @return <code>true</code> if the image was found and passed to the handler,
+	 *  <code>false</code> otherwise.
+	 * @throws IOException Thrown if the handler fails while processing the data.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	public boolean streamImageData(int fileId, int resized, ImageStreamHandler handler) throws IOException, SQLException;
+
+	/**
+	 * Stream the desired version of an image without loading the file data into
+	 * memory.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @param handler The handler that will be passed the image info and an
+	 *  input stream for reading the file data.
+	 * @return <code>true</code> if the image was found and passed to the handler,
+	 *  <code>false</code> otherwise.
+	 * @throws IOException Thrown if the handler fails while processing the data.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	public boolean streamImageVersionData(int fileVersionId, int resized, ImageStreamHandler handler) throws IOException, SQLException;
+
+	/**
+	 * Remove a topic from the search index queue, but only if the queued entry
+	 * is for the specified topic version.  Entries that have been replaced by a
+	 * newer version since they were read are left in the queue.
+	 *
+	 * @param topicId The ID of the topic being removed from the queue.
+	 * @param topicVersionId The topic version that was indexed.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	void deleteSearchIndexQueue(int topicId, int topicVersionId, Connection conn) throws SQLException;
+
+	/**
+	 * Retrieve topics waiting to be updated in the search index, oldest first.
+	 *
+	 * @param limit The maximum number of entries to return.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @return A map of topic ID to the topic version ID that was queued, in
+	 *  queue order.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	Map<Integer, Integer> getSearchIndexQueue(int limit, Connection conn) throws SQLException;
+
+	/**
+	 * Add a topic to the search index queue, replacing any existing entry for
+	 * the topic so that repeated edits are only indexed once.
+	 *
+	 * @param topicId The ID of the topic that needs to be indexed.
+	 * @param topicVersionId The current topic version ID.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	void insertSearchIndexQueue(int topicId, int topicVersionId, Connection conn) throws SQLException;
 }
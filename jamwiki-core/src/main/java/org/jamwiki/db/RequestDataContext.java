@@ -0,0 +1,298 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.model.WikiUser;
+
+/**
+ * Request-scoped store used to memoize frequently repeated data lookups for
+ * the duration of a single request.  Rendering a page looks up the same
+ * namespaces, virtual wikis, topics and users many times, and although those
+ * values are cached each cache lookup has a cost.  While a context is bound to
+ * the current thread {@link AnsiDataHandler} records lookup results in plain
+ * maps and returns them directly on subsequent lookups.
+ *
+ * Contexts are bound by the servlet filter at the start of a request and
+ * unbound when the request completes.  When no context is bound, such as for
+ * background threads, lookups are not memoized.  Any update made through the
+ * data handler clears the context so that subsequent lookups within the same
+ * request do not return stale values.
+ */
+public class RequestDataContext {
+
+	private static final ThreadLocal<RequestDataContext> CURRENT = new ThreadLocal<RequestDataContext>();
+
+	/** Lookup type for namespace list lookups. */
+	public static final int LOOKUP_NAMESPACES = 0;
+	/** Lookup type for topic lookups. */
+	public static final int LOOKUP_TOPIC = 1;
+	/** Lookup type for virtual wiki list lookups. */
+	public static final int LOOKUP_VIRTUAL_WIKIS = 2;
+	/** Lookup type for user lookups by ID or username. */
+	public static final int LOOKUP_WIKI_USER = 3;
+	private static final String[] LOOKUP_NAMES = {"namespaces", "topic", "virtualWikis", "wikiUser"};
+
+	private final int[] databaseLookups = new int[LOOKUP_NAMES.length];
+	private final int[] hits = new int[LOOKUP_NAMES.length];
+	private final int[] misses = new int[LOOKUP_NAMES.length];
+	private List<Namespace> namespaces = null;
+	private final Map<String, Topic> topics = new HashMap<String, Topic>();
+	private final Map<Integer, WikiUser> usersById = new HashMap<Integer, WikiUser>();
+	private final Map<String, WikiUser> usersByName = new HashMap<String, WikiUser>();
+	private List<VirtualWiki> virtualWikis = null;
+
+	/**
+	 * Bind a new context to the current thread, replacing any context that is
+	 * already bound.
+	 *
+	 * @return The newly bound context.
+	 */
+	public static RequestDataContext bind() {
+		RequestDataContext context = new RequestDataContext();
+		CURRENT.set(context);
+		return context;
+	}
+
+	/**
+	 * Return <code>true</code> if a topic lookup result, which may be
+	 * <code>null</code>, has been memoized for the given key.
+	 */
+	protected boolean containsTopic(String key) {
+		return this.recordLookup(LOOKUP_TOPIC, this.topics.containsKey(key));
+	}
+
+	/**
+	 * Return <code>true</code> if a user lookup result, which may be
+	 * <code>null</code>, has been memoized for the given user ID.
+	 */
+	protected boolean containsWikiUser(int userId) {
+		return this.recordLookup(LOOKUP_WIKI_USER, this.usersById.containsKey(userId));
+	}
+
+	/**
+	 * Return <code>true</code> if a user lookup result, which may be
+	 * <code>null</code>, has been memoized for the given username.
+	 */
+	protected boolean containsWikiUser(String username) {
+		return this.recordLookup(LOOKUP_WIKI_USER, this.usersByName.containsKey(username));
+	}
+
+	/**
+	 * Return the context bound to the current thread, or <code>null</code> if
+	 * no context is bound.
+	 *
+	 * @return The context bound to the current thread, or <code>null</code> if
+	 *  no context is bound.
+	 */
+	public static RequestDataContext current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Return the number of lookups of the given type that could not be served
+	 * from this context or from the cache and required a database query.
+	 *
+	 * @param lookupType One of the <code>LOOKUP_</code> constants.
+	 * @return The number of lookups of the given type that required a database
+	 *  query.
+	 */
+	public int getDatabaseLookups(int lookupType) {
+		return this.databaseLookups[lookupType];
+	}
+
+	/**
+	 * Return the number of lookups of the given type that were served from
+	 * this context, each of which avoided a cache lookup and possibly a
+	 * database query.
+	 *
+	 * @param lookupType One of the <code>LOOKUP_</code> constants.
+	 * @return The number of lookups of the given type that were served from
+	 *  this context.
+	 */
+	public int getHits(int lookupType) {
+		return this.hits[lookupType];
+	}
+
+	/**
+	 * Return the number of lookups of the given type that could not be served
+	 * from this context.
+	 *
+	 * @param lookupType One of the <code>LOOKUP_</code> constants.
+	 * @return The number of lookups of the given type that could not be served
+	 *  from this context.
+	 */
+	public int getMisses(int lookupType) {
+		return this.misses[lookupType];
+	}
+
+	/**
+	 * Return the memoized namespace list, or <code>null</code> if the list has
+	 * not been memoized.
+	 */
+	protected List<Namespace> getNamespaces() {
+		return (this.recordLookup(LOOKUP_NAMESPACES, this.namespaces != null)) ? this.namespaces : null;
+	}
+
+	/**
+	 * Return the memoized topic for the given key.  Topics are mutable, so
+	 * callers must return a copy of the memoized topic.
+	 */
+	protected Topic getTopic(String key) {
+		return this.topics.get(key);
+	}
+
+	/**
+	 * Return the total number of lookups that were served from this context.
+	 *
+	 * @return The total number of lookups that were served from this context.
+	 */
+	public int getTotalHits() {
+		int total = 0;
+		for (int count : this.hits) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Return the memoized virtual wiki list, or <code>null</code> if the list
+	 * has not been memoized.
+	 */
+	protected List<VirtualWiki> getVirtualWikis() {
+		return (this.recordLookup(LOOKUP_VIRTUAL_WIKIS, this.virtualWikis != null)) ? this.virtualWikis : null;
+	}
+
+	/**
+	 *
+	 */
+	protected WikiUser getWikiUser(int userId) {
+		return this.usersById.get(userId);
+	}
+
+	/**
+	 *
+	 */
+	protected WikiUser getWikiUser(String username) {
+		return this.usersByName.get(username);
+	}
+
+	/**
+	 * Discard all memoized values for the context bound to the current thread,
+	 * if any.  This method must be called whenever data that may have been
+	 * memoized is updated.
+	 */
+	public static void invalidate() {
+		RequestDataContext context = CURRENT.get();
+		if (context != null) {
+			context.namespaces = null;
+			context.topics.clear();
+			context.usersById.clear();
+			context.usersByName.clear();
+			context.virtualWikis = null;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void putNamespaces(List<Namespace> namespaces) {
+		this.namespaces = namespaces;
+	}
+
+	/**
+	 *
+	 */
+	protected void putTopic(String key, Topic topic) {
+		this.topics.put(key, topic);
+	}
+
+	/**
+	 *
+	 */
+	protected void putVirtualWikis(List<VirtualWiki> virtualWikis) {
+		this.virtualWikis = virtualWikis;
+	}
+
+	/**
+	 *
+	 */
+	protected void putWikiUser(int userId, WikiUser user) {
+		this.usersById.put(userId, user);
+	}
+
+	/**
+	 *
+	 */
+	protected void putWikiUser(String username, WikiUser user) {
+		this.usersByName.put(username, user);
+	}
+
+	/**
+	 * Record that a lookup of the given type required a database query.
+	 */
+	protected static void recordDatabaseLookup(int lookupType) {
+		RequestDataContext context = CURRENT.get();
+		if (context != null) {
+			context.databaseLookups[lookupType]++;
+		}
+	}
+
+	/**
+	 *
+	 */
+	private boolean recordLookup(int lookupType, boolean found) {
+		if (found) {
+			this.hits[lookupType]++;
+		} else {
+			this.misses[lookupType]++;
+		}
+		return found;
+	}
+
+	/**
+	 * Return a summary of lookup counts for logging.
+	 */
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < LOOKUP_NAMES.length; i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append(LOOKUP_NAMES[i]).append(": ").append(this.hits[i]).append(" hits / ");
+			result.append(this.misses[i]).append(" misses / ").append(this.databaseLookups[i]).append(" database");
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Remove the context bound to the current thread.
+	 *
+	 * @return The context that was bound to the current thread, or
+	 *  <code>null</code> if no context was bound.
+	 */
+	public static RequestDataContext unbind() {
+		RequestDataContext context = CURRENT.get();
+		CURRENT.remove();
+		return context;
+	}
+}
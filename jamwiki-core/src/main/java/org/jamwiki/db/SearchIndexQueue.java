@@ -0,0 +1,214 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jamwiki.DataAccessException;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Topic;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Adds topics to the search index after the transaction that modified them
+ * has committed.  Topic writes record the topic in the search index queue
+ * table as part of the same transaction, so a failure while updating the
+ * search index never rolls back a topic edit, and topics queued before a
+ * crash or restart are indexed the next time the queue is processed.
+ * Entries are only removed from the queue after the search index has been
+ * committed.
+ *
+ * By default the queue is processed by a background thread so that edits do
+ * not wait for the search index; if asynchronous indexing is disabled then
+ * the queue is processed by the thread that wrote the topic.
+ */
+public class SearchIndexQueue implements Runnable {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(SearchIndexQueue.class.getName());
+	/** Number of queued topics indexed before the index is committed and the entries are removed. */
+	private static final int BATCH_SIZE = 100;
+	/** Maximum time between checks of the queue, used to pick up entries left by another server or an earlier crash. */
+	private static final long POLL_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+	private static final Object PROCESS_LOCK = new Object();
+	private static SearchIndexQueue currentQueue = null;
+
+	private boolean notified = false;
+	private volatile boolean running = true;
+
+	/**
+	 *
+	 */
+	private SearchIndexQueue() {
+	}
+
+	/**
+	 * Return <code>true</code> if queued topics are indexed by a background
+	 * thread rather than by the thread that wrote the topic.
+	 */
+	private static boolean isAsynchronous() {
+		return Environment.getBooleanValue(Environment.PROP_SEARCH_INDEX_ASYNCHRONOUS);
+	}
+
+	/**
+	 * Called after a transaction that added entries to the search index queue
+	 * has been committed.  The queue is processed immediately if asynchronous
+	 * indexing is disabled, otherwise the background thread is woken.
+	 */
+	protected static void notifyQueued() {
+		if (!SearchIndexQueue.isAsynchronous()) {
+			SearchIndexQueue.processQueue();
+			return;
+		}
+		synchronized (SearchIndexQueue.class) {
+			SearchIndexQueue.start();
+			if (currentQueue != null) {
+				currentQueue.wake();
+			}
+		}
+	}
+
+	/**
+	 * Index all topics currently in the search index queue.  The search index
+	 * for each affected virtual wiki is committed after every batch, and the
+	 * batch is then removed from the queue.
+	 *
+	 * @return The number of queue entries that were processed.
+	 */
+	public static int processQueue() {
+		synchronized (PROCESS_LOCK) {
+			int total = 0;
+			while (true) {
+				Map<Integer, Integer> entries;
+				try {
+					entries = WikiBase.getDataHandler().getSearchIndexQueue(BATCH_SIZE);
+				} catch (DataAccessException e) {
+					logger.error("Failure while retrieving the search index queue", e);
+					break;
+				}
+				Map<Integer, Integer> processed = new LinkedHashMap<Integer, Integer>();
+				Set<String> virtualWikis = new HashSet<String>();
+				for (Map.Entry<Integer, Integer> entry : entries.entrySet()) {
+					Topic topic;
+					try {
+						topic = WikiBase.getDataHandler().lookupTopicById(entry.getKey());
+						if (topic != null && (topic.getCurrentVersionId() == null || topic.getCurrentVersionId().intValue() != entry.getValue().intValue())) {
+							// either the cached topic has not yet been refreshed after the write that
+							// queued this entry, or the queued version has since been purged.  index
+							// the topic as currently stored in the database either way.
+							topic = WikiBase.getDataHandler().queryHandler().lookupTopicById(entry.getKey(), null);
+						}
+					} catch (DataAccessException e) {
+						logger.error("Failure while retrieving topic " + entry.getKey() + " for search indexing", e);
+						continue;
+					} catch (SQLException e) {
+						logger.error("Failure while retrieving topic " + entry.getKey() + " for search indexing", e);
+						continue;
+					}
+					if (topic != null) {
+						WikiBase.getSearchEngine().updateInIndex(topic);
+						virtualWikis.add(topic.getVirtualWiki());
+					}
+					processed.put(entry.getKey(), entry.getValue());
+				}
+				for (String virtualWiki : virtualWikis) {
+					WikiBase.getSearchEngine().commit(virtualWiki);
+				}
+				if (!processed.isEmpty()) {
+					try {
+						WikiBase.getDataHandler().deleteSearchIndexQueue(processed);
+					} catch (DataAccessException e) {
+						// entries will be indexed again, which is harmless
+						logger.error("Failure while removing entries from the search index queue", e);
+						break;
+					}
+				}
+				total += processed.size();
+				if (entries.size() < BATCH_SIZE || processed.isEmpty()) {
+					break;
+				}
+			}
+			if (total > 0 && logger.isDebugEnabled()) {
+				logger.debug("Indexed " + total + " queued topics");
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * Process the queue until shutdown, waiting for notification of new entries
+	 * between passes.
+	 */
+	public void run() {
+		while (this.running) {
+			try {
+				SearchIndexQueue.processQueue();
+			} catch (RuntimeException e) {
+				logger.error("Failure while processing the search index queue", e);
+			}
+			synchronized (this) {
+				if (!this.notified && this.running) {
+					try {
+						this.wait(POLL_INTERVAL);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				this.notified = false;
+			}
+		}
+	}
+
+	/**
+	 * Stop the background thread.  Entries that have not yet been indexed remain
+	 * in the queue and will be processed after the next restart.
+	 */
+	public static synchronized void shutdown() {
+		if (currentQueue != null) {
+			currentQueue.running = false;
+			currentQueue.wake();
+			currentQueue = null;
+		}
+	}
+
+	/**
+	 * Start the background thread that processes the search index queue.  This
+	 * method does nothing if the thread is already running or if asynchronous
+	 * indexing is disabled.
+	 */
+	public static synchronized void start() {
+		if (currentQueue != null || !SearchIndexQueue.isAsynchronous()) {
+			return;
+		}
+		currentQueue = new SearchIndexQueue();
+		Thread thread = new Thread(currentQueue, "SearchIndexQueue");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 *
+	 */
+	private synchronized void wake() {
+		this.notified = true;
+		this.notifyAll();
+	}
+}
@@ -0,0 +1,388 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.jamwiki.DataAccessException;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.WikiException;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.parser.ParserException;
+import org.jamwiki.parser.ParserOutput;
+import org.jamwiki.parser.ParserUtil;
+import org.jamwiki.utils.WikiLogger;
+import org.jamwiki.utils.WikiUtil;
+
+/**
+ * Regenerates the category, link and template records for every topic in
+ * every virtual wiki.  Topics are processed in batches by a pool of worker
+ * threads, and the metadata for each batch is written in a single
+ * transaction.  Because this task can take hours on a large wiki it is run
+ * in the background, and after each batch the progress is saved to a
+ * checkpoint file so that a job interrupted by a server restart continues
+ * where it stopped the next time it is started.
+ */
+public class TopicMetadataRebuildJob implements Runnable {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(TopicMetadataRebuildJob.class.getName());
+	/** Number of topics parsed and written as a single unit of work. */
+	private static final int BATCH_SIZE = 100;
+	private static final String CHECKPOINT_FILE = "topic-metadata-rebuild.checkpoint";
+	private static final String PROPERTY_TOPIC = "topic";
+	private static final String PROPERTY_VIRTUAL_WIKI = "virtual-wiki";
+	/** Maximum number of milliseconds to wait for a job to stop during shutdown. */
+	private static final long SHUTDOWN_TIMEOUT = 10000;
+	private static TopicMetadataRebuildJob currentJob = null;
+	private static Thread currentThread = null;
+
+	private final File checkpointFile;
+	private volatile long endTime = 0;
+	private final AtomicInteger numErrors = new AtomicInteger();
+	private volatile int numTopics = 0;
+	private final AtomicInteger numUpdated = new AtomicInteger();
+	private volatile boolean resumed = false;
+	private volatile boolean running = false;
+	private volatile long startTime = 0;
+
+	/**
+	 *
+	 */
+	protected TopicMetadataRebuildJob() {
+		this.checkpointFile = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), CHECKPOINT_FILE);
+	}
+
+	/**
+	 * Return the most recently started rebuild job, which may still be running
+	 * or may have completed, or <code>null</code> if no job has been started
+	 * since the server was started.
+	 */
+	public static synchronized TopicMetadataRebuildJob getCurrentJob() {
+		return currentJob;
+	}
+
+	/**
+	 * Start a new background job to regenerate all topic metadata.  If a
+	 * previous job was interrupted before completing then the new job resumes
+	 * from the last checkpoint.
+	 *
+	 * @return <code>true</code> if a new job was started, or <code>false</code>
+	 *  if a job is already running.
+	 */
+	public static synchronized boolean start() {
+		if (currentJob != null && currentJob.isRunning()) {
+			return false;
+		}
+		currentJob = new TopicMetadataRebuildJob();
+		currentJob.running = true;
+		currentThread = new Thread(currentJob, "TopicMetadataRebuildJob");
+		currentThread.setDaemon(true);
+		currentThread.start();
+		return true;
+	}
+
+	/**
+	 * Stop the running job, if any, waiting briefly for its worker threads to
+	 * finish.  The checkpoint is retained so that the job resumes the next
+	 * time it is started.
+	 */
+	public static synchronized void shutdown() {
+		if (currentThread != null) {
+			currentThread.interrupt();
+			try {
+				currentThread.join(SHUTDOWN_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			currentThread = null;
+		}
+		currentJob = null;
+	}
+
+	/**
+	 * Return the number of topics whose metadata could not be updated.
+	 */
+	public int getNumErrors() {
+		return this.numErrors.get();
+	}
+
+	/**
+	 * Return the number of topics that have been processed so far, including
+	 * topics that could not be updated.
+	 */
+	public int getNumProcessed() {
+		return this.getNumUpdated() + this.getNumErrors();
+	}
+
+	/**
+	 * Return the total number of topics to be processed by this job.  If the
+	 * job was resumed from a checkpoint then topics processed by the previous
+	 * job are not included.
+	 */
+	public int getNumTopics() {
+		return this.numTopics;
+	}
+
+	/**
+	 * Return the number of topics whose metadata has been updated.
+	 */
+	public int getNumUpdated() {
+		return this.numUpdated.get();
+	}
+
+	/**
+	 * Return the average number of topics processed per second.
+	 */
+	public long getTopicsPerSecond() {
+		if (this.startTime == 0) {
+			return 0;
+		}
+		long end = (this.endTime == 0) ? System.currentTimeMillis() : this.endTime;
+		double seconds = Math.max((end - this.startTime) / 1000.000, 0.001);
+		return Math.round(this.getNumProcessed() / seconds);
+	}
+
+	/**
+	 * Return <code>true</code> if this job continued from the checkpoint of a
+	 * previous, interrupted job.
+	 */
+	public boolean isResumed() {
+		return this.resumed;
+	}
+
+	/**
+	 * Return <code>true</code> if this job has not yet finished.
+	 */
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	/**
+	 * Regenerate metadata for all topics, blocking until the job completes.
+	 */
+	public void run() {
+		this.running = true;
+		this.startTime = System.currentTimeMillis();
+		int threads = Math.max(Environment.getIntValue(Environment.PROP_TOPIC_METADATA_REBUILD_THREADS), 1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		boolean completed = false;
+		try {
+			Map<String, List<String>> topicNames = this.retrieveTopicNames();
+			logger.info("Regenerating metadata for " + this.numTopics + " topics using " + threads + " threads");
+			for (Map.Entry<String, List<String>> entry : topicNames.entrySet()) {
+				this.processVirtualWiki(executor, entry.getKey(), entry.getValue());
+			}
+			completed = true;
+			this.deleteCheckpoint();
+		} catch (DataAccessException e) {
+			logger.error("Failure while regenerating topic metadata", e);
+		} catch (ExecutionException e) {
+			logger.error("Failure while regenerating topic metadata", e.getCause());
+		} catch (InterruptedException e) {
+			logger.warn("Topic metadata regeneration interrupted after " + this.getNumProcessed() + " topics");
+		} catch (IOException e) {
+			logger.error("Failure while writing topic metadata checkpoint " + this.checkpointFile.getAbsolutePath(), e);
+		} finally {
+			executor.shutdownNow();
+			this.endTime = System.currentTimeMillis();
+			this.running = false;
+		}
+		if (completed) {
+			logger.info("Regenerated metadata for " + this.getNumUpdated() + " topics with " + this.getNumErrors() + " errors in " + ((this.endTime - this.startTime) / 1000.000) + " s (" + this.getTopicsPerSecond() + " topics/sec)");
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void deleteCheckpoint() {
+		if (this.checkpointFile.exists() && !this.checkpointFile.delete()) {
+			this.checkpointFile.deleteOnExit();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private Properties loadCheckpoint() throws IOException {
+		Properties properties = new Properties();
+		if (!this.checkpointFile.exists()) {
+			return properties;
+		}
+		InputStream is = null;
+		try {
+			is = new FileInputStream(this.checkpointFile);
+			properties.load(is);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+		return properties;
+	}
+
+	/**
+	 * Parse a batch of topics and write the resulting metadata in a single
+	 * transaction.  If the batch cannot be written then each topic is written
+	 * individually so that a single bad topic does not cause the entire batch
+	 * to fail.
+	 */
+	private void processBatch(String virtualWiki, List<String> topicNames) {
+		List<Topic> topics = new ArrayList<Topic>();
+		List<ParserOutput> parserOutputs = new ArrayList<ParserOutput>();
+		for (String topicName : topicNames) {
+			try {
+				Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, false);
+				if (topic == null) {
+					logger.warn("Invalid topic record found, possible database integrity issue: " + virtualWiki + " / " + topicName);
+					this.numErrors.incrementAndGet();
+					continue;
+				}
+				parserOutputs.add(ParserUtil.parserOutput(topic.getTopicContent(), virtualWiki, topicName));
+				topics.add(topic);
+			} catch (ParserException e) {
+				logger.error("Failure while regenerating topic metadata for " + virtualWiki + " / " + topicName + ": " + e.getMessage());
+				this.numErrors.incrementAndGet();
+			} catch (DataAccessException e) {
+				logger.error("Failure while regenerating topic metadata for " + virtualWiki + " / " + topicName + ": " + e.getMessage());
+				this.numErrors.incrementAndGet();
+			}
+		}
+		try {
+			WikiBase.getDataHandler().writeTopicMetadata(topics, parserOutputs);
+			this.numUpdated.addAndGet(topics.size());
+			return;
+		} catch (DataAccessException e) {
+			logger.info("Failure while writing topic metadata batch, retrying topics individually: " + e.getMessage());
+		} catch (WikiException e) {
+			logger.info("Failure while writing topic metadata batch, retrying topics individually: " + e.getMessage());
+		}
+		for (int i = 0; i < topics.size(); i++) {
+			Topic topic = topics.get(i);
+			try {
+				WikiBase.getDataHandler().writeTopicMetadata(Collections.singletonList(topic), Collections.singletonList(parserOutputs.get(i)));
+				this.numUpdated.incrementAndGet();
+			} catch (DataAccessException e) {
+				logger.error("Failure while regenerating topic metadata for " + virtualWiki + " / " + topic.getName() + ": " + e.getMessage());
+				this.numErrors.incrementAndGet();
+			} catch (WikiException e) {
+				logger.error("Failure while regenerating topic metadata for " + virtualWiki + " / " + topic.getName() + ": " + e.getMessage());
+				this.numErrors.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Submit all topics for a virtual wiki to the worker pool and wait for
+	 * them to complete.  Batches are checkpointed in submission order so that
+	 * the checkpoint never records a topic as processed while an earlier batch
+	 * is still outstanding.
+	 */
+	private void processVirtualWiki(ExecutorService executor, final String virtualWiki, List<String> topicNames) throws ExecutionException, InterruptedException, IOException {
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < topicNames.size(); i += BATCH_SIZE) {
+			final List<String> batch = topicNames.subList(i, Math.min(i + BATCH_SIZE, topicNames.size()));
+			futures.add(executor.submit(new Callable<Object>() {
+				public Object call() {
+					processBatch(virtualWiki, batch);
+					return null;
+				}
+			}));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			futures.get(i).get();
+			int last = Math.min((i + 1) * BATCH_SIZE, topicNames.size()) - 1;
+			this.saveCheckpoint(virtualWiki, topicNames.get(last));
+		}
+	}
+
+	/**
+	 * Retrieve the names of all topics to process, keyed by virtual wiki.
+	 * Topic names are sorted so that the checkpoint can record the last topic
+	 * processed, and any topics processed prior to the checkpoint are omitted.
+	 */
+	private Map<String, List<String>> retrieveTopicNames() throws DataAccessException, IOException {
+		Properties checkpoint = this.loadCheckpoint();
+		String checkpointVirtualWiki = checkpoint.getProperty(PROPERTY_VIRTUAL_WIKI);
+		String checkpointTopic = checkpoint.getProperty(PROPERTY_TOPIC);
+		List<VirtualWiki> virtualWikis = WikiBase.getDataHandler().getVirtualWikiList();
+		boolean skip = false;
+		if (checkpointVirtualWiki != null && checkpointTopic != null) {
+			for (VirtualWiki virtualWiki : virtualWikis) {
+				if (virtualWiki.getName().equals(checkpointVirtualWiki)) {
+					skip = true;
+					this.resumed = true;
+					logger.info("Resuming topic metadata regeneration after " + checkpointVirtualWiki + " / " + checkpointTopic);
+					break;
+				}
+			}
+		}
+		Map<String, List<String>> results = new LinkedHashMap<String, List<String>>();
+		int total = 0;
+		for (VirtualWiki virtualWiki : virtualWikis) {
+			if (skip && !virtualWiki.getName().equals(checkpointVirtualWiki)) {
+				// processed by the previous job
+				continue;
+			}
+			List<String> topicNames = WikiBase.getDataHandler().getAllTopicNames(virtualWiki.getName(), false);
+			Collections.sort(topicNames);
+			if (skip) {
+				int start = 0;
+				while (start < topicNames.size() && topicNames.get(start).compareTo(checkpointTopic) <= 0) {
+					start++;
+				}
+				topicNames = topicNames.subList(start, topicNames.size());
+				skip = false;
+			}
+			if (!topicNames.isEmpty()) {
+				results.put(virtualWiki.getName(), topicNames);
+				total += topicNames.size();
+			}
+		}
+		this.numTopics = total;
+		return results;
+	}
+
+	/**
+	 * Record the last topic processed.  The checkpoint is replaced atomically
+	 * so that a failure while writing does not leave a corrupt checkpoint.
+	 */
+	private void saveCheckpoint(String virtualWiki, String topicName) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(PROPERTY_VIRTUAL_WIKI, virtualWiki);
+		properties.setProperty(PROPERTY_TOPIC, topicName);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		properties.store(os, null);
+		WikiUtil.writeFileAtomically(this.checkpointFile, os.toByteArray());
+	}
+}
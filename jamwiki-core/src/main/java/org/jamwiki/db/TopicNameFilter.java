@@ -0,0 +1,157 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A compact in-memory Bloom filter of the topic names within a virtual wiki.
+ * Most topic existence checks are for topics that do not exist, and this
+ * filter allows those checks to be answered without a cache or database
+ * lookup.  A Bloom filter may report that a name is present when it is not,
+ * but never reports that a name is absent when it is present, so a negative
+ * answer can be trusted while a positive answer requires a normal lookup.
+ *
+ * Names are added in a case-insensitive manner since topic lookups may fall
+ * back to a case-insensitive match.  Names cannot be removed, so deleted and
+ * moved topics remain in the filter until it is rebuilt; this only causes an
+ * additional (correct) database lookup for those names.  Once a filter has
+ * grown beyond its capacity it is reported as stale so that it will be
+ * rebuilt with a larger capacity.
+ */
+public class TopicNameFilter extends TopicNameStore {
+
+	/** Number of bits allocated per expected entry, giving a false positive rate of approximately 1%. */
+	private static final int BITS_PER_ENTRY = 10;
+	/** Minimum number of entries that a filter is sized for. */
+	private static final int MINIMUM_CAPACITY = 1024;
+	/** Number of hash functions used for each entry. */
+	private static final int NUM_HASHES = 7;
+	private final AtomicLongArray bits;
+	private final int capacity;
+	private final int numBits;
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Create a new, empty filter.
+	 *
+	 * @param expectedEntries The number of topic names that are expected to be
+	 *  added to the filter.  The filter is sized to allow for twice this number
+	 *  of entries before the false positive rate begins to increase.
+	 */
+	public TopicNameFilter(int expectedEntries) {
+		this.capacity = Math.max(MINIMUM_CAPACITY, Math.min(expectedEntries, Integer.MAX_VALUE / (BITS_PER_ENTRY * 2)) * 2);
+		this.numBits = this.capacity * BITS_PER_ENTRY;
+		this.bits = new AtomicLongArray((this.numBits + 63) / 64);
+	}
+
+	/**
+	 * Add a topic name to the filter.
+	 *
+	 * @param namespaceId The namespace ID for the topic.
+	 * @param pageName The topic page name (topic name without the namespace).
+	 */
+	public void add(int namespaceId, String pageName) {
+		long hash = this.hash(namespaceId, pageName);
+		int hash1 = (int)hash;
+		int hash2 = (int)(hash >>> 32);
+		for (int i = 0; i < NUM_HASHES; i++) {
+			int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % this.numBits;
+			long mask = 1L << (bit & 63);
+			int index = bit >>> 6;
+			long current;
+			do {
+				current = this.bits.get(index);
+				if ((current & mask) != 0) {
+					break;
+				}
+			} while (!this.bits.compareAndSet(index, current, current | mask));
+		}
+		this.size.incrementAndGet();
+	}
+
+	/**
+	 * Add the topic name to the filter.  Since names cannot be removed, renames
+	 * and deletes only add the current name.
+	 */
+	protected void applyUpdate(int topicId, int namespaceId, String pageName, String topicName, boolean deleted) {
+		this.add(namespaceId, pageName);
+	}
+
+	/**
+	 * Compute a 64-bit FNV-1a hash of the namespace and lower-case page name.
+	 * The two halves of the hash are combined to generate the bit positions
+	 * for each entry.
+	 */
+	private long hash(int namespaceId, String pageName) {
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ namespaceId) * 0x100000001b3L;
+		String lowerPageName = pageName.toLowerCase();
+		for (int i = 0; i < lowerPageName.length(); i++) {
+			hash = (hash ^ lowerPageName.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Return <code>true</code> if more names have been added to the filter
+	 * than it was sized for, in which case the filter should be rebuilt.
+	 */
+	public boolean isFull() {
+		return this.size.get() > this.capacity;
+	}
+
+	/**
+	 * Return <code>true</code> if the filter is full and should be rebuilt.
+	 */
+	public boolean isStale() {
+		return this.isFull();
+	}
+
+	/**
+	 * Return <code>false</code> if the given topic name has definitely not
+	 * been added to the filter, or <code>true</code> if the name might have
+	 * been added.  This method always returns <code>true</code> until the
+	 * filter has been fully populated.
+	 *
+	 * @param namespaceId The namespace ID for the topic.
+	 * @param pageName The topic page name (topic name without the namespace).
+	 */
+	public boolean mightContain(int namespaceId, String pageName) {
+		if (!this.isReady()) {
+			return true;
+		}
+		long hash = this.hash(namespaceId, pageName);
+		int hash1 = (int)hash;
+		int hash2 = (int)(hash >>> 32);
+		for (int i = 0; i < NUM_HASHES; i++) {
+			int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % this.numBits;
+			if ((this.bits.get(bit >>> 6) & (1L << (bit & 63))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the number of names that have been added to the filter.
+	 */
+	public int size() {
+		return this.size.get();
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * An in-memory index of the topic names for a virtual wiki, used to suggest
+ * topic names that begin with a given prefix.  Entries are held in sorted
+ * sets ordered by their lower-case full topic name and by namespace and
+ * lower-case page name, so a prefix lookup is a seek to the first possible
+ * match followed by a scan of the matching range, and matches are ranked by
+ * the number of links to each topic.
+ *
+ * The sorted sets are concurrent skip lists, so lookups never block and an
+ * update only inserts or removes a single entry.  Link counts are read when
+ * the index is loaded, and the index reports itself as stale once the link
+ * counts are older than {@link #POPULARITY_REFRESH_INTERVAL} so that it will
+ * be rebuilt with current counts.
+ */
+public class TopicNameIndex extends TopicNameStore {
+
+	/** Number of milliseconds after which link counts are refreshed by rebuilding the index. */
+	public static final long POPULARITY_REFRESH_INTERVAL = 60 * 60 * 1000L;
+	/** Orders entries by full topic name. */
+	private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>() {
+		public int compare(Entry entry1, Entry entry2) {
+			int result = entry1.key.compareTo(entry2.key);
+			return (result != 0) ? result : TopicNameIndex.compare(entry1.topicId, entry2.topicId);
+		}
+	};
+	/** Orders entries by namespace and page name. */
+	private static final Comparator<Entry> PAGE_COMPARATOR = new Comparator<Entry>() {
+		public int compare(Entry entry1, Entry entry2) {
+			if (entry1.namespaceId != entry2.namespaceId) {
+				return TopicNameIndex.compare(entry1.namespaceId, entry2.namespaceId);
+			}
+			int result = entry1.pageKey.compareTo(entry2.pageKey);
+			return (result != 0) ? result : TopicNameIndex.compare(entry1.topicId, entry2.topicId);
+		}
+	};
+	/** Orders matches with the most links first, then alphabetically. */
+	private static final Comparator<Entry> RANK_COMPARATOR = new Comparator<Entry>() {
+		public int compare(Entry entry1, Entry entry2) {
+			if (entry1.popularity != entry2.popularity) {
+				return (entry1.popularity > entry2.popularity) ? -1 : 1;
+			}
+			return ENTRY_COMPARATOR.compare(entry1, entry2);
+		}
+	};
+
+	private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<Entry>(ENTRY_COMPARATOR);
+	private final ConcurrentSkipListSet<Entry> entriesByPage = new ConcurrentSkipListSet<Entry>(PAGE_COMPARATOR);
+	/** Entries keyed by topic ID, used to find the existing entry when a topic is renamed or deleted. */
+	private final Map<Integer, Entry> entriesById = new ConcurrentHashMap<Integer, Entry>();
+	private volatile long loadTime = 0;
+
+	/**
+	 * Replace the entry for a topic, retaining its popularity.  A deleted topic
+	 * is removed from the index.
+	 */
+	protected void applyUpdate(int topicId, int namespaceId, String pageName, String topicName, boolean deleted) {
+		Entry existing = this.entriesById.get(topicId);
+		if (existing != null && !deleted && existing.topicName.equals(topicName) && existing.namespaceId == namespaceId) {
+			// nothing has changed
+			return;
+		}
+		if (existing != null) {
+			this.entriesById.remove(topicId);
+			this.entries.remove(existing);
+			this.entriesByPage.remove(existing);
+		}
+		if (!deleted) {
+			this.add(new Entry(topicId, namespaceId, pageName, topicName, (existing != null) ? existing.popularity : 0));
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void add(Entry entry) {
+		this.entries.add(entry);
+		this.entriesByPage.add(entry);
+		this.entriesById.put(entry.topicId, entry);
+	}
+
+	/**
+	 *
+	 */
+	private static int compare(int value1, int value2) {
+		return (value1 < value2) ? -1 : ((value1 == value2) ? 0 : 1);
+	}
+
+	/**
+	 * Return <code>true</code> if the link counts used to rank matches were
+	 * loaded more than {@link #POPULARITY_REFRESH_INTERVAL} ago.
+	 */
+	public boolean isStale() {
+		return (this.isReady() && System.currentTimeMillis() - this.loadTime > POPULARITY_REFRESH_INTERVAL);
+	}
+
+	/**
+	 * Populate the index.  This method should be called before the index is
+	 * ready, and any updates received since the index was created are applied
+	 * once it is ready.
+	 *
+	 * @param loadedEntries All topics to be included in the index.
+	 */
+	protected void load(List<Entry> loadedEntries) {
+		for (Entry entry : loadedEntries) {
+			this.add(entry);
+		}
+		this.loadTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Return the number of topics in the index.
+	 */
+	public int size() {
+		return this.entriesById.size();
+	}
+
+	/**
+	 * Return the names of topics that begin with the given prefix, ignoring
+	 * case, ranked by the number of links to each topic.
+	 *
+	 * @param namespaceId If not <code>null</code> then only topics in this
+	 *  namespace are returned and the prefix is matched against the topic
+	 *  page name.  If <code>null</code> then the prefix is matched against the
+	 *  full topic name, including any namespace label.
+	 * @param prefix The prefix to match.
+	 * @param limit The maximum number of topic names to return.  Values less
+	 *  than one are treated as one.
+	 * @return A list of matching topic names, or an empty list if there are
+	 *  no matches or the index has not yet been loaded.
+	 */
+	public List<String> suggest(Integer namespaceId, String prefix, int limit) {
+		limit = Math.max(1, limit);
+		String key = prefix.toLowerCase();
+		Iterable<Entry> candidates;
+		if (namespaceId == null) {
+			candidates = this.entries.tailSet(new Entry(Integer.MIN_VALUE, 0, prefix, prefix, 0));
+		} else {
+			candidates = this.entriesByPage.tailSet(new Entry(Integer.MIN_VALUE, namespaceId, prefix, prefix, 0));
+		}
+		// keep the best matches found so far, ordered by rank
+		List<Entry> best = new ArrayList<Entry>(limit + 1);
+		for (Entry entry : candidates) {
+			if (namespaceId == null ? !entry.key.startsWith(key) : (entry.namespaceId != namespaceId || !entry.pageKey.startsWith(key))) {
+				break;
+			}
+			if (best.size() == limit && RANK_COMPARATOR.compare(entry, best.get(limit - 1)) >= 0) {
+				continue;
+			}
+			int position = Collections.binarySearch(best, entry, RANK_COMPARATOR);
+			best.add((position < 0) ? -(position + 1) : position, entry);
+			if (best.size() > limit) {
+				best.remove(limit);
+			}
+		}
+		List<String> results = new ArrayList<String>(best.size());
+		for (Entry entry : best) {
+			results.add(entry.topicName);
+		}
+		return results;
+	}
+
+	/**
+	 * A single topic in the index.
+	 */
+	public static class Entry {
+
+		private final String key;
+		private final int namespaceId;
+		private final String pageKey;
+		private final int popularity;
+		private final int topicId;
+		private final String topicName;
+
+		/**
+		 * @param topicId The topic ID.
+		 * @param namespaceId The namespace ID of the topic.
+		 * @param pageName The topic page name (topic name without the namespace).
+		 * @param topicName The full topic name, including any namespace label.
+		 * @param popularity The number of links to the topic, used to rank
+		 *  matches.
+		 */
+		public Entry(int topicId, int namespaceId, String pageName, String topicName, int popularity) {
+			this.key = topicName.toLowerCase();
+			this.namespaceId = namespaceId;
+			this.pageKey = pageName.toLowerCase();
+			this.popularity = popularity;
+			this.topicId = topicId;
+			this.topicName = topicName;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for the in-memory structures that hold the topic names of a
+ * virtual wiki, such as the topic name filter and the topic name index.  A
+ * store is created empty, populated from the database, and then marked as
+ * ready.  Topic updates received before the store is ready are recorded and
+ * re-applied once it becomes ready, so that topics written while the store
+ * is being populated are not lost.
+ *
+ * @see TopicNameStoreManager
+ */
+public abstract class TopicNameStore {
+
+	private final List<Update> pendingUpdates = new ArrayList<Update>();
+	/** Flag indicating that the store has been populated and any pending updates applied. */
+	private volatile boolean ready = false;
+
+	/**
+	 * Apply an add, rename or delete to the store.  Updates may be applied
+	 * more than once, so implementations must ignore an update that has
+	 * already been applied.
+	 *
+	 * @param topicId The ID of the topic being updated.
+	 * @param namespaceId The namespace ID of the topic.
+	 * @param pageName The topic page name (topic name without the namespace).
+	 * @param topicName The full topic name, including any namespace label.
+	 * @param deleted <code>true</code> if the topic has been deleted.
+	 */
+	protected abstract void applyUpdate(int topicId, int namespaceId, String pageName, String topicName, boolean deleted);
+
+	/**
+	 * Return <code>true</code> if the store has been populated and may be used
+	 * to answer lookups.
+	 */
+	public boolean isReady() {
+		return this.ready;
+	}
+
+	/**
+	 * Return <code>true</code> if the store is out of date and should be
+	 * rebuilt from the database.  The store continues to be used until its
+	 * replacement is ready.
+	 */
+	public boolean isStale() {
+		return false;
+	}
+
+	/**
+	 * Indicate that the store has been populated, applying any updates received
+	 * while it was being populated.
+	 */
+	public synchronized void setReady() {
+		for (Update update : this.pendingUpdates) {
+			this.applyUpdate(update.topicId, update.namespaceId, update.pageName, update.topicName, update.deleted);
+		}
+		this.pendingUpdates.clear();
+		this.ready = true;
+	}
+
+	/**
+	 * Return the number of topic names in the store.
+	 */
+	public abstract int size();
+
+	/**
+	 * Add, rename or remove a topic in the store.  If the store is not yet
+	 * ready then the update is applied once it becomes ready.
+	 *
+	 * @param topicId The ID of the topic being updated.
+	 * @param namespaceId The namespace ID of the topic.
+	 * @param pageName The topic page name (topic name without the namespace).
+	 * @param topicName The full topic name, including any namespace label.
+	 * @param deleted <code>true</code> if the topic has been deleted.
+	 */
+	public synchronized void update(int topicId, int namespaceId, String pageName, String topicName, boolean deleted) {
+		if (!this.ready) {
+			this.pendingUpdates.add(new Update(topicId, namespaceId, pageName, topicName, deleted));
+			return;
+		}
+		this.applyUpdate(topicId, namespaceId, pageName, topicName, deleted);
+	}
+
+	/**
+	 * An update received before the store was ready.
+	 */
+	private static class Update {
+
+		private final boolean deleted;
+		private final int namespaceId;
+		private final String pageName;
+		private final int topicId;
+		private final String topicName;
+
+		private Update(int topicId, int namespaceId, String pageName, String topicName, boolean deleted) {
+			this.deleted = deleted;
+			this.namespaceId = namespaceId;
+			this.pageName = pageName;
+			this.topicId = topicId;
+			this.topicName = topicName;
+		}
+	}
+}
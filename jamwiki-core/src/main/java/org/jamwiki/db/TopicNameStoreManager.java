@@ -0,0 +1,239 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import org.jamwiki.DataAccessException;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Holds one topic name store for each virtual wiki, building each store from
+ * the database on a background thread and rebuilding it when it becomes
+ * stale.  Lookups never wait for a store to be built; until a store is ready
+ * no store is returned and callers must fall back to the database.
+ *
+ * A store that is being built is registered before it is populated so that
+ * topics written while it is being populated are recorded and re-applied once
+ * it is ready.  The existing store, if any, continues to answer lookups and to
+ * receive updates until its replacement is ready.  Stores are held here rather
+ * than in a WikiCache since a store that is evicted must be rebuilt from the
+ * full topic list.
+ */
+abstract class TopicNameStoreManager<T extends TopicNameStore> {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(TopicNameStoreManager.class.getName());
+	/** Single daemon thread shared by all managers that builds stores in the background. */
+	private static ExecutorService loader = null;
+	/** Description of the store used in log messages, for example "topic name filter". */
+	private final String description;
+	/** Virtual wikis whose stores have been queued for building but not yet started. */
+	private final Map<String, Boolean> queued = new ConcurrentHashMap<String, Boolean>();
+	/** Stores that are being built and are not yet used to answer lookups. */
+	private final Map<String, T> replacements = new ConcurrentHashMap<String, T>();
+	private final Map<String, T> stores = new ConcurrentHashMap<String, T>();
+
+	/**
+	 * @param description Description of the store used in log messages.
+	 */
+	TopicNameStoreManager(String description) {
+		this.description = description;
+	}
+
+	/**
+	 * Create a new, empty store for a virtual wiki.
+	 *
+	 * @param virtualWikiId The ID of the virtual wiki.
+	 * @param existing The stale store being replaced, or <code>null</code> if
+	 *  no store exists.
+	 */
+	protected abstract T create(int virtualWikiId, T existing) throws DataAccessException, SQLException;
+
+	/**
+	 * Return the ID of a virtual wiki, or -1 if the virtual wiki does not exist.
+	 */
+	protected abstract int lookupVirtualWikiId(String virtualWiki) throws DataAccessException;
+
+	/**
+	 * Add all topic names for a virtual wiki to a store.
+	 */
+	protected abstract void populate(int virtualWikiId, T store) throws SQLException;
+
+	/**
+	 * Build the store for a virtual wiki on the calling thread if it does not
+	 * exist or is stale.  If another thread is already building the store then
+	 * the existing store is returned without waiting.
+	 *
+	 * @return The store, or <code>null</code> if no store is available.
+	 */
+	T load(String virtualWiki) {
+		T existing;
+		T store;
+		int virtualWikiId;
+		synchronized (this) {
+			existing = this.stores.get(virtualWiki);
+			if ((existing != null && !existing.isStale()) || this.replacements.containsKey(virtualWiki)) {
+				// another thread has already built the store or is building it
+				return existing;
+			}
+			try {
+				virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+				if (virtualWikiId == -1) {
+					return existing;
+				}
+				store = this.create(virtualWikiId, existing);
+			} catch (Exception e) {
+				logger.warn("Unable to create " + this.description + " for virtual wiki " + virtualWiki, e);
+				return existing;
+			}
+			this.replacements.put(virtualWiki, store);
+		}
+		long start = System.currentTimeMillis();
+		try {
+			this.populate(virtualWikiId, store);
+		} catch (SQLException e) {
+			logger.warn("Unable to populate " + this.description + " for virtual wiki " + virtualWiki, e);
+			this.replacements.remove(virtualWiki);
+			return existing;
+		}
+		store.setReady();
+		synchronized (this) {
+			// the store is discarded if the stores were reset while it was being populated.
+			// it is published before it is removed from the replacements so that update()
+			// always finds it in one of the two maps.
+			if (this.replacements.get(virtualWiki) == store) {
+				this.stores.put(virtualWiki, store);
+				this.replacements.remove(virtualWiki);
+			}
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Loaded " + store.size() + " topic names into the " + this.description + " for virtual wiki " + virtualWiki + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+		}
+		return store;
+	}
+
+	/**
+	 * Queue the store for a virtual wiki to be built on a background thread
+	 * if it does not exist or is stale.  This method does nothing if the store
+	 * is already queued or being built.
+	 */
+	void loadInBackground(final String virtualWiki) {
+		if (this.replacements.containsKey(virtualWiki) || this.queued.put(virtualWiki, Boolean.TRUE) != null) {
+			return;
+		}
+		Runnable job = new Runnable() {
+			public void run() {
+				// removed before loading so that a reset while loading queues a new load
+				queued.remove(virtualWiki);
+				load(virtualWiki);
+			}
+		};
+		try {
+			TopicNameStoreManager.retrieveLoader().execute(job);
+		} catch (RejectedExecutionException e) {
+			this.queued.remove(virtualWiki);
+			logger.info("Unable to queue " + this.description + " for virtual wiki " + virtualWiki + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Discard the stores for all virtual wikis and rebuild them from the
+	 * database in the background.  Until a store has been rebuilt no store is
+	 * available for its virtual wiki.  A store that is being built when this
+	 * method is called is discarded once it has been populated.
+	 */
+	synchronized void reset() {
+		Set<String> virtualWikis = new HashSet<String>(this.stores.keySet());
+		virtualWikis.addAll(this.replacements.keySet());
+		this.stores.clear();
+		this.replacements.clear();
+		for (String virtualWiki : virtualWikis) {
+			this.loadInBackground(virtualWiki);
+		}
+	}
+
+	/**
+	 * Retrieve the store for a virtual wiki without waiting for it to be
+	 * built.  If the store does not exist or is stale then it is queued to be
+	 * built in the background, and a stale store continues to be returned
+	 * until its replacement is ready.
+	 *
+	 * @return The store, or <code>null</code> if no store is available yet.
+	 */
+	T retrieve(String virtualWiki) {
+		T store = this.stores.get(virtualWiki);
+		if (store == null || store.isStale()) {
+			this.loadInBackground(virtualWiki);
+		}
+		return store;
+	}
+
+	/**
+	 * Lazily create the background thread.  The thread is a daemon thread so
+	 * that a store being built never prevents the JVM from exiting.
+	 */
+	private static synchronized ExecutorService retrieveLoader() {
+		if (loader == null) {
+			loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "TopicNameStoreLoader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return loader;
+	}
+
+	/**
+	 * Stop the background thread, discarding any queued builds.  A new thread
+	 * is created if further builds are queued after this method is called.
+	 */
+	static synchronized void shutdown() {
+		if (loader != null) {
+			loader.shutdownNow();
+			loader = null;
+		}
+	}
+
+	/**
+	 * Add, rename or remove a topic in the store for its virtual wiki, and in
+	 * any replacement store that is being built.  If no store has been created
+	 * for the virtual wiki then this method does nothing.
+	 *
+	 * @see TopicNameStore#update(int, int, String, String, boolean)
+	 */
+	void update(String virtualWiki, int topicId, int namespaceId, String pageName, String topicName, boolean deleted) {
+		// check the replacements first since a replacement is added to the
+		// stores before it is removed from the replacements
+		T replacement = this.replacements.get(virtualWiki);
+		if (replacement != null) {
+			replacement.update(topicId, namespaceId, pageName, topicName, deleted);
+		}
+		T store = this.stores.get(virtualWiki);
+		if (store != null && store != replacement) {
+			store.update(topicId, namespaceId, pageName, topicName, deleted);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jamwiki.DataAccessException;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Re-writes the stored content of every topic version using the current topic
+ * version storage settings.  Each topic is converted in its own transaction,
+ * and because this task reads and may re-write every version in the wiki it
+ * is run in the background.  Versions that are already stored correctly are
+ * not re-written, so a job interrupted by a server restart can simply be
+ * started again.
+ */
+public class TopicVersionConversionJob implements Runnable {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(TopicVersionConversionJob.class.getName());
+	/** Maximum number of milliseconds to wait for a job to stop during shutdown. */
+	private static final long SHUTDOWN_TIMEOUT = 10000;
+	private static TopicVersionConversionJob currentJob = null;
+	private static Thread currentThread = null;
+
+	private volatile long endTime = 0;
+	private volatile int numErrors = 0;
+	private volatile int numProcessed = 0;
+	private volatile int numTopics = 0;
+	private volatile int numVersionsConverted = 0;
+	private volatile boolean running = false;
+	private volatile long startTime = 0;
+
+	/**
+	 *
+	 */
+	protected TopicVersionConversionJob() {
+	}
+
+	/**
+	 * Return the most recently started conversion job, which may still be
+	 * running or may have completed, or <code>null</code> if no job has been
+	 * started since the server was started.
+	 */
+	public static synchronized TopicVersionConversionJob getCurrentJob() {
+		return currentJob;
+	}
+
+	/**
+	 * Start a new background job to convert the storage of all topic versions.
+	 *
+	 * @return <code>true</code> if a new job was started, or <code>false</code>
+	 *  if a job is already running.
+	 */
+	public static synchronized boolean start() {
+		if (currentJob != null && currentJob.isRunning()) {
+			return false;
+		}
+		currentJob = new TopicVersionConversionJob();
+		currentJob.running = true;
+		currentThread = new Thread(currentJob, "TopicVersionConversionJob");
+		currentThread.setDaemon(true);
+		currentThread.start();
+		return true;
+	}
+
+	/**
+	 * Stop the running job, if any, waiting briefly for the topic currently
+	 * being converted to finish.
+	 */
+	public static synchronized void shutdown() {
+		if (currentThread != null) {
+			currentThread.interrupt();
+			try {
+				currentThread.join(SHUTDOWN_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			currentThread = null;
+		}
+		currentJob = null;
+	}
+
+	/**
+	 * Return the number of topics whose versions could not be converted.
+	 */
+	public int getNumErrors() {
+		return this.numErrors;
+	}
+
+	/**
+	 * Return the number of topics that have been processed so far, including
+	 * topics that could not be converted.
+	 */
+	public int getNumProcessed() {
+		return this.numProcessed;
+	}
+
+	/**
+	 * Return the total number of topics to be processed by this job.
+	 */
+	public int getNumTopics() {
+		return this.numTopics;
+	}
+
+	/**
+	 * Return the number of topic versions whose stored content was changed.
+	 */
+	public int getNumVersionsConverted() {
+		return this.numVersionsConverted;
+	}
+
+	/**
+	 * Return the average number of topics processed per second.
+	 */
+	public long getTopicsPerSecond() {
+		if (this.startTime == 0) {
+			return 0;
+		}
+		long end = (this.endTime == 0) ? System.currentTimeMillis() : this.endTime;
+		double seconds = Math.max((end - this.startTime) / 1000.000, 0.001);
+		return Math.round(this.numProcessed / seconds);
+	}
+
+	/**
+	 * Return <code>true</code> if this job has not yet finished.
+	 */
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	/**
+	 * Convert the versions of all topics, blocking until the job completes or
+	 * the thread is interrupted.
+	 */
+	public void run() {
+		this.running = true;
+		this.startTime = System.currentTimeMillis();
+		boolean completed = false;
+		try {
+			Map<String, List<String>> topicNames = this.retrieveTopicNames();
+			logger.info("Converting topic version storage for " + this.numTopics + " topics");
+			for (Map.Entry<String, List<String>> entry : topicNames.entrySet()) {
+				for (String topicName : entry.getValue()) {
+					if (Thread.currentThread().isInterrupted()) {
+						logger.warn("Topic version storage conversion interrupted after " + this.numProcessed + " topics");
+						return;
+					}
+					this.processTopic(entry.getKey(), topicName);
+				}
+			}
+			completed = true;
+		} catch (DataAccessException e) {
+			logger.error("Failure while converting topic version storage", e);
+		} finally {
+			this.endTime = System.currentTimeMillis();
+			this.running = false;
+		}
+		if (completed) {
+			logger.info("Converted " + this.numVersionsConverted + " topic versions for " + this.numProcessed + " topics with " + this.numErrors + " errors in " + ((this.endTime - this.startTime) / 1000.000) + " s (" + this.getTopicsPerSecond() + " topics/sec)");
+		}
+	}
+
+	/**
+	 * Convert the versions of a single topic.  Failures are logged and counted
+	 * so that a single bad topic does not stop the job.
+	 */
+	private void processTopic(String virtualWiki, String topicName) {
+		try {
+			Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, true);
+			if (topic == null) {
+				logger.warn("Invalid topic record found, possible database integrity issue: " + virtualWiki + " / " + topicName);
+				this.numErrors++;
+			} else {
+				this.numVersionsConverted += WikiBase.getDataHandler().convertTopicVersionStorage(topic);
+			}
+		} catch (DataAccessException e) {
+			logger.error("Failure while converting topic version storage for " + virtualWiki + " / " + topicName + ": " + e.getMessage());
+			this.numErrors++;
+		}
+		this.numProcessed++;
+	}
+
+	/**
+	 * Retrieve the names of all topics to process, including deleted topics,
+	 * keyed by virtual wiki.
+	 */
+	private Map<String, List<String>> retrieveTopicNames() throws DataAccessException {
+		Map<String, List<String>> results = new LinkedHashMap<String, List<String>>();
+		int total = 0;
+		for (VirtualWiki virtualWiki : WikiBase.getDataHandler().getVirtualWikiList()) {
+			List<String> topicNames = WikiBase.getDataHandler().getAllTopicNames(virtualWiki.getName(), true);
+			if (!topicNames.isEmpty()) {
+				results.put(virtualWiki.getName(), topicNames);
+				total += topicNames.size();
+			}
+		}
+		this.numTopics = total;
+		return results;
+	}
+}
@@ -46,7 +46,6 @@ import org.jamwiki.model.TopicVersion;
 import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.WikiGroup;
 import org.jamwiki.model.WikiUser;
-import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.ParserUtil;
 import org.jamwiki.parser.WikiLink;
@@ -92,7 +91,9 @@ public class WikiDatabase {
 		{"jam_interwiki", null},
 		{"jam_configuration", null},
 		{"jam_user_block", "user_block_id"},
-		{"jam_file_data", "file_version_id"}
+		{"jam_file_data", "file_version_id"},
+		{"jam_image_metadata", "file_version_id"},
+		{"jam_search_queue", "topic_id"}
 	};
 
 	/**
@@ -389,6 +390,7 @@ public class WikiDatabase {
 	}
 
 	public synchronized static void shutdown() {
+		TopicNameStoreManager.shutdown();
 		try {
 			DatabaseConnection.closeConnectionPool();
 		} catch (Exception e) {
@@ -463,49 +465,39 @@ public class WikiDatabase {
 
 	/**
 	 * Utility method for regenerating categories, "link to" records and other metadata
-	 * for all wiki topics.
+	 * for all wiki topics.  This method blocks until all topics have been processed;
+	 * use {@link TopicMetadataRebuildJob#start()} to regenerate metadata in the
+	 * background.
 	 *
 	 * @return An array of two numerical values, the first one is the number of records
 	 *  updated successfully, the second is the number of records that failed.
 	 */
-	public static int[] rebuildTopicMetadata() throws DataAccessException {
-		int numErrors = 0;
-		int numUpdated = 0;
-		List<String> topicNames;
-		Topic topic;
-		ParserOutput parserOutput;
-		List<VirtualWiki> virtualWikis = WikiBase.getDataHandler().getVirtualWikiList();
-		for (VirtualWiki virtualWiki : virtualWikis) {
-			topicNames = WikiBase.getDataHandler().getAllTopicNames(virtualWiki.getName(), false);
-			if (topicNames.isEmpty()) {
-				continue;
-			}
-			for (String topicName : topicNames) {
-				try {
-					topic = WikiBase.getDataHandler().lookupTopic(virtualWiki.getName(), topicName, false);
-					if (topic == null) {
-						logger.warn("Invalid topic record found, possible database integrity issue: " + virtualWiki.getName() + " / " + topicName);
-						numErrors++;
-						continue;
-					}
-					parserOutput = ParserUtil.parserOutput(topic.getTopicContent(), virtualWiki.getName(), topicName);
-					WikiBase.getDataHandler().writeTopic(topic, null, parserOutput.getCategories(), parserOutput.getLinks());
-					numUpdated++;
-				} catch (ParserException e) {
-					logger.error("Failure while regenerating topic metadata for " + virtualWiki.getName() + " / " + topicName + ": " + e.getMessage());
-					numErrors++;
-				} catch (DataAccessException e) {
-					logger.error("Failure while regenerating topic metadata for " + virtualWiki.getName() + " / " + topicName + ": " + e.getMessage());
-					numErrors++;
-				} catch (WikiException e) {
-					logger.error("Failure while regenerating topic metadata for " + virtualWiki.getName() + " / " + topicName + ": " + e.getMessage());
-					numErrors++;
-				}
-			}
-		}
+	public static int[] rebuildTopicMetadata() {
+		TopicMetadataRebuildJob job = new TopicMetadataRebuildJob();
+		job.run();
+		int[] resultArray = new int[2];
+		resultArray[0] = job.getNumUpdated();
+		resultArray[1] = job.getNumErrors();
+		return resultArray;
+	}
+
+	/**
+	 * Re-write the stored content of all topic versions using the current topic
+	 * version storage settings, converting old versions to or from deltas.  This
+	 * method blocks until all topics have been processed; use
+	 * {@link TopicVersionConversionJob#start()} to convert versions in the
+	 * background.
+	 *
+	 * @return Returns an array of two numbers, the first is the number of topic
+	 *  versions converted, and the second is the number of topics that could
+	 *  not be converted.
+	 */
+	public static int[] convertTopicVersionStorage() {
+		TopicVersionConversionJob job = new TopicVersionConversionJob();
+		job.run();
 		int[] resultArray = new int[2];
-		resultArray[0] = numUpdated;
-		resultArray[1] = numErrors;
+		resultArray[0] = job.getNumVersionsConverted();
+		resultArray[1] = job.getNumErrors();
 		return resultArray;
 	}
 
@@ -795,8 +787,8 @@ public class WikiDatabase {
 		TopicVersion topicVersion = new TopicVersion(user, user.getLastLoginIpAddress(), "Automatically created by system setup", contents, charactersChanged);
 		// FIXME - it is not connection-safe to parse for metadata since we are already holding a connection
 		// ParserOutput parserOutput = ParserUtil.parserOutput(topic.getTopicContent(), virtualWiki, topicName);
-		// WikiBase.getDataHandler().writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
-		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+		// WikiBase.getDataHandler().writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks(), parserOutput.getTemplates());
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null, null);
 	}
 
 	/**
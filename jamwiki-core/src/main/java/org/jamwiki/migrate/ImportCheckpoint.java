@@ -0,0 +1,193 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.migrate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Records the progress of a topic import so that an import of a large file
+ * that is interrupted, for example by a server restart, can be resumed.  The
+ * checkpoint is stored in the same directory as the import file and is named
+ * using a hash of the file content, so uploading the same file again resumes
+ * the import even though each upload is saved under a new name.
+ *
+ * The checkpoint is an append-only log with one record per line: a pending
+ * record with the topic name when a topic's versions have been written but its
+ * import record has not yet been created, and a completed record with the topic
+ * name each time a topic from the file has been completely imported.  When the
+ * checkpoint is loaded a completed record cancels the pending record for the
+ * same topic, so only the topics that were in progress when the import stopped
+ * are held in memory.  The checkpoint is retained if an import fails and is
+ * only removed once an import completes successfully.
+ */
+class ImportCheckpoint {
+
+	private static final String CHECKPOINT_FILE_EXTENSION = ".checkpoint";
+	private static final String CHECKPOINT_FILE_PREFIX = "import-";
+	private static final String RECORD_COMPLETED = "C";
+	private static final String RECORD_COMPLETED_PREFIX = "C ";
+	private static final String RECORD_PENDING_PREFIX = "P ";
+
+	private final File checkpointFile;
+	private int completed = 0;
+	private final Set<String> pending = new HashSet<String>();
+	private final boolean resumed;
+	private Writer writer;
+
+	/**
+	 * Create a checkpoint for the specified import file, loading any existing
+	 * checkpoint data from a previous import of a file with the same content.
+	 */
+	ImportCheckpoint(File importFile) throws MigrationException {
+		this.checkpointFile = ImportCheckpoint.checkpointFile(importFile);
+		this.resumed = this.checkpointFile.exists();
+		if (this.resumed) {
+			this.load();
+		}
+	}
+
+	/**
+	 * Return the checkpoint file used for the specified import file.
+	 */
+	static File checkpointFile(File importFile) throws MigrationException {
+		InputStream is = null;
+		String hash = null;
+		try {
+			is = new FileInputStream(importFile);
+			hash = DigestUtils.shaHex(is);
+		} catch (IOException e) {
+			throw new MigrationException("Failure while reading import file " + importFile.getAbsolutePath(), e);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+		return new File(importFile.getAbsoluteFile().getParentFile(), CHECKPOINT_FILE_PREFIX + hash + CHECKPOINT_FILE_EXTENSION);
+	}
+
+	/**
+	 * Return the number of topics, in file order, that were completely imported.
+	 */
+	int getCompleted() {
+		return this.completed;
+	}
+
+	/**
+	 * Return <code>true</code> if the topic versions were written during a
+	 * previous import but the import was interrupted before the topic import
+	 * record was created.
+	 */
+	boolean isPending(String topicName) {
+		return this.pending.contains(topicName);
+	}
+
+	/**
+	 * Return <code>true</code> if this checkpoint was loaded from a previous,
+	 * interrupted import.
+	 */
+	boolean isResumed() {
+		return this.resumed;
+	}
+
+	/**
+	 * Close the checkpoint file, retaining it so that a failed import can be
+	 * resumed.
+	 */
+	void close() {
+		IOUtils.closeQuietly(this.writer);
+		this.writer = null;
+	}
+
+	/**
+	 * Remove the checkpoint file after an import has completed successfully.
+	 */
+	void delete() {
+		this.close();
+		if (this.checkpointFile.exists() && !this.checkpointFile.delete()) {
+			this.checkpointFile.deleteOnExit();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void load() throws MigrationException {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.checkpointFile), "UTF-8"));
+			String record;
+			while ((record = reader.readLine()) != null) {
+				if (record.equals(RECORD_COMPLETED)) {
+					// completed record written without a topic name
+					this.completed++;
+				} else if (record.startsWith(RECORD_COMPLETED_PREFIX)) {
+					this.completed++;
+					this.pending.remove(record.substring(RECORD_COMPLETED_PREFIX.length()));
+				} else if (record.startsWith(RECORD_PENDING_PREFIX)) {
+					this.pending.add(record.substring(RECORD_PENDING_PREFIX.length()));
+				}
+			}
+		} catch (IOException e) {
+			throw new MigrationException("Failure while reading import checkpoint " + this.checkpointFile.getAbsolutePath(), e);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Record that the next topic in the import file has been completely imported.
+	 */
+	void topicCompleted(String topicName) throws MigrationException {
+		this.write(RECORD_COMPLETED_PREFIX + topicName);
+	}
+
+	/**
+	 * Record that a topic's versions have been written but that its import
+	 * record has not yet been created.
+	 */
+	void topicPending(String topicName) throws MigrationException {
+		this.write(RECORD_PENDING_PREFIX + topicName);
+	}
+
+	/**
+	 * Append a record to the checkpoint.  Records are flushed immediately so
+	 * that they are not lost if the server stops.
+	 */
+	private void write(String record) throws MigrationException {
+		try {
+			if (this.writer == null) {
+				this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.checkpointFile, true), "UTF-8"));
+			}
+			this.writer.write(record);
+			this.writer.write('\n');
+			this.writer.flush();
+		} catch (IOException e) {
+			throw new MigrationException("Failure while writing import checkpoint " + this.checkpointFile.getAbsolutePath(), e);
+		}
+	}
+}
@@ -58,6 +58,8 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 	private static final WikiLogger logger = WikiLogger.getLogger(MediaWikiXmlImporter.class.getName());
 	/** Maximum number of topic versions that can be stored before being flushed to the database. */
 	private static final int MAX_TOPIC_VERSION_BUFFER = 50;
+	/** Maximum total content length of buffered topic versions before they are flushed to the database, to bound memory use when importing very large topics. */
+	private static final int MAX_TOPIC_VERSION_BUFFER_CHARACTERS = 4 * 1024 * 1024;
 	private static final SAXParserFactory SAX_PARSER_FACTORY;
 
 	/** This map holds the current tag's attribute names and values.  It is cleared after an end-element is called and thus fails for nested elements. */
@@ -69,11 +71,14 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 	private Topic currentTopic = null;
 	private TopicVersion currentTopicVersion = new TopicVersion();
 	private Map<Date, Integer> currentTopicVersions = new TreeMap<Date, Integer>();
+	private TopicImportListener listener;
 	private final Map<String, String> mediawikiNamespaceMap = new HashMap<String, String>();
-	private Map<Topic, List<Integer>> parsedTopics = new HashMap<Topic, List<Integer>>();
 	private int previousTopicContentLength = 0;
+	/** Set to <code>true</code> if the listener requested that the current topic not be imported. */
+	private boolean skipCurrentTopic = false;
 	/** For performance reasons add topic versions to the dabase in batches. */
 	private List<TopicVersion> topicVersionBuffer = new ArrayList<TopicVersion>();
+	private int topicVersionBufferCharacters = 0;
 	private String virtualWiki;
 
 	static {
@@ -85,10 +90,10 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 	/**
 	 *
 	 */
-	public Map<Topic, List<Integer>> importFromFile(File file, String virtualWiki) throws MigrationException {
+	public void importFromFile(File file, String virtualWiki, TopicImportListener listener) throws MigrationException {
 		this.virtualWiki = virtualWiki;
+		this.listener = listener;
 		this.importWikiXml(file);
-		return this.parsedTopics;
 	}
 
 	/**
@@ -108,7 +113,9 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 		} catch (IOException e) {
 			throw new MigrationException(e);
 		} catch (SAXException e) {
-			if (e.getCause() instanceof DataAccessException || e.getCause() instanceof WikiException) {
+			if (e.getCause() instanceof MigrationException) {
+				throw (MigrationException)e.getCause();
+			} else if (e.getCause() instanceof DataAccessException || e.getCause() instanceof WikiException) {
 				throw new MigrationException(e.getCause());
 			} else {
 				throw new MigrationException(e);
@@ -180,6 +187,14 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 	 */
 	private void initCurrentTopic(String topicName) throws SAXException {
 		topicName = convertArticleNameFromWikipediaToJAMWiki(topicName);
+		try {
+			this.skipCurrentTopic = this.listener.skipTopic(topicName);
+		} catch (MigrationException e) {
+			throw new SAXException("Failure while processing topic: " + this.virtualWiki + ':' + topicName, e);
+		}
+		if (this.skipCurrentTopic) {
+			return;
+		}
 		WikiLink wikiLink = new WikiLink(null, this.virtualWiki, topicName);
 		Topic existingTopic = null;
 		try {
@@ -214,6 +229,7 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 		// no recent change record needed - can be added by reloading all recent changes if desired
 		this.currentTopicVersion.setRecentChangeAllowed(false);
 		this.topicVersionBuffer.add(this.currentTopicVersion);
+		this.topicVersionBufferCharacters += StringUtils.length(this.currentTopicVersion.getVersionContent());
 		this.writeTopicVersion(false);
 	}
 
@@ -233,7 +249,13 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 		} catch (DataAccessException e) {
 			throw new SAXException("Failure while ordering topic versions for topic: " + this.currentTopic.getName(), e);
 		}
-		this.parsedTopics.put(this.currentTopic, currentTopicVersionIdList);
+		try {
+			this.listener.topicImported(this.currentTopic);
+		} catch (MigrationException e) {
+			throw new SAXException("Failure while processing topic: " + this.currentTopic.getName(), e);
+		}
+		// release the topic so that its content can be garbage collected once the listener is done with it
+		this.currentTopic = null;
 	}
 
 	//===========================================================
@@ -269,6 +291,8 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 			this.currentTopicVersion.setEditType(TopicVersion.EDIT_IMPORT);
 		} else if (MediaWikiConstants.MEDIAWIKI_ELEMENT_TOPIC.equals(qName)) {
 			this.currentTopicVersions = new TreeMap<Date, Integer>();
+			this.previousTopicContentLength = 0;
+			this.skipCurrentTopic = false;
 		}
 	}
 
@@ -282,6 +306,10 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 	 * @param qName The qualified name (with prefix), or the empty string if qualified names are not available.
 	 */
 	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if (this.skipCurrentTopic) {
+			// ignore all data for topics that are not being imported
+			return;
+		}
 		if (StringUtils.equals(MediaWikiConstants.MEDIAWIKI_ELEMENT_NAMESPACE, qName)) {
 			int key = NumberUtils.toInt(this.currentAttributeMap.get("key"));
 			try {
@@ -343,13 +371,14 @@ public class MediaWikiXmlImporter extends DefaultHandler implements TopicImporte
 			if (this.currentTopic.getTopicId() <= 0) {
 				// metadata is needed only for the final import version, so for performance reasons
 				// do not include category or link data for older versions
-				WikiBase.getDataHandler().writeTopic(this.currentTopic, null, null, null);
-			} else if (forceWrite || this.topicVersionBuffer.size() >= MAX_TOPIC_VERSION_BUFFER) {
+				WikiBase.getDataHandler().writeTopic(this.currentTopic, null, null, null, null);
+			} else if (forceWrite || this.topicVersionBuffer.size() >= MAX_TOPIC_VERSION_BUFFER || this.topicVersionBufferCharacters >= MAX_TOPIC_VERSION_BUFFER_CHARACTERS) {
 				WikiBase.getDataHandler().writeTopicVersions(this.currentTopic, this.topicVersionBuffer);
 				for (TopicVersion topicVersion : this.topicVersionBuffer) {
 					this.currentTopicVersions.put(topicVersion.getEditDate(), topicVersion.getTopicVersionId());
 				}
 				this.topicVersionBuffer = new ArrayList<TopicVersion>();
+				this.topicVersionBufferCharacters = 0;
 			}
 		} catch (DataAccessException e) {
 			throw new SAXException("Failure while writing topic: " + this.currentTopic.getName(), e);
@@ -17,23 +17,11 @@
 package org.jamwiki.migrate;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import org.apache.commons.lang3.StringUtils;
-import org.jamwiki.DataAccessException;
-import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
-import org.jamwiki.model.Topic;
-import org.jamwiki.model.TopicType;
-import org.jamwiki.model.TopicVersion;
 import org.jamwiki.model.WikiUser;
-import org.jamwiki.parser.ParserException;
-import org.jamwiki.parser.ParserOutput;
-import org.jamwiki.parser.ParserUtil;
-import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiLogger;
 
 /**
@@ -63,7 +51,9 @@ public class MigrationUtil {
 
 	/**
 	 * Given a file containing import information, parse the file and commit all
-	 * topic information within it.
+	 * topic information within it.  Topics are written as the file is read, so
+	 * if the import is interrupted then importing the same file again will
+	 * resume after the last topic that was completely imported.
 	 *
 	 * @param file The file that contains topic data to be parsed.
 	 * @param virtualWiki The virtual wiki to write the topic data to.
@@ -71,8 +61,12 @@ public class MigrationUtil {
 	 * @param authorDisplay The display value for the user that is performing the
 	 *  import.  This value is typically the user's IP address.
 	 * @param locale The locale for the user that is performing the import.
-	 * @return A list of topic names that are successfully parsed and committed to
-	 *  the database.
+	 * @return A list of the names of the first topics that are successfully
+	 *  parsed and committed to the database.  To limit memory use for large
+	 *  imports the list is truncated after the first
+	 *  100 names.  If the import
+	 *  fails then the progress is retained, and importing the same file again
+	 *  resumes the import.
 	 * @throws MigrationException Thrown if a parsing error or data update error is
 	 *  thrown while trying to parse and commit topic data.
 	 * @throws WikiException Thrown if there is no topic data available.
@@ -80,53 +74,27 @@ public class MigrationUtil {
 	public static List<String> importFromFile(File file, String virtualWiki, WikiUser user, String authorDisplay, Locale locale) throws MigrationException, WikiException {
 		TopicImporter importer = new MediaWikiXmlImporter();
 		long start = System.currentTimeMillis();
-		Map<Topic, List<Integer>> parsedTopics = null;
-		// for performance reasons disable writes to the search engine during
-		// import since the search engine will be updated with the same topic
-		// information again during the creation of the topic import record.
-		WikiBase.getSearchEngine().setDisabled(true);
+		TopicImportProcessor processor = new TopicImportProcessor(file, virtualWiki, user, authorDisplay, locale);
+		List<String> successfulImports = null;
 		try {
-			parsedTopics = importer.importFromFile(file, virtualWiki);
+			importer.importFromFile(file, virtualWiki, processor);
+			successfulImports = processor.finish();
 		} catch (MigrationException e) {
 			if (e.getCause() instanceof WikiException) {
 				throw (WikiException)(e.getCause());
 			}
 			throw e;
 		} finally {
-			// re-enable the write updates to the search engine
-			WikiBase.getSearchEngine().setDisabled(false);
+			if (successfulImports == null) {
+				processor.abort();
+			}
 		}
 		if (logger.isDebugEnabled()) {
-			logger.debug("Parsed XML " + file.getAbsolutePath() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+			logger.debug("Imported XML " + file.getAbsolutePath() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 		}
-		if (parsedTopics.isEmpty()) {
+		if (processor.getImportCount() == 0) {
 			throw new WikiException(new WikiMessage("import.error.notopic"));
 		}
-		List<String> successfulImports = new ArrayList<String>();
-		for (Topic topic : parsedTopics.keySet()) {
-			// create a dummy version to indicate that the topic was imported
-			String importedBy = (user != null && user.getUserId() > 0) ? user.getUsername() : authorDisplay;
-			String editComment = Utilities.formatMessage("import.message.importedby", locale, new Object[]{importedBy});
-			TopicVersion topicVersion = new TopicVersion(user, authorDisplay, editComment, topic.getTopicContent(), 0);
-			topicVersion.setEditType(TopicVersion.EDIT_IMPORT);
-			ParserOutput parserOutput = null;
-			try {
-				parserOutput = ParserUtil.parserOutput(topicVersion.getVersionContent(), virtualWiki, topic.getName());
-			} catch (ParserException e) {
-				throw new MigrationException("Failure while parsing topic version of topic: " + topic.getName(), e);
-			}
-			if (!StringUtils.isBlank(parserOutput.getRedirect())) {
-				// set up a redirect
-				topic.setRedirectTo(parserOutput.getRedirect());
-				topic.setTopicType(TopicType.REDIRECT);
-			}
-			try {
-				WikiBase.getDataHandler().writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
-			} catch (DataAccessException e) {
-				throw new MigrationException("Data access exception while processing topic " + virtualWiki + ':' + topic.getName(), e);
-			}
-			successfulImports.add(topic.getName());
-		}
 		return successfulImports;
 	}
 }
@@ -0,0 +1,48 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.migrate;
+
+import org.jamwiki.model.Topic;
+
+/**
+ * Interface used by a {@link TopicImporter} to hand off topics as they are
+ * parsed, allowing topic data to be processed as a stream rather than being
+ * held in memory until the entire import file has been read.
+ */
+public interface TopicImportListener {
+
+	/**
+	 * Called once for each topic in the import file, in file order, before any
+	 * data for the topic is written.
+	 *
+	 * @param topicName The name of the topic about to be imported.
+	 * @return <code>true</code> if the importer should skip the topic without
+	 *  writing any of its data, for example when resuming a previously
+	 *  interrupted import.
+	 * @throws MigrationException Thrown if the import should be aborted.
+	 */
+	public boolean skipTopic(String topicName) throws MigrationException;
+
+	/**
+	 * Called after all versions of a topic have been written to the database
+	 * and ordered.  The topic content is the content of the newest version.
+	 *
+	 * @param topic The topic that was imported.
+	 * @throws MigrationException Thrown if the import should be aborted.
+	 */
+	public void topicImported(Topic topic) throws MigrationException;
+}
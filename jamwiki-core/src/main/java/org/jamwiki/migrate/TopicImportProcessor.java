@@ -0,0 +1,276 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.migrate;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.DataAccessException;
+import org.jamwiki.WikiBase;
+import org.jamwiki.WikiException;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicType;
+import org.jamwiki.model.TopicVersion;
+import org.jamwiki.model.WikiUser;
+import org.jamwiki.parser.ParserException;
+import org.jamwiki.parser.ParserOutput;
+import org.jamwiki.parser.ParserUtil;
+import org.jamwiki.utils.Utilities;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Creates the import record for each topic handed off by a {@link TopicImporter}.
+ * Parsing the topic content to regenerate link, category and template metadata
+ * is the most expensive part of an import, so topics are parsed by a pool of
+ * worker threads while the importer continues reading the file.  Database
+ * writes remain on the importing thread and are performed in file order,
+ * which allows the import progress to be checkpointed so that an interrupted
+ * import can be resumed.  The number of topics awaiting parsing and the number
+ * of imported topic names that are retained are both bounded so that memory
+ * use does not grow with the size of the import file.
+ */
+class TopicImportProcessor implements TopicImportListener {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(TopicImportProcessor.class.getName());
+	/** Maximum number of imported topic names returned when the import completes. */
+	static final int MAX_IMPORTED_TOPIC_NAMES = 100;
+	/** Number of milliseconds between progress log messages. */
+	private static final long PROGRESS_INTERVAL = 30000;
+
+	private final String authorDisplay;
+	private final ImportCheckpoint checkpoint;
+	private final ExecutorService executor;
+	private final File file;
+	private int importCount = 0;
+	/** The names of the first topics imported, up to {@link #MAX_IMPORTED_TOPIC_NAMES}. */
+	private final List<String> importedTopicNames = new ArrayList<String>();
+	private long lastProgressTime;
+	private final Locale locale;
+	private final int maxPendingTopics;
+	/** Topics, in file order, whose import record has not yet been written. */
+	private final LinkedList<PendingTopic> pendingTopics = new LinkedList<PendingTopic>();
+	private final long start = System.currentTimeMillis();
+	private int topicIndex = 0;
+	private final WikiUser user;
+	private final String virtualWiki;
+
+	/**
+	 *
+	 */
+	TopicImportProcessor(File file, String virtualWiki, WikiUser user, String authorDisplay, Locale locale) throws MigrationException {
+		this.file = file;
+		this.virtualWiki = virtualWiki;
+		this.user = user;
+		this.authorDisplay = authorDisplay;
+		this.locale = locale;
+		this.checkpoint = new ImportCheckpoint(file);
+		if (this.checkpoint.isResumed()) {
+			logger.info("Resuming import of " + file.getAbsolutePath() + " after " + this.checkpoint.getCompleted() + " topics");
+		}
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.maxPendingTopics = threads * 4;
+		this.lastProgressTime = this.start;
+	}
+
+	/**
+	 * Write the import records for all remaining topics and shut down the worker
+	 * threads.  This method must be called after the importer has completed.
+	 *
+	 * @return A list of the names of the first topics that were successfully
+	 *  imported, containing at most {@link #MAX_IMPORTED_TOPIC_NAMES} names.
+	 */
+	List<String> finish() throws MigrationException {
+		try {
+			while (!this.pendingTopics.isEmpty()) {
+				this.writeNextTopic();
+			}
+		} finally {
+			this.executor.shutdownNow();
+		}
+		this.checkpoint.delete();
+		double seconds = Math.max(System.currentTimeMillis() - this.start, 1) / 1000.000;
+		logger.info("Imported " + this.importCount + " topics from " + this.file.getAbsolutePath() + " in " + seconds + " s (" + Math.round(this.importCount / seconds) + " pages/sec)");
+		return this.importedTopicNames;
+	}
+
+	/**
+	 * Abort a failed import, shutting down the worker threads.  The checkpoint
+	 * is retained so that importing the same file again resumes the import.
+	 */
+	void abort() {
+		this.executor.shutdownNow();
+		this.checkpoint.close();
+	}
+
+	/**
+	 * Return the total number of topics that have been imported.
+	 */
+	int getImportCount() {
+		return this.importCount;
+	}
+
+	/**
+	 *
+	 */
+	public boolean skipTopic(String topicName) throws MigrationException {
+		this.topicIndex++;
+		if (!this.checkpoint.isResumed()) {
+			return false;
+		}
+		if (this.topicIndex <= this.checkpoint.getCompleted()) {
+			// already imported before the import was interrupted
+			return true;
+		}
+		Topic topic = null;
+		try {
+			topic = WikiBase.getDataHandler().lookupTopic(this.virtualWiki, topicName, false);
+		} catch (DataAccessException e) {
+			throw new MigrationException("Failure while retrieving topic " + this.virtualWiki + ':' + topicName, e);
+		}
+		if (topic == null) {
+			return false;
+		}
+		if (this.checkpoint.isPending(topicName) && topic.getCurrentVersionId() != null) {
+			// versions were written before the import was interrupted, so only the
+			// import record is needed
+			this.topicImported(topic);
+		} else {
+			logger.warn("Topic " + this.virtualWiki + ':' + topicName + " already exists and will not be imported.  If this topic was partially imported prior to an interrupted import it must be deleted and imported again.");
+			this.addPendingTopic(topicName, null, null);
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 */
+	public void topicImported(Topic topic) throws MigrationException {
+		final String topicContent = topic.getTopicContent();
+		final String topicName = topic.getName();
+		this.checkpoint.topicPending(topicName);
+		Future<ParserOutput> parserOutput = this.executor.submit(new Callable<ParserOutput>() {
+			public ParserOutput call() throws ParserException {
+				return ParserUtil.parserOutput(topicContent, virtualWiki, topicName);
+			}
+		});
+		this.addPendingTopic(topicName, topic, parserOutput);
+	}
+
+	/**
+	 * Add a topic to the end of the pending topic queue, writing import records
+	 * for any completed topics at the head of the queue.  If the queue is full
+	 * then this method blocks until the oldest topic has been written.
+	 */
+	private void addPendingTopic(String topicName, Topic topic, Future<ParserOutput> parserOutput) throws MigrationException {
+		this.pendingTopics.add(new PendingTopic(topicName, topic, parserOutput));
+		while (!this.pendingTopics.isEmpty() && (this.pendingTopics.size() > this.maxPendingTopics || this.pendingTopics.getFirst().isDone())) {
+			this.writeNextTopic();
+		}
+		this.logProgress();
+	}
+
+	/**
+	 *
+	 */
+	private void logProgress() {
+		long now = System.currentTimeMillis();
+		if (now - this.lastProgressTime < PROGRESS_INTERVAL) {
+			return;
+		}
+		this.lastProgressTime = now;
+		double seconds = (now - this.start) / 1000.000;
+		logger.info("Imported " + this.importCount + " topics from " + this.file.getAbsolutePath() + " (" + Math.round(this.importCount / seconds) + " pages/sec)");
+	}
+
+	/**
+	 * Wait for the oldest pending topic to be parsed and then write a version
+	 * record indicating that the topic was imported, along with the topic's
+	 * link, category and template metadata.
+	 */
+	private void writeNextTopic() throws MigrationException {
+		PendingTopic pendingTopic = this.pendingTopics.removeFirst();
+		if (pendingTopic.topic != null) {
+			Topic topic = pendingTopic.topic;
+			ParserOutput parserOutput = null;
+			try {
+				parserOutput = pendingTopic.parserOutput.get();
+			} catch (InterruptedException e) {
+				throw new MigrationException("Interrupted while parsing topic version of topic: " + topic.getName(), e);
+			} catch (ExecutionException e) {
+				throw new MigrationException("Failure while parsing topic version of topic: " + topic.getName(), e.getCause());
+			}
+			// create a dummy version to indicate that the topic was imported
+			String importedBy = (this.user != null && this.user.getUserId() > 0) ? this.user.getUsername() : this.authorDisplay;
+			String editComment = Utilities.formatMessage("import.message.importedby", this.locale, new Object[]{importedBy});
+			TopicVersion topicVersion = new TopicVersion(this.user, this.authorDisplay, editComment, topic.getTopicContent(), 0);
+			topicVersion.setEditType(TopicVersion.EDIT_IMPORT);
+			if (!StringUtils.isBlank(parserOutput.getRedirect())) {
+				// set up a redirect
+				topic.setRedirectTo(parserOutput.getRedirect());
+				topic.setTopicType(TopicType.REDIRECT);
+			}
+			try {
+				WikiBase.getDataHandler().writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks(), parserOutput.getTemplates());
+			} catch (DataAccessException e) {
+				throw new MigrationException("Data access exception while processing topic " + this.virtualWiki + ':' + topic.getName(), e);
+			} catch (WikiException e) {
+				throw new MigrationException(e);
+			}
+			this.importCount++;
+			if (this.importedTopicNames.size() < MAX_IMPORTED_TOPIC_NAMES) {
+				this.importedTopicNames.add(topic.getName());
+			}
+		}
+		this.checkpoint.topicCompleted(pendingTopic.topicName);
+	}
+
+	/**
+	 * A topic awaiting creation of its import record.  The topic is
+	 * <code>null</code> for topics in the import file that are being skipped.
+	 */
+	private static class PendingTopic {
+
+		private final Topic topic;
+		private final String topicName;
+		private final Future<ParserOutput> parserOutput;
+
+		/**
+		 *
+		 */
+		PendingTopic(String topicName, Topic topic, Future<ParserOutput> parserOutput) {
+			this.topic = topic;
+			this.topicName = topicName;
+			this.parserOutput = parserOutput;
+		}
+
+		/**
+		 *
+		 */
+		boolean isDone() {
+			return (this.parserOutput == null || this.parserOutput.isDone());
+		}
+	}
+}
@@ -17,9 +17,6 @@
 package org.jamwiki.migrate;
 
 import java.io.File;
-import java.util.List;
-import java.util.Map;
-import org.jamwiki.model.Topic;
 
 /**
  * Interface that controls how topics are imported.
@@ -27,13 +24,13 @@ import org.jamwiki.model.Topic;
 public interface TopicImporter {
 
 	/**
-	 * Parse the contents of the file, returning a map of topics and the associated topic
-	 * versions for all data contained in the file.
+	 * Parse the contents of the file, writing the versions of each topic to the
+	 * database and notifying the listener as each topic is completed.
 	 *
 	 * @param file The file containing all topic data to be imported.
 	 * @param virtualWiki The virtual wiki into which the topic data will be imported.
-	 * @return A map of imported topics and a list of topic version IDs imported for each topic.
+	 * @param listener The listener that is notified as each topic is imported.
 	 * @throws MigrationException Thrown if any error occurs during import.
 	 */
-	public Map<Topic, List<Integer>> importFromFile(File file, String virtualWiki) throws MigrationException;
+	public void importFromFile(File file, String virtualWiki, TopicImportListener listener) throws MigrationException;
 }
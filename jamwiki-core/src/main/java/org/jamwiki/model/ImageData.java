@@ -16,6 +16,7 @@
  */
 package org.jamwiki.model;
 
+import java.io.InputStream;
 import java.io.Serializable;
 
 /**
@@ -28,6 +29,14 @@ public class ImageData implements Serializable {
 	public int width;
 	public int height;
 	public byte data[];
+	/**
+	 * Optional stream of file data used when writing large files to the
+	 * database without loading them into memory.  Only used if the
+	 * <code>data</code> field is <code>null</code>.
+	 */
+	public transient InputStream dataStream;
+	/** The number of bytes available from <code>dataStream</code>. */
+	public transient long dataLength;
 
 	/**
 	 *
@@ -46,4 +55,13 @@ public class ImageData implements Serializable {
 	public ImageData(String mimeType, int width, int height, byte data[]) {
 		this(-1, mimeType, width, height, data);
 	}
+
+	/**
+	 *
+	 */
+	public ImageData(String mimeType, int width, int height, InputStream dataStream, long dataLength) {
+		this(-1, mimeType, width, height, null);
+		this.dataStream    = dataStream;
+		this.dataLength    = dataLength;
+	}
 }
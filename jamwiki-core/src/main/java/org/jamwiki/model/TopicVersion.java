@@ -40,6 +40,7 @@ public class TopicVersion implements Serializable {
 	private Integer authorId;
 	private String authorDisplay;
 	private int charactersChanged = 0;
+	private Integer deltaBaseTopicVersionId;
 	private String editComment;
 	private Timestamp editDate = new Timestamp(System.currentTimeMillis());
 	private int editType = EDIT_NORMAL;
@@ -148,6 +149,23 @@ public class TopicVersion implements Serializable {
 		this.charactersChanged = charactersChanged;
 	}
 
+	/**
+	 * Return the ID of the (newer) topic version that this version's content is
+	 * stored relative to, or <code>null</code> if the version content is the
+	 * full topic text.  When non-null the version content is a reverse delta
+	 * generated by {@link org.jamwiki.utils.TextDelta}.
+	 */
+	public Integer getDeltaBaseTopicVersionId() {
+		return this.deltaBaseTopicVersionId;
+	}
+
+	/**
+	 *
+	 */
+	public void setDeltaBaseTopicVersionId(Integer deltaBaseTopicVersionId) {
+		this.deltaBaseTopicVersionId = deltaBaseTopicVersionId;
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,203 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.model;
+
+import java.io.Serializable;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * Provides an object representing the stored metadata for an uploaded image
+ * version, allowing image HTML to be generated without reading the image
+ * file.
+ */
+public class WikiImageMetadata implements Serializable {
+
+	/** EXIF orientation value for an image that does not need to be rotated or flipped. */
+	public static final int ORIENTATION_NORMAL = 1;
+	private int fileId = -1;
+	private int fileVersionId = -1;
+	private int height = -1;
+	private String mimeType = WikiFile.UNKNOWN_MIME_TYPE;
+	private int orientation = ORIENTATION_NORMAL;
+	private SortedSet<Integer> resizedWidths = new TreeSet<Integer>();
+	private String url;
+	private int width = -1;
+
+	/**
+	 *
+	 */
+	public WikiImageMetadata() {
+	}
+
+	/**
+	 *
+	 */
+	public WikiImageMetadata(WikiImageMetadata imageMetadata) {
+		this.fileId = imageMetadata.getFileId();
+		this.fileVersionId = imageMetadata.getFileVersionId();
+		this.height = imageMetadata.getHeight();
+		this.mimeType = imageMetadata.getMimeType();
+		this.orientation = imageMetadata.getOrientation();
+		this.resizedWidths = new TreeSet<Integer>(imageMetadata.getResizedWidths());
+		this.url = imageMetadata.getUrl();
+		this.width = imageMetadata.getWidth();
+	}
+
+	/**
+	 *
+	 */
+	public int getFileId() {
+		return this.fileId;
+	}
+
+	/**
+	 *
+	 */
+	public void setFileId(int fileId) {
+		this.fileId = fileId;
+	}
+
+	/**
+	 *
+	 */
+	public int getFileVersionId() {
+		return this.fileVersionId;
+	}
+
+	/**
+	 *
+	 */
+	public void setFileVersionId(int fileVersionId) {
+		this.fileVersionId = fileVersionId;
+	}
+
+	/**
+	 *
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 *
+	 */
+	public void setHeight(int height) {
+		this.height = height;
+	}
+
+	/**
+	 *
+	 */
+	public String getMimeType() {
+		return this.mimeType;
+	}
+
+	/**
+	 *
+	 */
+	public void setMimeType(String mimeType) {
+		this.mimeType = mimeType;
+	}
+
+	/**
+	 * Return the EXIF orientation of the image, a value from 1 to 8.  A value
+	 * of {@link #ORIENTATION_NORMAL} indicates that no rotation is required.
+	 */
+	public int getOrientation() {
+		return this.orientation;
+	}
+
+	/**
+	 *
+	 */
+	public void setOrientation(int orientation) {
+		this.orientation = orientation;
+	}
+
+	/**
+	 * Return the widths of the resized versions of the image that are known to
+	 * exist.  This value is a hint; a resized image that is not listed may
+	 * still exist.
+	 */
+	public SortedSet<Integer> getResizedWidths() {
+		return this.resizedWidths;
+	}
+
+	/**
+	 *
+	 */
+	public void setResizedWidths(SortedSet<Integer> resizedWidths) {
+		this.resizedWidths = resizedWidths;
+	}
+
+	/**
+	 * Return the resized widths as a comma-separated string, or
+	 * <code>null</code> if no resized versions of the image exist.
+	 */
+	public String getResizedWidthsString() {
+		return (this.resizedWidths.isEmpty()) ? null : StringUtils.join(this.resizedWidths, ',');
+	}
+
+	/**
+	 * Set the resized widths from a comma-separated string.  Invalid values are
+	 * ignored.
+	 */
+	public void setResizedWidthsString(String resizedWidths) {
+		this.resizedWidths = new TreeSet<Integer>();
+		if (StringUtils.isBlank(resizedWidths)) {
+			return;
+		}
+		for (String resizedWidth : resizedWidths.split(",")) {
+			int value = NumberUtils.toInt(resizedWidth.trim(), -1);
+			if (value > 0) {
+				this.resizedWidths.add(value);
+			}
+		}
+	}
+
+	/**
+	 * Return the relative URL of the image version.  See
+	 * {@link org.jamwiki.model.WikiFileVersion#getUrl}.
+	 */
+	public String getUrl() {
+		return this.url;
+	}
+
+	/**
+	 *
+	 */
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	/**
+	 *
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 *
+	 */
+	public void setWidth(int width) {
+		this.width = width;
+	}
+}
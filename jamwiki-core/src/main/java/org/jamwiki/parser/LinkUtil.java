@@ -17,6 +17,13 @@
 package org.jamwiki.parser;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -190,7 +197,32 @@ public abstract class LinkUtil {
 	 *  topic information.
 	 */
 	public static String buildInternalLinkHtml(WikiLink wikiLink, String text, String style, String target, boolean escapeHtml) throws DataAccessException {
-		String url = LinkUtil.buildTopicUrl(wikiLink);
+		return LinkUtil.buildInternalLinkHtml(null, wikiLink, text, style, target, escapeHtml);
+	}
+
+	/**
+	 * Build the HTML anchor link to a topic page for a given WikLink object,
+	 * using any link targets resolved by
+	 * {@link #resolveExistingArticles(ParserInput, String, Collection)} to
+	 * determine whether or not the link target exists.
+	 *
+	 * @param parserInput The parser input for the current parse, or
+	 *  <code>null</code> if the link is not being generated by the parser.
+	 * @param wikiLink The WikiLink object for which an HTML link is being
+	 *  generated.
+	 * @param text The text to display as the link content.
+	 * @param style The CSS class to use with the anchor HTML tag.  This value
+	 *  can be <code>null</code> or empty if no custom style is used.
+	 * @param target The anchor link target, or <code>null</code> or empty if
+	 *  no target is needed.
+	 * @param escapeHtml Set to <code>true</code> if the link caption should
+	 *  be HTML escaped.
+	 * @return An HTML anchor link that matches the given input parameters.
+	 * @throws DataAccessException Thrown if any error occurs while retrieving
+	 *  topic information.
+	 */
+	public static String buildInternalLinkHtml(ParserInput parserInput, WikiLink wikiLink, String text, String style, String target, boolean escapeHtml) throws DataAccessException {
+		String url = LinkUtil.buildTopicUrl(parserInput, wikiLink);
 		String topic = wikiLink.getDestination();
 		if (StringUtils.isBlank(text)) {
 			text = topic;
@@ -202,7 +234,7 @@ public abstract class LinkUtil {
 			String virtualWiki = ((wikiLink.getAltVirtualWiki() != null) ? wikiLink.getAltVirtualWiki().getName() : wikiLink.getVirtualWiki());
 			if (WikiBase.getDataHandler().lookupInterwiki(virtualWiki) != null) {
 				style = "interwiki";
-			} else if (LinkUtil.isExistingArticle(virtualWiki, topic) == null && !wikiLink.isSpecial()) {
+			} else if (LinkUtil.isExistingArticle(parserInput, virtualWiki, topic) == null && !wikiLink.isSpecial()) {
 				style = "edit";
 			}
 		}
@@ -235,6 +267,15 @@ public abstract class LinkUtil {
 	 *  information.
 	 */
 	public static String buildTopicUrl(WikiLink wikiLink) throws DataAccessException {
+		return LinkUtil.buildTopicUrl(null, wikiLink);
+	}
+
+	/**
+	 * Build a URL to the topic page for a given topic, using any link targets
+	 * resolved for the current parse to determine whether or not the topic
+	 * exists.
+	 */
+	private static String buildTopicUrl(ParserInput parserInput, WikiLink wikiLink) throws DataAccessException {
 		String url = null;
 		String topic = wikiLink.getDestination();
 		String virtualWiki = ((wikiLink.getAltVirtualWiki() != null) ? wikiLink.getAltVirtualWiki().getName() : wikiLink.getVirtualWiki());
@@ -251,7 +292,7 @@ public abstract class LinkUtil {
 			// do not check existence for section links
 			url = wikiLink.toRelativeUrl();
 		} else {
-			String targetTopic = LinkUtil.isExistingArticle(virtualWiki, topic);
+			String targetTopic = LinkUtil.isExistingArticle(parserInput, virtualWiki, topic);
 			if (targetTopic == null && !wikiLink.isSpecial()) {
 				url = LinkUtil.buildEditLinkUrl(wikiLink.getContextPath(), virtualWiki, topic, wikiLink.getQuery(), -1);
 			} else if (!StringUtils.equals(topic, targetTopic) && !wikiLink.isSpecial()) {
@@ -440,12 +481,106 @@ public abstract class LinkUtil {
 		}
 		String topicName = WikiBase.getDataHandler().lookupTopicName(virtualWiki, wikiLink.getNamespace(), wikiLink.getArticle());
 		if (topicName == null && Environment.getBooleanValue(Environment.PROP_PARSER_ALLOW_CAPITALIZATION)) {
-			String alternativeArticleName = (StringUtils.equals(wikiLink.getArticle(), StringUtils.capitalize(wikiLink.getArticle()))) ? StringUtils.lowerCase(wikiLink.getArticle()) : StringUtils.capitalize(wikiLink.getArticle());
-			topicName = WikiBase.getDataHandler().lookupTopicName(virtualWiki, wikiLink.getNamespace(), alternativeArticleName);
+			topicName = WikiBase.getDataHandler().lookupTopicName(virtualWiki, wikiLink.getNamespace(), LinkUtil.alternativeArticleName(wikiLink.getArticle()));
 		}
 		return topicName;
 	}
 
+	/**
+	 * Utility method for determining if an article name corresponds to a valid
+	 * wiki link.  If the article name was resolved by
+	 * {@link #resolveExistingArticles(ParserInput, String, Collection)} during
+	 * the current parse then the resolved value is returned, otherwise this
+	 * method behaves identically to {@link #isExistingArticle(String, String)}.
+	 *
+	 * @param parserInput The parser input for the current parse, or
+	 *  <code>null</code> if the article name is not being checked by the parser.
+	 * @param virtualWiki The virtual wiki for the topic being checked.
+	 * @param articleName The name of the article that is being checked.
+	 * @return The article name if the given name and virtual wiki correspond
+	 *  to a valid special page, user page, topic, or other existing article,
+	 *  or <code>null</code> if no valid article exists.
+	 * @throws DataAccessException Thrown if an error occurs during lookup.
+	 */
+	public static String isExistingArticle(ParserInput parserInput, String virtualWiki, String articleName) throws DataAccessException {
+		if (parserInput != null && parserInput.containsExistingArticle(virtualWiki, articleName)) {
+			return parserInput.getExistingArticle(virtualWiki, articleName);
+		}
+		return LinkUtil.isExistingArticle(virtualWiki, articleName);
+	}
+
+	/**
+	 * Given an article name that does not match an existing topic, return the
+	 * alternative name to check when capitalization differences are allowed.
+	 */
+	private static String alternativeArticleName(String article) {
+		return (StringUtils.equals(article, StringUtils.capitalize(article))) ? StringUtils.lowerCase(article) : StringUtils.capitalize(article);
+	}
+
+	/**
+	 * Determine which of a group of article names correspond to existing
+	 * articles using one bulk query per namespace, and store the results in
+	 * the parser input so that generating link HTML for those articles does
+	 * not require an additional lookup per link.  Results are identical to
+	 * calling {@link #isExistingArticle(String, String)} for each article name.
+	 *
+	 * @param parserInput The parser input for the current parse.
+	 * @param virtualWiki The virtual wiki for the articles being checked.
+	 * @param articleNames The names of the articles being checked.
+	 * @throws DataAccessException Thrown if an error occurs during lookup.
+	 */
+	public static void resolveExistingArticles(ParserInput parserInput, String virtualWiki, Collection<String> articleNames) throws DataAccessException {
+		if (StringUtils.isBlank(virtualWiki) || !Environment.isInitialized()) {
+			return;
+		}
+		// group article names by namespace so that each namespace is a single query
+		Map<Integer, Map<String, WikiLink>> wikiLinksByNamespace = new HashMap<Integer, Map<String, WikiLink>>();
+		for (String articleName : articleNames) {
+			if (StringUtils.isBlank(articleName) || parserInput.containsExistingArticle(virtualWiki, articleName)) {
+				continue;
+			}
+			WikiLink wikiLink = new WikiLink(null, virtualWiki, articleName);
+			if (PseudoTopicHandler.isPseudoTopic(wikiLink.getDestination()) || wikiLink.getInterwiki() != null) {
+				// no database lookup required
+				continue;
+			}
+			Map<String, WikiLink> wikiLinks = wikiLinksByNamespace.get(wikiLink.getNamespace().getId());
+			if (wikiLinks == null) {
+				wikiLinks = new HashMap<String, WikiLink>();
+				wikiLinksByNamespace.put(wikiLink.getNamespace().getId(), wikiLinks);
+			}
+			wikiLinks.put(articleName, wikiLink);
+		}
+		boolean allowCapitalization = Environment.getBooleanValue(Environment.PROP_PARSER_ALLOW_CAPITALIZATION);
+		for (Map<String, WikiLink> wikiLinks : wikiLinksByNamespace.values()) {
+			Namespace namespace = wikiLinks.values().iterator().next().getNamespace();
+			Set<String> pageNames = new HashSet<String>();
+			for (WikiLink wikiLink : wikiLinks.values()) {
+				pageNames.add(wikiLink.getArticle());
+			}
+			Map<String, String> topicNames = WikiBase.getDataHandler().lookupTopicNames(virtualWiki, namespace, pageNames);
+			if (allowCapitalization) {
+				List<String> alternativePageNames = new ArrayList<String>();
+				for (WikiLink wikiLink : wikiLinks.values()) {
+					if (topicNames.get(wikiLink.getArticle()) == null) {
+						alternativePageNames.add(LinkUtil.alternativeArticleName(wikiLink.getArticle()));
+					}
+				}
+				if (!alternativePageNames.isEmpty()) {
+					Map<String, String> alternativeTopicNames = WikiBase.getDataHandler().lookupTopicNames(virtualWiki, namespace, alternativePageNames);
+					for (WikiLink wikiLink : wikiLinks.values()) {
+						if (topicNames.get(wikiLink.getArticle()) == null) {
+							topicNames.put(wikiLink.getArticle(), alternativeTopicNames.get(LinkUtil.alternativeArticleName(wikiLink.getArticle())));
+						}
+					}
+				}
+			}
+			for (Map.Entry<String, WikiLink> entry : wikiLinks.entrySet()) {
+				parserInput.addExistingArticle(virtualWiki, entry.getKey(), topicNames.get(entry.getValue().getArticle()));
+			}
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -33,6 +33,8 @@ public class ParserInput {
 	private String context;
 	/** Depth is used to prevent infinite nesting of templates and other objects. */
 	private int depth = 0;
+	/** Map of link targets and the corresponding existing topic names, resolved in bulk prior to generating link HTML. */
+	private Map<String, String> existingArticles;
 	/**
 	 * If an infinite loop is detected increment this counter so that the parser can
 	 * halt parsing for infinite loop attacks.
@@ -274,6 +276,55 @@ public class ParserInput {
 		this.tempParams.remove(key);
 	}
 
+	/**
+	 * Determine whether or not an article name has been resolved by a bulk
+	 * link lookup during the current parse.
+	 *
+	 * @param virtualWiki The virtual wiki for the article being checked.
+	 * @param articleName The name of the article being checked.
+	 * @return <code>true</code> if the article name has been resolved and
+	 *  the result is available from {@link #getExistingArticle}.
+	 */
+	public boolean containsExistingArticle(String virtualWiki, String articleName) {
+		if (this.existingArticles == null) {
+			return false;
+		}
+		return this.existingArticles.containsKey(virtualWiki + '/' + articleName);
+	}
+
+	/**
+	 * Return the existing topic name for an article name that has been
+	 * resolved by a bulk link lookup during the current parse.
+	 *
+	 * @param virtualWiki The virtual wiki for the article being checked.
+	 * @param articleName The name of the article being checked.
+	 * @return The name of the existing article that corresponds to the given
+	 *  article name, or <code>null</code> if no article exists or if the article
+	 *  name has not been resolved.
+	 */
+	public String getExistingArticle(String virtualWiki, String articleName) {
+		if (this.existingArticles == null) {
+			return null;
+		}
+		return this.existingArticles.get(virtualWiki + '/' + articleName);
+	}
+
+	/**
+	 * Add the result of a bulk link lookup to the map of resolved article
+	 * names for the current parse.
+	 *
+	 * @param virtualWiki The virtual wiki for the article being resolved.
+	 * @param articleName The name of the article being resolved.
+	 * @param existingArticle The name of the existing article that corresponds
+	 *  to the article name, or <code>null</code> if no article exists.
+	 */
+	public void addExistingArticle(String virtualWiki, String articleName, String existingArticle) {
+		if (this.existingArticles == null) {
+			this.existingArticles = new HashMap<String, String>();
+		}
+		this.existingArticles.put(virtualWiki + '/' + articleName, existingArticle);
+	}
+
 	/**
 	 * Get the depth level when template code is being parsed.
 	 *
@@ -60,6 +60,46 @@ public class ParserOutput implements Serializable {
 		this.immutable = true;
 	}
 
+	/**
+	 * Create a copy of an existing ParserOutput object.  Metadata collections
+	 * are copied, so modifications to the new object will not affect the
+	 * original.
+	 */
+	public ParserOutput(ParserOutput parserOutput) {
+		this.immutable = false;
+		this.copy(parserOutput);
+	}
+
+	/**
+	 * Replace all metadata held by this ParserOutput with copies of the metadata
+	 * held by another ParserOutput object.
+	 */
+	void copy(ParserOutput parserOutput) {
+		if (this.immutable) {
+			return;
+		}
+		this.reset();
+		this.cacheable = parserOutput.cacheable;
+		if (!parserOutput.categories.isEmpty()) {
+			this.categories = new LinkedHashMap<String, String>(parserOutput.categories);
+		}
+		if (!parserOutput.interwikiLinks.isEmpty()) {
+			this.interwikiLinks = new ArrayList<String>(parserOutput.interwikiLinks);
+		}
+		if (!parserOutput.links.isEmpty()) {
+			this.links = new ArrayList<String>(parserOutput.links);
+		}
+		if (!parserOutput.virtualWikiLinks.isEmpty()) {
+			this.virtualWikiLinks = new ArrayList<String>(parserOutput.virtualWikiLinks);
+		}
+		this.pageTitle = parserOutput.pageTitle;
+		this.redirect = parserOutput.redirect;
+		this.sectionName = parserOutput.sectionName;
+		if (!parserOutput.templates.isEmpty()) {
+			this.templates = new ArrayList<String>(parserOutput.templates);
+		}
+	}
+
 	/**
 	 * Reset this ParserOutput instance to its default state.
 	 */
@@ -16,10 +16,14 @@
  */
 package org.jamwiki.parser;
 
+import java.util.Collection;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.WikiBase;
 import org.jamwiki.model.Topic;
+import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 
 /**
@@ -28,6 +32,28 @@ import org.jamwiki.utils.WikiLogger;
 public class ParserUtil {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ParserUtil.class.getName());
+	/**
+	 * Cache of fully-rendered topic output, keyed by virtual wiki, topic name and
+	 * rendering variant (topic version, locale, section edit permission, etc).
+	 * Each element records the topic's rendered revision at the time it was
+	 * rendered, and an element whose revision is no longer current is ignored,
+	 * so invalidating a topic does not require finding all of its variants.
+	 */
+	private static final WikiCache<String, RenderedTopic> CACHE_RENDERED_TOPICS = new WikiCache<String, RenderedTopic>("org.jamwiki.parser.ParserUtil.CACHE_RENDERED_TOPICS");
+	/** Topics whose most recent rendering could not be cached, such as those using time-based magic words. */
+	private static final WikiCache<String, Boolean> CACHE_UNCACHEABLE_TOPICS = new WikiCache<String, Boolean>("org.jamwiki.parser.ParserUtil.CACHE_UNCACHEABLE_TOPICS");
+	/**
+	 * Revision numbers for rendered topic output.  Topics are hashed into a fixed
+	 * number of slots, and a slot's revision changes whenever the rendered output
+	 * of any topic in that slot is invalidated.  Collisions only cause spurious
+	 * revision changes, so memory use does not grow with the number of topics.
+	 */
+	private static final AtomicLongArray RENDERED_TOPIC_REVISIONS = new AtomicLongArray(4096);
+	private static final AtomicLong RENDERED_TOPIC_REVISION_COUNTER = new AtomicLong();
+	/** Revision that changes whenever all rendered topic output is invalidated. */
+	private static volatile long RENDERED_TOPIC_EPOCH = 0;
+	/** Revisions are reset on restart, so the startup time is included in all revision values. */
+	private static final long STARTUP_TIME = System.currentTimeMillis();
 
 	/**
 	 * Using the system parser, parse system content.
@@ -51,6 +77,48 @@ public class ParserUtil {
 		return WikiBase.getParserInstance().parseHTML(parserInput, parserOutput, content);
 	}
 
+	/**
+	 * Parse the current version of a topic, returning previously rendered output
+	 * from the cache when available.  The cache key includes the topic's current
+	 * version ID, so this method must only be used when the topic content is the
+	 * content of the current version; previews and historical versions should be
+	 * parsed using {@link #parse(ParserInput, ParserOutput, String)}.  Output is
+	 * only cached if the parser indicates that it is cacheable.
+	 *
+	 * @param parserInput A ParserInput object that contains parser
+	 *  configuration information.
+	 * @param parserOutput A ParserOutput object that will hold metadata
+	 *  output.  If rendered output is retrieved from the cache then the cached
+	 *  metadata is copied into this object.
+	 * @param topic The topic being parsed.
+	 * @return The parsed content.
+	 * @throws ParserException Thrown if there are any parsing errors.
+	 */
+	public static String parseTopic(ParserInput parserInput, ParserOutput parserOutput, Topic topic) throws ParserException {
+		if (topic.getCurrentVersionId() == null || topic.getTopicContent() == null) {
+			return ParserUtil.parse(parserInput, parserOutput, topic.getTopicContent());
+		}
+		String cacheKey = ParserUtil.renderedTopicCacheKey(topic.getVirtualWiki(), topic.getName());
+		String variantCacheKey = cacheKey + '|' + ParserUtil.renderedTopicVariantKey(parserInput, topic);
+		// a template used by the topic may be modified while parsing, in which case
+		// the output is stored with the old revision and will not be used
+		String revision = ParserUtil.currentRenderedTopicRevision(cacheKey);
+		RenderedTopic renderedTopic = CACHE_RENDERED_TOPICS.retrieveFromCache(variantCacheKey);
+		if (renderedTopic != null && renderedTopic.getRevision().equals(revision)) {
+			parserOutput.copy(renderedTopic.getParserOutput());
+			return renderedTopic.getContent();
+		}
+		String content = ParserUtil.parse(parserInput, parserOutput, topic.getTopicContent());
+		if (!parserOutput.getCacheable()) {
+			CACHE_UNCACHEABLE_TOPICS.addToCache(cacheKey, Boolean.TRUE);
+			return content;
+		}
+		// the topic may previously have been uncacheable
+		CACHE_UNCACHEABLE_TOPICS.removeFromCache(cacheKey);
+		CACHE_RENDERED_TOPICS.addToCache(variantCacheKey, new RenderedTopic(content, new ParserOutput(parserOutput), revision));
+		return content;
+	}
+
 	/**
 	 * Using the system parser, parse an edit comment.
 	 *
@@ -167,6 +235,93 @@ public class ParserUtil {
 		return ParserUtil.executeSliceOrSplice(parserOutput, context, locale, virtualWiki, topicName, targetSection, replacementText, false);
 	}
 
+	/**
+	 * Remove all rendered topic output from the cache.  This method should be
+	 * used when a change may affect the output of an unknown set of topics.
+	 */
+	public static void removeAllRenderedTopics() {
+		RENDERED_TOPIC_EPOCH = RENDERED_TOPIC_REVISION_COUNTER.incrementAndGet();
+		CACHE_UNCACHEABLE_TOPICS.removeAllFromCache();
+		CACHE_RENDERED_TOPICS.removeAllFromCache();
+	}
+
+	/**
+	 * Remove rendered output from the cache for the specified topics.  This
+	 * method should be called whenever a user-visible change is made to a topic,
+	 * passing the name of the modified topic along with the names of all topics
+	 * whose rendered output depends on it.  Cached output for these topics is
+	 * not removed immediately but is no longer used, and is eventually evicted.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics being removed.
+	 * @param topicNames The names of the topics whose rendered output should
+	 *  be removed from the cache.
+	 */
+	public static void removeRenderedTopics(String virtualWiki, Collection<String> topicNames) {
+		for (String topicName : topicNames) {
+			String cacheKey = ParserUtil.renderedTopicCacheKey(virtualWiki, topicName);
+			RENDERED_TOPIC_REVISIONS.set(ParserUtil.renderedTopicRevisionSlot(cacheKey), RENDERED_TOPIC_REVISION_COUNTER.incrementAndGet());
+			CACHE_UNCACHEABLE_TOPICS.removeFromCache(cacheKey);
+		}
+	}
+
+	/**
+	 * Return a value that changes whenever the rendered output of a topic may
+	 * have changed for reasons other than a new topic version, such as an edit
+	 * to a template that the topic uses.  Together with the topic version this
+	 * value can be used to build HTTP validators for rendered topic output.
+	 *
+	 * @param virtualWiki The virtual wiki for the topic.
+	 * @param topicName The name of the topic.
+	 * @return A revision value for the topic's rendered output, or
+	 *  <code>null</code> if the topic's output differs between renderings (for
+	 *  example if it uses time-based magic words) and thus has no stable
+	 *  revision.
+	 */
+	public static String renderedTopicRevision(String virtualWiki, String topicName) {
+		String cacheKey = ParserUtil.renderedTopicCacheKey(virtualWiki, topicName);
+		if (CACHE_UNCACHEABLE_TOPICS.isKeyInCache(cacheKey)) {
+			return null;
+		}
+		return STARTUP_TIME + "." + ParserUtil.currentRenderedTopicRevision(cacheKey);
+	}
+
+	/**
+	 * Return a value that changes whenever the rendered output for the cache key
+	 * is invalidated.
+	 */
+	private static String currentRenderedTopicRevision(String cacheKey) {
+		return RENDERED_TOPIC_EPOCH + "." + RENDERED_TOPIC_REVISIONS.get(ParserUtil.renderedTopicRevisionSlot(cacheKey));
+	}
+
+	/**
+	 *
+	 */
+	private static int renderedTopicRevisionSlot(String cacheKey) {
+		return (cacheKey.hashCode() & 0x7fffffff) % RENDERED_TOPIC_REVISIONS.length();
+	}
+
+	/**
+	 *
+	 */
+	private static String renderedTopicCacheKey(String virtualWiki, String topicName) {
+		return virtualWiki + '/' + topicName;
+	}
+
+	/**
+	 * Generate the key used to distinguish between different renderings of the
+	 * same topic.  Any parser input value that can change the rendered output
+	 * must be part of this key.
+	 */
+	private static String renderedTopicVariantKey(ParserInput parserInput, Topic topic) {
+		StringBuilder variantKey = new StringBuilder();
+		variantKey.append(topic.getCurrentVersionId());
+		variantKey.append('/').append(parserInput.getLocale());
+		variantKey.append('/').append(parserInput.getAllowSectionEdit());
+		variantKey.append('/').append(parserInput.getAllowTableOfContents());
+		variantKey.append('/').append(parserInput.getContext());
+		return variantKey.toString();
+	}
+
 	/**
 	 * The slice and splice parser code is very similar, so this method simply consolidates
 	 * that code to avoid duplication.
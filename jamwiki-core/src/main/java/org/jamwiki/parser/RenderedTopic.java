@@ -0,0 +1,63 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser;
+
+import java.io.Serializable;
+
+/**
+ * Holder for the fully-rendered HTML output of a topic along with the parser
+ * metadata generated while rendering it.  Instances of this class are stored
+ * in the rendered topic cache maintained by {@link ParserUtil}.
+ */
+class RenderedTopic implements Serializable {
+
+	private final String content;
+	private final ParserOutput parserOutput;
+	private final String revision;
+
+	/**
+	 *
+	 */
+	RenderedTopic(String content, ParserOutput parserOutput, String revision) {
+		this.content = content;
+		this.parserOutput = parserOutput;
+		this.revision = revision;
+	}
+
+	/**
+	 * Return the rendered HTML content for the topic.
+	 */
+	String getContent() {
+		return this.content;
+	}
+
+	/**
+	 * Return the parser metadata generated while rendering the topic.  Callers
+	 * must not modify the returned object.
+	 */
+	ParserOutput getParserOutput() {
+		return this.parserOutput;
+	}
+
+	/**
+	 * Return the rendered revision of the topic at the time that it was
+	 * rendered.
+	 */
+	String getRevision() {
+		return this.revision;
+	}
+}
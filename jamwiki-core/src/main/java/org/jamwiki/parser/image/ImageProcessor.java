@@ -23,13 +23,17 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Iterator;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 import org.apache.commons.io.FileUtils;
@@ -37,6 +41,7 @@ import org.apache.commons.io.IOUtils;
 import org.jamwiki.WikiBase;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.model.ImageData;
+import org.jamwiki.model.WikiImageMetadata;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
 
@@ -48,6 +53,10 @@ import org.jamwiki.utils.WikiUtil;
 public class ImageProcessor {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ImageProcessor.class.getName());
+	private static final int EXIF_TAG_ORIENTATION = 0x0112;
+	private static final int JPEG_APP1 = 0xFFE1;
+	private static final int JPEG_START_OF_IMAGE = 0xFFD8;
+	private static final int JPEG_START_OF_SCAN = 0xFFDA;
 
 	static {
 		// manually set the ImageIO temp directory so that systems with incorrect defaults won't fail
@@ -66,9 +75,10 @@ public class ImageProcessor {
 
 	/**
 	 * Given a file that corresponds to an existing image, return a
-	 * BufferedImage object.
+	 * BufferedImage object.  The image is decoded at the lowest resolution
+	 * that still allows good quality scaling to the target dimensions.
 	 */
-	private static BufferedImage loadImage(File file) throws IOException {
+	private static BufferedImage loadImage(File file, int targetWidth, int targetHeight) throws IOException {
 		if (!file.exists()) {
 			throw new FileNotFoundException("File does not exist: " + file.getAbsolutePath());
 		}
@@ -77,7 +87,7 @@ public class ImageProcessor {
 		FileInputStream fis = null;
 		try {
 			fis = new FileInputStream(file);
-			BufferedImage image = ImageIO.read(fis);
+			BufferedImage image = ImageProcessor.readImage(fis, targetWidth, targetHeight);
 			if (image == null) {
 				throw new IOException("JDK is unable to process image file, possibly indicating file corruption: " + file.getAbsolutePath());
 			}
@@ -129,7 +139,7 @@ public class ImageProcessor {
 	 */
 	public static BufferedImage resizeImage(File imageFile, int targetWidth, int targetHeight) throws IOException {
 		long start = System.currentTimeMillis();
-		BufferedImage resized = ImageProcessor.loadImage(imageFile);
+		BufferedImage resized = ImageProcessor.loadImage(imageFile, targetWidth, targetHeight);
 		resized = ImageProcessor.resizeImage(resized, targetWidth, targetHeight);
 		if (logger.isDebugEnabled()) {
 			long current = System.currentTimeMillis();
@@ -160,7 +170,7 @@ public class ImageProcessor {
 	public static Dimension resizeImage(int fileId, int fileVersionId, int targetWidth, int targetHeight) throws IOException {
 		long start = System.currentTimeMillis();
 		ImageData imageData = ImageProcessor.loadImage(fileId, fileVersionId);
-		BufferedImage tmp = ImageIO.read(new ByteArrayInputStream(imageData.data));
+		BufferedImage tmp = ImageProcessor.readImage(new ByteArrayInputStream(imageData.data), targetWidth, targetHeight);
 		if (tmp == null) {
 			throw new IOException("JDK is unable to process image data, possibly indicating data corruption: " + fileId);
 		}
@@ -187,6 +197,49 @@ public class ImageProcessor {
 		return new Dimension(imageData.width, imageData.height);
 	}
 
+	/**
+	 * Decode an image, skipping source pixels when the image is much larger than
+	 * the target dimensions.  Decoding a subsampled image is far faster and uses
+	 * far less memory than decoding the full image and then scaling it down, and
+	 * since the subsampled image is still at least twice the target size the
+	 * final scaling step preserves image quality.
+	 *
+	 * @return The decoded image, or <code>null</code> if the image format is not
+	 *  supported.
+	 */
+	private static BufferedImage readImage(InputStream is, int targetWidth, int targetHeight) throws IOException {
+		ImageInputStream iis = null;
+		ImageReader reader = null;
+		try {
+			iis = ImageIO.createImageInputStream(is);
+			Iterator<ImageReader> readers = (iis != null) ? ImageIO.getImageReaders(iis) : null;
+			if (readers == null || !readers.hasNext()) {
+				return null;
+			}
+			reader = readers.next();
+			reader.setInput(iis, true, true);
+			ImageReadParam param = reader.getDefaultReadParam();
+			if (targetWidth > 0 && targetHeight > 0) {
+				int subsampling = Math.min(reader.getWidth(0) / (targetWidth * 2), reader.getHeight(0) / (targetHeight * 2));
+				if (subsampling > 1) {
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				}
+			}
+			return reader.read(0, param);
+		} finally {
+			if (reader != null) {
+				reader.dispose();
+			}
+			if (iis != null) {
+				try {
+					iis.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -215,30 +268,26 @@ public class ImageProcessor {
 	}
 
 	/**
-	 * Retrieve image dimensions.  This method simply reads headers so it should perform
-	 * relatively fast.
+	 * Retrieve image dimensions from a stream of image data.  This method simply
+	 * reads headers, so it is fast and does not decode the full image into
+	 * memory.  The stream is not closed by this method.
+	 *
+	 * @param is An input stream for the image data.
+	 * @return The image dimensions, or <code>null</code> if the data is not a
+	 *  recognized image format.
 	 */
-	protected static Dimension retrieveImageDimensions(File imageFile) throws IOException {
-		long start = System.currentTimeMillis();
-		if (!imageFile.exists()) {
-			logger.info("No file found while determining image dimensions: " + imageFile.getAbsolutePath());
-			return null;
-		}
+	public static Dimension retrieveImageDimensions(InputStream is) throws IOException {
 		ImageInputStream iis = null;
-		Dimension dimensions = null;
 		ImageReader reader = null;
-		// use a FileInputStream and make sure it gets closed to prevent unclosed file
-		// errors on some operating systems
-		FileInputStream fis = null;
 		try {
-			fis = new FileInputStream(imageFile);
-			iis = ImageIO.createImageInputStream(fis);
-			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
-			if (readers.hasNext()) {
+			iis = ImageIO.createImageInputStream(is);
+			Iterator<ImageReader> readers = (iis != null) ? ImageIO.getImageReaders(iis) : null;
+			if (readers != null && readers.hasNext()) {
 				reader = readers.next();
 				reader.setInput(iis, true);
-				dimensions = new Dimension(reader.getWidth(0), reader.getHeight(0));
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
 			}
+			return null;
 		} finally {
 			if (reader != null) {
 				reader.dispose();
@@ -250,6 +299,27 @@ public class ImageProcessor {
 					// ignore
 				}
 			}
+		}
+	}
+
+	/**
+	 * Retrieve image dimensions.  This method simply reads headers so it should perform
+	 * relatively fast.
+	 */
+	protected static Dimension retrieveImageDimensions(File imageFile) throws IOException {
+		long start = System.currentTimeMillis();
+		if (!imageFile.exists()) {
+			logger.info("No file found while determining image dimensions: " + imageFile.getAbsolutePath());
+			return null;
+		}
+		Dimension dimensions = null;
+		// use a FileInputStream and make sure it gets closed to prevent unclosed file
+		// errors on some operating systems
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(imageFile);
+			dimensions = ImageProcessor.retrieveImageDimensions(fis);
+		} finally {
 			IOUtils.closeQuietly(fis);
 		}
 		if (logger.isDebugEnabled()) {
@@ -259,6 +329,78 @@ public class ImageProcessor {
 		return dimensions;
 	}
 
+	/**
+	 * Retrieve the EXIF orientation of a JPEG image by reading the image headers.
+	 * The stream is not closed by this method.
+	 *
+	 * @param is An input stream for the image data.
+	 * @return The EXIF orientation value, from 1 to 8, or
+	 *  {@link WikiImageMetadata#ORIENTATION_NORMAL} if the data is not a JPEG
+	 *  image or does not specify an orientation.
+	 */
+	public static int retrieveImageOrientation(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(is));
+		if (dis.readUnsignedShort() != JPEG_START_OF_IMAGE) {
+			return WikiImageMetadata.ORIENTATION_NORMAL;
+		}
+		while (true) {
+			int marker = dis.readUnsignedShort();
+			if ((marker & 0xFF00) != 0xFF00 || marker == JPEG_START_OF_SCAN) {
+				// image data reached without finding EXIF data
+				return WikiImageMetadata.ORIENTATION_NORMAL;
+			}
+			int length = dis.readUnsignedShort() - 2;
+			if (length < 0) {
+				return WikiImageMetadata.ORIENTATION_NORMAL;
+			}
+			if (marker != JPEG_APP1) {
+				IOUtils.skipFully(dis, length);
+				continue;
+			}
+			byte[] segment = new byte[length];
+			dis.readFully(segment);
+			if (length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' || segment[3] != 'f') {
+				// APP1 segment that is not EXIF data, such as XMP
+				continue;
+			}
+			return ImageProcessor.parseExifOrientation(segment, 6);
+		}
+	}
+
+	/**
+	 * Read the orientation tag from the first IFD of the TIFF structure
+	 * embedded in an EXIF segment.
+	 */
+	private static int parseExifOrientation(byte[] segment, int tiffStart) {
+		boolean littleEndian = (segment[tiffStart] == 'I');
+		int ifdOffset = ImageProcessor.readExifInt(segment, tiffStart + 4, 4, littleEndian);
+		int pos = tiffStart + ifdOffset;
+		if (ifdOffset < 8 || pos + 2 > segment.length) {
+			return WikiImageMetadata.ORIENTATION_NORMAL;
+		}
+		int entries = ImageProcessor.readExifInt(segment, pos, 2, littleEndian);
+		pos += 2;
+		for (int i = 0; i < entries && pos + 12 <= segment.length; i++, pos += 12) {
+			if (ImageProcessor.readExifInt(segment, pos, 2, littleEndian) == EXIF_TAG_ORIENTATION) {
+				int orientation = ImageProcessor.readExifInt(segment, pos + 8, 2, littleEndian);
+				return (orientation >= 1 && orientation <= 8) ? orientation : WikiImageMetadata.ORIENTATION_NORMAL;
+			}
+		}
+		return WikiImageMetadata.ORIENTATION_NORMAL;
+	}
+
+	/**
+	 * Read an unsigned two or four byte integer from EXIF data.
+	 */
+	private static int readExifInt(byte[] data, int pos, int length, boolean littleEndian) {
+		int result = 0;
+		for (int i = 0; i < length; i++) {
+			int b = data[pos + (littleEndian ? (length - 1 - i) : i)] & 0xFF;
+			result = (result << 8) | b;
+		}
+		return result;
+	}
+
 	/**
 	 * Retrieve image dimensions for an image stored in the database.
 	 *
@@ -271,7 +413,7 @@ public class ImageProcessor {
 		ImageData imageData = null;
 		try {
 			if (fileVersionId != -1) {
-				imageData = WikiBase.getDataHandler().getImageVersionData(fileVersionId, resized);
+				imageData = WikiBase.getDataHandler().getImageVersionInfo(fileVersionId, resized);
 			} else {
 				imageData = WikiBase.getDataHandler().getImageInfo(fileId, resized);
 			}
@@ -17,16 +17,20 @@
 package org.jamwiki.parser.image;
 
 import java.awt.Dimension;
-import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.jamwiki.DataAccessException;
@@ -34,12 +38,14 @@ import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
+import org.jamwiki.db.ImageStreamHandler;
 import org.jamwiki.model.ImageData;
 import org.jamwiki.model.Namespace;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.TopicType;
 import org.jamwiki.model.TopicVersion;
 import org.jamwiki.model.WikiImage;
+import org.jamwiki.model.WikiImageMetadata;
 import org.jamwiki.model.WikiFile;
 import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiUser;
@@ -49,7 +55,6 @@ import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.ParserUtil;
 import org.jamwiki.parser.WikiLink;
 import org.jamwiki.utils.Utilities;
-import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
 
@@ -60,8 +65,6 @@ import org.jamwiki.utils.WikiUtil;
 public abstract class ImageUtil {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ImageUtil.class.getName());
-	/** Cache name for the cache of image dimensions. */
-	private static final WikiCache<String, Dimension> CACHE_IMAGE_DIMENSIONS = new WikiCache<String, Dimension>("org.jamwiki.parser.image.ImageUtil.CACHE_IMAGE_DIMENSIONS");
 	/**
 	 * Pattern used in URLs for files uploaded to the database.  Pattern is URL root,
 	 * file ID, version ID, resize increment, and file name.
@@ -96,14 +99,6 @@ public abstract class ImageUtil {
 	/** Path to the template used to format right-aligned image thumbnails. */
 	private static final String TEMPLATE_IMAGE_THUMBNAIL_RIGHT = "templates/image-thumbnail-right.template";
 
-	/**
-	 *
-	 */
-	private static void addToCache(WikiImage wikiImage, Dimension dimensions) {
-		String key = wikiImage.getVirtualWiki() + "/" + wikiImage.getUrl();
-		CACHE_IMAGE_DIMENSIONS.addToCache(key, dimensions);
-	}
-
 	/**
 	 * Given a relative upload file name, return a File object representing the
 	 * absolute file path for the upload file.  Note that the file may not yet
@@ -241,6 +236,39 @@ public abstract class ImageUtil {
 	 * @throws IOException Thrown if any error occurs while reading image information.
 	 */
 	public static String buildImageLinkHtml(String context, String linkVirtualWiki, String topicName, ImageMetadata imageMetadata, String style, boolean escapeHtml, WikiFileVersion fileVersion) throws DataAccessException, IOException {
+		return ImageUtil.buildImageLinkHtml(context, linkVirtualWiki, topicName, imageMetadata, style, escapeHtml, fileVersion, null);
+	}
+
+	/**
+	 * Utility method for building an anchor tag that links to an image page
+	 * and includes the HTML image tag to display the image.  If a resized
+	 * version of the image is still being generated then the original image is
+	 * used and the parser output is marked as uncacheable.
+	 *
+	 * @param context The servlet context for the link that is being created.
+	 * @param linkVirtualWiki The virtual wiki to use when looking up the
+	 *  image/file, and when linking to the image/file topic page.
+	 * @param topicName The name of the image for which a link is being
+	 *  created.
+	 * @param imageMetadata A container for the image display params, such as
+	 *  border, alignment, caption, etc.
+	 * @param style The CSS class to use with the img HTML tag.  This value
+	 *  can be <code>null</code> or empty if no custom style is used.
+	 * @param escapeHtml Set to <code>true</code> if the caption should be
+	 *  HTML escaped.
+	 * @param fileVersion If building image HTML for anything other than the
+	 *  current file version then the version object must be provided, otherwise
+	 *  this parameter should be <code>null</code>.
+	 * @param parserOutput The parser output for the content containing the
+	 *  image, or <code>null</code> if the image HTML is not generated by the
+	 *  parser.
+	 * @return The full HTML required to display an image enclosed within an
+	 *  HTML anchor tag that links to the image topic page.
+	 * @throws DataAccessException Thrown if any error occurs while retrieving image
+	 *  information.
+	 * @throws IOException Thrown if any error occurs while reading image information.
+	 */
+	public static String buildImageLinkHtml(String context, String linkVirtualWiki, String topicName, ImageMetadata imageMetadata, String style, boolean escapeHtml, WikiFileVersion fileVersion, ParserOutput parserOutput) throws DataAccessException, IOException {
 		String url = ImageUtil.buildImageFileUrl(context, linkVirtualWiki, topicName, false);
 		if (url == null) {
 			return ImageUtil.buildUploadLink(context, linkVirtualWiki, topicName);
@@ -254,7 +282,7 @@ public abstract class ImageUtil {
 		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile(topic.getVirtualWiki(), topic.getName());
 		WikiImage wikiImage = null;
 		try {
-			wikiImage = ImageUtil.initializeWikiImage(wikiFile, imageMetadata, fileVersion);
+			wikiImage = ImageUtil.initializeWikiImage(topic, wikiFile, imageMetadata, fileVersion, parserOutput);
 		} catch (FileNotFoundException e) {
 			// do not log the full exception as the logs can fill up very for this sort of error, and it is generally due to a bad configuration.  instead log a warning message so that the administrator can try to fix the problem
 			logger.warn("File not found while parsing image link for topic: " + topic.getVirtualWiki() + " / " + topicName + ".  Make sure that the following file exists and is readable by the JAMWiki installation: " + e.getMessage());
@@ -336,7 +364,7 @@ public abstract class ImageUtil {
 	/**
 	 * Given a file URL and a maximum dimension, return a relative path for the file.
 	 */
-	private static String buildImagePath(String currentUrl, int originalWidth, int scaledWidth) {
+	protected static String buildImagePath(String currentUrl, int originalWidth, int scaledWidth) {
 		if (originalWidth <= scaledWidth) {
 			// no resizing necessary, return the original URL
 			return currentUrl;
@@ -352,6 +380,53 @@ public abstract class ImageUtil {
 		return path;
 	}
 
+	/**
+	 * Read the metadata for an image file version from the image file.  Only the
+	 * image headers are read.
+	 *
+	 * @param fileVersion The file version for which metadata is being read.
+	 *  The file version must have been written to the database.
+	 * @return The image metadata, or <code>null</code> if the file is not an
+	 *  image.
+	 */
+	protected static WikiImageMetadata buildImageMetadata(WikiFileVersion fileVersion) throws DataAccessException, IOException {
+		final WikiImageMetadata imageMetadata = new WikiImageMetadata();
+		imageMetadata.setFileId(fileVersion.getFileId());
+		imageMetadata.setFileVersionId(fileVersion.getFileVersionId());
+		imageMetadata.setMimeType(fileVersion.getMimeType());
+		imageMetadata.setUrl(fileVersion.getUrl());
+		if (isImagesOnFS()) {
+			File file = ImageUtil.buildAbsoluteFile(fileVersion.getUrl());
+			Dimension dimensions = ImageProcessor.retrieveImageDimensions(file);
+			if (dimensions == null) {
+				return null;
+			}
+			imageMetadata.setWidth(dimensions.width);
+			imageMetadata.setHeight(dimensions.height);
+			FileInputStream fis = null;
+			try {
+				fis = new FileInputStream(file);
+				imageMetadata.setOrientation(ImageProcessor.retrieveImageOrientation(fis));
+			} finally {
+				IOUtils.closeQuietly(fis);
+			}
+		} else {
+			WikiBase.getDataHandler().streamImageVersionData(fileVersion.getFileVersionId(), 0, new ImageStreamHandler() {
+				public void handleImageStream(ImageData imageInfo, InputStream data) throws IOException {
+					imageMetadata.setWidth(imageInfo.width);
+					imageMetadata.setHeight(imageInfo.height);
+					if (imageInfo.width >= 0) {
+						imageMetadata.setOrientation(ImageProcessor.retrieveImageOrientation(data));
+					}
+				}
+			});
+			if (imageMetadata.getWidth() < 0) {
+				return null;
+			}
+		}
+		return imageMetadata;
+	}
+
 	/**
 	 * Determine the CSS styles to apply to the image wrapper div.
 	 */
@@ -424,9 +499,9 @@ public abstract class ImageUtil {
 	}
 
 	/**
-	 *
+	 * Round an image width up to the nearest resize increment.
 	 */
-	private static int calculateImageIncrement(double dimension) {
+	protected static int calculateImageIncrement(double dimension) {
 		int increment = Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_INCREMENT);
 		return (int)(Math.ceil(dimension / (double)increment) * increment);
 	}
@@ -435,8 +510,10 @@ public abstract class ImageUtil {
 	 * Determine the scaled dimensions, rounded to an increment for performance reasons,
 	 * given a max width and height.  For example, if the original dimensions are 800x400,
 	 * the max width height are 200, and the increment is 400, the result is 400x200.
+	 * If the resized image is being generated in the background then
+	 * <code>null</code> is returned.
 	 */
-	private static Dimension calculateIncrementalDimensions(WikiImage wikiImage, Dimension originalDimensions, Dimension scaledDimensions, WikiFileVersion fileVersion) throws IOException {
+	private static Dimension calculateIncrementalDimensions(WikiImage wikiImage, WikiImageMetadata storedMetadata, Dimension originalDimensions, Dimension scaledDimensions, WikiFileVersion fileVersion) throws IOException {
 		int increment = Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_INCREMENT);
 		// use width for incremental resizing
 		int incrementalWidth = calculateImageIncrement(scaledDimensions.getWidth());
@@ -444,45 +521,26 @@ public abstract class ImageUtil {
 			// let the browser scale the image
 			return originalDimensions;
 		}
-		int incrementalHeight = (int)Math.round(((double)incrementalWidth / (double)originalDimensions.getWidth()) * (double)originalDimensions.getHeight());
+		int incrementalHeight = calculateIncrementalHeight(originalDimensions, incrementalWidth);
+		if (storedMetadata.getResizedWidths().contains(incrementalWidth)) {
+			// the resized image is known to exist, so there is no need to check for it
+			return new Dimension(incrementalWidth, incrementalHeight);
+		}
+		// use an existing resized image or generate one, which returns null if the
+		// resized image is being generated in the background
 		if (isImagesOnFS()) {
-			return calculateIncrementalDimensionsForImageFile(wikiImage, originalDimensions, incrementalWidth, incrementalHeight);
+			return ThumbnailService.requestFileThumbnail(wikiImage.getUrl(), originalDimensions, incrementalWidth, incrementalHeight);
 		} else {
-			return calculateIncrementalDimensionsForImageBlob(wikiImage, incrementalWidth, incrementalHeight, fileVersion);
+			int fileVersionId = (fileVersion != null) ? fileVersion.getFileVersionId() : -1;
+			return ThumbnailService.requestDatabaseThumbnail(wikiImage.getUrl(), wikiImage.getFileId(), fileVersionId, incrementalWidth, incrementalHeight);
 		}
 	}
 
 	/**
-	 * Determine scaled dimensions for images stored on the filesystem.
+	 * Determine the height of an image that has been scaled to a given width.
 	 */
-	private static Dimension calculateIncrementalDimensionsForImageFile(WikiImage wikiImage, Dimension originalDimensions, int incrementalWidth, int incrementalHeight) throws IOException {
-		// check to see if an image with the desired dimensions already exists on the filesystem
-		String newUrl = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), incrementalWidth);
-		File newImageFile = ImageUtil.buildAbsoluteFile(newUrl);
-		if (newImageFile.exists()) {
-			return new Dimension(incrementalWidth, incrementalHeight);
-		}
-		// otherwise generate a scaled instance
-		File imageFile = ImageUtil.buildAbsoluteFile(wikiImage.getUrl());
-		BufferedImage bufferedImage = ImageProcessor.resizeImage(imageFile, incrementalWidth, incrementalHeight);
-		newUrl = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), bufferedImage.getWidth());
-		newImageFile = ImageUtil.buildAbsoluteFile(newUrl);
-		ImageProcessor.saveImage(bufferedImage, newImageFile);
-		return new Dimension(bufferedImage.getWidth(), bufferedImage.getHeight());
-	}
-
-	/**
-	 * Determine scaled dimensions for images stored in the database.
-	 */
-	private static Dimension calculateIncrementalDimensionsForImageBlob(WikiImage wikiImage, int incrementalWidth, int incrementalHeight, WikiFileVersion fileVersion) throws IOException {
-		// check to see if an image with the desired dimensions already exists on the filesystem
-		int fileVersionId = (fileVersion != null) ? fileVersion.getFileVersionId() : -1;
-		Dimension d1  = ImageProcessor.retrieveImageDimensions(wikiImage.getFileId(), fileVersionId, incrementalWidth);
-		if (d1 != null) {
-			return d1;
-		}
-		// otherwise generate a scaled instance
-		return ImageProcessor.resizeImage(wikiImage.getFileId(), fileVersionId, incrementalWidth, incrementalHeight);
+	protected static int calculateIncrementalHeight(Dimension originalDimensions, int incrementalWidth) {
+		return (int)Math.round(((double)incrementalWidth / (double)originalDimensions.getWidth()) * (double)originalDimensions.getHeight());
 	}
 
 	/**
@@ -577,6 +635,7 @@ public abstract class ImageUtil {
 	 * a max width or max height greater than zero then a resized version of the
 	 * image may be created.
 	 *
+	 * @param topic The image topic.
 	 * @param wikiFile Given a WikiFile object, use it to initialize a
 	 *  WikiImage object.
 	 * @param imageMetadata The maximum width or height for the initialized
@@ -584,11 +643,13 @@ public abstract class ImageUtil {
 	 *  value to be ignored.
 	 * @param fileVersion The specific file version.  If this parameter is
 	 *  <code>null</code> then the current version is used.
+	 * @param parserOutput If not <code>null</code>, the parser output is marked
+	 *  as uncacheable if a resized image is not yet available.
 	 * @return An initialized WikiImage object.
 	 * @throws IOException Thrown if an error occurs while initializing the
 	 *  WikiImage object.
 	 */
-	private static WikiImage initializeWikiImage(WikiFile wikiFile, ImageMetadata imageMetadata, WikiFileVersion fileVersion) throws DataAccessException, IOException {
+	private static WikiImage initializeWikiImage(Topic topic, WikiFile wikiFile, ImageMetadata imageMetadata, WikiFileVersion fileVersion, ParserOutput parserOutput) throws DataAccessException, IOException {
 		if (wikiFile == null) {
 			throw new IllegalArgumentException("wikiFile may not be null");
 		}
@@ -599,22 +660,12 @@ public abstract class ImageUtil {
 			wikiImage.setUrl(fileVersion.getUrl());
 		}
 		// get the size of the original (unresized) image
-		Dimension originalDimensions = ImageUtil.retrieveFromCache(wikiImage);
-		if (originalDimensions == null) {
-			if (isImagesOnFS()) {
-				File file = ImageUtil.buildAbsoluteFile(wikiImage.getUrl());
-				originalDimensions = ImageProcessor.retrieveImageDimensions(file);
-			} else if (fileVersion != null) {
-				originalDimensions = ImageProcessor.retrieveImageDimensions(wikiImage.getFileId(), fileVersion.getFileVersionId(), 0);
-			} else {
-				originalDimensions = ImageProcessor.retrieveImageDimensions(wikiImage.getFileId(), -1, 0);
-			}
-			if (originalDimensions == null) {
-				logger.info("Unable to determine dimensions for image: " + wikiImage.getUrl());
-				return null;
-			}
-			addToCache(wikiImage, originalDimensions);
+		WikiImageMetadata storedMetadata = ImageUtil.retrieveImageMetadata(topic, wikiImage, fileVersion);
+		if (storedMetadata == null) {
+			logger.info("Unable to determine dimensions for image: " + wikiImage.getUrl());
+			return null;
 		}
+		Dimension originalDimensions = new Dimension(storedMetadata.getWidth(), storedMetadata.getHeight());
 		if (!imageMetadata.getAllowEnlarge() && imageMetadata.getMaxWidth() > originalDimensions.getWidth() && imageMetadata.getMaxHeight() > originalDimensions.getHeight()) {
 			imageMetadata.setMaxWidth((int)originalDimensions.getWidth());
 			imageMetadata.setMaxHeight((int)originalDimensions.getHeight());
@@ -624,7 +675,15 @@ public abstract class ImageUtil {
 		wikiImage.setWidth((int)scaledDimensions.getWidth());
 		wikiImage.setHeight((int)scaledDimensions.getHeight());
 		// return an appropriate WikiImage object with URL to the scaled image, proper width, and proper height
-		Dimension incrementalDimensions = calculateIncrementalDimensions(wikiImage, originalDimensions, scaledDimensions, fileVersion);
+		Dimension incrementalDimensions = calculateIncrementalDimensions(wikiImage, storedMetadata, originalDimensions, scaledDimensions, fileVersion);
+		if (incrementalDimensions == null) {
+			// the resized image is not yet available, so let the browser scale the
+			// original and do not cache output that refers to the original image
+			incrementalDimensions = originalDimensions;
+			if (parserOutput != null) {
+				parserOutput.setCacheable(false);
+			}
+		}
 		if (isImagesOnFS()) {
 			String url = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), (int)incrementalDimensions.getWidth());
 			wikiImage.setUrl(url);
@@ -699,12 +758,55 @@ public abstract class ImageUtil {
 	}
 
 	/**
-	 * Determine if image information is available in the cache.  If so return it,
-	 * otherwise return <code>null</code>.
+	 * Retrieve the stored metadata for the current versions of all images linked
+	 * to from a page using a single bulk lookup, so that image HTML for the page
+	 * can be generated without a separate query for each image.
+	 *
+	 * @param virtualWiki The virtual wiki for the page being rendered.
+	 * @param topicNames The names of all topics linked to from the page.  Names
+	 *  that are not in the file namespace are ignored.
+	 * @throws DataAccessException Thrown if any error occurs while retrieving
+	 *  image metadata.
+	 */
+	public static void preloadImageMetadata(String virtualWiki, Collection<String> topicNames) throws DataAccessException {
+		if (StringUtils.isBlank(virtualWiki) || !Environment.isInitialized()) {
+			return;
+		}
+		List<String> pageNames = new ArrayList<String>();
+		for (String topicName : topicNames) {
+			WikiLink wikiLink = new WikiLink(null, virtualWiki, topicName);
+			if (wikiLink.getInterwiki() == null && wikiLink.getNamespace().getId().equals(Namespace.FILE_ID)) {
+				pageNames.add(wikiLink.getArticle());
+			}
+		}
+		if (!pageNames.isEmpty()) {
+			WikiBase.getDataHandler().lookupImageMetadata(virtualWiki, pageNames);
+		}
+	}
+
+	/**
+	 * Retrieve the stored metadata for an image version.  Metadata for images
+	 * that were uploaded before image metadata was stored is read from the image
+	 * and saved the first time that the image is displayed.
 	 */
-	private static Dimension retrieveFromCache(WikiImage wikiImage) throws DataAccessException {
-		String key = wikiImage.getVirtualWiki() + "/" + wikiImage.getUrl();
-		return CACHE_IMAGE_DIMENSIONS.retrieveFromCache(key);
+	private static WikiImageMetadata retrieveImageMetadata(Topic topic, WikiImage wikiImage, WikiFileVersion fileVersion) throws DataAccessException, IOException {
+		WikiImageMetadata storedMetadata = WikiBase.getDataHandler().lookupImageMetadata(wikiImage.getUrl());
+		if (storedMetadata != null) {
+			return storedMetadata;
+		}
+		if (fileVersion == null) {
+			// the most recent version is the current version
+			List<WikiFileVersion> fileVersions = WikiBase.getDataHandler().getAllWikiFileVersions(topic.getVirtualWiki(), topic.getName(), true);
+			if (fileVersions.isEmpty() || !StringUtils.equals(fileVersions.get(0).getUrl(), wikiImage.getUrl())) {
+				return null;
+			}
+			fileVersion = fileVersions.get(0);
+		}
+		storedMetadata = ImageUtil.buildImageMetadata(fileVersion);
+		if (storedMetadata != null) {
+			WikiBase.getDataHandler().writeImageMetadata(storedMetadata);
+		}
+		return storedMetadata;
 	}
 
 	/**
@@ -758,7 +860,7 @@ public abstract class ImageUtil {
 		TopicVersion topicVersion = new TopicVersion(user, ipAddress, contents, topic.getTopicContent(), charactersChanged);
 		topicVersion.setEditType(TopicVersion.EDIT_UPLOAD);
 		ParserOutput parserOutput = ParserUtil.parserOutput(topic.getTopicContent(), virtualWiki, topic.getName());
-		WikiBase.getDataHandler().writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks(), parserOutput.getTemplates());
 		return topic;
 	}
 
@@ -802,6 +904,18 @@ public abstract class ImageUtil {
 		wikiFile.setFileSize(fileSize);
 		wikiFile.setTopicId(topic.getTopicId());
 		WikiBase.getDataHandler().writeFile(wikiFile, wikiFileVersion, imageData);
+		if (topic.getTopicType() == TopicType.IMAGE) {
+			WikiImageMetadata imageMetadata = null;
+			try {
+				imageMetadata = ImageUtil.buildImageMetadata(wikiFileVersion);
+			} catch (IOException e) {
+				logger.info("Unable to read metadata for uploaded image " + url + ": " + e.getMessage());
+			}
+			if (imageMetadata != null) {
+				WikiBase.getDataHandler().writeImageMetadata(imageMetadata);
+				ThumbnailService.pregenerateThumbnails(imageMetadata);
+			}
+		}
 		return wikiFile;
 	}
 
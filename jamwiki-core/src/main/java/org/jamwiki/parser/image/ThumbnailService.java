@@ -0,0 +1,344 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.DataAccessException;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.WikiImageMetadata;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Generates resized versions of uploaded images.  Resizing a large image can
+ * take several seconds, so by default resized images are generated by a
+ * small pool of background threads rather than by the thread rendering a
+ * page.  Until a resized image is available pages display the original image
+ * scaled by the browser.  Requests for an image size that is already being
+ * generated are coalesced so that each resized image is only generated once,
+ * and common image sizes are generated as soon as a new image is uploaded.
+ */
+public class ThumbnailService {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(ThumbnailService.class.getName());
+	/** Maximum number of resize jobs that may wait for a worker thread before new jobs are dropped. */
+	private static final int MAX_QUEUED_JOBS = 200;
+	/** Keys for all resize jobs that are currently queued or running. */
+	private static final ConcurrentMap<String, Boolean> PENDING_JOBS = new ConcurrentHashMap<String, Boolean>();
+	/** Resized image widths, keyed by original image URL, that have not yet been written to the image metadata. */
+	private static final ConcurrentMap<String, Set<Integer>> PENDING_RESIZED_WIDTHS = new ConcurrentHashMap<String, Set<Integer>>();
+	/** Key used for the job that writes pending resized widths. */
+	private static final String RESIZED_WIDTHS_JOB_KEY = "resized-widths";
+	private static ThreadPoolExecutor executor = null;
+
+	/**
+	 *
+	 */
+	private ThumbnailService() {
+	}
+
+	/**
+	 * Return <code>true</code> if resized images are generated by background
+	 * threads, or <code>false</code> if they are generated by the calling thread.
+	 */
+	protected static boolean isAsynchronous() {
+		return (Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_THREADS) > 0);
+	}
+
+	/**
+	 * Return <code>true</code> if a resize job with the given key is queued or
+	 * currently running.
+	 */
+	protected static boolean isPending(String key) {
+		return PENDING_JOBS.containsKey(key);
+	}
+
+	/**
+	 * Lazily create the worker pool.  Worker threads are daemon threads so that
+	 * a pending resize never prevents the JVM from exiting.
+	 */
+	private static synchronized ThreadPoolExecutor retrieveExecutor() {
+		if (executor == null) {
+			int threads = Math.max(1, Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_THREADS));
+			ThreadFactory threadFactory = new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "ThumbnailService-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					thread.setPriority(Thread.NORM_PRIORITY - 1);
+					return thread;
+				}
+			};
+			executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_JOBS), threadFactory);
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * Stop all worker threads, discarding any queued jobs.  A new worker pool is
+	 * created if further resize jobs are submitted after this method is called.
+	 */
+	public static synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		PENDING_JOBS.clear();
+		PENDING_RESIZED_WIDTHS.clear();
+	}
+
+	/**
+	 * Queue a resize job unless a job with the same key is already pending.
+	 *
+	 * @param key A key that uniquely identifies the resized image being
+	 *  generated.
+	 * @param job The job that generates the resized image.
+	 * @return <code>true</code> if the job has been queued or an identical job
+	 *  was already pending, <code>false</code> if the queue is full.
+	 */
+	protected static boolean submit(final String key, final Runnable job) {
+		if (PENDING_JOBS.putIfAbsent(key, Boolean.TRUE) != null) {
+			return true;
+		}
+		Runnable wrapper = new Runnable() {
+			public void run() {
+				try {
+					job.run();
+				} catch (RuntimeException e) {
+					logger.warn("Failure while generating resized image " + key, e);
+				} finally {
+					PENDING_JOBS.remove(key);
+				}
+			}
+		};
+		try {
+			ThumbnailService.retrieveExecutor().execute(wrapper);
+			return true;
+		} catch (RejectedExecutionException e) {
+			PENDING_JOBS.remove(key);
+			logger.info("Image resize queue is full, resized image will be generated later: " + key);
+			return false;
+		}
+	}
+
+	/**
+	 * Generate common image sizes for a newly uploaded image.  This method
+	 * queues background jobs and returns immediately, and does nothing if
+	 * resized images are not generated in the background.
+	 *
+	 * @param imageMetadata The metadata for the uploaded image.
+	 */
+	public static void pregenerateThumbnails(WikiImageMetadata imageMetadata) {
+		if (!ThumbnailService.isAsynchronous()) {
+			return;
+		}
+		String widths = Environment.getValue(Environment.PROP_IMAGE_RESIZE_PREGENERATE_WIDTHS);
+		if (StringUtils.isBlank(widths)) {
+			return;
+		}
+		Dimension originalDimensions = new Dimension(imageMetadata.getWidth(), imageMetadata.getHeight());
+		for (String width : widths.split(",")) {
+			int incrementalWidth;
+			try {
+				incrementalWidth = ImageUtil.calculateImageIncrement(Integer.parseInt(width.trim()));
+			} catch (NumberFormatException e) {
+				logger.warn("Invalid value for " + Environment.PROP_IMAGE_RESIZE_PREGENERATE_WIDTHS + ": " + widths);
+				return;
+			}
+			if (incrementalWidth <= 0 || incrementalWidth >= originalDimensions.width) {
+				continue;
+			}
+			int incrementalHeight = ImageUtil.calculateIncrementalHeight(originalDimensions, incrementalWidth);
+			try {
+				if (ImageUtil.isImagesOnFS()) {
+					ThumbnailService.requestFileThumbnail(imageMetadata.getUrl(), originalDimensions, incrementalWidth, incrementalHeight);
+				} else {
+					ThumbnailService.requestDatabaseThumbnail(imageMetadata.getUrl(), imageMetadata.getFileId(), -1, incrementalWidth, incrementalHeight);
+				}
+			} catch (IOException e) {
+				logger.info("Failure while queueing resized image for " + imageMetadata.getUrl() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the dimensions of a resized version of an image stored on the
+	 * filesystem, generating the resized image if it does not yet exist.
+	 *
+	 * @param url The relative URL of the original image.
+	 * @param originalDimensions The dimensions of the original image.
+	 * @param width The width of the resized image.
+	 * @param height The height of the resized image.
+	 * @return The dimensions of the resized image, or <code>null</code> if the
+	 *  resized image is being generated in the background.
+	 * @throws IOException Thrown if the resized image is generated by the
+	 *  calling thread and an error occurs while generating it.
+	 */
+	protected static Dimension requestFileThumbnail(final String url, Dimension originalDimensions, final int width, final int height) throws IOException {
+		final File resizedFile = ImageUtil.buildAbsoluteFile(ImageUtil.buildImagePath(url, originalDimensions.width, width));
+		if (resizedFile.exists()) {
+			ThumbnailService.recordResizedWidth(url, width);
+			return new Dimension(width, height);
+		}
+		if (!ThumbnailService.isAsynchronous()) {
+			ThumbnailService.generateFileThumbnail(url, resizedFile, width, height);
+			ThumbnailService.recordResizedWidth(url, width);
+			return new Dimension(width, height);
+		}
+		ThumbnailService.submit(resizedFile.getAbsolutePath(), new Runnable() {
+			public void run() {
+				if (resizedFile.exists()) {
+					return;
+				}
+				try {
+					ThumbnailService.generateFileThumbnail(url, resizedFile, width, height);
+					ThumbnailService.recordResizedWidth(url, width);
+				} catch (IOException e) {
+					logger.warn("Failure while generating resized image " + resizedFile.getAbsolutePath() + ": " + e.getMessage());
+				}
+			}
+		});
+		return null;
+	}
+
+	/**
+	 * Retrieve the dimensions of a resized version of an image stored in the
+	 * database, generating the resized image if it does not yet exist.
+	 *
+	 * @param url The relative URL of the original image version.
+	 * @param fileId The file ID of the original image.
+	 * @param fileVersionId The file version ID of the original image, or -1 for
+	 *  the current version.
+	 * @param width The width of the resized image.
+	 * @param height The height of the resized image.
+	 * @return The dimensions of the resized image, or <code>null</code> if the
+	 *  resized image is being generated in the background.
+	 * @throws IOException Thrown if an error occurs while retrieving image data
+	 *  or if the resized image is generated by the calling thread and an error
+	 *  occurs while generating it.
+	 */
+	protected static Dimension requestDatabaseThumbnail(final String url, final int fileId, final int fileVersionId, final int width, final int height) throws IOException {
+		Dimension dimensions = ImageProcessor.retrieveImageDimensions(fileId, fileVersionId, width);
+		if (dimensions != null) {
+			ThumbnailService.recordResizedWidth(url, width);
+			return dimensions;
+		}
+		if (!ThumbnailService.isAsynchronous()) {
+			dimensions = ImageProcessor.resizeImage(fileId, fileVersionId, width, height);
+			ThumbnailService.recordResizedWidth(url, width);
+			return dimensions;
+		}
+		final String key = "db:" + fileId + "/" + fileVersionId + "/" + width;
+		ThumbnailService.submit(key, new Runnable() {
+			public void run() {
+				try {
+					if (ImageProcessor.retrieveImageDimensions(fileId, fileVersionId, width) == null) {
+						ImageProcessor.resizeImage(fileId, fileVersionId, width, height);
+					}
+					ThumbnailService.recordResizedWidth(url, width);
+				} catch (IOException e) {
+					logger.warn("Failure while generating resized image " + key + ": " + e.getMessage());
+				}
+			}
+		});
+		return null;
+	}
+
+	/**
+	 * Record a resized image width in the stored image metadata so that later
+	 * requests for the same size can skip checking for the resized image.  This
+	 * method is called while pages are rendered, so widths are queued and
+	 * written in batches by a worker thread.  A width that is not written, for
+	 * example because the queue is full, is simply queued again the next time
+	 * the image is displayed.
+	 */
+	private static void recordResizedWidth(String url, int width) {
+		Set<Integer> widths = PENDING_RESIZED_WIDTHS.get(url);
+		if (widths == null) {
+			Set<Integer> newWidths = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+			widths = PENDING_RESIZED_WIDTHS.putIfAbsent(url, newWidths);
+			if (widths == null) {
+				widths = newWidths;
+			}
+		}
+		widths.add(width);
+		ThumbnailService.submit(RESIZED_WIDTHS_JOB_KEY, new Runnable() {
+			public void run() {
+				ThumbnailService.writeResizedWidths();
+			}
+		});
+	}
+
+	/**
+	 * Write all queued resized widths to the image metadata in a single
+	 * transaction.  Failures are logged but otherwise ignored since the resized
+	 * images are still available.
+	 */
+	private static void writeResizedWidths() {
+		Map<String, Set<Integer>> resizedWidths = new HashMap<String, Set<Integer>>();
+		for (String url : PENDING_RESIZED_WIDTHS.keySet()) {
+			Set<Integer> widths = PENDING_RESIZED_WIDTHS.remove(url);
+			if (widths != null) {
+				resizedWidths.put(url, widths);
+			}
+		}
+		if (resizedWidths.isEmpty()) {
+			return;
+		}
+		try {
+			WikiBase.getDataHandler().writeImageResizedWidths(resizedWidths);
+		} catch (DataAccessException e) {
+			logger.warn("Failure while recording resized image widths for " + resizedWidths.size() + " images: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Generate a resized image file.  The image is written to a temporary file
+	 * and then renamed so that a partially written image is never served.
+	 */
+	private static void generateFileThumbnail(String url, File resizedFile, int width, int height) throws IOException {
+		File imageFile = ImageUtil.buildAbsoluteFile(url);
+		BufferedImage bufferedImage = ImageProcessor.resizeImage(imageFile, width, height);
+		// keep the file extension since it determines the image format
+		File tempFile = new File(resizedFile.getParentFile(), "tmp-" + Thread.currentThread().getId() + "-" + resizedFile.getName());
+		ImageProcessor.saveImage(bufferedImage, tempFile);
+		if (!tempFile.renameTo(resizedFile)) {
+			// another thread may have generated the same image
+			tempFile.delete();
+			if (!resizedFile.exists()) {
+				throw new IOException("Unable to rename resized image " + tempFile.getAbsolutePath() + " to " + resizedFile.getAbsolutePath());
+			}
+		}
+	}
+}
@@ -26,7 +26,9 @@ import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserInput;
 import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.WikiLink;
+import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.WikiLogger;
+import org.jamwiki.utils.WikiMetrics;
 
 /**
  * Implementation of {@link org.jamwiki.JAMWikiParser} that uses
@@ -59,6 +61,14 @@ public class JFlexParser implements JAMWikiParser {
 	public static final int MODE_LAYOUT = 9;
 	/** Post-process mode indicates that the pre-processor, processor and post-processor should be run in full, parsing all Wiki syntax into formatted output and adding layout tags such as paragraphs and TOC. */
 	public static final int MODE_POSTPROCESS = 10;
+	/** Content without any of these features is not modified by the template processor other than removing carriage returns. */
+	private static final int TEMPLATE_FEATURES = JFlexParserUtil.FEATURE_TEMPLATE | JFlexParserUtil.FEATURE_SIGNATURE | JFlexParserUtil.FEATURE_HTML;
+	/** Content without any of these features is not modified by the custom tag processor. */
+	private static final int CUSTOM_FEATURES = JFlexParserUtil.FEATURE_HTML;
+	/** Content without any of these features is not modified by the pre-processor and generates no metadata. */
+	private static final int PREPROCESS_FEATURES = JFlexParserUtil.FEATURE_HTML | JFlexParserUtil.FEATURE_WIKI_LINK | JFlexParserUtil.FEATURE_MAGIC_WORD | JFlexParserUtil.FEATURE_REDIRECT;
+	/** Content without any of these features is not modified by the post-processor. */
+	private static final int POSTPROCESS_FEATURES = JFlexParserUtil.FEATURE_POSTPROCESS_TAG | JFlexParserUtil.FEATURE_MAGIC_WORD;
 
 	/**
 	 * Return a parser-specific value that can be used as the content of a
@@ -103,6 +113,9 @@ public class JFlexParser implements JAMWikiParser {
 		if (mode < JFlexParser.MODE_CUSTOM) {
 			return raw;
 		}
+		if ((JFlexParserUtil.scanFeatures(raw) & CUSTOM_FEATURES) == 0) {
+			return raw;
+		}
 		Reader reader = toReader(raw, false);
 		JAMWikiCustomTagLexer lexer = new JAMWikiCustomTagLexer(reader);
 		int preMode = (mode > JFlexParser.MODE_CUSTOM) ? JFlexParser.MODE_CUSTOM : mode;
@@ -176,14 +189,24 @@ public class JFlexParser implements JAMWikiParser {
 		// some parser expressions require that lines end in a newline, so add a newline
 		// to the end of the content for good measure
 		String output = raw + '\n';
+		// stage timings include any nested parsing, such as template bodies
+		long stage = System.nanoTime();
 		output = this.parseTemplate(parserInput, parserOutput, output, JFlexParser.MODE_TEMPLATE);
+		stage = WikiMetrics.recordTime(WikiMetrics.TIMER_PARSER, "template", stage);
 		output = this.parseCustom(parserInput, parserOutput, output, JFlexParser.MODE_CUSTOM);
+		stage = WikiMetrics.recordTime(WikiMetrics.TIMER_PARSER, "custom", stage);
 		output = this.parsePreProcess(parserInput, parserOutput, output, JFlexParser.MODE_PREPROCESS);
+		stage = WikiMetrics.recordTime(WikiMetrics.TIMER_PARSER, "preprocess", stage);
+		this.resolveLinks(parserInput, parserOutput);
+		stage = WikiMetrics.recordTime(WikiMetrics.TIMER_PARSER, "links", stage);
 		output = this.parseProcess(parserInput, parserOutput, output, JFlexParser.MODE_LAYOUT);
+		stage = WikiMetrics.recordTime(WikiMetrics.TIMER_PARSER, "process", stage);
 		output = this.parsePostProcess(parserInput, parserOutput, output, JFlexParser.MODE_POSTPROCESS);
+		stage = WikiMetrics.recordTime(WikiMetrics.TIMER_PARSER, "postprocess", stage);
 		if (!StringUtils.isBlank(parserOutput.getRedirect())) {
 			// redirects are parsed differently
 			output = this.parseRedirect(parserInput, parserOutput, raw);
+			WikiMetrics.recordTime(WikiMetrics.TIMER_PARSER, "redirect", stage);
 		}
 		if (logger.isInfoEnabled()) {
 			String topicName = (!StringUtils.isBlank(parserInput.getTopicName())) ? parserInput.getTopicName() : null;
@@ -257,6 +280,10 @@ public class JFlexParser implements JAMWikiParser {
 	 * @throws ParserException Thrown if any error occurs during parsing.
 	 */
 	private String parseTemplate(ParserInput parserInput, ParserOutput parserOutput, String raw, int mode) throws ParserException {
+		if ((JFlexParserUtil.scanFeatures(raw) & TEMPLATE_FEATURES) == 0) {
+			// the lexer would copy the content unchanged
+			return StringUtils.remove(raw, '\r');
+		}
 		Reader reader = toReader(raw, true);
 		JAMWikiTemplateLexer lexer = new JAMWikiTemplateLexer(reader);
 		int preMode = (mode > JFlexParser.MODE_TEMPLATE) ? JFlexParser.MODE_TEMPLATE : mode;
@@ -277,6 +304,9 @@ public class JFlexParser implements JAMWikiParser {
 		if (mode < JFlexParser.MODE_PREPROCESS) {
 			return raw;
 		}
+		if ((JFlexParserUtil.scanFeatures(raw) & PREPROCESS_FEATURES) == 0) {
+			return raw;
+		}
 		Reader reader = toReader(raw, false);
 		JAMWikiPreLexer lexer = new JAMWikiPreLexer(reader);
 		int preMode = (mode > JFlexParser.MODE_PREPROCESS) ? JFlexParser.MODE_PREPROCESS : mode;
@@ -322,6 +352,9 @@ public class JFlexParser implements JAMWikiParser {
 		if (mode < JFlexParser.MODE_POSTPROCESS) {
 			return raw;
 		}
+		if ((JFlexParserUtil.scanFeatures(raw) & POSTPROCESS_FEATURES) == 0) {
+			return raw;
+		}
 		Reader reader = toReader(raw, false);
 		JAMWikiPostLexer lexer = new JAMWikiPostLexer(reader);
 		return this.lex(lexer, parserInput, parserOutput, mode);
@@ -356,10 +389,29 @@ public class JFlexParser implements JAMWikiParser {
 			if (wikiLink.getAltVirtualWiki() != null) {
 				virtualWiki = wikiLink.getAltVirtualWiki().getName();
 			}
-			if (LinkUtil.isExistingArticle(virtualWiki, wikiLink.getDestination()) == null && !wikiLink.isSpecial()) {
+			if (LinkUtil.isExistingArticle(parserInput, virtualWiki, wikiLink.getDestination()) == null && !wikiLink.isSpecial()) {
 				style = "edit redirect";
 			}
-			return LinkUtil.buildInternalLinkHtml(wikiLink, null, style, null, false);
+			return LinkUtil.buildInternalLinkHtml(parserInput, wikiLink, null, style, null, false);
+		} catch (DataAccessException e) {
+			throw new ParserException(e);
+		}
+	}
+
+	/**
+	 * Once pre-processing has collected the links for a topic, determine which
+	 * link targets exist and load the metadata for any linked images using bulk
+	 * lookups so that generating the link HTML does not require a separate
+	 * lookup for each link.
+	 */
+	private void resolveLinks(ParserInput parserInput, ParserOutput parserOutput) throws ParserException {
+		if (parserOutput == ParserOutput.IMMUTABLE_PARSER_OUTPUT) {
+			// links are not recorded
+			return;
+		}
+		try {
+			LinkUtil.resolveExistingArticles(parserInput, parserInput.getVirtualWiki(), parserOutput.getLinks());
+			ImageUtil.preloadImageMetadata(parserInput.getVirtualWiki(), parserOutput.getLinks());
 		} catch (DataAccessException e) {
 			throw new ParserException(e);
 		}
@@ -37,6 +37,22 @@ import org.jamwiki.utils.WikiLogger;
 public class JFlexParserUtil {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(JFlexParserUtil.class.getName());
+	/** Feature flag indicating that content contains template syntax ("{{"). */
+	protected static final int FEATURE_TEMPLATE = 1;
+	/** Feature flag indicating that content contains a signature ("~~~"). */
+	protected static final int FEATURE_SIGNATURE = 1 << 1;
+	/** Feature flag indicating that content contains a tag or comment ("<"). */
+	protected static final int FEATURE_HTML = 1 << 2;
+	/** Feature flag indicating that content contains a tag handled by the post-processor. */
+	protected static final int FEATURE_POSTPROCESS_TAG = 1 << 3;
+	/** Feature flag indicating that content contains a wiki link ("[["). */
+	protected static final int FEATURE_WIKI_LINK = 1 << 4;
+	/** Feature flag indicating that content contains a magic word such as "__TOC__" ("__"). */
+	protected static final int FEATURE_MAGIC_WORD = 1 << 5;
+	/** Feature flag indicating that content contains a redirect ("#REDIRECT"). */
+	protected static final int FEATURE_REDIRECT = 1 << 6;
+	/** Tags that the post-processor handles, in lower case and without the opening bracket. */
+	private static final String[] POSTPROCESS_TAGS = {"nowiki>", "__noparse>", "pre", "script", "references"};
 
 	/**
 	 *
@@ -374,6 +390,62 @@ public class JFlexParserUtil {
 		return lexer.getHtmlTagItem();
 	}
 
+	/**
+	 * Scan content for syntax that triggers parser stages, returning a bitmap of
+	 * <code>FEATURE_</code> flags.  The scan is conservative: a flag may be set
+	 * for content that a lexer would not actually match, but a flag is never
+	 * missing for content that a lexer would match, so a parser stage can safely
+	 * be skipped when none of the flags that it depends on are set.
+	 *
+	 * @param raw The content to be scanned.
+	 * @return A bitmap of the <code>FEATURE_</code> flags found in the content.
+	 */
+	protected static int scanFeatures(String raw) {
+		int features = 0;
+		int length = raw.length();
+		for (int i = 0; i < length; i++) {
+			char current = raw.charAt(i);
+			char next = (i + 1 < length) ? raw.charAt(i + 1) : 0;
+			switch (current) {
+				case '{':
+					if (next == '{') {
+						features |= FEATURE_TEMPLATE;
+					}
+					break;
+				case '~':
+					if (next == '~' && i + 2 < length && raw.charAt(i + 2) == '~') {
+						features |= FEATURE_SIGNATURE;
+					}
+					break;
+				case '[':
+					if (next == '[') {
+						features |= FEATURE_WIKI_LINK;
+					}
+					break;
+				case '_':
+					if (next == '_') {
+						features |= FEATURE_MAGIC_WORD;
+					}
+					break;
+				case '#':
+					if (raw.regionMatches(true, i + 1, "redirect", 0, "redirect".length())) {
+						features |= FEATURE_REDIRECT;
+					}
+					break;
+				case '<':
+					features |= FEATURE_HTML;
+					for (String tag : POSTPROCESS_TAGS) {
+						if (raw.regionMatches(true, i + 1, tag, 0, tag.length())) {
+							features |= FEATURE_POSTPROCESS_TAG;
+							break;
+						}
+					}
+					break;
+			}
+		}
+		return features;
+	}
+
 	/**
 	 * Strip all HTML tags from a string.  For example, "A <b>bold</b> word" will be
 	 * returned as "A bold word".  This method treats an tags that are between brackets
@@ -244,8 +244,12 @@ public class MagicWordUtil {
 	protected static String processMagicWord(ParserInput parserInput, ParserOutput parserOutput, int mode, String magicWord, String magicWordArguments) throws DataAccessException, ParserException {
 		String[] magicWordArgumentArray = JFlexParserUtil.retrieveTokenizedArgumentArray(parserInput, parserOutput, mode, magicWordArguments);
 		if (MAGIC_WORDS_DATETIME.contains(magicWord)) {
+			// output changes over time, so the rendered page cannot be cached
+			parserOutput.setCacheable(false);
 			return processMagicWordDateTime(parserInput, magicWord);
 		} else if (MAGIC_WORDS_STATISTICS.contains(magicWord)) {
+			// statistics change without the topic being modified
+			parserOutput.setCacheable(false);
 			return processMagicWordStatistics(parserInput, magicWord);
 		} else if (MAGIC_WORDS_PAGE_NAMES.contains(magicWord)) {
 			return processMagicWordPageNames(parserInput, magicWord, magicWordArgumentArray);
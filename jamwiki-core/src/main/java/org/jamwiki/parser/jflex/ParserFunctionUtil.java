@@ -295,6 +295,8 @@ public abstract class ParserFunctionUtil {
 			return "";
 		}
 		String topicName = Utilities.decodeAndEscapeTopicName(parserFunctionArgumentArray[0], true);
+		// record a link so that cached output is invalidated when the topic is created or deleted
+		parserOutput.addLink(topicName);
 		// parse to handle any embedded templates
 		if (WikiBase.getDataHandler().lookupTopic(parserInput.getVirtualWiki(), topicName, false) != null) {
 			return (parserFunctionArgumentArray.length >= 2) ? JFlexParserUtil.parseFragment(parserInput, parserOutput, parserFunctionArgumentArray[1], JFlexParser.MODE_TEMPLATE) : "";
@@ -16,6 +16,7 @@
  */
 package org.jamwiki.parser.jflex;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,7 @@ import org.jamwiki.parser.ParserInput;
 import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.WikiLink;
 import org.jamwiki.utils.Utilities;
+import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 
 /**
@@ -43,6 +45,13 @@ import org.jamwiki.utils.WikiLogger;
 public class TemplateTag implements JFlexParserTag {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(TemplateTag.class.getName());
+	/**
+	 * Cache of template bodies after noinclude, includeonly and onlyinclude tags
+	 * have been processed, keyed by template topic ID and version ID.  A new
+	 * template version results in a new key, so entries never need to be removed.
+	 */
+	private static final WikiCache<String, String> CACHE_TEMPLATE_BODIES = new WikiCache<String, String>("org.jamwiki.parser.jflex.TemplateTag.CACHE_TEMPLATE_BODIES");
+	protected static final String TEMPLATE_EXPANSIONS = "template-expansions";
 	protected static final String TEMPLATE_INCLUSION = "template-inclusion";
 	protected static final String TEMPLATE_ONLYINCLUDE = "template-onlyinclude";
 
@@ -386,24 +395,73 @@ public class TemplateTag implements JFlexParserTag {
 		return null;
 	}
 
+	/**
+	 * Return the template expansions recorded during the current parse, or
+	 * <code>null</code> if no expansions have been recorded.  The map is only
+	 * ever stored by {@link #processTemplateContent}, so the cast is safe.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, TemplateExpansion> retrieveTemplateExpansions(ParserInput parserInput) {
+		return (Map<String, TemplateExpansion>)parserInput.getTempParam(TEMPLATE_EXPANSIONS);
+	}
+
 	/**
 	 * Given a template call of the form "{{name|param|param}}" return the
-	 * parsed output.
+	 * parsed output.  Within a single parse the output of a template call is
+	 * re-used for identical calls, provided that expanding the call did not
+	 * produce uncacheable content or other side effects that would be lost
+	 * by re-using the output.
 	 */
 	private String processTemplateContent(ParserInput parserInput, ParserOutput parserOutput, Topic templateTopic, String templateContent) throws ParserException {
+		if (parserOutput == ParserOutput.IMMUTABLE_PARSER_OUTPUT || templateTopic.getCurrentVersionId() == null || !parserOutput.getCacheable()) {
+			return this.processTemplateExpansion(parserInput, parserOutput, templateTopic, templateContent);
+		}
+		// template output may vary with the current page, the nesting depth and the
+		// (already substituted) argument text, so all are part of the key
+		String expansionKey = parserInput.getVirtualWiki() + ':' + parserInput.getTopicName() + ':' + parserInput.getTemplateDepth() + ':' + templateTopic.getTopicId() + ':' + templateTopic.getCurrentVersionId() + ':' + templateContent;
+		Map<String, TemplateExpansion> expansions = TemplateTag.retrieveTemplateExpansions(parserInput);
+		TemplateExpansion expansion = (expansions != null) ? expansions.get(expansionKey) : null;
+		if (expansion != null) {
+			// replay the metadata that was generated when the call was first expanded
+			for (String link : expansion.links) {
+				parserOutput.addLink(link);
+			}
+			for (String template : expansion.templates) {
+				parserOutput.addTemplate(template);
+			}
+			return expansion.content;
+		}
+		int linkCount = parserOutput.getLinks().size();
+		int templateCount = parserOutput.getTemplates().size();
+		String pageTitle = parserOutput.getPageTitle();
+		Object inclusion = parserInput.getTempParam(TEMPLATE_INCLUSION);
+		String result = this.processTemplateExpansion(parserInput, parserOutput, templateTopic, templateContent);
+		if (!parserOutput.getCacheable() || !StringUtils.equals(pageTitle, parserOutput.getPageTitle())) {
+			// time-specific, user-specific or display title content
+			return result;
+		}
+		if (inclusion == null ? parserInput.getTempParam(TEMPLATE_INCLUSION) != null : !inclusion.equals(parserInput.getTempParam(TEMPLATE_INCLUSION))) {
+			// the inclusion count limits nested inclusions, so it must be updated on every call
+			return result;
+		}
+		if (expansions == null) {
+			expansions = new HashMap<String, TemplateExpansion>();
+			parserInput.addTempParam(TEMPLATE_EXPANSIONS, expansions);
+		}
+		List<String> links = new ArrayList<String>(parserOutput.getLinks().subList(linkCount, parserOutput.getLinks().size()));
+		List<String> templates = new ArrayList<String>(parserOutput.getTemplates().subList(templateCount, parserOutput.getTemplates().size()));
+		expansions.put(expansionKey, new TemplateExpansion(result, links, templates));
+		return result;
+	}
+
+	/**
+	 * Process the template body, replacing parameters with the values from the
+	 * template call, and return the parsed output.
+	 */
+	private String processTemplateExpansion(ParserInput parserInput, ParserOutput parserOutput, Topic templateTopic, String templateContent) throws ParserException {
 		// set template parameter values
 		Map<String, String> parameterValues = this.parseTemplateParameterValues(templateContent);
-		// parse the template content for noinclude, onlyinclude and includeonly tags
-		String templateBody = JFlexParserUtil.parseFragment(parserInput, parserOutput, templateTopic.getTopicContent().trim(), JFlexParser.MODE_TEMPLATE_BODY);
-		if (parserInput.getTempParam(TEMPLATE_ONLYINCLUDE) != null) {
-			// HACK! If an onlyinclude tag is encountered in the previous fragment parse
-			// then that tag's parsed output is stored in the TEMPLATE_ONLYINCLUDE param.
-			// This hack is necessary because onlyinclude indicates that ONLY the
-			// onlyinclude content is relevant, and anything parsed before or after that
-			// tag must be ignored.
-			templateBody = (String)parserInput.getTempParam(TEMPLATE_ONLYINCLUDE);
-			parserInput.removeTempParam(TEMPLATE_ONLYINCLUDE);
-		}
+		String templateBody = this.retrieveTemplateBody(parserInput, parserOutput, templateTopic);
 		return this.parseTemplateBody(parserInput, parserOutput, templateBody, parameterValues);
 	}
 
@@ -433,6 +491,35 @@ public class TemplateTag implements JFlexParserTag {
 		parserOutput.addTemplate(name);
 	}
 
+	/**
+	 * Return the template body after noinclude, onlyinclude and includeonly tags
+	 * have been processed.  The result depends only on the template content, so
+	 * it is cached by template version.
+	 */
+	private String retrieveTemplateBody(ParserInput parserInput, ParserOutput parserOutput, Topic templateTopic) throws ParserException {
+		String cacheKey = (templateTopic.getCurrentVersionId() == null) ? null : templateTopic.getTopicId() + ":" + templateTopic.getCurrentVersionId();
+		String templateBody = (cacheKey != null) ? CACHE_TEMPLATE_BODIES.retrieveFromCache(cacheKey) : null;
+		if (templateBody != null) {
+			return templateBody;
+		}
+		// parse the template content for noinclude, onlyinclude and includeonly tags
+		templateBody = JFlexParserUtil.parseFragment(parserInput, parserOutput, templateTopic.getTopicContent().trim(), JFlexParser.MODE_TEMPLATE_BODY);
+		if (parserInput.getTempParam(TEMPLATE_ONLYINCLUDE) != null) {
+			// HACK! If an onlyinclude tag is encountered in the previous fragment parse
+			// then that tag's parsed output is stored in the TEMPLATE_ONLYINCLUDE param.
+			// This hack is necessary because onlyinclude indicates that ONLY the
+			// onlyinclude content is relevant, and anything parsed before or after that
+			// tag must be ignored.
+			templateBody = (String)parserInput.getTempParam(TEMPLATE_ONLYINCLUDE);
+			parserInput.removeTempParam(TEMPLATE_ONLYINCLUDE);
+		}
+		if (cacheKey != null && templateTopic.getTopicContent().indexOf("~~~") == -1) {
+			// signatures are user-specific, so do not cache template bodies containing them
+			CACHE_TEMPLATE_BODIES.addToCache(cacheKey, templateBody);
+		}
+		return templateBody;
+	}
+
 	/**
 	 * Determine if params are of the form name=value, and if so split
 	 * them into an array pairing.
@@ -452,4 +539,24 @@ public class TemplateTag implements JFlexParserTag {
 		}
 		return results;
 	}
+
+	/**
+	 * The output of a template call along with the metadata generated while
+	 * expanding it.
+	 */
+	private static class TemplateExpansion {
+
+		private final String content;
+		private final List<String> links;
+		private final List<String> templates;
+
+		/**
+		 *
+		 */
+		TemplateExpansion(String content, List<String> links, List<String> templates) {
+			this.content = content;
+			this.links = links;
+			this.templates = templates;
+		}
+	}
 }
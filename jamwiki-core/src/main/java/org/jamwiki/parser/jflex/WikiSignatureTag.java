@@ -40,6 +40,8 @@ public class WikiSignatureTag implements JFlexParserTag {
 	 */
 	private String buildWikiSignature(JFlexLexer lexer, boolean includeUser, boolean includeDate) throws ParserException {
 		String signature = "";
+		// signatures are specific to the current user and time
+		lexer.getParserOutput().setCacheable(false);
 		if (includeUser) {
 			signature = this.retrieveUserSignature(lexer.getParserInput());
 			if (lexer.getMode() != JFlexParser.MODE_MINIMAL) {
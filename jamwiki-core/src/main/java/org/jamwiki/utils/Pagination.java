@@ -16,18 +16,34 @@
  */
 package org.jamwiki.utils;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import org.apache.commons.lang3.StringUtils;
 
 /**
- * Utility class useful for paginating through a result set.
+ * Utility class useful for paginating through a result set.  Results can be
+ * paginated either by offset or, for lists sorted by date, by a cursor that
+ * identifies the last (or first) result of an adjacent page.  Cursor
+ * pagination allows a query to seek directly to the requested page rather
+ * than reading and discarding all results prior to the offset, so the cost
+ * of retrieving a page does not grow with its distance from the first page.
  */
 public class Pagination {
 
 	/** Logger */
 	public static final WikiLogger logger = WikiLogger.getLogger(Pagination.class.getName());
 
+	private static final char CURSOR_NEXT = 'n';
+	private static final char CURSOR_PREVIOUS = 'p';
+	private static final char CURSOR_SEPARATOR = '.';
+	private static final int CURSOR_RADIX = 36;
+
+	private final String cursor;
+	private final Timestamp cursorDate;
+	private final int cursorId;
+	private final boolean cursorPrevious;
 	private final int numResults;
 	private final int offset;
 
@@ -43,6 +59,96 @@ public class Pagination {
 	public Pagination(int numResults, int offset) {
 		this.numResults = numResults;
 		this.offset = offset;
+		this.cursor = null;
+		this.cursorDate = null;
+		this.cursorId = 0;
+		this.cursorPrevious = false;
+	}
+
+	/**
+	 * Create a pagination object that retrieves results relative to a cursor
+	 * generated by {@link #nextCursor(Timestamp, Integer, int)} or
+	 * {@link #previousCursor(Timestamp, Integer, int)}.
+	 *
+	 * @param numResults The maximum number of results that can be retrieved or
+	 *  displayed.
+	 * @param cursor The cursor value.  If this value is empty or cannot be
+	 *  parsed then the pagination object will retrieve the first page of
+	 *  results.
+	 */
+	public Pagination(int numResults, String cursor) {
+		this.numResults = numResults;
+		this.offset = 0;
+		Timestamp date = null;
+		int id = 0;
+		boolean previous = false;
+		if (!StringUtils.isBlank(cursor) && (cursor.charAt(0) == CURSOR_NEXT || cursor.charAt(0) == CURSOR_PREVIOUS)) {
+			String[] values = StringUtils.split(cursor.substring(1), CURSOR_SEPARATOR);
+			try {
+				if (values.length == 3) {
+					date = new Timestamp(Long.parseLong(values[0], CURSOR_RADIX));
+					date.setNanos(Integer.parseInt(values[1], CURSOR_RADIX));
+					id = Integer.parseInt(values[2], CURSOR_RADIX);
+					previous = (cursor.charAt(0) == CURSOR_PREVIOUS);
+				}
+			} catch (IllegalArgumentException e) {
+				// invalid cursor, display the first page of results
+				logger.info("Invalid pagination cursor: " + cursor);
+				date = null;
+			}
+		}
+		this.cursor = (date != null) ? cursor : null;
+		this.cursorDate = date;
+		this.cursorId = id;
+		this.cursorPrevious = (date != null && previous);
+	}
+
+	/**
+	 *
+	 */
+	private static String buildCursor(Timestamp date, Integer id, boolean previous) {
+		StringBuilder result = new StringBuilder();
+		result.append((previous) ? CURSOR_PREVIOUS : CURSOR_NEXT);
+		result.append(Long.toString(date.getTime(), CURSOR_RADIX));
+		result.append(CURSOR_SEPARATOR);
+		result.append(Integer.toString(date.getNanos(), CURSOR_RADIX));
+		result.append(CURSOR_SEPARATOR);
+		result.append(Integer.toString((id != null) ? id : 0, CURSOR_RADIX));
+		return result.toString();
+	}
+
+	/**
+	 * Return the cursor used to create this pagination object, or
+	 * <code>null</code> if the pagination is offset-based.
+	 *
+	 * @return The cursor used to create this pagination object, or
+	 *  <code>null</code> if the pagination is offset-based.
+	 */
+	public String getCursor() {
+		return this.cursor;
+	}
+
+	/**
+	 * For cursor pagination, return the date of the result that the cursor
+	 * was generated from.
+	 *
+	 * @return The date of the result that the cursor was generated from, or
+	 *  <code>null</code> if the pagination is offset-based.
+	 */
+	public Timestamp getCursorDate() {
+		return this.cursorDate;
+	}
+
+	/**
+	 * For cursor pagination, return the ID (typically a topic version ID) of
+	 * the result that the cursor was generated from.  This value is used to
+	 * order results that have the same date.  Results without an ID are
+	 * treated as having an ID of zero.
+	 *
+	 * @return The ID of the result that the cursor was generated from.
+	 */
+	public int getCursorId() {
+		return this.cursorId;
 	}
 
 	/**
@@ -86,6 +192,67 @@ public class Pagination {
 		return this.offset;
 	}
 
+	/**
+	 * Return <code>true</code> if this pagination object retrieves results
+	 * relative to a cursor rather than an offset.
+	 *
+	 * @return <code>true</code> if this pagination object retrieves results
+	 *  relative to a cursor.
+	 */
+	public boolean isCursor() {
+		return (this.cursorDate != null);
+	}
+
+	/**
+	 * Return <code>true</code> if this pagination object retrieves the page of
+	 * results immediately preceding its cursor (newer results for a list sorted
+	 * by date descending) rather than the page immediately following the cursor.
+	 * Queries for a previous page must retrieve results in reverse order and
+	 * then reverse the list of results.
+	 *
+	 * @return <code>true</code> if this pagination object retrieves the page of
+	 *  results preceding the cursor.
+	 */
+	public boolean isCursorPrevious() {
+		return this.cursorPrevious;
+	}
+
+	/**
+	 * Return a cursor that can be used to retrieve the page following the
+	 * current page of results.
+	 *
+	 * @param lastDate The date of the last result on the current page.
+	 * @param lastId The ID of the last result on the current page, or
+	 *  <code>null</code> if the result has no ID.
+	 * @param count The number of results on the current page.
+	 * @return A cursor for the next page of results, or <code>null</code> if
+	 *  the current page is the last page.
+	 */
+	public String nextCursor(Timestamp lastDate, Integer lastId, int count) {
+		if (lastDate == null || (count < this.numResults && !this.cursorPrevious)) {
+			return null;
+		}
+		return Pagination.buildCursor(lastDate, lastId, false);
+	}
+
+	/**
+	 * Return a cursor that can be used to retrieve the page preceding the
+	 * current page of results.
+	 *
+	 * @param firstDate The date of the first result on the current page.
+	 * @param firstId The ID of the first result on the current page, or
+	 *  <code>null</code> if the result has no ID.
+	 * @param count The number of results on the current page.
+	 * @return A cursor for the previous page of results, or <code>null</code>
+	 *  if the current page is the first page.
+	 */
+	public String previousCursor(Timestamp firstDate, Integer firstId, int count) {
+		if (firstDate == null || (!this.isCursor() && this.offset == 0) || (this.cursorPrevious && count < this.numResults)) {
+			return null;
+		}
+		return Pagination.buildCursor(firstDate, firstId, true);
+	}
+
 	/**
 	 * Utility method for retrieving a list that is a subset of a larger list
 	 * containing only the items specified by the pagination object.
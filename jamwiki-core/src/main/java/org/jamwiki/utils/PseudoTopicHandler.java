@@ -74,6 +74,7 @@ public class PseudoTopicHandler {
 		PSEUDO_TOPICS.add("Special:Logout");
 		PSEUDO_TOPICS.add("Special:Maintenance");
 		PSEUDO_TOPICS.add("Special:Manage");
+		PSEUDO_TOPICS.add("Special:Metrics");
 		PSEUDO_TOPICS.add("Special:Move");
 		PSEUDO_TOPICS.add("Special:OrphanedPages");
 		PSEUDO_TOPICS.add("Special:Orphanedpages");
@@ -87,6 +88,7 @@ public class PseudoTopicHandler {
 		PSEUDO_TOPICS.add("Special:Source");
 		PSEUDO_TOPICS.add("Special:SpecialPages");
 		PSEUDO_TOPICS.add("Special:Specialpages");
+		PSEUDO_TOPICS.add("Special:Suggest");
 		PSEUDO_TOPICS.add("Special:TopicsAdmin");
 		PSEUDO_TOPICS.add("Special:Topicsadmin");
 		PSEUDO_TOPICS.add("Special:Translation");
@@ -0,0 +1,407 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility methods for generating and applying line-based deltas between two
+ * versions of a text.  Deltas are used to store old topic versions as the set
+ * of differences from a newer version rather than as full text.
+ *
+ * A delta is a sequence of instructions, each terminated by a newline:
+ * <ul>
+ * <li><code>=n</code> - copy the next <code>n</code> lines of the base text.</li>
+ * <li><code>-n</code> - skip the next <code>n</code> lines of the base text.</li>
+ * <li><code>+n</code> - insert the <code>n</code> characters immediately
+ *  following the instruction.</li>
+ * </ul>
+ */
+public class TextDelta {
+
+	/**
+	 * Maximum number of edits searched in each direction when looking for the
+	 * middle of an edit path before splitting at the furthest point reached.
+	 * This bounds the running time when diffing two very different texts.
+	 */
+	public static final int MAX_EDIT_COST = 5000;
+	/** Edit script value indicating that an element is unchanged. */
+	public static final char OP_COPY = '=';
+	/** Edit script value indicating that an element was added. */
+	public static final char OP_INSERT = '+';
+	/** Edit script value indicating that an element was removed. */
+	public static final char OP_SKIP = '-';
+
+	/**
+	 *
+	 */
+	private TextDelta() {
+	}
+
+	/**
+	 * Apply a delta generated by {@link #encode(String, String)} to the base
+	 * text, returning the target text.
+	 *
+	 * @param base The text that the delta was generated against.
+	 * @param delta The delta to apply.
+	 * @return The text that results from applying the delta to the base text.
+	 * @throws IllegalArgumentException Thrown if the delta is invalid or does not
+	 *  match the base text.
+	 */
+	public static String apply(String base, String delta) {
+		List<String> lines = TextDelta.splitLines(base);
+		StringBuilder result = new StringBuilder(base.length() + delta.length());
+		int line = 0;
+		int pos = 0;
+		try {
+			while (pos < delta.length()) {
+				int eol = delta.indexOf('\n', pos);
+				if (eol == -1) {
+					throw new IllegalArgumentException("Invalid delta instruction at position " + pos);
+				}
+				char op = delta.charAt(pos);
+				int count = Integer.parseInt(delta.substring(pos + 1, eol));
+				pos = eol + 1;
+				if (op == OP_COPY) {
+					for (int i = 0; i < count; i++) {
+						result.append(lines.get(line++));
+					}
+				} else if (op == OP_SKIP) {
+					line += count;
+				} else if (op == OP_INSERT) {
+					result.append(delta, pos, pos + count);
+					pos += count;
+				} else {
+					throw new IllegalArgumentException("Invalid delta instruction '" + op + "' at position " + (pos - 1));
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid delta instruction at position " + pos, e);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Delta does not match the base text", e);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Generate a delta that can be used to re-create the target text from the
+	 * base text.
+	 *
+	 * @param base The text that the delta will be applied to.
+	 * @param target The text that applying the delta to the base text should
+	 *  produce.
+	 * @return A delta that can be passed to {@link #apply(String, String)}.
+	 */
+	public static String encode(String base, String target) {
+		List<String> targetLines = TextDelta.splitLines(target);
+		char[] edits = TextDelta.editScript(TextDelta.splitLines(base), targetLines);
+		StringBuilder delta = new StringBuilder();
+		char currentOp = 0;
+		int count = 0;
+		StringBuilder inserted = new StringBuilder();
+		int targetLine = 0;
+		for (char edit : edits) {
+			if (edit != currentOp) {
+				TextDelta.appendRun(delta, currentOp, count, inserted);
+				currentOp = edit;
+				count = 0;
+			}
+			if (edit == OP_INSERT) {
+				inserted.append(targetLines.get(targetLine));
+			}
+			if (edit != OP_SKIP) {
+				targetLine++;
+			}
+			count++;
+		}
+		TextDelta.appendRun(delta, currentOp, count, inserted);
+		return delta.toString();
+	}
+
+	/**
+	 *
+	 */
+	private static void appendInstruction(StringBuilder delta, char op, int count) {
+		if (count > 0) {
+			delta.append(op).append(count).append('\n');
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static void appendRun(StringBuilder delta, char op, int count, StringBuilder inserted) {
+		if (op == OP_INSERT) {
+			TextDelta.appendInstruction(delta, OP_INSERT, inserted.length());
+			delta.append(inserted);
+			inserted.setLength(0);
+		} else if (op != 0) {
+			TextDelta.appendInstruction(delta, op, count);
+		}
+	}
+
+	/**
+	 * Compute an edit script that transforms one list of values into another.
+	 * The result contains one entry per edit step, each of which is
+	 * {@link #OP_COPY} (the next value in both lists is the same),
+	 * {@link #OP_SKIP} (the next value in the first list was removed) or
+	 * {@link #OP_INSERT} (the next value in the second list was added).  Values
+	 * are compared using <code>equals()</code>.
+	 *
+	 * The script is computed using the Myers O(ND) difference algorithm with the
+	 * linear space refinement described in "An O(ND) Difference Algorithm and Its
+	 * Variations" (Eugene Myers, 1986).  Rather than storing the full edit graph
+	 * the algorithm searches forwards and backwards at the same time to find the
+	 * middle of an optimal edit path, then recursively diffs the two halves, so
+	 * memory use is proportional to the size of the lists.  Values that appear in
+	 * only one of the lists cannot be part of the common subsequence and are
+	 * marked as changed before the search begins.  The script is minimal unless a
+	 * changed region requires more than {@link #MAX_EDIT_COST} edits in each
+	 * search direction, in which case the region is split at the furthest point
+	 * reached and the script may be slightly longer than the minimal script.
+	 *
+	 * @param a The original list of values.
+	 * @param b The list of values that the original list was changed to.
+	 * @return An edit script transforming the first list into the second list.
+	 */
+	public static <T> char[] editScript(List<T> a, List<T> b) {
+		// convert values to integer identifiers to make comparisons cheap
+		Map<T, Integer> ids = new HashMap<T, Integer>();
+		int[] aIds = TextDelta.toIds(a, ids);
+		int[] bIds = TextDelta.toIds(b, ids);
+		boolean[] inA = new boolean[ids.size()];
+		boolean[] inB = new boolean[ids.size()];
+		for (int id : aIds) {
+			inA[id] = true;
+		}
+		for (int id : bIds) {
+			inB[id] = true;
+		}
+		boolean[] deleted = new boolean[aIds.length];
+		boolean[] added = new boolean[bIds.length];
+		// only values that appear in both lists need to be diffed
+		int[] aIndexes = TextDelta.commonIndexes(aIds, inB, deleted);
+		int[] bIndexes = TextDelta.commonIndexes(bIds, inA, added);
+		int[] aCommon = new int[aIndexes.length];
+		for (int i = 0; i < aIndexes.length; i++) {
+			aCommon[i] = aIds[aIndexes[i]];
+		}
+		int[] bCommon = new int[bIndexes.length];
+		for (int j = 0; j < bIndexes.length; j++) {
+			bCommon[j] = bIds[bIndexes[j]];
+		}
+		boolean[] aCommonDeleted = new boolean[aCommon.length];
+		boolean[] bCommonAdded = new boolean[bCommon.length];
+		TextDelta.compare(aCommon, 0, aCommon.length, bCommon, 0, bCommon.length, aCommonDeleted, bCommonAdded);
+		for (int i = 0; i < aIndexes.length; i++) {
+			deleted[aIndexes[i]] = aCommonDeleted[i];
+		}
+		for (int j = 0; j < bIndexes.length; j++) {
+			added[bIndexes[j]] = bCommonAdded[j];
+		}
+		// convert the deleted and added flags to an edit script
+		int copies = 0;
+		for (boolean flag : deleted) {
+			if (!flag) {
+				copies++;
+			}
+		}
+		char[] edits = new char[aIds.length + bIds.length - copies];
+		int pos = 0;
+		int i = 0;
+		int j = 0;
+		while (i < deleted.length || j < added.length) {
+			if (i < deleted.length && deleted[i]) {
+				edits[pos++] = OP_SKIP;
+				i++;
+			} else if (j < added.length && added[j]) {
+				edits[pos++] = OP_INSERT;
+				j++;
+			} else {
+				edits[pos++] = OP_COPY;
+				i++;
+				j++;
+			}
+		}
+		return edits;
+	}
+
+	/**
+	 * Return the indexes of the values that are present in the other list,
+	 * flagging all other values as changed.
+	 */
+	private static int[] commonIndexes(int[] ids, boolean[] inOther, boolean[] changed) {
+		int count = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (inOther[ids[i]]) {
+				count++;
+			} else {
+				changed[i] = true;
+			}
+		}
+		int[] indexes = new int[count];
+		int pos = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (inOther[ids[i]]) {
+				indexes[pos++] = i;
+			}
+		}
+		return indexes;
+	}
+
+	/**
+	 * Recursively compare a[aStart, aEnd) to b[bStart, bEnd), flagging elements
+	 * that are not part of the longest common subsequence.
+	 */
+	private static void compare(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, boolean[] deleted, boolean[] added) {
+		// elements common to the start and end of both ranges are unchanged
+		while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+			aStart++;
+			bStart++;
+		}
+		while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+			aEnd--;
+			bEnd--;
+		}
+		if (aStart == aEnd) {
+			Arrays.fill(added, bStart, bEnd, true);
+			return;
+		}
+		if (bStart == bEnd) {
+			Arrays.fill(deleted, aStart, aEnd, true);
+			return;
+		}
+		int[] snake = TextDelta.middleSnake(a, aStart, aEnd, b, bStart, bEnd);
+		int x = aStart + snake[0];
+		int y = bStart + snake[1];
+		int u = aStart + snake[2];
+		int v = bStart + snake[3];
+		if ((x == aStart && y == bStart && u == x && v == y) || (u == aEnd && v == bEnd && u == x && v == y)) {
+			// should not happen, but avoid infinite recursion by splitting in the middle
+			x = u = aStart + (aEnd - aStart) / 2;
+			y = v = bStart + (bEnd - bStart) / 2;
+		}
+		TextDelta.compare(a, aStart, x, b, bStart, y, deleted, added);
+		TextDelta.compare(a, u, aEnd, b, v, bEnd, deleted, added);
+	}
+
+	/**
+	 * Find the middle snake of an optimal edit path between the two ranges.  The
+	 * return value is an array containing the start x, start y, end x and end y of
+	 * the snake relative to the start of each range.  Elements within the snake are
+	 * unchanged.
+	 */
+	private static int[] middleSnake(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd) {
+		int n = aEnd - aStart;
+		int m = bEnd - bStart;
+		int delta = n - m;
+		boolean odd = ((delta & 1) != 0);
+		int max = Math.min((n + m + 1) / 2, MAX_EDIT_COST);
+		int offset = max + 1;
+		// forward[k] is the furthest x reached on diagonal k (x - y = k) from the start,
+		// reverse[k] is the furthest distance reached on diagonal k from the end
+		int[] forward = new int[2 * max + 3];
+		int[] reverse = new int[2 * max + 3];
+		for (int d = 0; d <= max; d++) {
+			for (int k = -d; k <= d; k += 2) {
+				int x = (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+				int y = x - k;
+				int startX = x;
+				int startY = y;
+				while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+					x++;
+					y++;
+				}
+				forward[offset + k] = x;
+				int reverseK = delta - k;
+				if (odd && reverseK >= -(d - 1) && reverseK <= (d - 1) && x + reverse[offset + reverseK] >= n) {
+					return new int[] {startX, startY, x, y};
+				}
+			}
+			for (int k = -d; k <= d; k += 2) {
+				int x = (k == -d || (k != d && reverse[offset + k - 1] < reverse[offset + k + 1])) ? reverse[offset + k + 1] : reverse[offset + k - 1] + 1;
+				int y = x - k;
+				int startX = x;
+				int startY = y;
+				while (x < n && y < m && a[aEnd - 1 - x] == b[bEnd - 1 - y]) {
+					x++;
+					y++;
+				}
+				reverse[offset + k] = x;
+				int forwardK = delta - k;
+				if (!odd && forwardK >= -d && forwardK <= d && x + forward[offset + forwardK] >= n) {
+					return new int[] {n - x, m - y, n - startX, m - startY};
+				}
+			}
+		}
+		// the search exceeded the maximum edit cost, so split at the point on the
+		// forward search frontier that has made the most progress
+		int bestX = 0;
+		int bestY = 0;
+		for (int k = -max; k <= max; k += 2) {
+			int x = Math.min(forward[offset + k], n);
+			int y = Math.min(x - k, m);
+			if (y >= 0 && x + y > bestX + bestY) {
+				bestX = x;
+				bestY = y;
+			}
+		}
+		if ((bestX == 0 && bestY == 0) || (bestX == n && bestY == m)) {
+			bestX = n / 2;
+			bestY = m / 2;
+		}
+		return new int[] {bestX, bestY, bestX, bestY};
+	}
+
+	/**
+	 * Split text into lines, retaining line terminators so that joining the
+	 * returned lines re-creates the original text exactly.
+	 */
+	private static List<String> splitLines(String text) {
+		List<String> lines = new ArrayList<String>();
+		int start = 0;
+		int eol;
+		while ((eol = text.indexOf('\n', start)) != -1) {
+			lines.add(text.substring(start, eol + 1));
+			start = eol + 1;
+		}
+		if (start < text.length()) {
+			lines.add(text.substring(start));
+		}
+		return lines;
+	}
+
+	/**
+	 *
+	 */
+	private static <T> int[] toIds(List<T> values, Map<T, Integer> ids) {
+		int[] result = new int[values.size()];
+		for (int i = 0; i < result.length; i++) {
+			Integer id = ids.get(values.get(i));
+			if (id == null) {
+				id = ids.size();
+				ids.put(values.get(i), id);
+			}
+			result[i] = id;
+		}
+		return result;
+	}
+}
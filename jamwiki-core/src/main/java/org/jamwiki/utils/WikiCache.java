@@ -17,13 +17,16 @@
 package org.jamwiki.utils;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.config.Configuration;
 import net.sf.ehcache.config.ConfigurationFactory;
 import net.sf.ehcache.config.DiskStoreConfiguration;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
 import org.jamwiki.Environment;
 
 /**
@@ -40,6 +43,8 @@ public class WikiCache<K, V> {
 	/** Directory for cache files. */
 	private static final String CACHE_DIR = "cache";
 	private final String cacheName;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
 
 	/**
 	 * Initialize a new cache with the given name.
@@ -49,6 +54,8 @@ public class WikiCache<K, V> {
 	 */
 	public WikiCache(String cacheName) {
 		this.cacheName = cacheName;
+		this.hits = WikiMetrics.counter(WikiMetrics.COUNTER_CACHE_HITS, cacheName);
+		this.misses = WikiMetrics.counter(WikiMetrics.COUNTER_CACHE_MISSES, cacheName);
 	}
 
 	/**
@@ -112,6 +119,9 @@ public class WikiCache<K, V> {
 			diskStoreConfiguration.setPath(directory.getPath());
 			configuration.addDiskStore(diskStoreConfiguration);
 			WikiCache.CACHE_MANAGER = new CacheManager(configuration);
+			for (String name : WikiCache.CACHE_MANAGER.getCacheNames()) {
+				WikiCache.CACHE_MANAGER.getCache(name).getCacheEventNotificationService().registerListener(new MetricsEventListener(name));
+			}
 		} catch (Exception e) {
 			logger.error("Failure while initializing cache", e);
 			throw new RuntimeException(e);
@@ -183,6 +193,43 @@ public class WikiCache<K, V> {
 	 */
 	public V retrieveFromCache(K key) {
 		Element element = this.getCache().get(key);
-		return (element != null) ? (V)element.getObjectValue() : null;
+		if (element == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		return (V)element.getObjectValue();
+	}
+
+	/**
+	 * Cache listener used to count evictions and expirations for the
+	 * {@link WikiMetrics} registry.
+	 */
+	private static class MetricsEventListener extends CacheEventListenerAdapter {
+
+		private final AtomicLong evictions;
+		private final AtomicLong expirations;
+
+		/**
+		 *
+		 */
+		MetricsEventListener(String cacheName) {
+			this.evictions = WikiMetrics.counter(WikiMetrics.COUNTER_CACHE_EVICTIONS, cacheName);
+			this.expirations = WikiMetrics.counter(WikiMetrics.COUNTER_CACHE_EXPIRATIONS, cacheName);
+		}
+
+		/**
+		 *
+		 */
+		public void notifyElementEvicted(Ehcache cache, Element element) {
+			this.evictions.incrementAndGet();
+		}
+
+		/**
+		 *
+		 */
+		public void notifyElementExpired(Ehcache cache, Element element) {
+			this.expirations.incrementAndGet();
+		}
 	}
 }
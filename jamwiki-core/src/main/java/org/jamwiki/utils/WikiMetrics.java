@@ -0,0 +1,368 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * A registry of timers and counters used to report where the wiki spends its
+ * time, such as servlet and parser latency, cache hit ratios and database
+ * statement execution times.  Metrics are grouped into families (for example
+ * {@link #TIMER_SERVLET}) and identified within a family by name (for example
+ * the servlet class name).  Metrics are kept in memory only and are exposed
+ * via JMX, the Special:Metrics page and in Prometheus text format.
+ */
+public class WikiMetrics {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(WikiMetrics.class.getName());
+	/** Counter family for the number of items evicted from each cache. */
+	public static final String COUNTER_CACHE_EVICTIONS = "cache_evictions";
+	/** Counter family for the number of items expired from each cache. */
+	public static final String COUNTER_CACHE_EXPIRATIONS = "cache_expirations";
+	/** Counter family for the number of successful lookups from each cache. */
+	public static final String COUNTER_CACHE_HITS = "cache_hits";
+	/** Counter family for the number of unsuccessful lookups from each cache. */
+	public static final String COUNTER_CACHE_MISSES = "cache_misses";
+	/** The name under which metrics are registered with the platform MBean server. */
+	public static final String MBEAN_NAME = "org.jamwiki:type=Metrics";
+	/** Timer family for the time spent waiting for a database connection. */
+	public static final String TIMER_DB_CONNECTION = "db_connection_wait";
+	/** Timer family for each stage of the parser. */
+	public static final String TIMER_PARSER = "parser";
+	/** Timer family for each servlet. */
+	public static final String TIMER_SERVLET = "servlet";
+	/** Timer family for each named SQL statement. */
+	public static final String TIMER_SQL = "sql";
+	private static final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> COUNTERS = new ConcurrentHashMap<String, ConcurrentMap<String, AtomicLong>>();
+	private static final String PROMETHEUS_PREFIX = "jamwiki_";
+	private static final ConcurrentMap<String, ConcurrentMap<String, WikiTimer>> TIMERS = new ConcurrentHashMap<String, ConcurrentMap<String, WikiTimer>>();
+
+	/**
+	 * This class has only static methods and is never instantiated.
+	 */
+	private WikiMetrics() {
+	}
+
+	/**
+	 * Return the counter with the given family and name, creating it if it
+	 * does not already exist.  Callers that update a counter frequently may
+	 * retain the returned object; it remains valid after {@link #reset}.
+	 *
+	 * @param family The counter family, such as {@link #COUNTER_CACHE_HITS}.
+	 * @param name The name of the item being counted within the family.
+	 * @return The counter for the given family and name.
+	 */
+	public static AtomicLong counter(String family, String name) {
+		ConcurrentMap<String, AtomicLong> counters = WikiMetrics.family(COUNTERS, family);
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			counters.putIfAbsent(name, new AtomicLong());
+			counter = counters.get(name);
+		}
+		return counter;
+	}
+
+	/**
+	 * Utility method for retrieving or creating the map of metrics for a family.
+	 */
+	private static <T> ConcurrentMap<String, T> family(ConcurrentMap<String, ConcurrentMap<String, T>> metrics, String family) {
+		ConcurrentMap<String, T> result = metrics.get(family);
+		if (result == null) {
+			metrics.putIfAbsent(family, new ConcurrentHashMap<String, T>());
+			result = metrics.get(family);
+		}
+		return result;
+	}
+
+	/**
+	 * Return a sorted snapshot of all counter values, keyed by family and then
+	 * by name.
+	 */
+	public static SortedMap<String, SortedMap<String, Long>> getCounters() {
+		SortedMap<String, SortedMap<String, Long>> result = new TreeMap<String, SortedMap<String, Long>>();
+		for (Map.Entry<String, ConcurrentMap<String, AtomicLong>> family : COUNTERS.entrySet()) {
+			SortedMap<String, Long> values = new TreeMap<String, Long>();
+			for (Map.Entry<String, AtomicLong> counter : family.getValue().entrySet()) {
+				values.put(counter.getKey(), counter.getValue().get());
+			}
+			result.put(family.getKey(), values);
+		}
+		return result;
+	}
+
+	/**
+	 * Return all timers sorted by family and then by name.
+	 */
+	public static SortedMap<String, SortedMap<String, WikiTimer>> getTimers() {
+		SortedMap<String, SortedMap<String, WikiTimer>> result = new TreeMap<String, SortedMap<String, WikiTimer>>();
+		for (Map.Entry<String, ConcurrentMap<String, WikiTimer>> family : TIMERS.entrySet()) {
+			result.put(family.getKey(), new TreeMap<String, WikiTimer>(family.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Escape a value for use as a Prometheus label value.
+	 */
+	private static String prometheusLabel(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Record the time elapsed since the given start time.  The return value
+	 * may be used as the start time for a subsequent measurement, allowing
+	 * consecutive stages to be timed without additional calls to
+	 * <code>System.nanoTime()</code>.
+	 *
+	 * @param family The timer family, such as {@link #TIMER_PARSER}.
+	 * @param name The name of the item being timed within the family.
+	 * @param start The start time, as returned by <code>System.nanoTime()</code>.
+	 * @return The current value of <code>System.nanoTime()</code>.
+	 */
+	public static long recordTime(String family, String name, long start) {
+		long now = System.nanoTime();
+		WikiMetrics.timer(family, name).record(now - start);
+		return now;
+	}
+
+	/**
+	 * Register the metrics with the platform MBean server so that they can be
+	 * viewed using a JMX console.
+	 */
+	public static void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(MBEAN_NAME);
+			if (!server.isRegistered(objectName)) {
+				server.registerMBean(new MetricsMBean(), objectName);
+			}
+		} catch (JMException e) {
+			logger.warn("Unable to register metrics MBean " + MBEAN_NAME, e);
+		} catch (SecurityException e) {
+			logger.warn("Unable to register metrics MBean " + MBEAN_NAME, e);
+		}
+	}
+
+	/**
+	 * Reset all timers and counters to zero.
+	 */
+	public static void reset() {
+		for (ConcurrentMap<String, AtomicLong> family : COUNTERS.values()) {
+			for (AtomicLong counter : family.values()) {
+				counter.set(0);
+			}
+		}
+		for (ConcurrentMap<String, WikiTimer> family : TIMERS.values()) {
+			for (WikiTimer timer : family.values()) {
+				timer.reset();
+			}
+		}
+	}
+
+	/**
+	 * Return the timer with the given family and name, creating it if it does
+	 * not already exist.
+	 *
+	 * @param family The timer family, such as {@link #TIMER_SERVLET}.
+	 * @param name The name of the item being timed within the family.
+	 * @return The timer for the given family and name.
+	 */
+	public static WikiTimer timer(String family, String name) {
+		ConcurrentMap<String, WikiTimer> timers = WikiMetrics.family(TIMERS, family);
+		WikiTimer timer = timers.get(name);
+		if (timer == null) {
+			timers.putIfAbsent(name, new WikiTimer(name));
+			timer = timers.get(name);
+		}
+		return timer;
+	}
+
+	/**
+	 * Return all metrics in the Prometheus text exposition format.  Timers are
+	 * exported as histograms measured in seconds and counters as totals, with
+	 * the metric name as a <code>name</code> label.
+	 */
+	public static String toPrometheus() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, SortedMap<String, WikiTimer>> family : WikiMetrics.getTimers().entrySet()) {
+			String metric = PROMETHEUS_PREFIX + family.getKey() + "_seconds";
+			result.append("# TYPE ").append(metric).append(" histogram\n");
+			for (WikiTimer timer : family.getValue().values()) {
+				String label = "name=\"" + WikiMetrics.prometheusLabel(timer.getName()) + "\"";
+				long[] counts = timer.getBucketCounts();
+				long cumulative = 0;
+				for (int i = 0; i < counts.length; i++) {
+					cumulative += counts[i];
+					String limit = (i < WikiTimer.BUCKET_LIMITS_MILLIS.length) ? Double.toString(WikiTimer.BUCKET_LIMITS_MILLIS[i] / 1000.0) : "+Inf";
+					result.append(metric).append("_bucket{").append(label).append(",le=\"").append(limit).append("\"} ").append(cumulative).append('\n');
+				}
+				result.append(metric).append("_sum{").append(label).append("} ").append(timer.getTotalMillis() / 1000.0).append('\n');
+				result.append(metric).append("_count{").append(label).append("} ").append(cumulative).append('\n');
+			}
+		}
+		for (Map.Entry<String, SortedMap<String, Long>> family : WikiMetrics.getCounters().entrySet()) {
+			String metric = PROMETHEUS_PREFIX + family.getKey() + "_total";
+			result.append("# TYPE ").append(metric).append(" counter\n");
+			for (Map.Entry<String, Long> counter : family.getValue().entrySet()) {
+				result.append(metric).append("{name=\"").append(WikiMetrics.prometheusLabel(counter.getKey())).append("\"} ").append(counter.getValue()).append('\n');
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Remove the metrics MBean from the platform MBean server, to be called
+	 * for example during servlet shutdown.
+	 */
+	public static void unregisterMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(MBEAN_NAME);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			logger.warn("Unable to unregister metrics MBean " + MBEAN_NAME, e);
+		} catch (SecurityException e) {
+			logger.warn("Unable to unregister metrics MBean " + MBEAN_NAME, e);
+		}
+	}
+
+	/**
+	 * JMX view of the metrics registry.  Each counter is exposed as an
+	 * attribute named <code>family.name</code>, and each timer as a set of
+	 * attributes named <code>family.name.count</code>,
+	 * <code>family.name.meanMillis</code>, <code>family.name.p95Millis</code>
+	 * and <code>family.name.maxMillis</code>.  Since the set of metrics grows
+	 * as the wiki is used the attribute list is rebuilt on each request.
+	 */
+	private static class MetricsMBean implements DynamicMBean {
+
+		private static final String OPERATION_PROMETHEUS = "prometheus";
+		private static final String OPERATION_RESET = "reset";
+
+		/**
+		 *
+		 */
+		private SortedMap<String, Object> attributes() {
+			SortedMap<String, Object> result = new TreeMap<String, Object>();
+			for (Map.Entry<String, SortedMap<String, Long>> family : WikiMetrics.getCounters().entrySet()) {
+				for (Map.Entry<String, Long> counter : family.getValue().entrySet()) {
+					result.put(family.getKey() + '.' + counter.getKey(), counter.getValue());
+				}
+			}
+			for (Map.Entry<String, SortedMap<String, WikiTimer>> family : WikiMetrics.getTimers().entrySet()) {
+				for (WikiTimer timer : family.getValue().values()) {
+					String prefix = family.getKey() + '.' + timer.getName() + '.';
+					result.put(prefix + "count", timer.getCount());
+					result.put(prefix + "maxMillis", timer.getMaxMillis());
+					result.put(prefix + "meanMillis", timer.getMeanMillis());
+					result.put(prefix + "p95Millis", timer.getP95Millis());
+				}
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 */
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Object value = this.attributes().get(attribute);
+			if (value == null) {
+				throw new AttributeNotFoundException("No metric found with name " + attribute);
+			}
+			return value;
+		}
+
+		/**
+		 *
+		 */
+		public AttributeList getAttributes(String[] names) {
+			SortedMap<String, Object> attributes = this.attributes();
+			AttributeList result = new AttributeList();
+			for (String name : names) {
+				if (attributes.containsKey(name)) {
+					result.add(new Attribute(name, attributes.get(name)));
+				}
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 */
+		public MBeanInfo getMBeanInfo() {
+			SortedMap<String, Object> attributes = this.attributes();
+			MBeanAttributeInfo[] attributeInfo = new MBeanAttributeInfo[attributes.size()];
+			int i = 0;
+			for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+				attributeInfo[i++] = new MBeanAttributeInfo(attribute.getKey(), attribute.getValue().getClass().getName(), attribute.getKey(), true, false, false);
+			}
+			MBeanOperationInfo[] operationInfo = {
+				new MBeanOperationInfo(OPERATION_RESET, "Reset all metrics to zero", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION),
+				new MBeanOperationInfo(OPERATION_PROMETHEUS, "Return all metrics in Prometheus text format", new MBeanParameterInfo[0], String.class.getName(), MBeanOperationInfo.INFO)
+			};
+			return new MBeanInfo(this.getClass().getName(), "JAMWiki performance metrics", attributeInfo, null, operationInfo, null);
+		}
+
+		/**
+		 *
+		 */
+		public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+			if (OPERATION_RESET.equals(actionName)) {
+				WikiMetrics.reset();
+				return null;
+			}
+			if (OPERATION_PROMETHEUS.equals(actionName)) {
+				return WikiMetrics.toPrometheus();
+			}
+			throw new ReflectionException(new NoSuchMethodException(actionName), "No operation found with name " + actionName);
+		}
+
+		/**
+		 *
+		 */
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metric attributes are read-only: " + attribute.getName());
+		}
+
+		/**
+		 *
+		 */
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+	}
+}
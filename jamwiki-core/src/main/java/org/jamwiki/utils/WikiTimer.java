@@ -0,0 +1,193 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe latency histogram used by {@link WikiMetrics}.  Recorded
+ * durations are counted in a fixed set of buckets that grow roughly
+ * logarithmically, so recording a value is a constant-time operation and
+ * the memory used does not grow with the number of values recorded.
+ */
+public class WikiTimer {
+
+	/** Upper bounds of the histogram buckets, in milliseconds.  Values above the last bound are counted in an overflow bucket. */
+	public static final long[] BUCKET_LIMITS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+	private static final long[] BUCKET_LIMITS_NANOS = new long[BUCKET_LIMITS_MILLIS.length];
+	static {
+		for (int i = 0; i < BUCKET_LIMITS_MILLIS.length; i++) {
+			BUCKET_LIMITS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BUCKET_LIMITS_MILLIS[i]);
+		}
+	}
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_LIMITS_MILLIS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final String name;
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	/**
+	 *
+	 */
+	protected WikiTimer(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Return the number of values recorded in each bucket.  The returned array
+	 * contains one more element than {@link #BUCKET_LIMITS_MILLIS}, the last
+	 * element being the count of values larger than the largest bucket limit.
+	 */
+	public long[] getBucketCounts() {
+		long[] result = new long[this.buckets.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.buckets.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Return the total number of values recorded by this timer.
+	 */
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * Return the longest duration recorded, in milliseconds.
+	 */
+	public double getMaxMillis() {
+		return WikiTimer.toMillis(this.maxNanos.get());
+	}
+
+	/**
+	 * Return the average duration recorded, in milliseconds.
+	 */
+	public double getMeanMillis() {
+		long current = this.count.get();
+		return (current == 0) ? 0 : WikiTimer.toMillis(this.totalNanos.get()) / current;
+	}
+
+	/**
+	 * Return the name of the item being timed, such as a servlet or SQL
+	 * statement name.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Return the approximate median duration in milliseconds.
+	 */
+	public double getP50Millis() {
+		return this.percentileMillis(0.50);
+	}
+
+	/**
+	 * Return the approximate 95th percentile duration in milliseconds.
+	 */
+	public double getP95Millis() {
+		return this.percentileMillis(0.95);
+	}
+
+	/**
+	 * Return the approximate 99th percentile duration in milliseconds.
+	 */
+	public double getP99Millis() {
+		return this.percentileMillis(0.99);
+	}
+
+	/**
+	 * Return the total of all durations recorded, in milliseconds.
+	 */
+	public double getTotalMillis() {
+		return WikiTimer.toMillis(this.totalNanos.get());
+	}
+
+	/**
+	 * Return an approximation of the given percentile in milliseconds.  Since
+	 * individual values are not retained the result is the upper limit of the
+	 * bucket containing the percentile, or the maximum recorded value if that
+	 * is smaller.
+	 *
+	 * @param percentile A value between 0 and 1, such as 0.95.
+	 * @return The approximate percentile, or zero if no values have been
+	 *  recorded.
+	 */
+	public double percentileMillis(double percentile) {
+		long[] counts = this.getBucketCounts();
+		long total = 0;
+		for (long bucketCount : counts) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = (long)Math.ceil(total * percentile);
+		long cumulative = 0;
+		for (int i = 0; i < BUCKET_LIMITS_MILLIS.length; i++) {
+			cumulative += counts[i];
+			if (cumulative >= target) {
+				return Math.min(BUCKET_LIMITS_MILLIS[i], this.getMaxMillis());
+			}
+		}
+		return this.getMaxMillis();
+	}
+
+	/**
+	 * Record a duration.
+	 *
+	 * @param nanos The duration to record, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		int bucket = 0;
+		while (bucket < BUCKET_LIMITS_NANOS.length && nanos > BUCKET_LIMITS_NANOS[bucket]) {
+			bucket++;
+		}
+		this.buckets.incrementAndGet(bucket);
+		this.count.incrementAndGet();
+		this.totalNanos.addAndGet(nanos);
+		long max = this.maxNanos.get();
+		while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+			max = this.maxNanos.get();
+		}
+	}
+
+	/**
+	 * Clear all recorded values.
+	 */
+	protected void reset() {
+		for (int i = 0; i < this.buckets.length(); i++) {
+			this.buckets.set(i, 0);
+		}
+		this.count.set(0);
+		this.maxNanos.set(0);
+		this.totalNanos.set(0);
+	}
+
+	/**
+	 *
+	 */
+	private static double toMillis(long nanos) {
+		return nanos / 1000000.0;
+	}
+}
@@ -17,7 +17,9 @@
 package org.jamwiki.utils;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.sql.SQLException;
@@ -29,6 +31,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.DataAccessException;
@@ -69,7 +72,8 @@ public class WikiUtil {
 
 	/**
 	 * Create a pagination object based on parameters found in the current
-	 * request.
+	 * request.  A <code>from</code> parameter contains a pagination cursor
+	 * and takes precedence over any <code>offset</code> parameter.
 	 *
 	 * @param request The servlet request object.
 	 * @return A Pagination object constructed from parameters found in the
@@ -84,6 +88,9 @@ public class WikiUtil {
 				// invalid number
 			}
 		}
+		if (!StringUtils.isBlank(request.getParameter("from"))) {
+			return new Pagination(num, request.getParameter("from"));
+		}
 		int offset = 0;
 		if (request.getParameter("offset") != null) {
 			try {
@@ -716,4 +723,33 @@ public class WikiUtil {
 			throw new WikiException(new WikiMessage("common.exception.name", virtualWikiName));
 		}
 	}
+
+	/**
+	 * Replace the contents of a file.  The data is written to a temporary file
+	 * in the same directory that is then renamed, so a failure while writing
+	 * never leaves a partially written file in place.
+	 *
+	 * @param file The file to write.
+	 * @param data The new file contents.
+	 * @throws IOException Thrown if the file cannot be written.
+	 */
+	public static void writeFileAtomically(File file, byte[] data) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream(tempFile);
+			os.write(data);
+		} finally {
+			IOUtils.closeQuietly(os);
+		}
+		if (tempFile.renameTo(file)) {
+			return;
+		}
+		// some platforms cannot rename over an existing file
+		FileUtils.deleteQuietly(file);
+		if (!tempFile.renameTo(file)) {
+			FileUtils.deleteQuietly(tempFile);
+			throw new IOException("Unable to write file " + file.getAbsolutePath());
+		}
+	}
 }
@@ -58,6 +58,10 @@ public abstract class JAMWikiUnitTest {
 			rootDirectory.mkdir();
 		}
 		Environment.setValue(Environment.PROP_BASE_FILE_DIR, rootDirectory.getAbsolutePath());
+		// resize images on the calling thread so that parser output is predictable
+		Environment.setValue(Environment.PROP_IMAGE_RESIZE_THREADS, "0");
+		// update the search index as soon as each topic write commits
+		Environment.setValue(Environment.PROP_SEARCH_INDEX_ASYNCHRONOUS, Boolean.FALSE.toString());
 		File filesDirectory = new File(rootDirectory, "files");
 		File testFilesDirectory = new File("src/test/resources/data/files");
 		if (!filesDirectory.exists() && testFilesDirectory.exists()) {
@@ -124,7 +128,7 @@ public abstract class JAMWikiUnitTest {
 	 */
 	protected void setupTopic(Topic topic) throws DataAccessException, WikiException {
 		TopicVersion topicVersion = new TopicVersion(null, "127.0.0.1", null, topic.getTopicContent(), topic.getTopicContent().length());
-		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null, null);
 	}
 
 	/**
@@ -161,13 +165,13 @@ public abstract class JAMWikiUnitTest {
 		// the "test" virtual wiki.
 		WikiFileVersion wikiFileVersion = new WikiFileVersion();
 		if (topic.getName().equals("File:Test Image.jpg") && virtualWiki.getName().equals("en")) {
-			WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+			WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null, null);
 			ImageUtil.writeWikiFile(topic, wikiFileVersion, null, "127.0.0.1", "test_image.jpg", "/test_image.jpg", "image/jpeg", 61136, null);
 		} else if (topic.getName().equals("File:Test Image.jpg") && virtualWiki.getName().equals("test")) {
-			WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+			WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null, null);
 			ImageUtil.writeWikiFile(topic, wikiFileVersion, null, "127.0.0.1", "test_image_shared.jpg", "/test_image_shared.jpg", "image/jpeg", 61136, null);
 		} else if (topic.getName().equals("File:Test Image2.jpg") && virtualWiki.getName().equals("test")) {
-			WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+			WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null, null);
 			ImageUtil.writeWikiFile(topic, wikiFileVersion, null, "127.0.0.1", "test_image2_shared.jpg", "/test_image2_shared.jpg", "image/jpeg", 61136, null);
 		}
 	}
@@ -16,15 +16,40 @@
  */
 package org.jamwiki.db;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.commons.io.IOUtils;
 import org.jamwiki.DataAccessException;
+import org.jamwiki.Environment;
 import org.jamwiki.JAMWikiUnitTest;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
+import org.jamwiki.model.ImageData;
+import org.jamwiki.model.Namespace;
 import org.jamwiki.model.RecentChange;
 import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicVersion;
+import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.model.WikiFile;
+import org.jamwiki.model.WikiFileVersion;
+import org.jamwiki.model.WikiImageMetadata;
+import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.Pagination;
+import org.jamwiki.utils.WikiCache;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -33,6 +58,39 @@ import static org.junit.Assert.*;
  */
 public class AnsiDataHandlerTest extends JAMWikiUnitTest {
 
+	/**
+	 *
+	 */
+	@Test
+	public void testRebuildTopicMetadata() throws DataAccessException, IOException {
+		// write a checkpoint placed immediately before the last "en" topic
+		List<String> topicNames = WikiBase.getDataHandler().getAllTopicNames("en", false);
+		Collections.sort(topicNames);
+		Properties properties = new Properties();
+		properties.setProperty("virtual-wiki", "en");
+		properties.setProperty("topic", topicNames.get(topicNames.size() - 2));
+		File checkpoint = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), "topic-metadata-rebuild.checkpoint");
+		OutputStream os = new FileOutputStream(checkpoint);
+		try {
+			properties.store(os, null);
+		} finally {
+			os.close();
+		}
+		// only the last "en" topic and topics from later virtual wikis should be processed
+		int expected = 1;
+		boolean found = false;
+		for (VirtualWiki virtualWiki : WikiBase.getDataHandler().getVirtualWikiList()) {
+			if (found) {
+				expected += WikiBase.getDataHandler().getAllTopicNames(virtualWiki.getName(), false).size();
+			}
+			found = (found || virtualWiki.getName().equals("en"));
+		}
+		int[] results = WikiDatabase.rebuildTopicMetadata();
+		assertEquals("Incorrect number of topics processed after resuming from checkpoint", expected, results[0] + results[1]);
+		assertEquals("Errors while regenerating topic metadata", 0, results[1]);
+		assertFalse("Checkpoint not deleted after completion", checkpoint.exists());
+	}
+
 	/**
 	 *
 	 */
@@ -42,6 +100,66 @@ public class AnsiDataHandlerTest extends JAMWikiUnitTest {
 		WikiBase.getDataHandler().reloadRecentChanges();
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testStreamImageData() throws DataAccessException, IOException, WikiException {
+		byte[] data = new byte[100000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)(i % 251);
+		}
+		// write the file data from a stream rather than a byte array
+		Topic topic = ImageUtil.writeImageTopic("en", "File:Stream Test.bin", "stream test", null, false, "127.0.0.1");
+		ImageData imageData = new ImageData("application/octet-stream", -1, -1, new ByteArrayInputStream(data), data.length);
+		WikiFileVersion wikiFileVersion = new WikiFileVersion();
+		WikiFile wikiFile = ImageUtil.writeWikiFile(topic, wikiFileVersion, null, "127.0.0.1", "Stream_Test.bin", "/stream-test.bin", "application/octet-stream", data.length, imageData);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final String[] mimeType = new String[1];
+		final long[] dataLength = new long[1];
+		ImageStreamHandler handler = new ImageStreamHandler() {
+			public void handleImageStream(ImageData imageInfo, InputStream is) throws IOException {
+				mimeType[0] = imageInfo.mimeType;
+				dataLength[0] = imageInfo.dataLength;
+				IOUtils.copy(is, output);
+			}
+		};
+		assertTrue("Image data not found", WikiBase.getDataHandler().streamImageData(wikiFile.getFileId(), 0, handler));
+		assertEquals("Incorrect MIME type", "application/octet-stream", mimeType[0]);
+		assertEquals("Incorrect data length", data.length, dataLength[0]);
+		assertArrayEquals("Incorrect streamed data", data, output.toByteArray());
+		output.reset();
+		assertTrue("Image version data not found", WikiBase.getDataHandler().streamImageVersionData(wikiFileVersion.getFileVersionId(), 0, handler));
+		assertArrayEquals("Incorrect streamed version data", data, output.toByteArray());
+		assertFalse("Missing image data should not be found", WikiBase.getDataHandler().streamImageVersionData(wikiFileVersion.getFileVersionId(), 100, handler));
+		ImageData imageInfo = WikiBase.getDataHandler().getImageVersionInfo(wikiFileVersion.getFileVersionId(), 0);
+		assertEquals("Incorrect version info MIME type", "application/octet-stream", imageInfo.mimeType);
+		assertNull("Version info should not include file data", imageInfo.data);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testImageMetadata() throws DataAccessException {
+		// image metadata is written when the test image is uploaded during setup
+		WikiImageMetadata imageMetadata = WikiBase.getDataHandler().lookupImageMetadata("/test_image.jpg");
+		assertNotNull("Image metadata not found", imageMetadata);
+		assertEquals("Incorrect image width", 400, imageMetadata.getWidth());
+		assertEquals("Incorrect image height", 267, imageMetadata.getHeight());
+		assertEquals("Incorrect MIME type", "image/jpeg", imageMetadata.getMimeType());
+		assertEquals("Incorrect orientation", WikiImageMetadata.ORIENTATION_NORMAL, imageMetadata.getOrientation());
+		Map<String, WikiImageMetadata> results = WikiBase.getDataHandler().lookupImageMetadata("en", Arrays.asList("Test Image.jpg", "No Such Image.jpg"));
+		assertEquals("Incorrect bulk lookup result count", 1, results.size());
+		assertEquals("Incorrect bulk lookup file version", imageMetadata.getFileVersionId(), results.get("Test Image.jpg").getFileVersionId());
+		WikiBase.getDataHandler().writeImageResizedWidths(Collections.singletonMap("/test_image.jpg", Arrays.asList(160)));
+		imageMetadata = WikiBase.getDataHandler().lookupImageMetadata("/test_image.jpg");
+		assertTrue("Resized width not recorded", imageMetadata.getResizedWidths().contains(160));
+		assertNull("Metadata should not exist for unknown URL", WikiBase.getDataHandler().lookupImageMetadata("/no-such-image.jpg"));
+		// writing metadata that already exists, as concurrent page views may do, is not an error
+		WikiBase.getDataHandler().writeImageMetadata(imageMetadata);
+	}
+
 	/**
 	 *
 	 */
@@ -51,6 +169,37 @@ public class AnsiDataHandlerTest extends JAMWikiUnitTest {
 		assertEquals("Incorrect topic name", topic.getName(), WikiBase.SPECIAL_PAGE_SYSTEM_CSS);
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testLookupTopicTemplateDependents() throws DataAccessException, IOException, WikiException {
+		Topic inner = this.setupTopic(null, "Template:Dependency Inner", "inner");
+		// outer transcludes inner, page transcludes outer only
+		Topic outer = new Topic("en", Namespace.namespace(Namespace.TEMPLATE_ID), "Dependency Outer");
+		outer.setTopicContent("{{Dependency Inner}}");
+		this.writeTopicWithTemplate(outer, inner.getName());
+		Topic page = new Topic("en", Namespace.namespace(Namespace.MAIN_ID), "Dependency Page");
+		page.setTopicContent("{{Dependency Outer}}");
+		this.writeTopicWithTemplate(page, outer.getName());
+		List<String> dependents = WikiBase.getDataHandler().lookupTopicTemplateDependents("en", inner.getName());
+		assertEquals("Incorrect number of template dependents", 2, dependents.size());
+		assertTrue("Direct template dependent not found", dependents.contains(outer.getName()));
+		assertTrue("Transitive template dependent not found", dependents.contains(page.getName()));
+		dependents = WikiBase.getDataHandler().lookupTopicTemplateDependents("en", page.getName());
+		assertTrue("Topic that is not transcluded should have no dependents", dependents.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	private void writeTopicWithTemplate(Topic topic, String template) throws DataAccessException, WikiException {
+		TopicVersion topicVersion = new TopicVersion(null, "127.0.0.1", null, topic.getTopicContent(), topic.getTopicContent().length());
+		List<String> templates = new ArrayList<String>();
+		templates.add(template);
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null, templates);
+	}
+
 	/**
 	 *
 	 */
@@ -91,6 +240,229 @@ public class AnsiDataHandlerTest extends JAMWikiUnitTest {
 		assertEquals("Incorrect number of deleted test versions present", 1, versions.size());
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testRequestDataContext() throws DataAccessException, IOException, WikiException {
+		Topic topic = this.setupTopic(null, "Request Context Test", "Request context test content");
+		RequestDataContext context = RequestDataContext.bind();
+		try {
+			Topic first = WikiBase.getDataHandler().lookupTopic(topic.getVirtualWiki(), topic.getName(), false);
+			Topic second = WikiBase.getDataHandler().lookupTopic(topic.getVirtualWiki(), topic.getName(), false);
+			assertEquals("Incorrect topic returned from request context", first.getTopicId(), second.getTopicId());
+			assertNotSame("Topics returned from the request context must be copies", first, second);
+			assertEquals("Incorrect topic hit count", 1, context.getHits(RequestDataContext.LOOKUP_TOPIC));
+			assertNull("Missing topic not memoized", WikiBase.getDataHandler().lookupTopic(topic.getVirtualWiki(), "Request Context Missing", false));
+			assertNull("Missing topic not memoized", WikiBase.getDataHandler().lookupTopic(topic.getVirtualWiki(), "Request Context Missing", false));
+			assertEquals("Incorrect topic hit count", 2, context.getHits(RequestDataContext.LOOKUP_TOPIC));
+			// updates must clear the request context
+			this.setupTopic(topic);
+			int misses = context.getMisses(RequestDataContext.LOOKUP_TOPIC);
+			WikiBase.getDataHandler().lookupTopic(topic.getVirtualWiki(), topic.getName(), false);
+			assertEquals("Request context not cleared after update", misses + 1, context.getMisses(RequestDataContext.LOOKUP_TOPIC));
+		} finally {
+			RequestDataContext.unbind();
+		}
+		assertNull("Request context not unbound", RequestDataContext.current());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTopicHistoryCursor() throws DataAccessException, IOException, WikiException {
+		String topicName = "Topic History Cursor Test";
+		Topic topic = null;
+		for (int i = 0; i < 5; i++) {
+			if (topic == null) {
+				topic = this.setupTopic(null, topicName, "Test topic content " + i);
+			} else {
+				this.setupTopic(topic);
+			}
+		}
+		List<RecentChange> versions = WikiBase.getDataHandler().getTopicHistory(topic, new Pagination(1000, 0), true);
+		assertEquals("Incorrect number of test versions present", 5, versions.size());
+		// versions saved within the same millisecond are ordered by ID when using cursors
+		Collections.sort(versions, new Comparator<RecentChange>() {
+			public int compare(RecentChange change1, RecentChange change2) {
+				int result = change2.getChangeDate().compareTo(change1.getChangeDate());
+				return (result != 0) ? result : change2.getTopicVersionId().compareTo(change1.getTopicVersionId());
+			}
+		});
+		// page through the history two versions at a time
+		Pagination pagination = new Pagination(2, 0);
+		List<RecentChange> page = WikiBase.getDataHandler().getTopicHistory(topic, pagination, true);
+		List<RecentChange> secondPage = null;
+		Pagination secondPagination = null;
+		int position = 0;
+		while (!page.isEmpty()) {
+			for (RecentChange change : page) {
+				assertEquals("Incorrect version at position " + position, versions.get(position).getTopicVersionId(), change.getTopicVersionId());
+				position++;
+			}
+			RecentChange last = page.get(page.size() - 1);
+			String cursor = pagination.nextCursor(last.getChangeDate(), last.getTopicVersionId(), page.size());
+			if (cursor == null) {
+				break;
+			}
+			pagination = new Pagination(2, cursor);
+			page = WikiBase.getDataHandler().getTopicHistory(topic, pagination, true);
+			if (secondPage == null) {
+				secondPage = page;
+				secondPagination = pagination;
+			}
+		}
+		assertEquals("Cursor pagination did not return all versions", versions.size(), position);
+		// the page preceding the second page should be the first page
+		RecentChange first = secondPage.get(0);
+		pagination = new Pagination(2, secondPagination.previousCursor(first.getChangeDate(), first.getTopicVersionId(), secondPage.size()));
+		page = WikiBase.getDataHandler().getTopicHistory(topic, pagination, true);
+		assertEquals("Incorrect number of versions on previous page", 2, page.size());
+		assertEquals("Incorrect first version on previous page", versions.get(0).getTopicVersionId(), page.get(0).getTopicVersionId());
+		assertEquals("Incorrect last version on previous page", versions.get(1).getTopicVersionId(), page.get(1).getTopicVersionId());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSearchIndexQueue() throws DataAccessException, IOException, SQLException, WikiException {
+		Topic topic = this.setupTopic(null, "Search Index Queue Test", "Search index queue test content");
+		// tests index synchronously, so the queue is empty once the write completes
+		assertFalse("Topic not removed from search index queue", WikiBase.getDataHandler().getSearchIndexQueue(100).containsKey(topic.getTopicId()));
+		Connection conn = DatabaseConnection.getConnection();
+		try {
+			WikiBase.getDataHandler().queryHandler().insertSearchIndexQueue(topic.getTopicId(), topic.getCurrentVersionId(), conn);
+		} finally {
+			DatabaseConnection.closeConnection(conn);
+		}
+		Map<Integer, Integer> queue = WikiBase.getDataHandler().getSearchIndexQueue(100);
+		assertEquals("Topic not added to search index queue", topic.getCurrentVersionId(), queue.get(topic.getTopicId()));
+		assertTrue("No queued topics processed", SearchIndexQueue.processQueue() > 0);
+		assertTrue("Search index queue not empty after processing", WikiBase.getDataHandler().getSearchIndexQueue(100).isEmpty());
+	}
+
+	/**
+	 * Purging a version that is still pending in the search index queue must not
+	 * leave the entry in the queue.
+	 */
+	@Test
+	public void testSearchIndexQueuePurgedVersion() throws DataAccessException, IOException, SQLException, WikiException {
+		Topic topic = this.setupTopic(null, "Search Index Queue Purge Test", "Search index queue purge test content");
+		this.setupTopic(topic);
+		int purgedTopicVersionId = topic.getCurrentVersionId();
+		Connection conn = DatabaseConnection.getConnection();
+		try {
+			WikiBase.getDataHandler().queryHandler().insertSearchIndexQueue(topic.getTopicId(), purgedTopicVersionId, conn);
+		} finally {
+			DatabaseConnection.closeConnection(conn);
+		}
+		WikiBase.getDataHandler().purgeTopicVersion(topic, purgedTopicVersionId, null, "127.0.0.1");
+		assertTrue("Current version not replaced by purge", topic.getCurrentVersionId() < purgedTopicVersionId);
+		assertTrue("No queued topics processed", SearchIndexQueue.processQueue() > 0);
+		assertFalse("Purged version left in search index queue", WikiBase.getDataHandler().getSearchIndexQueue(100).containsKey(topic.getTopicId()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTopicNameSuggestions() throws DataAccessException, InterruptedException, IOException, WikiException {
+		VirtualWiki virtualWiki = WikiBase.getDataHandler().lookupVirtualWiki("en");
+		this.setupTopic(virtualWiki, "Suggestion Test Alpha", "Suggestion test content");
+		// the index is built in the background and nothing is suggested until it is ready
+		List<String> suggestions = WikiBase.getDataHandler().lookupTopicNameSuggestions(virtualWiki.getName(), null, "suggestion test", 10);
+		for (int i = 0; i < 1000 && suggestions.isEmpty(); i++) {
+			Thread.sleep(10);
+			suggestions = WikiBase.getDataHandler().lookupTopicNameSuggestions(virtualWiki.getName(), null, "suggestion test", 10);
+		}
+		assertEquals("Existing topic not suggested", Arrays.asList("Suggestion Test Alpha"), suggestions);
+		// topics written after the index is loaded are added incrementally
+		this.setupTopic(virtualWiki, "Suggestion Test Beta", "Suggestion test content");
+		suggestions = WikiBase.getDataHandler().lookupTopicNameSuggestions(virtualWiki.getName(), Namespace.namespace(Namespace.MAIN_ID), "SUGGESTION TEST", 10);
+		assertEquals("New topic not suggested", Arrays.asList("Suggestion Test Alpha", "Suggestion Test Beta"), suggestions);
+		assertTrue("Topic suggested for the wrong namespace", WikiBase.getDataHandler().lookupTopicNameSuggestions(virtualWiki.getName(), Namespace.namespace(Namespace.HELP_ID), "suggestion test", 10).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTopicVersionDeltaStorage() throws DataAccessException, IOException, WikiException {
+		String originalDeltaStorage = Environment.getValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE);
+		String originalKeyframeInterval = Environment.getValue(Environment.PROP_TOPIC_VERSION_KEYFRAME_INTERVAL);
+		try {
+			Environment.setValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE, Boolean.TRUE.toString());
+			Environment.setValue(Environment.PROP_TOPIC_VERSION_KEYFRAME_INTERVAL, "3");
+			// each version appends a line to a long topic so that deltas are smaller than the full text
+			StringBuilder contents = new StringBuilder();
+			for (int i = 0; i < 50; i++) {
+				contents.append("Delta storage test topic line ").append(i).append('\n');
+			}
+			List<String> expected = new ArrayList<String>();
+			Topic topic = null;
+			for (int i = 0; i < 7; i++) {
+				contents.append("Version ").append(i).append('\n');
+				expected.add(0, contents.toString());
+				if (topic == null) {
+					topic = this.setupTopic(null, "Delta Storage Test", contents.toString());
+				} else {
+					topic.setTopicContent(contents.toString());
+					this.setupTopic(topic);
+				}
+			}
+			this.verifyTopicVersions(topic, expected);
+			// keyframes chosen when saving must match those chosen by a conversion
+			assertEquals("Saved versions differ from converted storage", 0, WikiBase.getDataHandler().convertTopicVersionStorage(topic));
+			// purging a version must not break versions stored as deltas against it
+			List<RecentChange> versions = this.retrieveTopicVersions(topic);
+			WikiBase.getDataHandler().purgeTopicVersion(topic, versions.get(2).getTopicVersionId(), null, "127.0.0.1");
+			expected.remove(2);
+			this.verifyTopicVersions(topic, expected);
+			// convert back to full text storage
+			Environment.setValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE, Boolean.FALSE.toString());
+			assertTrue("No topic versions converted to full text", WikiBase.getDataHandler().convertTopicVersionStorage(topic) > 0);
+			this.verifyTopicVersions(topic, expected);
+			assertEquals("Topic versions converted twice", 0, WikiBase.getDataHandler().convertTopicVersionStorage(topic));
+			// and back to deltas
+			Environment.setValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE, Boolean.TRUE.toString());
+			assertTrue("No topic versions converted to deltas", WikiBase.getDataHandler().convertTopicVersionStorage(topic) > 0);
+			this.verifyTopicVersions(topic, expected);
+		} finally {
+			Environment.setValue(Environment.PROP_TOPIC_VERSION_DELTA_STORAGE, originalDeltaStorage);
+			Environment.setValue(Environment.PROP_TOPIC_VERSION_KEYFRAME_INTERVAL, originalKeyframeInterval);
+		}
+	}
+
+	/**
+	 * Return the history for a topic ordered newest to oldest.  Versions created
+	 * in quick succession may share an edit date, so sort by version ID.
+	 */
+	private List<RecentChange> retrieveTopicVersions(Topic topic) throws DataAccessException {
+		List<RecentChange> versions = WikiBase.getDataHandler().getTopicHistory(topic, new Pagination(1000, 0), true);
+		Collections.sort(versions, new Comparator<RecentChange>() {
+			public int compare(RecentChange change1, RecentChange change2) {
+				return change2.getTopicVersionId().compareTo(change1.getTopicVersionId());
+			}
+		});
+		return versions;
+	}
+
+	/**
+	 * Verify that topic versions, ordered newest to oldest, match the expected content
+	 * when re-created from the database.
+	 */
+	private void verifyTopicVersions(Topic topic, List<String> expected) throws DataAccessException {
+		new WikiCache<Integer, TopicVersion>("org.jamwiki.db.AnsiDataHandler.CACHE_TOPIC_VERSIONS").removeAllFromCache();
+		List<RecentChange> versions = this.retrieveTopicVersions(topic);
+		assertEquals("Incorrect number of test versions present", expected.size(), versions.size());
+		for (int i = 0; i < versions.size(); i++) {
+			TopicVersion topicVersion = WikiBase.getDataHandler().lookupTopicVersion(versions.get(i).getTopicVersionId());
+			assertEquals("Incorrect content for topic version " + i, expected.get(i), topicVersion.getVersionContent());
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,63 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TopicNameFilterTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMightContain() throws Throwable {
+		TopicNameFilter topicNameFilter = new TopicNameFilter(5000);
+		for (int i = 0; i < 5000; i++) {
+			topicNameFilter.add(i % 3, "Topic " + i);
+		}
+		assertTrue("Filter must not be used before it is ready", topicNameFilter.mightContain(0, "Missing Topic"));
+		topicNameFilter.setReady();
+		for (int i = 0; i < 5000; i++) {
+			assertTrue("Added topic not found: " + i, topicNameFilter.mightContain(i % 3, "Topic " + i));
+			assertTrue("Lookups must be case-insensitive: " + i, topicNameFilter.mightContain(i % 3, "TOPIC " + i));
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (topicNameFilter.mightContain(0, "Missing Topic " + i)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("Too many false positives: " + falsePositives, falsePositives < 500);
+		assertFalse("Filter should not be full", topicNameFilter.isFull());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsFull() throws Throwable {
+		TopicNameFilter topicNameFilter = new TopicNameFilter(0);
+		for (int i = 0; i <= 2048; i++) {
+			topicNameFilter.add(0, "Topic " + i);
+		}
+		assertTrue("Filter should be full after exceeding its capacity", topicNameFilter.isFull());
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TopicNameIndexTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSuggest() throws Throwable {
+		TopicNameIndex topicNameIndex = new TopicNameIndex();
+		List<TopicNameIndex.Entry> entries = new ArrayList<TopicNameIndex.Entry>();
+		entries.add(new TopicNameIndex.Entry(1, 0, "Starting Points", "Starting Points", 5));
+		entries.add(new TopicNameIndex.Entry(2, 0, "Stars", "Stars", 10));
+		entries.add(new TopicNameIndex.Entry(3, 0, "Start", "Start", 0));
+		entries.add(new TopicNameIndex.Entry(4, 12, "Starting", "Help:Starting", 20));
+		entries.add(new TopicNameIndex.Entry(5, 0, "Moon", "Moon", 50));
+		topicNameIndex.load(entries);
+		topicNameIndex.setReady();
+		assertEquals("Incorrect ranking", Arrays.asList("Stars", "Starting Points", "Start"), topicNameIndex.suggest(0, "sta", 10));
+		assertEquals("Limit not applied", Arrays.asList("Stars", "Starting Points"), topicNameIndex.suggest(0, "STA", 2));
+		assertEquals("Full name not matched", Arrays.asList("Help:Starting"), topicNameIndex.suggest(null, "help:st", 10));
+		assertEquals("Page name not matched", Arrays.asList("Help:Starting"), topicNameIndex.suggest(12, "st", 10));
+		assertTrue("Namespace label matched against page name", topicNameIndex.suggest(12, "help:st", 10).isEmpty());
+		assertTrue("Unexpected match", topicNameIndex.suggest(null, "zzz", 10).isEmpty());
+		assertFalse("Newly loaded index is stale", topicNameIndex.isStale());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSuggestLimit() throws Throwable {
+		TopicNameIndex topicNameIndex = new TopicNameIndex();
+		List<TopicNameIndex.Entry> entries = new ArrayList<TopicNameIndex.Entry>();
+		entries.add(new TopicNameIndex.Entry(1, 0, "Starting Points", "Starting Points", 5));
+		entries.add(new TopicNameIndex.Entry(2, 0, "Stars", "Stars", 10));
+		topicNameIndex.load(entries);
+		topicNameIndex.setReady();
+		assertEquals("Zero limit", Arrays.asList("Stars"), topicNameIndex.suggest(0, "sta", 0));
+		assertEquals("Negative limit", Arrays.asList("Stars"), topicNameIndex.suggest(0, "sta", -1));
+		assertEquals("Negative limit", Arrays.asList("Stars"), topicNameIndex.suggest(null, "sta", Integer.MIN_VALUE));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdate() throws Throwable {
+		TopicNameIndex topicNameIndex = new TopicNameIndex();
+		// updates received before loading must be applied after loading
+		topicNameIndex.update(3, 0, "Starfish", "Starfish", false);
+		topicNameIndex.update(1, 0, "Stars", "Stars", true);
+		List<TopicNameIndex.Entry> entries = new ArrayList<TopicNameIndex.Entry>();
+		entries.add(new TopicNameIndex.Entry(1, 0, "Stars", "Stars", 10));
+		entries.add(new TopicNameIndex.Entry(2, 0, "Starting Points", "Starting Points", 5));
+		topicNameIndex.load(entries);
+		topicNameIndex.setReady();
+		assertEquals("Pending updates not applied", Arrays.asList("Starting Points", "Starfish"), topicNameIndex.suggest(0, "star", 10));
+		// a renamed topic keeps its popularity
+		topicNameIndex.update(2, 0, "Stargazing", "Stargazing", false);
+		topicNameIndex.update(4, 0, "Stardust", "Stardust", false);
+		// applying the same update twice has no effect
+		topicNameIndex.update(4, 0, "Stardust", "Stardust", false);
+		assertEquals("Rename not applied", Arrays.asList("Stargazing", "Stardust", "Starfish"), topicNameIndex.suggest(0, "star", 10));
+		assertEquals("Renamed topic still suggested", Arrays.asList("Stargazing"), topicNameIndex.suggest(0, "starg", 10));
+		assertEquals("Incorrect index size", 3, topicNameIndex.size());
+	}
+}
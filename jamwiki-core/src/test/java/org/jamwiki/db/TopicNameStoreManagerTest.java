@@ -0,0 +1,71 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TopicNameStoreManagerTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRetrieve() throws Throwable {
+		final int[] populateCount = new int[1];
+		TopicNameStoreManager<TopicNameIndex> manager = new TopicNameStoreManager<TopicNameIndex>("test index") {
+			protected TopicNameIndex create(int virtualWikiId, TopicNameIndex existing) {
+				return new TopicNameIndex();
+			}
+			protected int lookupVirtualWikiId(String virtualWiki) {
+				return ("en".equals(virtualWiki)) ? 1 : -1;
+			}
+			protected void populate(int virtualWikiId, TopicNameIndex topicNameIndex) throws SQLException {
+				populateCount[0]++;
+				// a topic written while the store is being populated
+				this.update("en", 2, 0, "Stardust", "Stardust", false);
+				topicNameIndex.load(Arrays.asList(new TopicNameIndex.Entry(1, 0, "Stars", "Stars", 10)));
+			}
+		};
+		// updates before a store has been created are ignored
+		manager.update("en", 3, 0, "Starfish", "Starfish", false);
+		assertNull("Store created for a missing virtual wiki", manager.load("missing"));
+		TopicNameIndex topicNameIndex = manager.load("en");
+		assertTrue("Store not ready", topicNameIndex.isReady());
+		assertEquals("Update during populate not applied", Arrays.asList("Stars", "Stardust"), topicNameIndex.suggest(0, "sta", 10));
+		assertSame("Store not reused", topicNameIndex, manager.retrieve("en"));
+		manager.update("en", 4, 0, "Starling", "Starling", false);
+		assertEquals("Update not applied", Arrays.asList("Stars", "Stardust", "Starling"), topicNameIndex.suggest(0, "sta", 10));
+		manager.reset();
+		// the store is rebuilt in the background, and lookups do not wait for it
+		TopicNameIndex rebuilt = null;
+		for (int i = 0; i < 1000 && rebuilt == null; i++) {
+			rebuilt = manager.retrieve("en");
+			if (rebuilt == null) {
+				Thread.sleep(10);
+			}
+		}
+		assertNotNull("Store not rebuilt after reset", rebuilt);
+		assertNotSame("Store not replaced after reset", topicNameIndex, rebuilt);
+		assertEquals("Incorrect populate count", 2, populateCount[0]);
+	}
+}
@@ -43,12 +43,15 @@ public class MigrationUtilTest extends JAMWikiUnitTest {
 	private static final String FILE_ONE_TOPIC_WITH_UNSORTED_HISTORY = "mediawiki-export-one-topic-with-unsorted-history.xml";
 	private static final String FILE_TOPIC_NAME_WITH_QUESTION_MARK = "mediawiki-export-topic-name-with-question-mark.xml";
 	private static final String FILE_NAMESPACE_TEST = "mediawiki-export-namespace-test.xml";
+	private static final String FILE_RESUME_TEST = "mediawiki-export-resume-test.xml";
 	private static final String TEST_FILES_DIR = "data/files/";
 	private static final String TOPIC_NAME1 = "Test Page 1";
 	private static final String TOPIC_NAME2 = "Template comments:Test Template";
 	private static final String TOPIC_NAME3 = "Test Page 2";
 	private static final String TOPIC_NAME4 = "Who am i";
 	private static final String TOPIC_NAME5 = "Namespace Test";
+	private static final String TOPIC_NAME6 = "Resume Test 1";
+	private static final String TOPIC_NAME7 = "Resume Test 2";
 	private static final String VIRTUAL_WIKI_EN = "en";
 	@Rule
 	public TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
@@ -208,6 +211,70 @@ public class MigrationUtilTest extends JAMWikiUnitTest {
 		assertTrue("Template inclusion test 2", (topic.getTopicContent().indexOf("Template inclusion test 2 - {{:User comments:Test}}") != -1));
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testImportFromFileResume() throws Throwable {
+		String virtualWiki = VIRTUAL_WIKI_EN;
+		// write a checkpoint for a first upload of the import file
+		File previous = TEMP_FOLDER.newFile("1.xml");
+		FileUtils.copyFile(TestFileUtil.retrieveFile(TEST_FILES_DIR, FILE_RESUME_TEST), previous);
+		File checkpoint = ImportCheckpoint.checkpointFile(previous);
+		FileUtils.writeStringToFile(checkpoint, "C\n", "UTF-8");
+		// uploading the same content again under a new name should resume the import
+		File file = TEMP_FOLDER.newFile("2.xml");
+		FileUtils.copyFile(previous, file);
+		assertEquals("Checkpoint not keyed on file content", checkpoint, ImportCheckpoint.checkpointFile(file));
+		List<String> results = MigrationUtil.importFromFile(file, virtualWiki, null, "127.0.0.1", new Locale("en", "US"));
+		// the first topic was marked as completed by the checkpoint and should be skipped
+		assertFalse("Completed topic re-imported", results.contains(TOPIC_NAME6));
+		assertNull("Completed topic re-imported", WikiBase.getDataHandler().lookupTopic(virtualWiki, TOPIC_NAME6, false));
+		assertTrue("Parsed topic '" + TOPIC_NAME7 + "'", results.contains(TOPIC_NAME7));
+		assertNotNull("Topic '" + TOPIC_NAME7 + "' imported", WikiBase.getDataHandler().lookupTopic(virtualWiki, TOPIC_NAME7, false));
+		assertFalse("Checkpoint not deleted after import", checkpoint.exists());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testImportFromFileResumeAfterFailure() throws Throwable {
+		String virtualWiki = VIRTUAL_WIKI_EN;
+		final String topicName1 = "Resume Failure Test 1";
+		final String topicName2 = "Resume Failure Test 2";
+		File file = TEMP_FOLDER.newFile("failure.xml");
+		String xml = FileUtils.readFileToString(TestFileUtil.retrieveFile(TEST_FILES_DIR, FILE_RESUME_TEST), "UTF-8");
+		FileUtils.writeStringToFile(file, xml.replace("Resume Test", "Resume Failure Test"), "UTF-8");
+		// fail the import after the versions of the second topic have been written
+		final TopicImportProcessor processor = new TopicImportProcessor(file, virtualWiki, null, "127.0.0.1", new Locale("en", "US"));
+		TopicImportListener failingListener = new TopicImportListener() {
+			public boolean skipTopic(String topicName) throws MigrationException {
+				return processor.skipTopic(topicName);
+			}
+			public void topicImported(Topic topic) throws MigrationException {
+				processor.topicImported(topic);
+				if (topic.getName().equals(topicName2)) {
+					throw new MigrationException("Simulated import failure");
+				}
+			}
+		};
+		try {
+			new MediaWikiXmlImporter().importFromFile(file, virtualWiki, failingListener);
+			fail("Simulated import failure not thrown");
+		} catch (MigrationException e) {
+			processor.abort();
+		}
+		File checkpoint = ImportCheckpoint.checkpointFile(file);
+		assertTrue("Checkpoint deleted after a failed import", checkpoint.exists());
+		// importing the same file again should resume and complete the partially imported topic
+		List<String> results = MigrationUtil.importFromFile(file, virtualWiki, null, "127.0.0.1", new Locale("en", "US"));
+		assertTrue("Partially imported topic not completed", results.contains(topicName2));
+		assertNotNull("Topic '" + topicName1 + "' imported", WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName1, false));
+		assertNotNull("Topic '" + topicName2 + "' imported", WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName2, false));
+		assertFalse("Checkpoint not deleted after import", checkpoint.exists());
+	}
+
 	/**
 	 * Utility method for importing test files.
 	 */
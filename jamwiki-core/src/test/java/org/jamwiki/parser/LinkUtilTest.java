@@ -18,6 +18,8 @@
  */
 package org.jamwiki.parser;
 
+import java.util.Arrays;
+import java.util.List;
 import org.jamwiki.JAMWikiUnitTest;
 import org.jamwiki.WikiException;
 import org.jamwiki.model.Namespace;
@@ -210,6 +212,23 @@ public class LinkUtilTest extends JAMWikiUnitTest {
 		assertEquals("LinkUtil.retrieveTopicPageName", "Main Page", result);
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testResolveExistingArticles() throws Throwable {
+		String virtualWiki = "en";
+		List<String> articleNames = Arrays.asList("Example1", "example1", "Template:Template1", "Template:template1", "Category:Test", "Nonexistent Link Target", "Special:RecentChanges", "Template:Nonexistent Link Target");
+		ParserInput parserInput = new ParserInput(virtualWiki, "Test");
+		LinkUtil.resolveExistingArticles(parserInput, virtualWiki, articleNames);
+		for (String articleName : articleNames) {
+			assertEquals("Bulk result differs for " + articleName, LinkUtil.isExistingArticle(virtualWiki, articleName), LinkUtil.isExistingArticle(parserInput, virtualWiki, articleName));
+		}
+		assertEquals("Existing topic not resolved", "Example1", parserInput.getExistingArticle(virtualWiki, "example1"));
+		assertTrue("Missing topic not resolved", parserInput.containsExistingArticle(virtualWiki, "Nonexistent Link Target"));
+		assertNull("Missing topic resolved as existing", parserInput.getExistingArticle(virtualWiki, "Nonexistent Link Target"));
+	}
+
 	/**
 	 *
 	 */
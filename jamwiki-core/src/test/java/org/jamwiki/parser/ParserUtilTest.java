@@ -0,0 +1,144 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser;
+
+import java.util.Arrays;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
+import org.jamwiki.parser.jflex.ParserTestUtils;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ParserUtilTest extends JAMWikiUnitTest {
+
+	private ParserTestUtils parserTestUtils = new ParserTestUtils();
+
+	/**
+	 *
+	 */
+	private Topic buildTopic(String pageName, String content, int versionId) {
+		Topic topic = new Topic("en", Namespace.namespace(Namespace.MAIN_ID), pageName);
+		topic.setTopicContent(content);
+		topic.setCurrentVersionId(versionId);
+		return topic;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseTopicCacheHit() throws Throwable {
+		Topic topic = this.buildTopic("Parse Topic Cache Hit", "Some [[Example1|linked]] content", 1);
+		ParserOutput parserOutput = new ParserOutput();
+		String content = ParserUtil.parseTopic(this.parserTestUtils.parserInput(topic.getName()), parserOutput, topic);
+		// changing the content without changing the version must return the cached output
+		topic.setTopicContent("Different content");
+		ParserOutput cachedParserOutput = new ParserOutput();
+		assertEquals("Cached output", content, ParserUtil.parseTopic(this.parserTestUtils.parserInput(topic.getName()), cachedParserOutput, topic));
+		assertEquals("Cached links", parserOutput.getLinks(), cachedParserOutput.getLinks());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseTopicVersionChange() throws Throwable {
+		Topic topic = this.buildTopic("Parse Topic Version Change", "Original content", 1);
+		String content = ParserUtil.parseTopic(this.parserTestUtils.parserInput(topic.getName()), new ParserOutput(), topic);
+		topic.setTopicContent("Updated content");
+		topic.setCurrentVersionId(2);
+		String updated = ParserUtil.parseTopic(this.parserTestUtils.parserInput(topic.getName()), new ParserOutput(), topic);
+		assertFalse("Output should change with the topic version", content.equals(updated));
+		assertTrue("Output for the new version", updated.contains("Updated content"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseTopicVariants() throws Throwable {
+		Topic topic = this.buildTopic("Parse Topic Variants", "== Heading ==\nText", 1);
+		ParserInput parserInput = this.parserTestUtils.parserInput(topic.getName());
+		parserInput.setAllowSectionEdit(true);
+		String editable = ParserUtil.parseTopic(parserInput, new ParserOutput(), topic);
+		parserInput = this.parserTestUtils.parserInput(topic.getName());
+		parserInput.setAllowSectionEdit(false);
+		String readOnly = ParserUtil.parseTopic(parserInput, new ParserOutput(), topic);
+		assertFalse("Section edit variants should be cached separately", editable.equals(readOnly));
+		parserInput = this.parserTestUtils.parserInput(topic.getName());
+		parserInput.setAllowSectionEdit(true);
+		assertEquals("Cached section edit variant", editable, ParserUtil.parseTopic(parserInput, new ParserOutput(), topic));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseTopicInvalidated() throws Throwable {
+		Topic topic = this.buildTopic("Parse Topic Invalidated", "Original content", 1);
+		ParserUtil.parseTopic(this.parserTestUtils.parserInput(topic.getName()), new ParserOutput(), topic);
+		// simulate a change to a template used by the topic
+		topic.setTopicContent("Template changed");
+		ParserUtil.removeRenderedTopics("en", Arrays.asList(topic.getName()));
+		String content = ParserUtil.parseTopic(this.parserTestUtils.parserInput(topic.getName()), new ParserOutput(), topic);
+		assertTrue("Invalidated output should not be used", content.contains("Template changed"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIfExistLink() throws Throwable {
+		ParserOutput parserOutput = ParserUtil.parserOutput("{{#ifexist: Ifexist Link Target | exists | does not exist}}", "en", "Ifexist Link Test");
+		assertTrue("Existence check should be recorded as a link", parserOutput.getLinks().contains("Ifexist Link Target"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseTopicUncacheable() throws Throwable {
+		Topic topic = this.buildTopic("Parse Topic Uncacheable", "The time is {{CURRENTTIME}}", 1);
+		ParserOutput parserOutput = new ParserOutput();
+		ParserUtil.parseTopic(this.parserTestUtils.parserInput(topic.getName()), parserOutput, topic);
+		assertFalse("Output should not be cacheable", parserOutput.getCacheable());
+		assertNull("Uncacheable topics have no revision", ParserUtil.renderedTopicRevision("en", topic.getName()));
+		topic.setTopicContent("Different content");
+		String content = ParserUtil.parseTopic(this.parserTestUtils.parserInput(topic.getName()), new ParserOutput(), topic);
+		assertTrue("Uncacheable output should not be stored", content.contains("Different content"));
+		assertNotNull("Topic should have a revision once its output is cacheable", ParserUtil.renderedTopicRevision("en", topic.getName()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRenderedTopicRevision() throws Throwable {
+		String revision = ParserUtil.renderedTopicRevision("en", "Revision Test");
+		assertNotNull("Revision for a topic that has not been rendered", revision);
+		assertEquals("Revision should not change without invalidation", revision, ParserUtil.renderedTopicRevision("en", "Revision Test"));
+		ParserUtil.removeRenderedTopics("en", Arrays.asList("Revision Test"));
+		String updated = ParserUtil.renderedTopicRevision("en", "Revision Test");
+		assertFalse("Revision should change after invalidation", revision.equals(updated));
+		ParserUtil.removeAllRenderedTopics();
+		assertFalse("Revision should change after all topics are invalidated", updated.equals(ParserUtil.renderedTopicRevision("en", "Revision Test")));
+	}
+}
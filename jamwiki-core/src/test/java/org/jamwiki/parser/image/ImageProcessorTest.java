@@ -0,0 +1,68 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import org.apache.commons.io.IOUtils;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.model.WikiImageMetadata;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ImageProcessorTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRetrieveImageOrientation() throws Throwable {
+		// JPEG start of image followed by an EXIF segment containing only an orientation tag
+		byte[] bigEndian = {
+			(byte)0xFF, (byte)0xD8, (byte)0xFF, (byte)0xE1, 0x00, 0x22,
+			'E', 'x', 'i', 'f', 0x00, 0x00,
+			'M', 'M', 0x00, 0x2A, 0x00, 0x00, 0x00, 0x08,
+			0x00, 0x01,
+			0x01, 0x12, 0x00, 0x03, 0x00, 0x00, 0x00, 0x01, 0x00, 0x06, 0x00, 0x00,
+			0x00, 0x00, 0x00, 0x00,
+			(byte)0xFF, (byte)0xDA
+		};
+		assertEquals("Incorrect big-endian orientation", 6, ImageProcessor.retrieveImageOrientation(new ByteArrayInputStream(bigEndian)));
+		byte[] littleEndian = {
+			(byte)0xFF, (byte)0xD8, (byte)0xFF, (byte)0xE1, 0x00, 0x22,
+			'E', 'x', 'i', 'f', 0x00, 0x00,
+			'I', 'I', 0x2A, 0x00, 0x08, 0x00, 0x00, 0x00,
+			0x01, 0x00,
+			0x12, 0x01, 0x03, 0x00, 0x01, 0x00, 0x00, 0x00, 0x08, 0x00, 0x00, 0x00,
+			0x00, 0x00, 0x00, 0x00,
+			(byte)0xFF, (byte)0xDA
+		};
+		assertEquals("Incorrect little-endian orientation", 8, ImageProcessor.retrieveImageOrientation(new ByteArrayInputStream(littleEndian)));
+		byte[] png = {(byte)0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+		assertEquals("Non-JPEG images have the default orientation", WikiImageMetadata.ORIENTATION_NORMAL, ImageProcessor.retrieveImageOrientation(new ByteArrayInputStream(png)));
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(ImageUtil.buildAbsoluteFile("/test_image.jpg"));
+			assertEquals("Incorrect orientation for test image", WikiImageMetadata.ORIENTATION_NORMAL, ImageProcessor.retrieveImageOrientation(fis));
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+	}
+}
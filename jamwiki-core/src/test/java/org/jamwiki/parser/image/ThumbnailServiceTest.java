@@ -0,0 +1,103 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ThumbnailServiceTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() throws Exception {
+		ThumbnailService.shutdown();
+		Environment.setValue(Environment.PROP_IMAGE_RESIZE_THREADS, "0");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCoalescing() throws Throwable {
+		Environment.setValue(Environment.PROP_IMAGE_RESIZE_THREADS, "1");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger executions = new AtomicInteger();
+		Runnable job = new Runnable() {
+			public void run() {
+				executions.incrementAndGet();
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+			}
+		};
+		assertTrue("Job not queued", ThumbnailService.submit("coalesce", job));
+		assertTrue("Job did not start", started.await(10, TimeUnit.SECONDS));
+		// a second request for the same image while the first is running is not queued
+		assertTrue("Duplicate job not accepted", ThumbnailService.submit("coalesce", job));
+		assertTrue("Job should be pending", ThumbnailService.isPending("coalesce"));
+		release.countDown();
+		this.waitForJob("coalesce");
+		assertEquals("Duplicate job executed", 1, executions.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAsynchronousResize() throws Throwable {
+		Environment.setValue(Environment.PROP_IMAGE_RESIZE_THREADS, "1");
+		File original = ImageUtil.buildAbsoluteFile("/test_image.jpg");
+		Dimension originalDimensions = ImageProcessor.retrieveImageDimensions(original);
+		File resized = ImageUtil.buildAbsoluteFile(ImageUtil.buildImagePath("/test_image.jpg", originalDimensions.width, 100));
+		resized.delete();
+		int height = ImageUtil.calculateIncrementalHeight(originalDimensions, 100);
+		// the first request queues a background job rather than blocking
+		assertNull("Resized image should not be available", ThumbnailService.requestFileThumbnail("/test_image.jpg", originalDimensions, 100, height));
+		this.waitForJob(resized.getAbsolutePath());
+		assertTrue("Resized image not generated", resized.exists());
+		assertEquals("Incorrect resized image dimensions", new Dimension(100, height), ImageProcessor.retrieveImageDimensions(resized));
+		assertEquals("Incorrect dimensions for existing resized image", new Dimension(100, height), ThumbnailService.requestFileThumbnail("/test_image.jpg", originalDimensions, 100, height));
+	}
+
+	/**
+	 *
+	 */
+	private void waitForJob(String key) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while (ThumbnailService.isPending(key) && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertFalse("Job did not complete: " + key, ThumbnailService.isPending(key));
+	}
+}
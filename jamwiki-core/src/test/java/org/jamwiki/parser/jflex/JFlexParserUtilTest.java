@@ -109,6 +109,22 @@ public class JFlexParserUtilTest extends JAMWikiUnitTest {
 		assertFalse("Invalid HTML entity test #12", JFlexParserUtil.isHtmlEntity("&#xffffff;"));
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testScanFeatures() throws Throwable {
+		assertEquals("Plain text has no features", 0, JFlexParserUtil.scanFeatures("plain text with { single [ brackets ~~ and _ underscores #"));
+		assertEquals("Template", JFlexParserUtil.FEATURE_TEMPLATE, JFlexParserUtil.scanFeatures("a {{template}}"));
+		assertEquals("Signature", JFlexParserUtil.FEATURE_SIGNATURE, JFlexParserUtil.scanFeatures("comment ~~~~"));
+		assertEquals("Wiki link", JFlexParserUtil.FEATURE_WIKI_LINK, JFlexParserUtil.scanFeatures("a [[link]]"));
+		assertEquals("Magic word", JFlexParserUtil.FEATURE_MAGIC_WORD, JFlexParserUtil.scanFeatures("__NOTOC__"));
+		assertEquals("Redirect", JFlexParserUtil.FEATURE_REDIRECT, JFlexParserUtil.scanFeatures("#Redirect"));
+		assertEquals("HTML", JFlexParserUtil.FEATURE_HTML, JFlexParserUtil.scanFeatures("<p>text</p>"));
+		assertEquals("Post-process tag", JFlexParserUtil.FEATURE_HTML | JFlexParserUtil.FEATURE_POSTPROCESS_TAG, JFlexParserUtil.scanFeatures("<p><NoWiki>text</nowiki></p>"));
+		assertEquals("Truncated content", 0, JFlexParserUtil.scanFeatures("text ~~"));
+	}
+
 	/**
 	 *
 	 */
@@ -252,4 +252,23 @@ public class ParserTest extends JAMWikiUnitTest {
 		ParserOutput parserOutput = this.parserTestUtils.parseForParserOutput("Redirect5");
 		assertEquals("Expected redirect target to be Example1#Section 2", "Example1#Section 2", parserOutput.getRedirect());
 	}
+
+	/**
+	 * Repeated template calls re-use cached output, so verify that output and
+	 * metadata are the same as if each call had been parsed separately.
+	 */
+	@Test
+	public void testTemplateRepeated() throws Throwable {
+		String topicName = "Template Repeated";
+		ParserOutput parserOutput = new ParserOutput();
+		String single = ParserUtil.parse(this.parserTestUtils.parserInput(topicName), parserOutput, "{{Paramtest|Example1}} {{Onlyinclude}}");
+		assertEquals("Templates for a single call", 2, parserOutput.getTemplates().size());
+		int linkCount = parserOutput.getLinks().size();
+		parserOutput = new ParserOutput();
+		String repeated = ParserUtil.parse(this.parserTestUtils.parserInput(topicName), parserOutput, "{{Paramtest|Example1}} {{Onlyinclude}} {{Paramtest|Example1}} {{Onlyinclude}}");
+		assertEquals("Templates for repeated calls", Arrays.asList("Template:Paramtest", "Template:Onlyinclude", "Template:Paramtest", "Template:Onlyinclude"), parserOutput.getTemplates());
+		assertEquals("Links for repeated calls", 2 * linkCount, parserOutput.getLinks().size());
+		String expected = single.trim().replace("</p>", "") + " " + single.trim().replace("<p>", "");
+		assertEquals("Output for repeated calls", expected, repeated.trim());
+	}
 }
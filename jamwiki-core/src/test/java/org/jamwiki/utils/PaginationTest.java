@@ -18,6 +18,7 @@
  */
 package org.jamwiki.utils;
 
+import java.sql.Timestamp;
 import org.jamwiki.JAMWikiUnitTest;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -37,6 +38,45 @@ public class PaginationTest extends JAMWikiUnitTest {
 		assertEquals("pagination.getOffset()", 1000, pagination.getOffset());
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testCursor() throws Throwable {
+		Timestamp date = new Timestamp(1234567890123L);
+		date.setNanos(123456789);
+		Pagination pagination = new Pagination(50, 0);
+		assertFalse("pagination.isCursor()", pagination.isCursor());
+		assertNull("First page should not have a previous cursor", pagination.previousCursor(date, 5, 50));
+		assertNull("Partial page should not have a next cursor", pagination.nextCursor(date, 5, 49));
+		String cursor = pagination.nextCursor(date, 5, 50);
+		pagination = new Pagination(50, cursor);
+		assertTrue("pagination.isCursor()", pagination.isCursor());
+		assertFalse("pagination.isCursorPrevious()", pagination.isCursorPrevious());
+		assertEquals("pagination.getCursorDate()", date, pagination.getCursorDate());
+		assertEquals("pagination.getCursorId()", 5, pagination.getCursorId());
+		assertEquals("pagination.getOffset()", 0, pagination.getOffset());
+		pagination = new Pagination(50, pagination.previousCursor(date, null, 50));
+		assertTrue("pagination.isCursorPrevious()", pagination.isCursorPrevious());
+		assertEquals("pagination.getCursorId()", 0, pagination.getCursorId());
+		assertNull("First page should not have a previous cursor", pagination.previousCursor(date, 5, 49));
+		assertNotNull("Previous page should have a next cursor", pagination.nextCursor(date, 5, 49));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCursorInvalid() throws Throwable {
+		String[] cursors = {"", "x", "n", "nabc", "nzz.zz", "n1.2.3.4", "q1.2.3", "n1.!.3", "n1.zzzzzzzzz.3"};
+		for (String cursor : cursors) {
+			Pagination pagination = new Pagination(50, cursor);
+			assertFalse("Invalid cursor: " + cursor, pagination.isCursor());
+			assertNull("Invalid cursor: " + cursor, pagination.getCursor());
+			assertEquals("Invalid cursor: " + cursor, 0, pagination.getOffset());
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,171 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TextDeltaTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRoundTrip() throws Throwable {
+		String[][] values = {
+			{"", ""},
+			{"", "new content"},
+			{"old content", ""},
+			{"line 1\nline 2\nline 3\n", "line 1\nline 2\nline 3\n"},
+			{"line 1\nline 2\nline 3\n", "line 1\nline two\nline 3\n"},
+			{"line 1\nline 2\nline 3", "line 0\nline 1\nline 3\nline 4"},
+			{"a\r\nb\r\nc\r\n", "a\r\nc\r\nb\r\n"},
+			{"no trailing newline", "no trailing newline\n"}
+		};
+		for (String[] value : values) {
+			String delta = TextDelta.encode(value[0], value[1]);
+			assertEquals("Round trip failed for: " + value[0], value[1], TextDelta.apply(value[0], delta));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomEdits() throws Throwable {
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			String base = this.randomText(random, random.nextInt(60));
+			String target = this.randomText(random, random.nextInt(60));
+			String delta = TextDelta.encode(base, target);
+			assertEquals("Round trip failed for random text " + i, target, TextDelta.apply(base, delta));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDeltaSize() throws Throwable {
+		StringBuilder base = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			base.append("This is line number ").append(i).append(" of a long topic.\n");
+		}
+		String target = base.toString().replace("line number 500 ", "line number five hundred ");
+		String delta = TextDelta.encode(target, base.toString());
+		assertTrue("Delta for a single-line change should be small", delta.length() < 100);
+		assertEquals("Round trip failed", base.toString(), TextDelta.apply(target, delta));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEditScriptMinimal() throws Throwable {
+		// values drawn from a small set so that the lists share many values but
+		// differ by well over a thousand edits
+		Random random = new Random(17);
+		List<Integer> a = new ArrayList<Integer>();
+		List<Integer> b = new ArrayList<Integer>();
+		for (int i = 0; i < 2500; i++) {
+			a.add(random.nextInt(8));
+			b.add(random.nextInt(8));
+		}
+		char[] edits = TextDelta.editScript(a, b);
+		int copies = 0;
+		int i = 0;
+		int j = 0;
+		for (char edit : edits) {
+			if (edit == TextDelta.OP_COPY) {
+				assertEquals("Copied values differ", a.get(i), b.get(j));
+				copies++;
+			}
+			if (edit != TextDelta.OP_INSERT) {
+				i++;
+			}
+			if (edit != TextDelta.OP_SKIP) {
+				j++;
+			}
+		}
+		assertEquals("Edit script does not cover the first list", a.size(), i);
+		assertEquals("Edit script does not cover the second list", b.size(), j);
+		int lcs = this.longestCommonSubsequence(a, b);
+		assertTrue("Too few edits for this test", a.size() + b.size() - 2 * lcs > 1000);
+		assertEquals("Edit script is not minimal", lcs, copies);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLargeChange() throws Throwable {
+		// every line is changed
+		StringBuilder base = new StringBuilder();
+		StringBuilder target = new StringBuilder();
+		for (int i = 0; i < 1500; i++) {
+			base.append("base ").append(i).append('\n');
+			target.append("target ").append(i).append('\n');
+		}
+		String delta = TextDelta.encode(base.toString(), target.toString());
+		assertEquals("Round trip failed", target.toString(), TextDelta.apply(base.toString(), delta));
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidDelta() throws Throwable {
+		TextDelta.apply("line 1\n", "=5\n");
+	}
+
+	/**
+	 * Generate text from a small set of lines so that random texts share content.
+	 */
+	private String randomText(Random random, int lines) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			result.append("line ").append(random.nextInt(10)).append('\n');
+		}
+		if (random.nextBoolean()) {
+			result.append("last");
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Compute the length of the longest common subsequence of two lists.
+	 */
+	private int longestCommonSubsequence(List<Integer> a, List<Integer> b) {
+		int[] previous = new int[b.size() + 1];
+		int[] current = new int[b.size() + 1];
+		for (int i = 1; i <= a.size(); i++) {
+			for (int j = 1; j <= b.size(); j++) {
+				current[j] = (a.get(i - 1).equals(b.get(j - 1))) ? previous[j - 1] + 1 : Math.max(previous[j], current[j - 1]);
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[b.size()];
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class WikiMetricsTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTimer() throws Throwable {
+		WikiTimer timer = WikiMetrics.timer("test_timer", "testTimer");
+		timer.reset();
+		for (int i = 1; i <= 100; i++) {
+			timer.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		assertEquals("count", 100, timer.getCount());
+		assertEquals("mean", 50.5, timer.getMeanMillis(), 0.001);
+		assertEquals("max", 100.0, timer.getMaxMillis(), 0.001);
+		assertEquals("p50", 50.0, timer.getP50Millis(), 0.001);
+		assertEquals("p95", 100.0, timer.getP95Millis(), 0.001);
+		assertSame("same timer", timer, WikiMetrics.timer("test_timer", "testTimer"));
+		timer.reset();
+		assertEquals("count after reset", 0, timer.getCount());
+		assertEquals("p95 after reset", 0.0, timer.getP95Millis(), 0.001);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPrometheus() throws Throwable {
+		WikiTimer timer = WikiMetrics.timer("test_prometheus", "a\"b");
+		timer.reset();
+		timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+		timer.record(TimeUnit.SECONDS.toNanos(20));
+		WikiMetrics.counter("test_prometheus", "hits").set(7);
+		String output = WikiMetrics.toPrometheus();
+		assertTrue(output, output.contains("# TYPE jamwiki_test_prometheus_seconds histogram\n"));
+		assertTrue(output, output.contains("jamwiki_test_prometheus_seconds_bucket{name=\"a\\\"b\",le=\"0.002\"} 0\n"));
+		assertTrue(output, output.contains("jamwiki_test_prometheus_seconds_bucket{name=\"a\\\"b\",le=\"0.005\"} 1\n"));
+		assertTrue(output, output.contains("jamwiki_test_prometheus_seconds_bucket{name=\"a\\\"b\",le=\"+Inf\"} 2\n"));
+		assertTrue(output, output.contains("jamwiki_test_prometheus_seconds_count{name=\"a\\\"b\"} 2\n"));
+		assertTrue(output, output.contains("jamwiki_test_prometheus_total{name=\"hits\"} 7\n"));
+	}
+}
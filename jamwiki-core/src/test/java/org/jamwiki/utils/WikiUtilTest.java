@@ -18,14 +18,21 @@
  */
 package org.jamwiki.utils;
 
+import java.io.File;
+import org.apache.commons.io.FileUtils;
 import org.jamwiki.JAMWikiUnitTest;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
 public class WikiUtilTest extends JAMWikiUnitTest {
 
+	@Rule
+	public TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
 	/**
 	 *
 	 */
@@ -209,4 +216,17 @@ public class WikiUtilTest extends JAMWikiUnitTest {
 			assertEquals("ex.getWikiMessage().getKey()", "error.loginempty", ex.getWikiMessage().getKey());
 		}
 	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteFileAtomically() throws Throwable {
+		File file = new File(TEMP_FOLDER.getRoot(), "atomic.txt");
+		WikiUtil.writeFileAtomically(file, "first".getBytes("UTF-8"));
+		assertEquals("first", FileUtils.readFileToString(file, "UTF-8"));
+		WikiUtil.writeFileAtomically(file, "second".getBytes("UTF-8"));
+		assertEquals("second", FileUtils.readFileToString(file, "UTF-8"));
+		assertFalse("Temporary file not removed", new File(file.getPath() + ".tmp").exists());
+	}
 }
\ No newline at end of file
@@ -176,10 +176,49 @@
 	<span><input type="submit" value="<fmt:message key="common.update" />" /></span>
 	<div class="formhelp"><fmt:message key="admin.maintenance.help.links" /></div>
 </div>
+<c:if test="${!empty metadataRebuild}">
+<div class="row">
+	<label><fmt:message key="admin.maintenance.caption.linksstatus" /></label>
+	<span>
+		<fmt:message key="admin.maintenance.message.metadataprogress"><fmt:param value="${metadataRebuild.numProcessed}" /><fmt:param value="${metadataRebuild.numTopics}" /><fmt:param value="${metadataRebuild.topicsPerSecond}" /></fmt:message>
+		<c:if test="${!metadataRebuild.running}"><br /><fmt:message key="admin.maintenance.message.metadata"><fmt:param value="${metadataRebuild.numUpdated}" /></fmt:message></c:if>
+		<c:if test="${metadataRebuild.numErrors > 0}"><br /><fmt:message key="admin.maintenance.error.metadata"><fmt:param value="${metadataRebuild.numErrors}" /></fmt:message></c:if>
+	</span>
+</div>
+</c:if>
 <input type="hidden" name="function" value="links" />
 </form>
 </fieldset>
 
+<%-- Topic Version Storage --%>
+<c:if test="${!empty pageInfo.messages && function == 'versions'}">
+<div class="message green"><c:forEach items="${pageInfo.messages}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<c:if test="${!empty pageInfo.errors && function == 'versions'}">
+<div class="message red"><c:forEach items="${pageInfo.errors}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<fieldset>
+<legend><fmt:message key="admin.maintenance.title.versions" /></legend>
+<form action="<jamwiki:link value="Special:Maintenance" />#data" method="post">
+<div class="row">
+	<label><fmt:message key="admin.maintenance.caption.versions" /></label>
+	<span><input type="submit" value="<fmt:message key="common.update" />" /></span>
+	<div class="formhelp"><fmt:message key="admin.maintenance.help.versions" /></div>
+</div>
+<c:if test="${!empty versionConversion}">
+<div class="row">
+	<label><fmt:message key="admin.maintenance.caption.versionsstatus" /></label>
+	<span>
+		<fmt:message key="admin.maintenance.message.metadataprogress"><fmt:param value="${versionConversion.numProcessed}" /><fmt:param value="${versionConversion.numTopics}" /><fmt:param value="${versionConversion.topicsPerSecond}" /></fmt:message>
+		<c:if test="${!versionConversion.running}"><br /><fmt:message key="admin.maintenance.message.versions"><fmt:param value="${versionConversion.numVersionsConverted}" /></fmt:message></c:if>
+		<c:if test="${versionConversion.numErrors > 0}"><br /><fmt:message key="admin.maintenance.error.versions"><fmt:param value="${versionConversion.numErrors}" /></fmt:message></c:if>
+	</span>
+</div>
+</c:if>
+<input type="hidden" name="function" value="versions" />
+</form>
+</fieldset>
+
 </div>
 
 <%-- Password Reset --%>
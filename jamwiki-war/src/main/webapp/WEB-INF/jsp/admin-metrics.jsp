@@ -0,0 +1,102 @@
+<%--
+
+  Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the latest version of the GNU Lesser General
+  Public License as published by the Free Software Foundation;
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program (LICENSE.txt); if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+--%>
+<%@ page errorPage="/WEB-INF/jsp/error.jsp"
+    contentType="text/html; charset=utf-8"
+%>
+
+<%@ include file="page-init.jsp" %>
+
+<div id="metrics" class="admin">
+
+<c:if test="${!empty pageInfo.messages}">
+<div class="message green"><c:forEach items="${pageInfo.messages}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<div class="message"><fmt:message key="admin.metrics.help" />&#160;<fmt:message key="admin.metrics.caption.prometheus"><fmt:param><c:url value="/metrics" /></fmt:param></fmt:message></div>
+
+<c:forEach items="${timers}" var="family">
+<fieldset>
+<legend><fmt:message key="admin.metrics.title.${family.key}" /></legend>
+<div class="row">
+<table class="wiki-admin">
+<tr>
+	<th class="first"><fmt:message key="admin.metrics.caption.name" /></th>
+	<th><fmt:message key="admin.metrics.caption.count" /></th>
+	<th><fmt:message key="admin.metrics.caption.mean" /></th>
+	<th><fmt:message key="admin.metrics.caption.p50" /></th>
+	<th><fmt:message key="admin.metrics.caption.p95" /></th>
+	<th><fmt:message key="admin.metrics.caption.p99" /></th>
+	<th><fmt:message key="admin.metrics.caption.max" /></th>
+	<th><fmt:message key="admin.metrics.caption.total" /></th>
+</tr>
+<c:forEach items="${family.value}" var="timer">
+<tr>
+	<td><c:out value="${timer.key}" /></td>
+	<td>${timer.value.count}</td>
+	<td><fmt:formatNumber value="${timer.value.meanMillis}" maxFractionDigits="2" /></td>
+	<td><fmt:formatNumber value="${timer.value.p50Millis}" maxFractionDigits="2" /></td>
+	<td><fmt:formatNumber value="${timer.value.p95Millis}" maxFractionDigits="2" /></td>
+	<td><fmt:formatNumber value="${timer.value.p99Millis}" maxFractionDigits="2" /></td>
+	<td><fmt:formatNumber value="${timer.value.maxMillis}" maxFractionDigits="2" /></td>
+	<td><fmt:formatNumber value="${timer.value.totalMillis}" maxFractionDigits="0" /></td>
+</tr>
+</c:forEach>
+</table>
+</div>
+</fieldset>
+</c:forEach>
+
+<c:if test="${!empty caches}">
+<fieldset>
+<legend><fmt:message key="admin.metrics.title.caches" /></legend>
+<div class="row">
+<table class="wiki-admin">
+<tr>
+	<th class="first"><fmt:message key="admin.metrics.caption.name" /></th>
+	<th><fmt:message key="admin.metrics.caption.hits" /></th>
+	<th><fmt:message key="admin.metrics.caption.misses" /></th>
+	<th><fmt:message key="admin.metrics.caption.hitratio" /></th>
+	<th><fmt:message key="admin.metrics.caption.evictions" /></th>
+	<th><fmt:message key="admin.metrics.caption.expirations" /></th>
+</tr>
+<c:forEach items="${caches}" var="cache">
+<tr>
+	<td><c:out value="${cache.key}" /></td>
+	<td>${cache.value[0]}</td>
+	<td>${cache.value[1]}</td>
+	<td><c:if test="${(cache.value[0] + cache.value[1]) > 0}"><fmt:formatNumber value="${cache.value[0] / (cache.value[0] + cache.value[1])}" type="percent" maxFractionDigits="1" /></c:if></td>
+	<td>${cache.value[2]}</td>
+	<td>${cache.value[3]}</td>
+</tr>
+</c:forEach>
+</table>
+</div>
+</fieldset>
+</c:if>
+
+<c:if test="${empty timers && empty caches}">
+<div class="message"><fmt:message key="admin.metrics.caption.none" /></div>
+</c:if>
+
+<form action="<jamwiki:link value="Special:Metrics" />" method="post">
+<input type="hidden" name="function" value="reset" />
+<input type="hidden" name="formToken" value="<c:out value="${formToken}" />" />
+<div align="center" style="padding:10px"><input type="submit" name="Submit" value="<fmt:message key="admin.caption.reset" />" /></div>
+</form>
+
+</div>
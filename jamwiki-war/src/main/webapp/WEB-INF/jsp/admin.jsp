@@ -169,6 +169,18 @@
 	<span><jamwiki:text name="${PROP_MAX_TOPIC_VERSION_EXPORT}" size="5" maxlength="4" value="${props[PROP_MAX_TOPIC_VERSION_EXPORT]}" id="${PROP_MAX_TOPIC_VERSION_EXPORT}" /></span>
 	<div class="formhelp"><fmt:message key="admin.help.maxversionexport" /></div>
 </div>
+<div class="row">
+	<label for="<%= Environment.PROP_TOPIC_VERSION_DELTA_STORAGE %>"><fmt:message key="admin.caption.versiondeltastorage" /></label>
+	<c:set var="PROP_TOPIC_VERSION_DELTA_STORAGE"><%= Environment.PROP_TOPIC_VERSION_DELTA_STORAGE %></c:set>
+	<span><jamwiki:checkbox name="${PROP_TOPIC_VERSION_DELTA_STORAGE}" value="true" checked="${props[PROP_TOPIC_VERSION_DELTA_STORAGE]}" id="${PROP_TOPIC_VERSION_DELTA_STORAGE}" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.versiondeltastorage" /></div>
+</div>
+<div class="row">
+	<label for="<%= Environment.PROP_TOPIC_VERSION_KEYFRAME_INTERVAL %>"><fmt:message key="admin.caption.versionkeyframeinterval" /></label>
+	<c:set var="PROP_TOPIC_VERSION_KEYFRAME_INTERVAL"><%= Environment.PROP_TOPIC_VERSION_KEYFRAME_INTERVAL %></c:set>
+	<span><jamwiki:text name="${PROP_TOPIC_VERSION_KEYFRAME_INTERVAL}" size="5" maxlength="4" value="${props[PROP_TOPIC_VERSION_KEYFRAME_INTERVAL]}" id="${PROP_TOPIC_VERSION_KEYFRAME_INTERVAL}" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.versionkeyframeinterval" /></div>
+</div>
 <div class="row">
 	<c:set var="USER_PREFERENCE_DATE_FORMAT"><%= WikiUser.USER_PREFERENCE_DATE_FORMAT %></c:set>
 	<label for="${USER_PREFERENCE_DATE_FORMAT}"><fmt:message key="admin.caption.date.dateonly" /></label>
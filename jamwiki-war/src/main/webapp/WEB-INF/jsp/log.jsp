@@ -37,7 +37,7 @@
 </form>
 
 <div class="message">
-<fmt:message key="common.caption.view" />: <jamwiki:pagination total="${numLogs}" rootUrl="Special:Log" />
+<fmt:message key="common.caption.view" />: <jamwiki:pagination total="${numLogs}" rootUrl="Special:Log" previousCursor="${previousCursor}" nextCursor="${nextCursor}" />
 </div>
 
 <c:set var="previousDate"><fmt:formatDate value="${logItems[0].logDate}" type="both" pattern="${pageInfo.datePatternDateOnly}" timeZone="${pageInfo.timeZoneId}" /></c:set>
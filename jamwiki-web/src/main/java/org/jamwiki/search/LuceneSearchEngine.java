@@ -19,20 +19,41 @@ package org.jamwiki.search;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
+import java.text.BreakIterator;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
@@ -40,8 +61,12 @@ import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NRTManager;
+import org.apache.lucene.search.NRTManagerReopenThread;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.highlight.Highlighter;
@@ -49,6 +74,12 @@ import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.postingshighlight.Passage;
+import org.apache.lucene.search.postingshighlight.PassageFormatter;
+import org.apache.lucene.search.postingshighlight.PassageScorer;
+import org.apache.lucene.search.postingshighlight.PostingsHighlighter;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.LockFactory;
 import org.apache.lucene.store.SimpleFSLockFactory;
@@ -61,12 +92,32 @@ import org.jamwiki.model.SearchResultEntry;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.TopicType;
 import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
+import org.jamwiki.utils.WikiUtil;
 
 /**
  * An implementation of {@link org.jamwiki.SearchEngine} that uses
  * <a href="http://lucene.apache.org/java/">Lucene</a> to perform searches of
  * Wiki content.
+ *
+ * Each virtual wiki has a single shared IndexWriter, and searches use near
+ * real-time readers obtained from that writer rather than readers opened
+ * from the committed index.  A background thread reopens the searcher after
+ * index updates, and a second background thread periodically commits
+ * changes to disk, so topic edits do not wait on a commit and searches never
+ * use a reader that has been closed.
+ *
+ * A full index rebuild writes to a new index directory, using several
+ * writers in parallel that are merged once all topics have been indexed.
+ * Searches continue to use the existing index until the new index is
+ * complete, at which point it is swapped in and the old index is removed.
+ *
+ * Topic content is indexed with term offsets so that search result summaries
+ * can be highlighted from the index postings without re-analyzing the stored
+ * content, and generated summaries are cached by search text and topic
+ * version.  Indexes created before offsets were stored fall back to
+ * re-analyzing the content until the index is rebuilt.
  */
 public class LuceneSearchEngine implements SearchEngine {
 
@@ -82,21 +133,49 @@ public class LuceneSearchEngine implements SearchEngine {
 	private static final String FIELD_TOPIC_NAME_ANALYZED = "topic_name_analyzed";
 	/** Name of the search index field that holds the un-processed topic namespace. */
 	private static final String FIELD_TOPIC_NAMESPACE = "topic_namespace";
+	/** Name of the search index field that holds the ID of the indexed topic version. */
+	private static final String FIELD_TOPIC_VERSION_ID = "topic_version_id";
+	/** Stored fields that are loaded for each search result.  Topic content is only loaded when building a summary. */
+	private static final Set<String> RESULT_FIELDS = new HashSet<String>(Arrays.asList(FIELD_TOPIC_NAME, FIELD_TOPIC_VERSION_ID));
+	/** Topic content is stored and indexed with offsets so that result summaries can be highlighted without re-analyzing it. */
+	private static final FieldType TOPIC_CONTENT_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+	static {
+		TOPIC_CONTENT_FIELD_TYPE.setIndexOptions(FieldInfo.IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+		TOPIC_CONTENT_FIELD_TYPE.freeze();
+	}
+	/** Cache of search result summaries, keyed by topic version ID and search text. */
+	private static final WikiCache<String, String> CACHE_RESULT_SUMMARIES = new WikiCache<String, String>("org.jamwiki.search.LuceneSearchEngine.CACHE_RESULT_SUMMARIES");
+	/** Maximum number of highlighted passages in a search result summary. */
+	private static final int SUMMARY_MAX_PASSAGES = 3;
+	/** Maximum length of a single passage in a search result summary. */
+	private static final int SUMMARY_PASSAGE_LENGTH = 200;
+	/** Number of characters of context shown before the first match in a passage. */
+	private static final int SUMMARY_PASSAGE_CONTEXT = 75;
 	/** Lucene compatibility version. */
 	protected static final Version USE_LUCENE_VERSION = Version.LUCENE_41;
 	/** Maximum number of results to return per search. */
 	// FIXME - make this configurable
 	protected static final int MAXIMUM_RESULTS_PER_SEARCH = 200;
-	/** Flag indicating whether or not to commit search index changes immediately. */
-	private boolean autoCommit = true;
+	/** Number of seconds between commits of pending search index changes. */
+	private static final long COMMIT_INTERVAL_SECONDS = 30;
+	/** Maximum number of seconds before index changes become visible to searches. */
+	private static final double REOPEN_MAX_STALE_SECONDS = 5.0;
+	/** Minimum number of seconds between searcher reopens when a search is waiting for an index change. */
+	private static final double REOPEN_MIN_STALE_SECONDS = 0.025;
+	/** Number of topics to retrieve from the database at a time when rebuilding the search index. */
+	private static final int REBUILD_PAGE_SIZE = 1000;
+	/** Flag indicating whether or not pending search index changes are periodically committed. */
+	private volatile boolean autoCommit = true;
+	/** Background thread used to commit pending search index changes. */
+	private ScheduledExecutorService committer = null;
 	/** Flag indicating whether write operations are temporarily disabled. */
-	private boolean disabled = false;
-	/** Store Searchers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexSearcher> searchers = new HashMap<String, IndexSearcher>();
-	/** Store Readers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexReader> indexReaders = new HashMap<String, IndexReader>();
-	/** Store Writers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexWriter> indexWriters = new HashMap<String, IndexWriter>();
+	private volatile boolean disabled = false;
+	/** Store the writer and searcher manager for each virtual wiki (once opened) for re-use. */
+	private final Map<String, SearchIndex> searchIndexes = new ConcurrentHashMap<String, SearchIndex>();
+	/** Held while updating an index, and held exclusively while a rebuilt index is swapped in. */
+	private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+	/** Names of topics changed while the index for a virtual wiki is being rebuilt. */
+	private final Map<String, Set<String>> rebuildChanges = new ConcurrentHashMap<String, Set<String>>();
 
 	/**
 	 * Add a topic to the search index.
@@ -107,33 +186,35 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (this.disabled) {
 			return;
 		}
+		this.indexLock.readLock().lock();
 		try {
 			long start = System.currentTimeMillis();
-			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki(), false);
-			this.addToIndex(writer, topic);
-			this.commit(writer, this.autoCommit);
+			SearchIndex searchIndex = this.retrieveSearchIndex(topic.getVirtualWiki());
+			this.addToIndex(searchIndex, topic);
+			this.recordRebuildChange(topic);
 			if (logger.isDebugEnabled()) {
 				logger.debug("Add to search index for topic " + topic.getVirtualWiki() + " / " + topic.getName() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 			}
 		} catch (Exception e) {
 			logger.error("Exception while adding topic " + topic.getVirtualWiki() + " / " + topic.getName(), e);
+		} finally {
+			this.indexLock.readLock().unlock();
 		}
 	}
 
 	/**
 	 * Add a topic to the search index.
 	 *
-	 * @param writer The IndexWriter to use when updating the search index.
+	 * @param searchIndex The search index that is being updated.
 	 * @param topic The Topic object that is to be added to the index.
 	 */
-	private void addToIndex(IndexWriter writer, Topic topic) throws IOException {
+	private void addToIndex(SearchIndex searchIndex, Topic topic) throws IOException {
 		if (topic.getTopicType() == TopicType.REDIRECT) {
 			// do not index redirects
 			return;
 		}
 		Document standardDocument = createStandardDocument(topic);
-		writer.addDocument(standardDocument);
-		this.resetIndexSearcher(topic.getVirtualWiki());
+		searchIndex.updated(searchIndex.trackingWriter.addDocument(standardDocument));
 	}
 
 	/**
@@ -144,19 +225,42 @@ public class LuceneSearchEngine implements SearchEngine {
 	 */
 	public void commit(String virtualWiki) {
 		try {
-			this.commit(this.retrieveIndexWriter(virtualWiki, false), true);
+			this.commit(this.retrieveSearchIndex(virtualWiki));
 		} catch (IOException e) {
 			logger.error("Exception while committing pending changes for virtual wiki " + virtualWiki, e);
 		}
 	}
 
 	/**
-	 * Commit pending changes to the writer only if the commitNow value is true.
-	 * This is primarily a utility method for working with the autoCommit flag.
+	 * Commit pending changes to the index if any changes have been made since
+	 * the last commit.
 	 */
-	private void commit(IndexWriter writer, boolean commitNow) throws IOException {
-		if (commitNow) {
-			writer.commit();
+	private void commit(SearchIndex searchIndex) throws IOException {
+		if (searchIndex.uncommitted.getAndSet(false)) {
+			try {
+				searchIndex.writer.commit();
+			} catch (IOException e) {
+				searchIndex.uncommitted.set(true);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Commit pending changes for all open search indexes.  This method is
+	 * called periodically from a background thread.
+	 */
+	private void commitAll() {
+		if (!this.autoCommit) {
+			return;
+		}
+		for (Map.Entry<String, SearchIndex> entry : this.searchIndexes.entrySet()) {
+			try {
+				this.commit(entry.getValue());
+			} catch (Exception e) {
+				// catch all exceptions so that future commits are not cancelled
+				logger.error("Exception while committing pending changes for virtual wiki " + entry.getKey(), e);
+			}
 		}
 	}
 
@@ -216,7 +320,11 @@ public class LuceneSearchEngine implements SearchEngine {
 		doc.add(nameField);
 		// analyze & store the topic content so that it is searchable and also usable for display in
 		// search result summaries
-		doc.add(new TextField(FIELD_TOPIC_CONTENT, topicContent, Field.Store.YES));
+		doc.add(new Field(FIELD_TOPIC_CONTENT, topicContent, TOPIC_CONTENT_FIELD_TYPE));
+		// store the topic version so that result summaries can be cached
+		if (topic.getCurrentVersionId() != null) {
+			doc.add(new StoredField(FIELD_TOPIC_VERSION_ID, topic.getCurrentVersionId()));
+		}
 		return doc;
 	}
 
@@ -229,31 +337,23 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (this.disabled) {
 			return;
 		}
+		this.indexLock.readLock().lock();
 		try {
 			long start = System.currentTimeMillis();
 			// delete the current document
-			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki(), false);
-			this.deleteFromIndex(writer, topic);
-			this.commit(writer, this.autoCommit);
+			SearchIndex searchIndex = this.retrieveSearchIndex(topic.getVirtualWiki());
+			searchIndex.updated(searchIndex.trackingWriter.deleteDocuments(new Term(FIELD_TOPIC_NAME, topic.getName())));
+			this.recordRebuildChange(topic);
 			if (logger.isDebugEnabled()) {
 				logger.debug("Delete from search index for topic " + topic.getVirtualWiki() + " / " + topic.getName() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 			}
 		} catch (Exception e) {
 			logger.error("Exception while adding topic " + topic.getVirtualWiki() + ':' + topic.getName(), e);
+		} finally {
+			this.indexLock.readLock().unlock();
 		}
 	}
 
-	/**
-	 * Remove a topic from the search index.
-	 *
-	 * @param writer The IndexWriter to use when updating the search index.
-	 * @param topic The topic object that is to be removed from the index.
-	 */
-	private void deleteFromIndex(IndexWriter writer, Topic topic) throws IOException {
-		writer.deleteDocuments(new Term(FIELD_TOPIC_NAME, topic.getName()));
-		this.resetIndexSearcher(topic.getVirtualWiki());
-	}
-
 	/**
 	 * Find all documents that contain a specific search term, ordered by relevance.
 	 * This method supports all Lucene search query syntax.
@@ -269,31 +369,35 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (logger.isTraceEnabled()) {
 			logger.trace("search text: " + text);
 		}
+		IndexSearcher searcher = null;
 		try {
-			IndexSearcher searcher = this.retrieveIndexSearcher(virtualWiki);
+			searcher = this.acquireIndexSearcher(virtualWiki);
 			Query query = this.createSearchQuery(searcher, analyzer, text, namespaces);
 			// actually perform the search
 			TopScoreDocCollector collector = TopScoreDocCollector.create(MAXIMUM_RESULTS_PER_SEARCH, true);
 			searcher.search(query, collector);
-			Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<span class=\"highlight\">", "</span>"), new SimpleHTMLEncoder(), new QueryScorer(query, FIELD_TOPIC_CONTENT));
 			ScoreDoc[] hits = collector.topDocs().scoreDocs;
+			Document[] docs = new Document[hits.length];
 			for (int i = 0; i < hits.length; i++) {
-				int docId = hits[i].doc;
-				Document doc = searcher.doc(docId);
-				String summary = retrieveResultSummary(doc, highlighter, analyzer);
-				SearchResultEntry result = new SearchResultEntry(doc.get(FIELD_TOPIC_NAME), hits[i].score, summary);
+				docs[i] = searcher.doc(hits[i].doc, RESULT_FIELDS);
+			}
+			String[] summaries = this.retrieveResultSummaries(searcher, query, analyzer, text, hits, docs);
+			for (int i = 0; i < hits.length; i++) {
+				SearchResultEntry result = new SearchResultEntry(docs[i].get(FIELD_TOPIC_NAME), hits[i].score, summaries[i]);
 				results.add(result);
 			}
 		} catch (Exception e) {
 			logger.error("Exception while searching for " + text, e);
+		} finally {
+			this.releaseIndexSearcher(virtualWiki, searcher);
 		}
 		return results;
 	}
 
 	/**
-	 * Get the path, which holds all index files
+	 * Get the directory that holds the search indexes for all virtual wikis.
 	 */
-	private File getSearchIndexPath(String virtualWiki) throws IOException {
+	private File getSearchDirectory() {
 		File parent = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), SEARCH_DIR);
 		try {
 			if (System.getProperty("org.apache.lucene.lockdir") == null) {
@@ -305,7 +409,14 @@ public class LuceneSearchEngine implements SearchEngine {
 			// probably a security exception
 			logger.warn("Unable to specify Lucene lock directory, default will be used: " + e.getMessage());
 		}
-		File child = new File(parent.getPath(), "index" + virtualWiki + File.separator);
+		return parent;
+	}
+
+	/**
+	 * Get the path, which holds all index files
+	 */
+	private File getSearchIndexPath(String virtualWiki) throws IOException {
+		File child = new File(this.getSearchDirectory(), this.retrieveIndexDirectoryName(virtualWiki));
 		if (!child.exists()) {
 			// create the search instance
 			child.mkdirs();
@@ -315,13 +426,6 @@ public class LuceneSearchEngine implements SearchEngine {
 		return child;
 	}
 
-	/**
-	 * Open an IndexReader, executing error handling as needed.
-	 */
-	private IndexReader openIndexReader(File searchIndexPath) throws IOException {
-		return DirectoryReader.open(FSDirectory.open(searchIndexPath));
-	}
-
 	/**
 	 * Open an IndexWriter, executing error handling as needed.
 	 */
@@ -352,106 +456,309 @@ public class LuceneSearchEngine implements SearchEngine {
 	}
 
 	/**
-	 * Refresh the current search index by re-visiting all topic pages.
+	 * Record that a topic has changed so that the change can be applied to an
+	 * index that is currently being rebuilt.
+	 */
+	private void recordRebuildChange(Topic topic) {
+		Set<String> changes = this.rebuildChanges.get(topic.getVirtualWiki());
+		if (changes != null) {
+			changes.add(topic.getName());
+		}
+	}
+
+	/**
+	 * Refresh the current search index by re-visiting all topic pages.  Each
+	 * index is rebuilt in a new directory, and searches use the existing index
+	 * until the rebuild is complete.
 	 *
 	 * @throws Exception Thrown if any error occurs while re-indexing the Wiki.
 	 */
-	public void refreshIndex() throws Exception {
+	public synchronized void refreshIndex() throws Exception {
 		List<VirtualWiki> allWikis = WikiBase.getDataHandler().getVirtualWikiList();
-		Topic topic;
 		for (VirtualWiki virtualWiki : allWikis) {
-			long start = System.currentTimeMillis();
-			int count = 0;
-			IndexWriter writer = null;
 			try {
-				writer = this.retrieveIndexWriter(virtualWiki.getName(), true);
-				List<String> topicNames = WikiBase.getDataHandler().getAllTopicNames(virtualWiki.getName(), false);
-				// FIXME - parsing all documents will be intolerably slow with even a
-				// moderately large Wiki
-				for (String topicName : topicNames) {
-					topic = WikiBase.getDataHandler().lookupTopic(virtualWiki.getName(), topicName, false);
-					if (topic == null) {
-						logger.info("Unable to rebuild search index for topic: " + topicName);
+				this.rebuildIndex(virtualWiki.getName());
+			} catch (Exception ex) {
+				logger.error("Failure while refreshing search index", ex);
+			}
+		}
+	}
+
+	/**
+	 * Build a new search index for a virtual wiki and replace the existing
+	 * index with it.
+	 */
+	private void rebuildIndex(String virtualWiki) throws Exception {
+		long start = System.currentTimeMillis();
+		File newPath = new File(this.getSearchDirectory(), "index" + virtualWiki + "." + start);
+		// topics changed after this point are re-indexed when the new index is swapped in
+		this.rebuildChanges.put(virtualWiki, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+		boolean swapped = false;
+		try {
+			int count = this.buildIndex(virtualWiki, newPath);
+			this.swapIndex(virtualWiki, newPath);
+			swapped = true;
+			if (logger.isInfoEnabled()) {
+				logger.info("Rebuilt search index for " + virtualWiki + " (" + count + " documents) in " + ((System.currentTimeMillis() - start) / 1000.000) + " seconds");
+			}
+		} finally {
+			this.rebuildChanges.remove(virtualWiki);
+			if (!swapped) {
+				FileUtils.deleteQuietly(newPath);
+			}
+		}
+	}
+
+	/**
+	 * Index all topics for a virtual wiki into a new index directory.  Topics
+	 * are read from the database a page at a time and handed to a pool of
+	 * workers, each of which writes to its own partial index.  The partial
+	 * indexes are then merged into the new index directory.
+	 *
+	 * @return The number of documents added to the new index.
+	 */
+	private int buildIndex(String virtualWiki, File newPath) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		final BlockingQueue<List<Topic>> queue = new ArrayBlockingQueue<List<Topic>>(threads * 2);
+		final String threadName = "LuceneSearchEngine-rebuild-" + virtualWiki + "-";
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, threadName + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		File[] partitionPaths = new File[threads];
+		try {
+			for (int i = 0; i < threads; i++) {
+				partitionPaths[i] = new File(newPath.getPath() + "-" + i);
+				final IndexWriter writer = this.openIndexWriter(partitionPaths[i], true);
+				results.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						return indexPartition(writer, queue);
+					}
+				}));
+			}
+			int afterTopicId = 0;
+			List<Topic> topics;
+			do {
+				topics = WikiBase.getDataHandler().lookupTopics(virtualWiki, afterTopicId, REBUILD_PAGE_SIZE);
+				if (!topics.isEmpty()) {
+					afterTopicId = topics.get(topics.size() - 1).getTopicId();
+					this.queuePage(queue, topics, results);
+				}
+			} while (topics.size() == REBUILD_PAGE_SIZE);
+			for (int i = 0; i < threads; i++) {
+				// an empty page tells a worker that all topics have been read
+				this.queuePage(queue, Collections.<Topic>emptyList(), results);
+			}
+			int count = 0;
+			for (Future<Integer> result : results) {
+				count += result.get();
+			}
+			this.mergePartitions(newPath, partitionPaths);
+			return count;
+		} finally {
+			executor.shutdownNow();
+			for (File partitionPath : partitionPaths) {
+				FileUtils.deleteQuietly(partitionPath);
+			}
+		}
+	}
+
+	/**
+	 * Add topics from the queue to a partial index until an empty page is
+	 * received.
+	 *
+	 * @return The number of documents added to the partial index.
+	 */
+	private int indexPartition(IndexWriter writer, BlockingQueue<List<Topic>> queue) throws Exception {
+		int count = 0;
+		boolean success = false;
+		try {
+			List<Topic> topics;
+			while (!(topics = queue.take()).isEmpty()) {
+				for (Topic topic : topics) {
+					if (topic.getTopicType() == TopicType.REDIRECT) {
+						// do not index redirects
 						continue;
 					}
-					// note: no delete is necessary since a new index is being created
-					this.addToIndex(writer, topic);
+					writer.addDocument(this.createStandardDocument(topic));
 					count++;
 				}
-			} catch (Exception ex) {
-				logger.error("Failure while refreshing search index", ex);
-			} finally {
-				try {
-					if (writer != null) {
-						writer.close();
-					}
-				} catch (Exception e) {
-					logger.error("Exception during close", e);
+			}
+			success = true;
+		} finally {
+			if (success) {
+				writer.close();
+			} else {
+				writer.rollback();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Merge the partial indexes created during a rebuild into a single index.
+	 */
+	private void mergePartitions(File newPath, File[] partitionPaths) throws IOException {
+		Directory[] partitions = new Directory[partitionPaths.length];
+		IndexWriter writer = this.openIndexWriter(newPath, true);
+		try {
+			for (int i = 0; i < partitionPaths.length; i++) {
+				partitions[i] = FSDirectory.open(partitionPaths[i]);
+			}
+			writer.addIndexes(partitions);
+			writer.commit();
+		} finally {
+			writer.close();
+			for (Directory partition : partitions) {
+				if (partition != null) {
+					partition.close();
 				}
 			}
-			if (logger.isInfoEnabled()) {
-				logger.info("Rebuilt search index for " + virtualWiki.getName() + " (" + count + " documents) in " + ((System.currentTimeMillis() - start) / 1000.000) + " seconds");
+		}
+	}
+
+	/**
+	 * Add a page of topics to the rebuild queue, failing if any of the workers
+	 * has stopped due to an error.
+	 */
+	private void queuePage(BlockingQueue<List<Topic>> queue, List<Topic> topics, List<Future<Integer>> results) throws Exception {
+		while (!queue.offer(topics, 1, TimeUnit.SECONDS)) {
+			for (Future<Integer> result : results) {
+				if (result.isDone()) {
+					// workers only finish early on failure, so this throws the worker exception
+					result.get();
+					throw new IllegalStateException("Search index rebuild worker stopped unexpectedly");
+				}
 			}
 		}
 	}
 
 	/**
-	 * Call this method after a search index is updated to reset the searcher.
+	 * Replace the current search index for a virtual wiki with a newly built
+	 * index.  Topics that changed while the new index was being built are
+	 * re-indexed before the new index is made available to searches.
 	 */
-	private void resetIndexSearcher(String virtualWiki) throws IOException {
-		IndexSearcher searcher = searchers.get(virtualWiki);
-		if (searcher != null) {
-			searchers.remove(virtualWiki);
+	private void swapIndex(String virtualWiki, File newPath) throws Exception {
+		this.indexLock.writeLock().lock();
+		try {
+			File oldPath = new File(this.getSearchDirectory(), this.retrieveIndexDirectoryName(virtualWiki));
+			SearchIndex searchIndex = new SearchIndex(virtualWiki, this.openIndexWriter(newPath, false));
+			try {
+				for (String topicName : this.rebuildChanges.get(virtualWiki)) {
+					Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, false);
+					this.updateInIndex(searchIndex, topicName, topic);
+				}
+				this.commit(searchIndex);
+				this.writeIndexDirectoryName(virtualWiki, newPath.getName());
+			} catch (Exception e) {
+				searchIndex.close();
+				throw e;
+			}
+			SearchIndex oldIndex;
+			synchronized (this.searchIndexes) {
+				oldIndex = this.searchIndexes.put(virtualWiki, searchIndex);
+				this.startCommitter();
+			}
+			if (oldIndex != null) {
+				oldIndex.close();
+			}
+			FileUtils.deleteQuietly(oldPath);
+		} finally {
+			this.indexLock.writeLock().unlock();
 		}
 	}
 
 	/**
-	 * For performance reasons cache the IndexSearcher for re-use.
+	 * Return the name of the directory holding the current search index for a
+	 * virtual wiki.  A rebuilt index is written to a new directory, so the
+	 * current directory name is stored in a file in the search directory.
 	 */
-	protected IndexSearcher retrieveIndexSearcher(String virtualWiki) throws IOException {
-		IndexSearcher searcher = searchers.get(virtualWiki);
-		if (searcher == null) {
-			searcher = new IndexSearcher(this.retrieveIndexReader(virtualWiki));
-			searchers.put(virtualWiki, searcher);
+	private String retrieveIndexDirectoryName(String virtualWiki) throws IOException {
+		File file = new File(this.getSearchDirectory(), "index" + virtualWiki + ".current");
+		String name = (file.exists()) ? StringUtils.trim(FileUtils.readFileToString(file, "UTF-8")) : null;
+		return (StringUtils.isBlank(name)) ? "index" + virtualWiki : name;
+	}
+
+	/**
+	 * Store the name of the directory holding the current search index for a
+	 * virtual wiki.  The file is replaced atomically so that a partially
+	 * written name is never read.
+	 */
+	private void writeIndexDirectoryName(String virtualWiki, String name) throws IOException {
+		File file = new File(this.getSearchDirectory(), "index" + virtualWiki + ".current");
+		WikiUtil.writeFileAtomically(file, name.getBytes("UTF-8"));
+	}
+
+	/**
+	 * Acquire a searcher for the virtual wiki.  The searcher reflects all index
+	 * changes made prior to this call, and must be returned by calling
+	 * {@link #releaseIndexSearcher(String, IndexSearcher)} once the search is
+	 * complete.
+	 */
+	protected IndexSearcher acquireIndexSearcher(String virtualWiki) throws IOException {
+		while (true) {
+			SearchIndex searchIndex = this.retrieveSearchIndex(virtualWiki);
+			try {
+				// wait for the reopen thread to make the most recent change visible
+				searchIndex.manager.waitForGeneration(searchIndex.generation, (long)(REOPEN_MAX_STALE_SECONDS * 1000), TimeUnit.MILLISECONDS);
+				return searchIndex.manager.acquire();
+			} catch (AlreadyClosedException e) {
+				if (this.searchIndexes.get(virtualWiki) == searchIndex) {
+					throw e;
+				}
+				// the index was replaced by a rebuilt index, so use the new index
+			}
 		}
-		return searcher;
 	}
 
 	/**
-	 * For performance reasons create a cache of readers.
+	 * Release a searcher obtained from {@link #acquireIndexSearcher(String)}.
+	 * The underlying reader is closed once it has been released and is no
+	 * longer the current searcher.
 	 */
-	private IndexReader retrieveIndexReader(String virtualWiki) throws IOException {
-		IndexReader indexReader = indexReaders.get(virtualWiki);
-		if (indexReader == null) {
-			File searchIndexPath = this.getSearchIndexPath(virtualWiki);
-			indexReader = this.openIndexReader(searchIndexPath);
-			indexReaders.put(virtualWiki, indexReader);
+	protected void releaseIndexSearcher(String virtualWiki, IndexSearcher searcher) {
+		if (searcher == null) {
+			return;
+		}
+		SearchIndex searchIndex = this.searchIndexes.get(virtualWiki);
+		try {
+			if (searchIndex != null) {
+				searchIndex.manager.release(searcher);
+			} else {
+				// the search engine was shut down while the searcher was in use
+				searcher.getIndexReader().decRef();
+			}
+		} catch (IOException e) {
+			logger.error("Exception while releasing searcher for virtual wiki " + virtualWiki, e);
 		}
-		return indexReader;
 	}
 
 	/**
-	 * For performance reasons create a cache of writers.  Since writers are not being
-	 * re-initialized then commit() must be called to explicitly flush data to the index,
-	 * otherwise it will be flushed on a programmatic basis by Lucene.
+	 * For performance reasons create a single writer and searcher manager for
+	 * each virtual wiki.  Since writers are not being re-initialized, changes
+	 * are flushed to disk by the background commit thread or by an explicit
+	 * call to commit().
 	 */
-	private IndexWriter retrieveIndexWriter(String virtualWiki, boolean create) throws IOException {
-		IndexWriter indexWriter = indexWriters.get(virtualWiki);
-		if (create && indexWriter != null) {
-			// if the writer is going to blow away the existing index and create a new one then it
-			// should not be cached.  instead, close any open writer, create a new one, and return.
-			indexWriter.close();
-			indexWriters.remove(virtualWiki);
-			indexWriter = null;
+	private SearchIndex retrieveSearchIndex(String virtualWiki) throws IOException {
+		SearchIndex searchIndex = this.searchIndexes.get(virtualWiki);
+		if (searchIndex != null) {
+			return searchIndex;
 		}
-		if (indexWriter == null) {
-			File searchIndexPath = this.getSearchIndexPath(virtualWiki);
-			indexWriter = this.openIndexWriter(searchIndexPath, create);
-			if (!create) {
-				indexWriters.put(virtualWiki, indexWriter);
+		synchronized (this.searchIndexes) {
+			searchIndex = this.searchIndexes.get(virtualWiki);
+			if (searchIndex == null) {
+				File searchIndexPath = this.getSearchIndexPath(virtualWiki);
+				searchIndex = new SearchIndex(virtualWiki, this.openIndexWriter(searchIndexPath, false));
+				this.searchIndexes.put(virtualWiki, searchIndex);
+				this.startCommitter();
 			}
 		}
-		return indexWriter;
+		return searchIndex;
 	}
 
 	/**
@@ -464,17 +771,88 @@ public class LuceneSearchEngine implements SearchEngine {
 	}
 
 	/**
-	 *
+	 * Return a summary to display for a search result that does not contain
+	 * any highlighted text, such as a result that only matched the topic name.
+	 */
+	private String retrieveDefaultSummary(String content) {
+		if (StringUtils.isBlank(content)) {
+			return content;
+		}
+		String summary = StringEscapeUtils.escapeHtml4(content.substring(0, Math.min(200, content.length())));
+		if (Math.min(200, content.length()) == 200) {
+			summary += "...";
+		}
+		return summary;
+	}
+
+	/**
+	 * Return the highlighted summary for each search result, in the same order
+	 * as the results.  Cached summaries are used where available, and the
+	 * remaining summaries are highlighted from the offsets stored in the index
+	 * in a single pass.
+	 */
+	protected String[] retrieveResultSummaries(IndexSearcher searcher, Query query, StandardAnalyzer analyzer, String text, ScoreDoc[] hits, Document[] docs) throws InvalidTokenOffsetsException, IOException {
+		String[] summaries = new String[hits.length];
+		String[] cacheKeys = new String[hits.length];
+		List<Integer> uncached = new ArrayList<Integer>();
+		for (int i = 0; i < hits.length; i++) {
+			IndexableField versionField = docs[i].getField(FIELD_TOPIC_VERSION_ID);
+			if (versionField != null) {
+				cacheKeys[i] = versionField.numericValue() + "/" + text;
+				summaries[i] = CACHE_RESULT_SUMMARIES.retrieveFromCache(cacheKeys[i]);
+			}
+			if (summaries[i] == null) {
+				uncached.add(i);
+			}
+		}
+		if (uncached.isEmpty()) {
+			return summaries;
+		}
+		ScoreDoc[] uncachedHits = new ScoreDoc[uncached.size()];
+		for (int j = 0; j < uncachedHits.length; j++) {
+			uncachedHits[j] = hits[uncached.get(j)];
+		}
+		String[] highlights = null;
+		try {
+			PostingsHighlighter highlighter = new PostingsHighlighter(Highlighter.DEFAULT_MAX_CHARS_TO_ANALYZE, BreakIterator.getSentenceInstance(), new PassageScorer(), new SummaryPassageFormatter());
+			highlights = highlighter.highlight(FIELD_TOPIC_CONTENT, query, searcher, new TopDocs(uncachedHits.length, uncachedHits, Float.NaN), SUMMARY_MAX_PASSAGES);
+		} catch (IllegalArgumentException e) {
+			// the index was created before offsets were stored and needs to be rebuilt
+			logger.debug("Search index does not contain offsets, re-analyzing topic content for result summaries");
+		}
+		Highlighter analyzingHighlighter = null;
+		for (int j = 0; j < uncachedHits.length; j++) {
+			int i = uncached.get(j);
+			String summary = (highlights != null) ? highlights[j] : null;
+			if (StringUtils.isBlank(summary)) {
+				Document document = searcher.doc(uncachedHits[j].doc);
+				if (highlights == null) {
+					if (analyzingHighlighter == null) {
+						analyzingHighlighter = new Highlighter(new SimpleHTMLFormatter("<span class=\"highlight\">", "</span>"), new SimpleHTMLEncoder(), new QueryScorer(query, FIELD_TOPIC_CONTENT));
+					}
+					summary = this.retrieveResultSummary(document, analyzingHighlighter, analyzer);
+				} else {
+					summary = this.retrieveDefaultSummary(document.get(FIELD_TOPIC_CONTENT));
+				}
+			}
+			summaries[i] = summary;
+			if (cacheKeys[i] != null && summary != null) {
+				CACHE_RESULT_SUMMARIES.addToCache(cacheKeys[i], summary);
+			}
+		}
+		return summaries;
+	}
+
+	/**
+	 * Build a result summary by re-analyzing the stored topic content.  This
+	 * method is only used for indexes that do not contain term offsets.
 	 */
 	protected String retrieveResultSummary(Document document, Highlighter highlighter, StandardAnalyzer analyzer) throws InvalidTokenOffsetsException, IOException {
 		String content = document.get(FIELD_TOPIC_CONTENT);
 		TokenStream tokenStream = analyzer.tokenStream(FIELD_TOPIC_CONTENT, new StringReader(content));
 		String summary = highlighter.getBestFragments(tokenStream, content, 3, "...");
-		if (StringUtils.isBlank(summary) && !StringUtils.isBlank(content)) {
-			summary = StringEscapeUtils.escapeHtml4(content.substring(0, Math.min(200, content.length())));
-			if (Math.min(200, content.length()) == 200) {
-				summary += "...";
-			}
+		if (StringUtils.isBlank(summary)) {
+			summary = this.retrieveDefaultSummary(content);
 		}
 		return summary;
 	}
@@ -497,12 +875,38 @@ public class LuceneSearchEngine implements SearchEngine {
 	 * 
 	 */
 	public void shutdown() throws IOException {
-		for (IndexReader indexReader : this.indexReaders.values()) {
-			indexReader.close();
+		synchronized (this.searchIndexes) {
+			if (this.committer != null) {
+				this.committer.shutdown();
+				this.committer = null;
+			}
+			for (SearchIndex searchIndex : this.searchIndexes.values()) {
+				searchIndex.close();
+			}
+			this.searchIndexes.clear();
 		}
-		for (IndexWriter indexWriter : this.indexWriters.values()) {
-			indexWriter.close();
+	}
+
+	/**
+	 * Start the background thread that periodically commits pending index
+	 * changes if it is not already running.
+	 */
+	private void startCommitter() {
+		if (this.committer != null) {
+			return;
 		}
+		this.committer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "LuceneSearchEngine-commit");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.committer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				commitAll();
+			}
+		}, COMMIT_INTERVAL_SECONDS, COMMIT_INTERVAL_SECONDS, TimeUnit.SECONDS);
 	}
 
 	/**
@@ -512,17 +916,130 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (this.disabled) {
 			return;
 		}
+		this.indexLock.readLock().lock();
 		try {
 			long start = System.currentTimeMillis();
-			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki(), false);
-			this.deleteFromIndex(writer, topic);
-			this.addToIndex(writer, topic);
-			this.commit(writer, this.autoCommit);
+			SearchIndex searchIndex = this.retrieveSearchIndex(topic.getVirtualWiki());
+			this.updateInIndex(searchIndex, topic.getName(), topic);
+			this.recordRebuildChange(topic);
 			if (logger.isDebugEnabled()) {
 				logger.debug("Update search index for topic " + topic.getVirtualWiki() + " / " + topic.getName() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 			}
 		} catch (Exception e) {
 			logger.error("Exception while updating topic " + topic.getVirtualWiki() + " / " + topic.getName(), e);
+		} finally {
+			this.indexLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace the search index document for a topic.
+	 *
+	 * @param searchIndex The search index that is being updated.
+	 * @param topicName The name of the topic being updated.
+	 * @param topic The current Topic object, or <code>null</code> if the topic
+	 *  has been deleted.
+	 */
+	private void updateInIndex(SearchIndex searchIndex, String topicName, Topic topic) throws IOException {
+		Term term = new Term(FIELD_TOPIC_NAME, topicName);
+		if (topic == null || topic.getTopicType() == TopicType.REDIRECT) {
+			// do not index redirects
+			searchIndex.updated(searchIndex.trackingWriter.deleteDocuments(term));
+		} else {
+			searchIndex.updated(searchIndex.trackingWriter.updateDocument(term, this.createStandardDocument(topic)));
+		}
+	}
+
+	/**
+	 * Formats the highlighted passages for a search result summary.
+	 */
+	private static class SummaryPassageFormatter extends PassageFormatter {
+
+		/**
+		 * Format passages as HTML-escaped text with search matches highlighted.
+		 * Long passages are trimmed to a window around their first match.
+		 */
+		public String format(Passage[] passages, String content) {
+			StringBuilder summary = new StringBuilder();
+			int previousEnd = 0;
+			for (Passage passage : passages) {
+				if (passage.getNumMatches() == 0) {
+					continue;
+				}
+				int[] matchStarts = passage.getMatchStarts();
+				int[] matchEnds = passage.getMatchEnds();
+				int start = Math.max(passage.getStartOffset(), matchStarts[0] - SUMMARY_PASSAGE_CONTEXT);
+				int end = Math.min(passage.getEndOffset(), Math.max(start + SUMMARY_PASSAGE_LENGTH, matchEnds[0]));
+				if (summary.length() > 0 && start > previousEnd) {
+					summary.append("...");
+				}
+				int pos = start;
+				for (int i = 0; i < passage.getNumMatches(); i++) {
+					// matches may overlap, and matches beyond the end of the trimmed passage are skipped
+					if (matchEnds[i] <= pos || matchStarts[i] >= end) {
+						continue;
+					}
+					int matchStart = Math.max(pos, matchStarts[i]);
+					int matchEnd = Math.min(end, matchEnds[i]);
+					summary.append(StringEscapeUtils.escapeHtml4(content.substring(pos, matchStart)));
+					summary.append("<span class=\"highlight\">");
+					summary.append(StringEscapeUtils.escapeHtml4(content.substring(matchStart, matchEnd)));
+					summary.append("</span>");
+					pos = matchEnd;
+				}
+				summary.append(StringEscapeUtils.escapeHtml4(content.substring(pos, end)));
+				previousEnd = end;
+			}
+			return summary.toString();
+		}
+	}
+
+	/**
+	 * The writer, searcher manager and reopen thread for a single virtual wiki.
+	 */
+	private static class SearchIndex {
+
+		/** Generation of the most recent change made to the index. */
+		private volatile long generation = 0;
+		private final NRTManager manager;
+		private final NRTManagerReopenThread reopenThread;
+		private final NRTManager.TrackingIndexWriter trackingWriter;
+		/** Flag indicating whether changes have been made since the last commit. */
+		private final AtomicBoolean uncommitted = new AtomicBoolean(false);
+		private final IndexWriter writer;
+
+		/**
+		 *
+		 */
+		SearchIndex(String virtualWiki, IndexWriter writer) throws IOException {
+			this.writer = writer;
+			this.trackingWriter = new NRTManager.TrackingIndexWriter(writer);
+			this.manager = new NRTManager(this.trackingWriter, new SearcherFactory());
+			this.reopenThread = new NRTManagerReopenThread(this.manager, REOPEN_MAX_STALE_SECONDS, REOPEN_MIN_STALE_SECONDS);
+			this.reopenThread.setName("LuceneSearchEngine-reopen-" + virtualWiki);
+			this.reopenThread.setDaemon(true);
+			this.reopenThread.start();
+		}
+
+		/**
+		 * Stop the reopen thread, commit any pending changes and close the
+		 * writer.  Searchers that are still in use remain open until released.
+		 */
+		void close() throws IOException {
+			this.reopenThread.close();
+			try {
+				this.manager.close();
+			} finally {
+				this.writer.close();
+			}
+		}
+
+		/**
+		 * Record a change to the index.
+		 */
+		synchronized void updated(long generation) {
+			this.generation = Math.max(this.generation, generation);
+			this.uncommitted.set(true);
 		}
 	}
 }
@@ -33,6 +33,8 @@ import org.jamwiki.WikiConfiguration;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
 import org.jamwiki.authentication.WikiUserDetailsImpl;
+import org.jamwiki.db.TopicMetadataRebuildJob;
+import org.jamwiki.db.TopicVersionConversionJob;
 import org.jamwiki.db.WikiDatabase;
 import org.jamwiki.mail.WikiMail;
 import org.jamwiki.model.Role;
@@ -95,6 +97,8 @@ public class AdminServlet extends JAMWikiServlet {
 			namespaces(request, next, pageInfo);
 		} else if (function.equals("links")) {
 			links(request, next, pageInfo);
+		} else if (function.equals("versions")) {
+			versions(request, next, pageInfo);
 		}
 		return next;
 	}
@@ -145,6 +149,7 @@ public class AdminServlet extends JAMWikiServlet {
 	private void cache(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
 		try {
 			WikiCache.initialize();
+			WikiBase.getDataHandler().resetTopicNameFilters();
 			pageInfo.addMessage(new WikiMessage("admin.message.cache"));
 		} catch (Exception e) {
 			logger.error("Failure while clearing cache", e);
@@ -156,11 +161,11 @@ public class AdminServlet extends JAMWikiServlet {
 	/**
 	 *
 	 */
-	private void links(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws DataAccessException {
-		int[] resultArray = WikiDatabase.rebuildTopicMetadata();
-		pageInfo.addMessage(new WikiMessage("admin.maintenance.message.metadata", Integer.toString(resultArray[0])));
-		if (resultArray[1] != 0) {
-			pageInfo.addError(new WikiMessage("admin.maintenance.error.metadata", Integer.toString(resultArray[1])));
+	private void links(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) {
+		if (TopicMetadataRebuildJob.start()) {
+			pageInfo.addMessage(new WikiMessage("admin.maintenance.message.metadatastarted"));
+		} else {
+			pageInfo.addError(new WikiMessage("admin.maintenance.error.metadatarunning"));
 		}
 		viewAdminSystem(request, next, pageInfo);
 	}
@@ -274,6 +279,8 @@ public class AdminServlet extends JAMWikiServlet {
 			setProperty(props, request, Environment.PROP_BASE_SEARCH_ENGINE);
 			setProperty(props, request, Environment.PROP_TOPIC_EDITOR);
 			setNumericProperty(props, request, Environment.PROP_MAX_TOPIC_VERSION_EXPORT, pageInfo.getErrors());
+			setBooleanProperty(props, request, Environment.PROP_TOPIC_VERSION_DELTA_STORAGE);
+			setNumericProperty(props, request, Environment.PROP_TOPIC_VERSION_KEYFRAME_INTERVAL, pageInfo.getErrors());
 			// parser
 			setProperty(props, request, Environment.PROP_PARSER_CLASS);
 			setBooleanProperty(props, request, Environment.PROP_PARSER_ALLOW_HTML);
@@ -553,6 +560,18 @@ public class AdminServlet extends JAMWikiServlet {
 		viewAdminSystem(request, next, pageInfo);
 	}
 
+	/**
+	 *
+	 */
+	private void versions(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) {
+		if (TopicVersionConversionJob.start()) {
+			pageInfo.addMessage(new WikiMessage("admin.maintenance.message.versionsstarted"));
+		} else {
+			pageInfo.addError(new WikiMessage("admin.maintenance.error.versionsrunning"));
+		}
+		viewAdminSystem(request, next, pageInfo);
+	}
+
 	/**
 	 *
 	 */
@@ -609,5 +628,7 @@ public class AdminServlet extends JAMWikiServlet {
 		next.addObject("allowExport", allowExport);
 		List<WikiConfigurationObject> queryHandlers = WikiConfiguration.getInstance().getQueryHandlers();
 		next.addObject("queryHandlers", queryHandlers);
+		next.addObject("metadataRebuild", TopicMetadataRebuildJob.getCurrentJob());
+		next.addObject("versionConversion", TopicVersionConversionJob.getCurrentJob());
 	}
 }
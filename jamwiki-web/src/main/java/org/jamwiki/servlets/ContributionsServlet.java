@@ -59,6 +59,7 @@ public class ContributionsServlet extends JAMWikiServlet {
 		List<RecentChange> contributions = WikiBase.getDataHandler().getUserContributions(virtualWiki, userString, pagination, true);
 		next.addObject("contributions", contributions);
 		next.addObject("numContributions", contributions.size());
+		ServletUtil.loadPaginationCursors(next, pagination, contributions);
 		next.addObject("contributor", userString);
 		pageInfo.setPageTitle(new WikiMessage("contributions.title", userString));
 		pageInfo.setContentJsp(JSP_CONTRIBUTIONS);
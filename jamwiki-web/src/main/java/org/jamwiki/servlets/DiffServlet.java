@@ -74,21 +74,15 @@ public class DiffServlet extends JAMWikiServlet {
 			// with only one version.
 			topicVersionId1 = topic.getCurrentVersionId();
 		}
-		TopicVersion version1 = (topicVersionId1 != 0) ? WikiBase.getDataHandler().lookupTopicVersion(topicVersionId1) : null;
-		TopicVersion version2 = (topicVersionId2 != 0) ? WikiBase.getDataHandler().lookupTopicVersion(topicVersionId2) : null;
+		// version content is only loaded by DiffUtil if the diff is not already cached
+		TopicVersion version1 = (topicVersionId1 != 0) ? WikiBase.getDataHandler().lookupTopicVersionInfo(topicVersionId1) : null;
+		TopicVersion version2 = (topicVersionId2 != 0) ? WikiBase.getDataHandler().lookupTopicVersionInfo(topicVersionId2) : null;
 		if (version1 == null && version2 == null) {
 			String msg = "Versions " + topicVersionId1 + " and " + topicVersionId2 + " not found for " + topicName;
 			logger.error(msg);
 			throw new Exception(msg);
 		}
-		String contents1 = (version1 != null) ? version1.getVersionContent() : null;
-		String contents2 = (version2 != null) ? version2.getVersionContent() : null;
-		if (contents1 == null && contents2 == null) {
-			String msg = "No versions found for " + topicVersionId1 + " against " + topicVersionId2;
-			logger.error(msg);
-			throw new Exception(msg);
-		}
-		List<WikiDiff> diffs = DiffUtil.diff(contents1, contents2);
+		List<WikiDiff> diffs = DiffUtil.diffTopicVersions(version1, version2);
 		next.addObject("diffs", diffs);
 		if (version1 != null) {
 			WikiUser user = (version1.getAuthorId() != null) ? WikiBase.getDataHandler().lookupWikiUser(version1.getAuthorId()) : null;
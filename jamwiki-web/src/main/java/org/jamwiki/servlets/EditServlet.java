@@ -252,7 +252,7 @@ public class EditServlet extends JAMWikiServlet {
 		Topic previewTopic = new Topic(virtualWiki, wikiLink.getNamespace(), wikiLink.getArticle());
 		previewTopic.setTopicContent(contents);
 		next.addObject("editPreview", "true");
-		ServletUtil.viewTopic(request, next, pageInfo, null, previewTopic, false, false);
+		ServletUtil.viewTopic(request, next, pageInfo, null, previewTopic, false, false, false);
 	}
 
 	/**
@@ -343,7 +343,7 @@ public class EditServlet extends JAMWikiServlet {
 		if (request.getParameter("minorEdit") != null) {
 			topicVersion.setEditType(TopicVersion.EDIT_MINOR);
 		}
-		WikiBase.getDataHandler().writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks(), parserOutput.getTemplates());
 		// update watchlist
 		WikiUserDetailsImpl userDetails = ServletUtil.currentUserDetails();
 		if (!userDetails.hasRole(Role.ROLE_ANONYMOUS)) {
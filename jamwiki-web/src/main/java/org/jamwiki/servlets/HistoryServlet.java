@@ -70,6 +70,7 @@ public class HistoryServlet extends JAMWikiServlet {
 		List<RecentChange> changes = WikiBase.getDataHandler().getTopicHistory(topic, pagination, true);
 		next.addObject("changes", changes);
 		next.addObject("numChanges", changes.size());
+		ServletUtil.loadPaginationCursors(next, pagination, changes);
 	}
 
 	/**
@@ -98,7 +99,7 @@ public class HistoryServlet extends JAMWikiServlet {
 			Integer nextTopicVersionId = WikiBase.getDataHandler().lookupTopicVersionNextId(topicVersion.getTopicVersionId());
 			next.addObject("nextTopicVersionId", nextTopicVersionId);
 			WikiMessage pageTitle = new WikiMessage("topic.title", topicName);
-			ServletUtil.viewTopic(request, next, pageInfo, pageTitle, topic, false, false);
+			ServletUtil.viewTopic(request, next, pageInfo, pageTitle, topic, false, false, false);
 		}
 	}
 }
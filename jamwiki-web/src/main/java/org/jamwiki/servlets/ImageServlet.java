@@ -18,14 +18,18 @@ package org.jamwiki.servlets;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.InputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.springframework.web.servlet.ModelAndView;
@@ -33,6 +37,7 @@ import org.apache.commons.io.IOUtils;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
+import org.jamwiki.db.ImageStreamHandler;
 import org.jamwiki.model.ImageData;
 import org.jamwiki.model.WikiFile;
 import org.jamwiki.parser.image.ImageUtil;
@@ -44,6 +49,10 @@ import org.jamwiki.utils.WikiLogger;
 public class ImageServlet extends JAMWikiServlet {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ImageServlet.class.getName());
+	/** Boundary used to separate the parts of a multiple range response. */
+	private static final String MULTIPART_BOUNDARY = "JAMWIKI_BYTERANGES";
+	/** Requests for more than this many ranges are served the complete file. */
+	private static final int MAX_RANGES = 20;
 
 	/**
 	 * This servlet requires slightly different initialization parameters from most
@@ -51,6 +60,43 @@ public class ImageServlet extends JAMWikiServlet {
 	 */
 	public ImageServlet() {
 		this.layout = false;
+		// default to caching for one hour; can be changed using the cacheSeconds
+		// property in jamwiki-servlet.xml
+		this.setCacheSeconds(3600);
+	}
+
+	/**
+	 * Database files are validated using the file version ID, which identifies
+	 * immutable file data, while filesystem files use the file size and
+	 * modification time.  No file data is read.
+	 */
+	protected String buildEntityTag(HttpServletRequest request, WikiPageInfo pageInfo) throws Exception {
+		File file = this.retrieveFile(request);
+		if (file != null) {
+			return (file.isFile()) ? file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified() : null;
+		}
+		int[] args = this.parseDatabaseFileRequest(request);
+		if (args == null) {
+			return null;
+		}
+		int fileVersionId = args[1];
+		if (fileVersionId == 0) {
+			// request is for the current version, so look up its version ID
+			ImageData imageInfo = WikiBase.getDataHandler().getImageInfo(args[0], args[2]);
+			if (imageInfo == null) {
+				return null;
+			}
+			fileVersionId = imageInfo.fileVersionId;
+		}
+		return "db|" + fileVersionId + '|' + args[2];
+	}
+
+	/**
+	 * Only filesystem files have a known modification time.
+	 */
+	protected long buildLastModified(HttpServletRequest request, WikiPageInfo pageInfo) {
+		File file = this.retrieveFile(request);
+		return (file != null && file.isFile()) ? file.lastModified() : -1;
 	}
 
 	/**
@@ -65,7 +111,7 @@ public class ImageServlet extends JAMWikiServlet {
 		if (file == null) {
 			this.streamFileFromDatabase(request, response);
 		} else {
-			this.streamFileFromFileSystem(file, response);
+			this.streamFileFromFileSystem(file, request, response);
 		}
 		return null;
 	}
@@ -86,57 +132,140 @@ public class ImageServlet extends JAMWikiServlet {
 	}
 
 	/**
-	 * Serve a file from the database.  In some cases users may choose to store
-	 * files directly in the database, and this method provides a way of serving
-	 * those files.
+	 * Parse a database file request URL, returning an array containing the file
+	 * ID, the file version ID (zero for the current version) and the resize
+	 * dimension (zero for the original file), or <code>null</code> if the URL is
+	 * not a valid database file URL.
 	 */
-	private void streamFileFromDatabase(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+	private int[] parseDatabaseFileRequest(HttpServletRequest request) {
 		String filename = request.getRequestURI().substring(request.getContextPath().length() + 1);
 		Object[] args;
 		try {
 			args = ImageUtil.DB_FILE_URL_FORMAT.parse(filename);
 		} catch (ParseException e) {
 			logger.debug("Invalid database file request: " + filename);
+			return null;
+		}
+		return new int[]{Integer.parseInt(args[1].toString()), Integer.parseInt(args[2].toString()), Integer.parseInt(args[3].toString())};
+	}
+
+	/**
+	 * Serve a file from the database.  In some cases users may choose to store
+	 * files directly in the database, and this method provides a way of serving
+	 * those files.
+	 */
+	private void streamFileFromDatabase(HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+		int[] args = this.parseDatabaseFileRequest(request);
+		if (args == null) {
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
 			return;
 		}
-		int fileId = Integer.parseInt(args[1].toString());
-		int fileVersionId = Integer.parseInt(args[2].toString());
-		int resized = Integer.parseInt(args[3].toString());
-		ImageData imageData;
+		int fileId = args[0];
+		int fileVersionId = args[1];
+		int resized = args[2];
+		// the data handler buffers large files in a temporary file rather than
+		// loading them into memory
+		ImageStreamHandler handler = new ImageStreamHandler() {
+			public void handleImageStream(ImageData imageInfo, InputStream data) throws IOException {
+				response.setContentType(imageInfo.mimeType);
+				// setContentLength() only accepts an int, so set the header directly
+				response.setHeader("Content-Length", Long.toString(imageInfo.dataLength));
+				OutputStream os = null;
+				try {
+					os = response.getOutputStream();
+					IOUtils.copyLarge(data, os);
+				} finally {
+					IOUtils.closeQuietly(os);
+				}
+			}
+		};
+		boolean found;
 		try {
 			if (fileVersionId != 0) {
-				imageData = WikiBase.getDataHandler().getImageVersionData(fileVersionId, resized);
+				found = WikiBase.getDataHandler().streamImageVersionData(fileVersionId, resized, handler);
 			} else {
-				imageData = WikiBase.getDataHandler().getImageData(fileId, resized);
+				found = WikiBase.getDataHandler().streamImageData(fileId, resized, handler);
 			}
 		} catch (DataAccessException dae) {
 			throw new ServletException(dae);
 		}
-		if (imageData == null) {
+		if (!found) {
 			logger.debug("Database file does not exist: fileId=" + fileId + " / fileVersionId=" + fileVersionId + " / resized=" + resized + " / request=" + request.getRequestURI());
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-			return;
 		}
-		response.setContentType(imageData.mimeType);
-		response.setContentLength(imageData.data.length);
-		OutputStream os = null;
+	}
+
+	/**
+	 * Parse the HTTP <code>Range</code> header for a request, returning a list of
+	 * inclusive start and end byte offsets.  If the request does not contain a
+	 * valid range header, or if an <code>If-Range</code> header indicates that
+	 * the client's copy is out of date, then <code>null</code> is returned and
+	 * the complete file should be served.  If none of the requested ranges can
+	 * be satisfied an empty list is returned.
+	 */
+	private List<long[]> parseRanges(HttpServletRequest request, long lastModified, long length) {
+		String header = request.getHeader("Range");
+		if (header == null || !header.startsWith("bytes=")) {
+			return null;
+		}
+		if (request.getHeader("If-Range") != null) {
+			// only date validators are supported for If-Range
+			long ifRange = -1;
+			try {
+				ifRange = request.getDateHeader("If-Range");
+			} catch (IllegalArgumentException e) {
+				// entity tag or invalid date
+			}
+			if (ifRange == -1 || (lastModified / 1000) > (ifRange / 1000)) {
+				return null;
+			}
+		}
+		String[] specs = header.substring("bytes=".length()).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<long[]> ranges = new ArrayList<long[]>();
 		try {
-			os = response.getOutputStream();
-			os.write(imageData.data);
-		} finally {
-			IOUtils.closeQuietly(os);
+			for (String spec : specs) {
+				spec = spec.trim();
+				int pos = spec.indexOf('-');
+				if (pos == -1) {
+					return null;
+				}
+				long start;
+				long end;
+				if (pos == 0) {
+					// suffix range such as "-500", meaning the last 500 bytes
+					long suffix = Long.parseLong(spec.substring(1));
+					start = Math.max(0, length - suffix);
+					end = (suffix == 0) ? -1 : length - 1;
+				} else {
+					start = Long.parseLong(spec.substring(0, pos));
+					end = (pos == spec.length() - 1) ? Long.MAX_VALUE : Long.parseLong(spec.substring(pos + 1));
+					if (end < start) {
+						return null;
+					}
+					end = Math.min(end, length - 1);
+				}
+				if (start < length && end >= start) {
+					ranges.add(new long[]{start, end});
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
 		}
+		return ranges;
 	}
 
 	/**
 	 * Serve a file from the filesystem.  This is less efficient than serving the file
 	 * directly via Tomcat or Apache, but allows files to be stored outside of the
-	 * webapp and thus keeps wiki data (files) separate from application code.
+	 * webapp and thus keeps wiki data (files) separate from application code.  File
+	 * data is copied to the response using <code>FileChannel.transferTo</code>
+	 * rather than through a heap buffer, and <code>Range</code> requests are
+	 * supported so that downloads of large files can be resumed.
 	 */
-	private void streamFileFromFileSystem(File file, HttpServletResponse response) throws ServletException, IOException {
-		ServletOutputStream out = null;
-		InputStream in = null;
+	private void streamFileFromFileSystem(File file, HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		if (file.isDirectory() || !file.canRead()) {
 			logger.debug("File does not exist: " + file.getAbsolutePath());
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -146,16 +275,75 @@ public class ImageServlet extends JAMWikiServlet {
 		if (mimeType == null) {
 			mimeType = WikiFile.UNKNOWN_MIME_TYPE;
 		}
+		long length = file.length();
+		response.setHeader("Accept-Ranges", "bytes");
+		List<long[]> ranges = this.parseRanges(request, file.lastModified(), length);
+		if (ranges != null && ranges.isEmpty()) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+		FileInputStream in = null;
+		OutputStream out = null;
 		try {
-			response.setContentType(mimeType);
-			response.setContentLength((int)file.length());
-			out = response.getOutputStream();
 			in = new FileInputStream(file);
-			IOUtils.copy(in, out);
+			FileChannel channel = in.getChannel();
+			if (ranges == null) {
+				response.setContentType(mimeType);
+				// setContentLength() only accepts an int, so set the header directly
+				response.setHeader("Content-Length", Long.toString(length));
+				out = response.getOutputStream();
+				ImageServlet.transfer(channel, 0, length, out);
+			} else if (ranges.size() == 1) {
+				long[] range = ranges.get(0);
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setContentType(mimeType);
+				response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+				response.setHeader("Content-Length", Long.toString(range[1] - range[0] + 1));
+				out = response.getOutputStream();
+				ImageServlet.transfer(channel, range[0], range[1] - range[0] + 1, out);
+			} else {
+				// multiple ranges are returned as a multipart/byteranges response
+				List<byte[]> partHeaders = new ArrayList<byte[]>();
+				long contentLength = 0;
+				for (long[] range : ranges) {
+					String partHeader = "\r\n--" + MULTIPART_BOUNDARY + "\r\nContent-Type: " + mimeType + "\r\nContent-Range: bytes " + range[0] + "-" + range[1] + "/" + length + "\r\n\r\n";
+					partHeaders.add(partHeader.getBytes("ISO-8859-1"));
+					contentLength += partHeaders.get(partHeaders.size() - 1).length + (range[1] - range[0] + 1);
+				}
+				byte[] closingBoundary = ("\r\n--" + MULTIPART_BOUNDARY + "--\r\n").getBytes("ISO-8859-1");
+				contentLength += closingBoundary.length;
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setContentType("multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+				response.setHeader("Content-Length", Long.toString(contentLength));
+				out = response.getOutputStream();
+				for (int i = 0; i < ranges.size(); i++) {
+					long[] range = ranges.get(i);
+					out.write(partHeaders.get(i));
+					ImageServlet.transfer(channel, range[0], range[1] - range[0] + 1, out);
+				}
+				out.write(closingBoundary);
+			}
 			out.flush();
 		} finally {
 			IOUtils.closeQuietly(in);
 			IOUtils.closeQuietly(out);
 		}
 	}
+
+	/**
+	 * Copy a portion of a file to an output stream using
+	 * <code>FileChannel.transferTo</code>.
+	 */
+	private static void transfer(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+		WritableByteChannel target = Channels.newChannel(out);
+		while (count > 0) {
+			long transferred = channel.transferTo(position, count, target);
+			if (transferred <= 0) {
+				throw new IOException("File was truncated while being served");
+			}
+			position += transferred;
+			count -= transferred;
+		}
+	}
 }
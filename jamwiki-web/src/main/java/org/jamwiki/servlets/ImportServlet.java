@@ -72,8 +72,12 @@ public class ImportServlet extends JAMWikiServlet {
 				String virtualWiki = pageInfo.getVirtualWikiName();
 				String ipAddress = ServletUtil.getIpAddress(request);
 				Locale locale = request.getLocale();
-				List<String> successfulImports = MigrationUtil.importFromFile(file, virtualWiki, user, ipAddress, locale);
-				file.delete();
+				List<String> successfulImports = null;
+				try {
+					successfulImports = MigrationUtil.importFromFile(file, virtualWiki, user, ipAddress, locale);
+				} finally {
+					file.delete();
+				}
 				next.addObject("successfulImports", successfulImports);
 				break;
 			}
@@ -26,14 +26,16 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.jamwiki.authentication.JAMWikiAuthenticationConstants;
+import org.jamwiki.db.RequestDataContext;
 import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
 
 /**
  * Perform filtering of all Wiki page requests, including setting the
- * character encoding to UTF-8 and verifying that no setup or upgrade is
- * required.
+ * character encoding to UTF-8, verifying that no setup or upgrade is
+ * required, and binding a {@link RequestDataContext} for the duration of
+ * the request.
  */
 public class JAMWikiFilter implements Filter {
 
@@ -56,10 +58,18 @@ public class JAMWikiFilter implements Filter {
 		if (WikiUtil.WEBAPP_CONTEXT_PATH == null && request instanceof HttpServletRequest) {
 			WikiUtil.WEBAPP_CONTEXT_PATH = ((HttpServletRequest)request).getContextPath();
 		}
-		if (redirectNeeded(request, response)) {
-			return;
+		RequestDataContext.bind();
+		try {
+			if (redirectNeeded(request, response)) {
+				return;
+			}
+			chain.doFilter(request, response);
+		} finally {
+			RequestDataContext context = RequestDataContext.unbind();
+			if (logger.isDebugEnabled() && context != null && context.getTotalHits() > 0 && request instanceof HttpServletRequest) {
+				logger.debug("Request data context for " + ((HttpServletRequest)request).getRequestURI() + ": " + context);
+			}
 		}
-		chain.doFilter(request, response);
 	}
 
 	/**
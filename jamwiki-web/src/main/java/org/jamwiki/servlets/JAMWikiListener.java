@@ -18,8 +18,14 @@ package org.jamwiki.servlets;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
+import org.jamwiki.WikiBase;
+import org.jamwiki.db.SearchIndexQueue;
+import org.jamwiki.db.TopicMetadataRebuildJob;
+import org.jamwiki.db.TopicVersionConversionJob;
 import org.jamwiki.db.WikiDatabase;
+import org.jamwiki.parser.image.ThumbnailService;
 import org.jamwiki.utils.WikiCache;
+import org.jamwiki.utils.WikiMetrics;
 import org.jamwiki.utils.WikiUtil;
 
 /**
@@ -29,7 +35,9 @@ import org.jamwiki.utils.WikiUtil;
 public class JAMWikiListener implements ServletContextListener {
 
 	/**
-	 * Initialize the database connection pool and disk cache.
+	 * Initialize the database connection pool and disk cache, start indexing
+	 * any topics left in the search index queue, start building the topic name
+	 * filters and indexes, and register the metrics MBean.
 	 *
 	 * @see javax.servlet.ServletContextListener#contextInitialized(javax.servlet.ServletContextEvent)
 	 */
@@ -37,16 +45,27 @@ public class JAMWikiListener implements ServletContextListener {
 		if (!WikiUtil.isFirstUse()) {
 			WikiDatabase.initialize();
 			WikiCache.initialize();
+			if (!WikiUtil.isUpgrade()) {
+				SearchIndexQueue.start();
+				WikiBase.getDataHandler().loadTopicNameStores();
+			}
 		}
+		WikiMetrics.registerMBean();
 	}
 
 	/**
-	 * Clean up the database connection pool and disk cache.
+	 * Clean up the search index queue thread, database connection pool, disk
+	 * cache, image resizing threads and metrics MBean.
 	 *
 	 * @see javax.servlet.ServletContextListener#contextDestroyed(javax.servlet.ServletContextEvent)
 	 */
 	public void contextDestroyed(ServletContextEvent arg0) {
+		SearchIndexQueue.shutdown();
+		TopicMetadataRebuildJob.shutdown();
+		TopicVersionConversionJob.shutdown();
+		ThumbnailService.shutdown();
 		WikiDatabase.shutdown();
 		WikiCache.shutdown();
+		WikiMetrics.unregisterMBean();
 	}
 }
@@ -17,15 +17,24 @@
 package org.jamwiki.servlets;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
+import org.jamwiki.WikiVersion;
 import org.jamwiki.authentication.WikiUserDetailsImpl;
 import org.jamwiki.model.Namespace;
 import org.jamwiki.model.Role;
@@ -34,15 +43,19 @@ import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.Watchlist;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.parser.LinkUtil;
+import org.jamwiki.parser.ParserUtil;
 import org.jamwiki.parser.WikiLink;
 import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiLogger;
+import org.jamwiki.utils.WikiMetrics;
 import org.jamwiki.utils.WikiUtil;
 import org.jamwiki.validator.HoneypotValidator;
 import org.jamwiki.validator.UserBlockValidator;
 import org.jamwiki.validator.UserBlockValidatorInfo;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
+import org.springframework.web.servlet.support.RequestContextUtils;
 
 /**
  * Provides the infrastructure that is common to all JAMWiki servlets.  Unless
@@ -76,6 +89,110 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 	/** Parameter used to indicate that a topic should be the target of a successful login. */
 	protected static final String PARAM_LOGIN_SUCCESS_TARGET = "returnto";
 
+	/**
+	 * Return a value identifying the current representation of the requested
+	 * resource, or <code>null</code> if conditional requests are not supported
+	 * for the request.  The value is used to build the HTTP <code>ETag</code>
+	 * header, and since it is calculated both before and after the request is
+	 * handled it must be cheap to compute - no parsing or file data retrieval
+	 * should be done.
+	 * It must change whenever the response body would change.
+	 *
+	 * @param request The servlet request object.
+	 * @param pageInfo The current WikiPageInfo object.
+	 * @return A value identifying the current representation of the requested
+	 *  resource, or <code>null</code> if conditional requests are not supported.
+	 * @throws Exception Thrown if any error occurs while building the value.
+	 */
+	protected String buildEntityTag(HttpServletRequest request, WikiPageInfo pageInfo) throws Exception {
+		return null;
+	}
+
+	/**
+	 * Return the time at which the requested resource was last modified, or
+	 * <code>-1</code> if the modification time is not known.  This value is used
+	 * to build the HTTP <code>Last-Modified</code> header and, as with
+	 * {@link #buildEntityTag}, must be cheap to compute.
+	 *
+	 * @param request The servlet request object.
+	 * @param pageInfo The current WikiPageInfo object.
+	 * @return The last modification time of the requested resource in
+	 *  milliseconds, or <code>-1</code> if the modification time is not known.
+	 * @throws Exception Thrown if any error occurs while determining the time.
+	 */
+	protected long buildLastModified(HttpServletRequest request, WikiPageInfo pageInfo) throws Exception {
+		return -1;
+	}
+
+	/**
+	 * Return a value identifying everything other than the page content that
+	 * affects a page rendered with the standard layout - the current user and
+	 * their roles, the locale, the virtual wiki settings, and the versions of
+	 * the sidebar, header, footer and stylesheet topics.  Servlets that
+	 * support conditional requests for pages that use the standard layout
+	 * should include this value in their entity tag.
+	 *
+	 * @param request The servlet request object.
+	 * @param pageInfo The current WikiPageInfo object.
+	 * @return A value identifying the current page layout, or <code>null</code>
+	 *  if the layout output is not stable and conditional requests should not
+	 *  be supported.
+	 */
+	protected String buildLayoutEntityTag(HttpServletRequest request, WikiPageInfo pageInfo) throws DataAccessException {
+		StringBuilder result = new StringBuilder();
+		result.append(WikiVersion.CURRENT_WIKI_VERSION);
+		result.append('|').append(Environment.getConfigurationRevision());
+		result.append('|').append(request.getLocale());
+		result.append('|').append(RequestContextUtils.getLocale(request));
+		WikiUserDetailsImpl userDetails = ServletUtil.currentUserDetails();
+		result.append('|').append(userDetails.getUsername());
+		Set<String> authorities = new TreeSet<String>();
+		for (GrantedAuthority authority : userDetails.getAuthorities()) {
+			authorities.add(authority.getAuthority());
+		}
+		result.append('|').append(authorities);
+		String virtualWikiName = pageInfo.getVirtualWikiName();
+		if (virtualWikiName == null) {
+			virtualWikiName = VirtualWiki.defaultVirtualWiki().getName();
+		}
+		VirtualWiki virtualWiki = ServletUtil.retrieveVirtualWiki(virtualWikiName);
+		result.append('|').append(virtualWiki.getName());
+		result.append('|').append(virtualWiki.getSiteName());
+		result.append('|').append(virtualWiki.getRootTopicName());
+		result.append('|').append(virtualWiki.getLogoImageUrl());
+		String[] layoutTopics = {WikiBase.SPECIAL_PAGE_SIDEBAR, WikiBase.SPECIAL_PAGE_HEADER, WikiBase.SPECIAL_PAGE_FOOTER, WikiBase.SPECIAL_PAGE_SYSTEM_CSS, WikiBase.SPECIAL_PAGE_CUSTOM_CSS};
+		for (String layoutTopic : layoutTopics) {
+			String topicTag = this.buildTopicEntityTag(virtualWiki.getName(), layoutTopic);
+			if (topicTag == null) {
+				return null;
+			}
+			result.append('|').append(topicTag);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Return a value identifying the current rendered output of a topic, or
+	 * <code>null</code> if the topic's rendered output is not stable.  Topics
+	 * that do not exist are identified by a value of zero.
+	 *
+	 * @param virtualWiki The virtual wiki for the topic.
+	 * @param topicName The name of the topic.
+	 * @return A value identifying the topic's current rendered output, or
+	 *  <code>null</code> if the output is not stable.
+	 */
+	protected String buildTopicEntityTag(String virtualWiki, String topicName) throws DataAccessException {
+		Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, false);
+		if (topic == null) {
+			return "0";
+		}
+		String renderedTopicRevision = ParserUtil.renderedTopicRevision(topic.getVirtualWiki(), topic.getName());
+		if (renderedTopicRevision == null) {
+			return null;
+		}
+		return topic.getCurrentVersionId() + "." + renderedTopicRevision;
+	}
+
 	/**
 	 * This method ensures that the left menu, logo, and other required values
 	 * have been loaded into the session object.
@@ -140,6 +257,7 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 				links.put("Special:Maintenance", new WikiMessage("tab.admin.maintenance"));
 				links.put("Special:VirtualWiki", new WikiMessage("tab.admin.vwiki"));
 				links.put("Special:Roles", new WikiMessage("tab.admin.roles"));
+				links.put("Special:Metrics", new WikiMessage("tab.admin.metrics"));
 			}
 			if (userDetails.hasRole(Role.ROLE_TRANSLATE)) {
 				links.put("Special:Translation", new WikiMessage("tab.admin.translations"));
@@ -262,6 +380,81 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 		return links;
 	}
 
+	/**
+	 * If the client's <code>If-None-Match</code> or <code>If-Modified-Since</code>
+	 * headers indicate that its copy of the resource is current then set a 304
+	 * (Not Modified) status along with the <code>ETag</code> and
+	 * <code>Last-Modified</code> headers.  This method is called before any page
+	 * content is generated.
+	 *
+	 * @return <code>true</code> if a 304 status has been set and no further
+	 *  processing of the request should be done.
+	 */
+	private boolean handleConditionalRequest(HttpServletRequest request, HttpServletResponse response, WikiPageInfo pageInfo) throws Exception {
+		if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+			return false;
+		}
+		String entityTag = this.buildEntityTag(request, pageInfo);
+		long lastModified = this.buildLastModified(request, pageInfo);
+		if (entityTag != null) {
+			entityTag = '"' + DigestUtils.md5Hex(entityTag) + '"';
+		}
+		boolean notModified = false;
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			// if-none-match takes precedence over if-modified-since
+			notModified = (entityTag != null && JAMWikiServlet.matchesEntityTag(ifNoneMatch, entityTag));
+		} else if (lastModified > 0) {
+			long ifModifiedSince = -1;
+			try {
+				ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			} catch (IllegalArgumentException e) {
+				// invalid date, ignore the header
+			}
+			// HTTP dates have a resolution of one second
+			notModified = (ifModifiedSince != -1 && (lastModified / 1000) <= (ifModifiedSince / 1000));
+		}
+		if (notModified) {
+			this.setValidatorHeaders(response, entityTag, lastModified);
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		}
+		return notModified;
+	}
+
+	/**
+	 * Set the <code>ETag</code> and <code>Last-Modified</code> headers for a
+	 * successful response.  The values are calculated after the page has been
+	 * generated so that they reflect any rendered topic output cached while
+	 * generating it, and no headers are set if the output is not cacheable.
+	 */
+	private void addValidatorHeaders(HttpServletRequest request, HttpServletResponse response, WikiPageInfo pageInfo) {
+		if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+			return;
+		}
+		try {
+			String entityTag = this.buildEntityTag(request, pageInfo);
+			if (entityTag != null) {
+				entityTag = '"' + DigestUtils.md5Hex(entityTag) + '"';
+			}
+			this.setValidatorHeaders(response, entityTag, this.buildLastModified(request, pageInfo));
+		} catch (Exception e) {
+			// the response is still valid without validators
+			logger.warn("Failure while building validators for " + request.getRequestURI(), e);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void setValidatorHeaders(HttpServletResponse response, String entityTag, long lastModified) {
+		if (entityTag != null) {
+			response.setHeader("ETag", entityTag);
+		}
+		if (lastModified > 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+	}
+
 	/**
 	 * Handle redirection cases, such as case-sensitive issues or legacy support.
 	 */
@@ -329,8 +522,15 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 				}
 				if (blockedUserModelAndView != null) {
 					next = blockedUserModelAndView;
+				} else if (this.handleConditionalRequest(request, response, pageInfo)) {
+					// the client's copy is current, so return a 304 with no body
+					next = null;
 				} else {
-					next = this.handleJAMWikiRequest(request, response, next, pageInfo);
+					ValidatorResponse validatorResponse = new ValidatorResponse(request, response, pageInfo);
+					next = this.handleJAMWikiRequest(request, validatorResponse, next, pageInfo);
+					if (next != null && pageInfo.getErrors().isEmpty() && !StringUtils.startsWith(next.getViewName(), ServletUtil.SPRING_REDIRECT_PREFIX)) {
+						validatorResponse.addValidatorHeaders();
+					}
 				}
 				if (next != null && this.layout) {
 					this.loadLayout(request, next, pageInfo);
@@ -343,6 +543,7 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 			return this.viewError(request, response, t);
 		}
 		long execution = System.currentTimeMillis() - start;
+		WikiMetrics.timer(WikiMetrics.TIMER_SERVLET, this.getClass().getSimpleName()).record(TimeUnit.MILLISECONDS.toNanos(execution));
 		if (execution > JAMWikiServlet.SLOW_PAGE_LIMIT) {
 			logger.info("Slow page loading time: " + request.getRequestURI() + " (" + (execution / 1000.000) + " s.)");
 		}
@@ -407,6 +608,24 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 		return next;
 	}
 
+	/**
+	 * Determine whether an <code>If-None-Match</code> header value matches an
+	 * entity tag.  Weak comparison is used, as required for
+	 * <code>If-None-Match</code>.
+	 */
+	private static boolean matchesEntityTag(String ifNoneMatch, String entityTag) {
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(entityTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * This method ensures that values required for rendering a JSP page have
 	 * been loaded into the ModelAndView object.  Examples of values that
@@ -474,4 +693,90 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 		next.addObject(ServletUtil.PARAMETER_PAGE_INFO, pageInfo);
 		return next;
 	}
+
+	/**
+	 * Response wrapper that records the response status and that adds the
+	 * <code>ETag</code> and <code>Last-Modified</code> headers to successful
+	 * responses.  Servlets that write the response body directly trigger the
+	 * headers when the body is first written, while servlets that return a view
+	 * have the headers added once the request has been handled.
+	 */
+	private class ValidatorResponse extends HttpServletResponseWrapper {
+
+		private final WikiPageInfo pageInfo;
+		private final HttpServletRequest request;
+		private int status = HttpServletResponse.SC_OK;
+		private boolean validated = false;
+
+		/**
+		 *
+		 */
+		ValidatorResponse(HttpServletRequest request, HttpServletResponse response, WikiPageInfo pageInfo) {
+			super(response);
+			this.request = request;
+			this.pageInfo = pageInfo;
+		}
+
+		/**
+		 * Add the validator headers if the response status indicates success and
+		 * the headers have not already been added.
+		 */
+		void addValidatorHeaders() {
+			if (this.validated) {
+				return;
+			}
+			this.validated = true;
+			if (this.status == HttpServletResponse.SC_OK) {
+				JAMWikiServlet.this.addValidatorHeaders(this.request, (HttpServletResponse)this.getResponse(), this.pageInfo);
+			}
+		}
+
+		/**
+		 *
+		 */
+		public ServletOutputStream getOutputStream() throws IOException {
+			this.addValidatorHeaders();
+			return super.getOutputStream();
+		}
+
+		/**
+		 *
+		 */
+		public PrintWriter getWriter() throws IOException {
+			this.addValidatorHeaders();
+			return super.getWriter();
+		}
+
+		/**
+		 *
+		 */
+		public void sendError(int sc) throws IOException {
+			this.status = sc;
+			super.sendError(sc);
+		}
+
+		/**
+		 *
+		 */
+		public void sendError(int sc, String msg) throws IOException {
+			this.status = sc;
+			super.sendError(sc, msg);
+		}
+
+		/**
+		 *
+		 */
+		public void sendRedirect(String location) throws IOException {
+			this.status = HttpServletResponse.SC_FOUND;
+			super.sendRedirect(location);
+		}
+
+		/**
+		 *
+		 */
+		public void setStatus(int sc) {
+			this.status = sc;
+			super.setStatus(sc);
+		}
+	}
 }
@@ -59,6 +59,12 @@ public class LogServlet extends JAMWikiServlet {
 		next.addObject("logTypes", LogItem.LOG_TYPES);
 		int numLogs = logItems.size();
 		next.addObject("numLogs", numLogs);
+		if (numLogs > 0) {
+			LogItem first = logItems.get(0);
+			LogItem last = logItems.get(numLogs - 1);
+			next.addObject("previousCursor", pagination.previousCursor(first.getLogDate(), first.getTopicVersionId(), numLogs));
+			next.addObject("nextCursor", pagination.nextCursor(last.getLogDate(), last.getTopicVersionId(), numLogs));
+		}
 		pageInfo.setPageTitle(new WikiMessage("log.title"));
 		pageInfo.setContentJsp(JSP_LOG);
 		pageInfo.setSpecial(true);
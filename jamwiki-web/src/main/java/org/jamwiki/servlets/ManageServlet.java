@@ -125,7 +125,7 @@ public class ManageServlet extends JAMWikiServlet {
 		WikiUser user = ServletUtil.currentWikiUser();
 		TopicVersion topicVersion = new TopicVersion(user, ServletUtil.getIpAddress(request), null, topic.getTopicContent(), 0);
 		topicVersion.setEditType(TopicVersion.EDIT_PERMISSION);
-		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null, null);
 		pageInfo.addMessage(new WikiMessage("manage.message.updated", topicName));
 		view(request, next, pageInfo);
 	}
@@ -0,0 +1,108 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.jamwiki.WikiException;
+import org.jamwiki.WikiMessage;
+import org.jamwiki.model.Role;
+import org.jamwiki.utils.WikiLogger;
+import org.jamwiki.utils.WikiMetrics;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Used to display the timers and counters collected by the
+ * {@link WikiMetrics} registry as an admin page.  Prometheus text format is
+ * served separately by {@link PrometheusServlet}.
+ */
+public class MetricsServlet extends JAMWikiServlet {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(MetricsServlet.class.getName());
+	/** The name of the JSP file used to render the servlet output. */
+	protected static final String JSP_ADMIN_METRICS = "admin-metrics.jsp";
+
+	/**
+	 * This method handles the request after its parent class receives control.
+	 *
+	 * @param request - Standard HttpServletRequest object.
+	 * @param response - Standard HttpServletResponse object.
+	 * @return A <code>ModelAndView</code> object to be handled by the rest of the Spring framework.
+	 */
+	public ModelAndView handleJAMWikiRequest(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+		if ("reset".equals(request.getParameter("function"))) {
+			if (!ServletUtil.currentUserDetails().hasRole(Role.ROLE_SYSADMIN)) {
+				WikiMessage messageObject = new WikiMessage("login.message.admin");
+				return ServletUtil.viewLogin(request, pageInfo, "Special:Metrics", messageObject);
+			}
+			reset(request, pageInfo);
+		}
+		view(request, next, pageInfo);
+		return next;
+	}
+
+	/**
+	 * Return cache counters keyed by cache name, each value being an array of
+	 * hits, misses, evictions and expirations.
+	 */
+	private SortedMap<String, long[]> cacheMetrics(SortedMap<String, SortedMap<String, Long>> counters) {
+		String[] families = {WikiMetrics.COUNTER_CACHE_HITS, WikiMetrics.COUNTER_CACHE_MISSES, WikiMetrics.COUNTER_CACHE_EVICTIONS, WikiMetrics.COUNTER_CACHE_EXPIRATIONS};
+		SortedMap<String, long[]> result = new TreeMap<String, long[]>();
+		for (int i = 0; i < families.length; i++) {
+			if (!counters.containsKey(families[i])) {
+				continue;
+			}
+			for (Map.Entry<String, Long> counter : counters.get(families[i]).entrySet()) {
+				long[] values = result.get(counter.getKey());
+				if (values == null) {
+					values = new long[families.length];
+					result.put(counter.getKey(), values);
+				}
+				values[i] = counter.getValue();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Metrics can only be reset by a form post that includes the session's form
+	 * token so that a link on another site cannot reset them.
+	 */
+	private void reset(HttpServletRequest request, WikiPageInfo pageInfo) throws WikiException {
+		if (!ServletUtil.isValidFormPost(request)) {
+			throw new WikiException(new WikiMessage("common.exception.formtoken"));
+		}
+		WikiMetrics.reset();
+		logger.info("Metrics reset");
+		pageInfo.addMessage(new WikiMessage("admin.metrics.message.reset"));
+	}
+
+	/**
+	 *
+	 */
+	private void view(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) {
+		next.addObject(ServletUtil.PARAMETER_FORM_TOKEN, ServletUtil.formToken(request));
+		next.addObject("timers", WikiMetrics.getTimers());
+		next.addObject("caches", this.cacheMetrics(WikiMetrics.getCounters()));
+		pageInfo.setContentJsp(JSP_ADMIN_METRICS);
+		pageInfo.setAdmin(true);
+		pageInfo.setPageTitle(new WikiMessage("admin.metrics.title"));
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.utils.WikiLogger;
+import org.jamwiki.utils.WikiMetrics;
+
+/**
+ * Serve the timers and counters collected by the {@link WikiMetrics} registry
+ * in Prometheus text format.  Since a Prometheus server cannot log in to the
+ * wiki this servlet is not protected by Spring Security.  Instead a request
+ * is allowed if it originates from an address listed in the
+ * <code>metrics-prometheus-addresses</code> property, or if the
+ * <code>metrics-prometheus-token</code> property is set and the request
+ * includes the header <code>Authorization: Bearer &lt;token&gt;</code>.
+ */
+public class PrometheusServlet extends HttpServlet {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(PrometheusServlet.class.getName());
+	/** Content type defined by the Prometheus text exposition format. */
+	private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4";
+	private static final String BEARER_PREFIX = "Bearer ";
+
+	/**
+	 *
+	 */
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (!this.isAllowed(request)) {
+			logger.info("Prometheus metrics request denied for " + ServletUtil.getIpAddress(request));
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+		response.setContentType(PROMETHEUS_CONTENT_TYPE);
+		response.setCharacterEncoding("UTF-8");
+		PrintWriter out = response.getWriter();
+		out.print(WikiMetrics.toPrometheus());
+		out.close();
+	}
+
+	/**
+	 * Determine whether the request is from an allowed address or includes the
+	 * configured bearer token.
+	 */
+	private boolean isAllowed(HttpServletRequest request) {
+		String token = Environment.getValue(Environment.PROP_METRICS_PROMETHEUS_TOKEN);
+		String authorization = request.getHeader("Authorization");
+		if (!StringUtils.isBlank(token) && authorization != null && authorization.startsWith(BEARER_PREFIX)) {
+			byte[] expected = token.trim().getBytes();
+			byte[] actual = authorization.substring(BEARER_PREFIX.length()).trim().getBytes();
+			if (MessageDigest.isEqual(expected, actual)) {
+				return true;
+			}
+		}
+		String ipAddress = ServletUtil.getIpAddress(request);
+		String[] addresses = StringUtils.split(Environment.getValue(Environment.PROP_METRICS_PROMETHEUS_ADDRESSES), ", ");
+		if (addresses != null) {
+			for (String address : addresses) {
+				if (address.equals(ipAddress)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
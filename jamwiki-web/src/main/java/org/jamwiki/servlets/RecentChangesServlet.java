@@ -53,6 +53,7 @@ public class RecentChangesServlet extends JAMWikiServlet {
 		List<RecentChange> changes = WikiBase.getDataHandler().getRecentChanges(virtualWiki, pagination, true);
 		next.addObject("changes", changes);
 		next.addObject("numChanges", changes.size());
+		ServletUtil.loadPaginationCursors(next, pagination, changes);
 		pageInfo.setPageTitle(new WikiMessage("recentchanges.title"));
 		pageInfo.setContentJsp(JSP_RECENT_CHANGES);
 		pageInfo.setSpecial(true);
@@ -16,6 +16,7 @@
  */
 package org.jamwiki.servlets;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +28,7 @@ import org.apache.commons.lang3.math.NumberUtils;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiConfiguration;
 import org.jamwiki.WikiMessage;
+import org.jamwiki.model.Namespace;
 import org.jamwiki.model.SearchResultEntry;
 import org.jamwiki.parser.LinkUtil;
 import org.jamwiki.utils.WikiLogger;
@@ -34,7 +36,8 @@ import org.jamwiki.utils.WikiUtil;
 import org.springframework.web.servlet.ModelAndView;
 
 /**
- * Used to display search results.
+ * Used to display search results, and to return topic name suggestions for
+ * partially-typed search text.
  *
  * @see org.jamwiki.SearchEngine
  */
@@ -43,11 +46,20 @@ public class SearchServlet extends JAMWikiServlet {
 	private static final WikiLogger logger = WikiLogger.getLogger(SearchServlet.class.getName());
 	/** The name of the JSP file used to render the servlet output when searching. */
 	protected static final String JSP_SEARCH = "search.jsp";
+	/** Default number of topic names returned by Special:Suggest. */
+	private static final int SUGGEST_DEFAULT_LIMIT = 10;
+	/** Maximum number of topic names that may be requested from Special:Suggest. */
+	private static final int SUGGEST_MAX_LIMIT = 50;
 
 	/**
 	 *
 	 */
 	public ModelAndView handleJAMWikiRequest(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+		if (ServletUtil.isTopic(request, "Special:Suggest")) {
+			suggest(request, response, pageInfo);
+			// do not load defaults or redirect - return as raw JSON
+			return null;
+		}
 		if (request.getParameter("jumpto") == null) {
 			search(request, next, pageInfo);
 		} else {
@@ -71,6 +83,26 @@ public class SearchServlet extends JAMWikiServlet {
 		}
 	}
 
+	/**
+	 * Escape a value for use as a JSON string.
+	 */
+	private static String escapeJson(String value) {
+		StringBuilder result = new StringBuilder(value.length() + 2);
+		result.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				result.append('\\').append(c);
+			} else if (c < 0x20 || c == '<' || c == '>' || c == '&') {
+				// escape markup characters so that the response is safe to embed in a page
+				result.append(String.format("\\u%04x", (int)c));
+			} else {
+				result.append(c);
+			}
+		}
+		return result.append('"').toString();
+	}
+
 	/**
 	 *
 	 */
@@ -105,4 +137,48 @@ public class SearchServlet extends JAMWikiServlet {
 		pageInfo.setContentJsp(JSP_SEARCH);
 		pageInfo.setSpecial(true);
 	}
+
+	/**
+	 * Return the number of topic names to return for a Special:Suggest
+	 * request, given the value of the "limit" parameter.  Missing or invalid
+	 * values return the default limit, and other values are constrained to
+	 * the range 1 through {@link #SUGGEST_MAX_LIMIT}.
+	 */
+	protected static int suggestLimit(String limit) {
+		return Math.max(1, Math.min(NumberUtils.toInt(limit, SUGGEST_DEFAULT_LIMIT), SUGGEST_MAX_LIMIT));
+	}
+
+	/**
+	 * Write topic names that begin with the "text" parameter as a JSON array in
+	 * the OpenSearch suggestions format, for example
+	 * <code>["Sta",["StartingPoints","Stars"]]</code>.  An optional "ns"
+	 * parameter limits results to a namespace, and an optional "limit"
+	 * parameter specifies the maximum number of results.
+	 */
+	private void suggest(HttpServletRequest request, HttpServletResponse response, WikiPageInfo pageInfo) throws Exception {
+		String text = StringUtils.defaultString(WikiUtil.getParameterFromRequest(request, "text", false));
+		Namespace namespace = null;
+		if (!StringUtils.isBlank(request.getParameter("ns"))) {
+			namespace = Namespace.namespace(NumberUtils.toInt(request.getParameter("ns"), Namespace.MAIN_ID));
+		}
+		int limit = suggestLimit(request.getParameter("limit"));
+		List<String> suggestions = new ArrayList<String>();
+		if (!StringUtils.isBlank(text)) {
+			suggestions = WikiBase.getDataHandler().lookupTopicNameSuggestions(pageInfo.getVirtualWikiName(), namespace, text, limit);
+		}
+		StringBuilder json = new StringBuilder();
+		json.append('[').append(escapeJson(text)).append(",[");
+		for (int i = 0; i < suggestions.size(); i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append(escapeJson(suggestions.get(i)));
+		}
+		json.append("]]");
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		PrintWriter out = response.getWriter();
+		out.print(json.toString());
+		out.close();
+	}
 }
@@ -18,6 +18,8 @@ package org.jamwiki.servlets;
 
 import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -26,6 +28,7 @@ import java.util.Map;
 import java.util.TreeMap;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
@@ -43,6 +46,7 @@ import org.jamwiki.authentication.WikiUserDetailsImpl;
 import org.jamwiki.db.DatabaseConnection;
 import org.jamwiki.model.Category;
 import org.jamwiki.model.Namespace;
+import org.jamwiki.model.RecentChange;
 import org.jamwiki.model.Role;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.TopicType;
@@ -76,12 +80,15 @@ import org.springframework.web.servlet.ModelAndView;
 public class ServletUtil {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ServletUtil.class.getName());
+	/** The name of the request parameter and session attribute used to store the form token. */
+	public static final String PARAMETER_FORM_TOKEN = "formToken";
 	/** The name of the output parameter used to store page information. */
 	public static final String PARAMETER_PAGE_INFO = "pageInfo";
 	/** The name of the output parameter used to store topic information. */
 	public static final String PARAMETER_TOPIC_OBJECT = "topicObject";
 	/** The name of the output parameter used to indicate that Spring should redirect to another servlet. */
 	protected static final String SPRING_REDIRECT_PREFIX = "redirect:";
+	private static final SecureRandom FORM_TOKEN_RANDOM = new SecureRandom();
 
 	/**
 	 *
@@ -302,6 +309,27 @@ public class ServletUtil {
 		return watchlist;
 	}
 
+	/**
+	 * Return the token for the current session that must be submitted with
+	 * forms that change wiki state, creating it if necessary.  Requiring the
+	 * token prevents other sites from submitting such forms on behalf of a
+	 * logged-in user.
+	 *
+	 * @param request The servlet request object.
+	 * @return The form token for the current session.
+	 */
+	public static String formToken(HttpServletRequest request) {
+		HttpSession session = request.getSession();
+		String token = (String)session.getAttribute(PARAMETER_FORM_TOKEN);
+		if (token == null) {
+			byte[] bytes = new byte[16];
+			FORM_TOKEN_RANDOM.nextBytes(bytes);
+			token = Hex.encodeHexString(bytes);
+			session.setAttribute(PARAMETER_FORM_TOKEN, token);
+		}
+		return token;
+	}
+
 	/**
 	 * Duplicate the functionality of the request.getRemoteAddr() method, but
 	 * for IPv6 addresses strip off any local interface information (anything
@@ -534,6 +562,27 @@ public class ServletUtil {
 		return namespaceMap;
 	}
 
+	/**
+	 * Determine whether a request is a POST that includes the form token
+	 * returned by {@link #formToken(HttpServletRequest)} for the current session.
+	 *
+	 * @param request The servlet request object.
+	 * @return <code>true</code> if the request was submitted with the current
+	 *  session's form token, <code>false</code> otherwise.
+	 */
+	public static boolean isValidFormPost(HttpServletRequest request) {
+		if (!"POST".equals(request.getMethod())) {
+			return false;
+		}
+		HttpSession session = request.getSession(false);
+		String expected = (session != null) ? (String)session.getAttribute(PARAMETER_FORM_TOKEN) : null;
+		String actual = request.getParameter(PARAMETER_FORM_TOKEN);
+		if (expected == null || actual == null) {
+			return false;
+		}
+		return MessageDigest.isEqual(expected.getBytes(), actual.getBytes());
+	}
+
 	/**
 	 * Create a Pagination object and load all necessary values into the
 	 * request for processing by a JSP.
@@ -554,6 +603,26 @@ public class ServletUtil {
 		return pagination;
 	}
 
+	/**
+	 * Load the cursors for the pages preceding and following a list of
+	 * changes into the request for use by the pagination tag.
+	 *
+	 * @param next A ModelAndView object corresponding to the page being
+	 *  constructed.
+	 * @param pagination The Pagination object used to retrieve the changes.
+	 * @param changes The list of changes being displayed, sorted with the
+	 *  most recent change first.
+	 */
+	public static void loadPaginationCursors(ModelAndView next, Pagination pagination, List<RecentChange> changes) {
+		if (changes.isEmpty()) {
+			return;
+		}
+		RecentChange first = changes.get(0);
+		RecentChange last = changes.get(changes.size() - 1);
+		next.addObject("previousCursor", pagination.previousCursor(first.getChangeDate(), first.getTopicVersionId(), changes.size()));
+		next.addObject("nextCursor", pagination.nextCursor(last.getChangeDate(), last.getTopicVersionId(), changes.size()));
+	}
+
 	/**
 	 * Utility method for parsing a multipart servlet request.  This method returns
 	 * a list of FileItem objects that corresponds to the request.
@@ -774,9 +843,12 @@ public class ServletUtil {
 	 * @param allowRedirect Setting this parameter to <code>true</code> will force the
 	 *  redirection target to be displayed (rather than a redirect page) if the topic is a
 	 *  redirect.
+	 * @param useCache Set to <code>true</code> if the topic content is the content of the
+	 *  topic's current version, in which case previously rendered output may be retrieved
+	 *  from the cache.  Set to <code>false</code> for previews and historical versions.
 	 * @throws WikiException Thrown if any error occurs while retrieving or parsing the topic.
 	 */
-	protected static void viewTopic(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo, WikiMessage pageTitle, Topic topic, boolean sectionEdit, boolean allowRedirect) throws WikiException {
+	protected static void viewTopic(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo, WikiMessage pageTitle, Topic topic, boolean sectionEdit, boolean allowRedirect, boolean useCache) throws WikiException {
 		// FIXME - what should the default be for topics that don't exist?
 		if (topic == null) {
 			throw new WikiException(new WikiMessage("common.exception.notopic"));
@@ -789,7 +861,11 @@ public class ServletUtil {
 		ParserOutput parserOutput = new ParserOutput();
 		String content = null;
 		try {
-			content = ParserUtil.parse(parserInput, parserOutput, topic.getTopicContent());
+			if (useCache) {
+				content = ParserUtil.parseTopic(parserInput, parserOutput, topic);
+			} else {
+				content = ParserUtil.parse(parserInput, parserOutput, topic.getTopicContent());
+			}
 		} catch (ParserException e) {
 			throw new WikiException(new WikiMessage("error.unknown", e.getMessage()), e);
 		}
@@ -36,6 +36,23 @@ public class StylesheetServlet extends JAMWikiServlet {
 	 */
 	public StylesheetServlet() {
 		this.layout = false;
+		// default to caching for 30 minutes (60 * 30 = 1800); can be changed using
+		// the cacheSeconds property in jamwiki-servlet.xml
+		this.setCacheSeconds(1800);
+	}
+
+	/**
+	 * The stylesheet is validated using the versions of the system and custom
+	 * stylesheet topics.
+	 */
+	protected String buildEntityTag(HttpServletRequest request, WikiPageInfo pageInfo) throws Exception {
+		String virtualWiki = pageInfo.getVirtualWikiName();
+		String systemCssTag = this.buildTopicEntityTag(virtualWiki, WikiBase.SPECIAL_PAGE_SYSTEM_CSS);
+		String customCssTag = this.buildTopicEntityTag(virtualWiki, WikiBase.SPECIAL_PAGE_CUSTOM_CSS);
+		if (systemCssTag == null || customCssTag == null) {
+			return null;
+		}
+		return virtualWiki + '|' + systemCssTag + '|' + customCssTag;
 	}
 
 	/**
@@ -47,9 +64,6 @@ public class StylesheetServlet extends JAMWikiServlet {
 		stylesheet += '\n' + ServletUtil.cachedContent(request.getContextPath(), request.getLocale(), virtualWiki, WikiBase.SPECIAL_PAGE_CUSTOM_CSS, false);
 		response.setContentType("text/css");
 		response.setCharacterEncoding("UTF-8");
-		// cache for 30 minutes (60 * 30 = 1800)
-		// FIXME - make configurable
-		response.setHeader("Cache-Control", "max-age=1800");
 		PrintWriter out = response.getWriter();
 		out.print(stylesheet);
 		out.close();
@@ -21,8 +21,11 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiMessage;
+import org.jamwiki.model.Role;
 import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicType;
 import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.parser.WikiLink;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
 import org.springframework.web.servlet.ModelAndView;
@@ -35,6 +38,41 @@ public class TopicServlet extends JAMWikiServlet {
 	/** Logger for this class and subclasses. */
 	private static final WikiLogger logger = WikiLogger.getLogger(TopicServlet.class.getName());
 
+	/**
+	 * By default browsers must revalidate topics on every request, which allows
+	 * a 304 (Not Modified) response if the topic has not changed.  This behavior
+	 * can be changed using the cacheSeconds property in jamwiki-servlet.xml.
+	 */
+	public TopicServlet() {
+		this.setCacheSeconds(0);
+		this.setUseCacheControlNoStore(false);
+	}
+
+	/**
+	 * Topic pages can be validated using the topic version, the rendered topic
+	 * revision and the page layout.  Redirects and categories are not
+	 * validated since their output depends on other topics.
+	 */
+	protected String buildEntityTag(HttpServletRequest request, WikiPageInfo pageInfo) throws Exception {
+		String virtualWiki = this.retrieveVirtualWikiName(pageInfo);
+		String topicName = this.retrieveTopicName(request, virtualWiki);
+		WikiLink wikiLink = new WikiLink(null, virtualWiki, topicName);
+		Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, wikiLink.getNamespace(), wikiLink.getArticle(), false);
+		if (topic == null || topic.getTopicType() == TopicType.REDIRECT || topic.getTopicType() == TopicType.CATEGORY) {
+			return null;
+		}
+		String topicTag = this.buildTopicEntityTag(virtualWiki, topic.getName());
+		String layoutTag = this.buildLayoutEntityTag(request, pageInfo);
+		if (topicTag == null || layoutTag == null) {
+			return null;
+		}
+		boolean watched = false;
+		if (!ServletUtil.currentUserDetails().hasRole(Role.ROLE_ANONYMOUS)) {
+			watched = ServletUtil.currentWatchlist(request, virtualWiki).containsTopic(topic.getName());
+		}
+		return virtualWiki + '|' + topic.getName() + '|' + request.getQueryString() + '|' + topicTag + '|' + watched + '|' + layoutTag;
+	}
+
 	/**
 	 * This method handles the request after its parent class receives control. It gets the topic's name and the
 	 * virtual wiki name from the uri, loads the topic and returns a view to the end user.
@@ -51,17 +89,31 @@ public class TopicServlet extends JAMWikiServlet {
 	/**
 	 *
 	 */
-	private void view(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+	private String retrieveTopicName(HttpServletRequest request, String virtualWiki) throws Exception {
 		String topicName = WikiUtil.getTopicFromURI(request);
 		if (StringUtils.isBlank(topicName)) {
-			String virtualWikiName = pageInfo.getVirtualWikiName();
-			VirtualWiki virtualWiki = WikiBase.getDataHandler().lookupVirtualWiki(virtualWikiName);
-			topicName = virtualWiki.getRootTopicName();
+			topicName = WikiBase.getDataHandler().lookupVirtualWiki(virtualWiki).getRootTopicName();
 		}
+		return topicName;
+	}
+
+	/**
+	 *
+	 */
+	private String retrieveVirtualWikiName(WikiPageInfo pageInfo) {
 		String virtualWiki = pageInfo.getVirtualWikiName();
 		if (StringUtils.isBlank(virtualWiki)) {
 			virtualWiki = VirtualWiki.defaultVirtualWiki().getName();
 		}
+		return virtualWiki;
+	}
+
+	/**
+	 *
+	 */
+	private void view(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+		String virtualWiki = this.retrieveVirtualWikiName(pageInfo);
+		String topicName = this.retrieveTopicName(request, virtualWiki);
 		Topic topic = ServletUtil.initializeTopic(virtualWiki, topicName);
 		if (topic.getTopicId() <= 0) {
 			// topic does not exist, return 404 and display empty page
@@ -72,6 +124,6 @@ public class TopicServlet extends JAMWikiServlet {
 			next.addObject("notopic", wikiMessage);
 		}
 		WikiMessage pageTitle = new WikiMessage("topic.title", topicName);
-		ServletUtil.viewTopic(request, next, pageInfo, pageTitle, topic, true, true);
+		ServletUtil.viewTopic(request, next, pageInfo, pageTitle, topic, true, true, true);
 	}
 }
\ No newline at end of file
@@ -203,6 +203,6 @@ public class TranslationServlet extends JAMWikiServlet {
 		topic.setTopicType(TopicType.SYSTEM_FILE);
 		WikiUser user = ServletUtil.currentWikiUser();
 		TopicVersion topicVersion = new TopicVersion(user, ServletUtil.getIpAddress(request), null, contents, charactersChanged);
-		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null);
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, null, null);
 	}
 }
@@ -16,16 +16,16 @@
  */
 package org.jamwiki.servlets;
 
-import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
-import java.io.ByteArrayInputStream;
+import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
@@ -34,6 +34,7 @@ import org.jamwiki.model.Namespace;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiUser;
+import org.jamwiki.parser.image.ImageProcessor;
 import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
@@ -97,7 +98,7 @@ public class UploadServlet extends JAMWikiServlet {
 		boolean isImage = true;
 		File uploadedFile = null;
 		String url = null;
-		byte buff[] = null;
+		FileItem uploadedItem = null;
 		for (FileItem fileItem : fileItems) {
 			String fieldName = fileItem.getFieldName();
 			if (fileItem.isFormField()) {
@@ -127,7 +128,8 @@ public class UploadServlet extends JAMWikiServlet {
 				fileItem.write(uploadedFile);
 				isImage = ImageUtil.isImage(uploadedFile);
 			} else {
-				buff = fileItem.get();
+				// keep the item so that the upload can be streamed to the database
+				uploadedItem = fileItem;
 			}
 		}
 		if (ImageUtil.isImagesOnFS() && uploadedFile == null) {
@@ -156,35 +158,51 @@ public class UploadServlet extends JAMWikiServlet {
 			}
 		}
 		ImageData imageData = null;
-		if (!ImageUtil.isImagesOnFS()) {
-			imageData = processImageData(contentType, buff);
-			isImage = (imageData.width >= 0);
+		try {
+			if (!ImageUtil.isImagesOnFS()) {
+				imageData = processImageData(contentType, uploadedItem);
+				isImage = (imageData.width >= 0);
+			}
+			String ipAddress = ServletUtil.getIpAddress(request);
+			WikiUser user = ServletUtil.currentWikiUser();
+			Topic topic = ImageUtil.writeImageTopic(virtualWiki, pageName, contents, user, isImage, ipAddress);
+			WikiFileVersion wikiFileVersion = new WikiFileVersion();
+			wikiFileVersion.setUploadComment(topic.getTopicContent());
+			ImageUtil.writeWikiFile(topic, wikiFileVersion, user, ipAddress, filename, url, contentType, fileSize, imageData);
+			ServletUtil.redirect(next, virtualWiki, topic.getName());
+		} finally {
+			if (imageData != null) {
+				IOUtils.closeQuietly(imageData.dataStream);
+			}
+			if (uploadedItem != null) {
+				// remove any temporary file created for the upload
+				uploadedItem.delete();
+			}
 		}
-		String ipAddress = ServletUtil.getIpAddress(request);
-		WikiUser user = ServletUtil.currentWikiUser();
-		Topic topic = ImageUtil.writeImageTopic(virtualWiki, pageName, contents, user, isImage, ipAddress);
-		WikiFileVersion wikiFileVersion = new WikiFileVersion();
-		wikiFileVersion.setUploadComment(topic.getTopicContent());
-		ImageUtil.writeWikiFile(topic, wikiFileVersion, user, ipAddress, filename, url, contentType, fileSize, imageData);
-		ServletUtil.redirect(next, virtualWiki, topic.getName());
 	}
 
 	/**
-	 * @return ImageData object from uploaded binary data.
+	 * @return ImageData object that streams the uploaded binary data.  Only the
+	 *  image headers are read to determine the image dimensions, and the file
+	 *  data itself is not loaded into memory.
 	 */
-	private ImageData processImageData(String contentType, byte buff[]) {
+	private ImageData processImageData(String contentType, FileItem fileItem) throws IOException {
 		int width = -1;
-		int height = -1; 
+		int height = -1;
+		InputStream is = null;
 		try {
-			BufferedImage image = ImageIO.read(new ByteArrayInputStream(buff));
-			if (image != null) {
-				width = image.getWidth ();
-				height = image.getHeight();
+			is = fileItem.getInputStream();
+			Dimension dimensions = ImageProcessor.retrieveImageDimensions(is);
+			if (dimensions != null) {
+				width = dimensions.width;
+				height = dimensions.height;
 			}
 		} catch (IOException e) {
 			logger.info("Failure while processing image", e);
+		} finally {
+			IOUtils.closeQuietly(is);
 		}
-		return new ImageData(contentType, width, height, buff);
+		return new ImageData(contentType, width, height, fileItem.getInputStream(), fileItem.getSize());
 	}
 
 	/**
@@ -20,6 +20,7 @@ import java.io.IOException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.tagext.BodyTagSupport;
+import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.parser.LinkUtil;
 import org.jamwiki.parser.WikiLink;
@@ -29,12 +30,16 @@ import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiUtil;
 
 /**
- * JSP tag used to generate a pagination object.
+ * JSP tag used to generate a pagination object.  If the <code>nextCursor</code>
+ * or <code>previousCursor</code> attributes are specified then the next and
+ * previous links use cursor pagination, otherwise they use offset pagination.
  */
 public class PaginationTag extends BodyTagSupport {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(PaginationTag.class.getName());
 
+	private String nextCursor = null;
+	private String previousCursor = null;
 	private String rootUrl = null;
 	private String total = null;
 
@@ -79,6 +84,20 @@ public class PaginationTag extends BodyTagSupport {
 		return output;
 	}
 
+	/**
+	 *
+	 */
+	public String getNextCursor() {
+		return this.nextCursor;
+	}
+
+	/**
+	 *
+	 */
+	public String getPreviousCursor() {
+		return this.previousCursor;
+	}
+
 	/**
 	 *
 	 */
@@ -93,6 +112,14 @@ public class PaginationTag extends BodyTagSupport {
 		return this.total;
 	}
 
+	/**
+	 * Cursor pagination is used if either cursor attribute was specified, even
+	 * if its value is empty.
+	 */
+	private boolean isCursorPagination() {
+		return (this.nextCursor != null || this.previousCursor != null);
+	}
+
 	/**
 	 *
 	 */
@@ -101,26 +128,35 @@ public class PaginationTag extends BodyTagSupport {
 		StringBuilder output = new StringBuilder();
 		Object[] objects = new Object[1];
 		objects[0] = pagination.getNumResults();
-		if (pagination.getOffset() == 0 && previous) {
+		String cursor = (previous) ? this.previousCursor : this.nextCursor;
+		if (this.isCursorPagination() && StringUtils.isBlank(cursor)) {
+			output.append(Utilities.formatMessage((previous) ? "common.pagination.previous" : "common.pagination.next", request.getLocale(), objects));
+			return output;
+		}
+		if (!this.isCursorPagination() && pagination.getOffset() == 0 && previous) {
 			output.append(Utilities.formatMessage("common.pagination.previous", request.getLocale(), objects));
 			return output;
 		}
-		if (pagination.getNumResults() != count && !previous) {
+		if (!this.isCursorPagination() && pagination.getNumResults() != count && !previous) {
 			output.append(Utilities.formatMessage("common.pagination.next", request.getLocale(), objects));
 			return output;
 		}
 		output.append("<a href=\"");
 		String virtualWiki = WikiUtil.getVirtualWikiFromRequest(request);
 		WikiLink wikiLink = LinkUtil.parseWikiLink(request.getContextPath(), virtualWiki, baseUrl);
-		int offset = pagination.getOffset() + pagination.getNumResults();
-		if (previous) {
-			offset = pagination.getOffset() - pagination.getNumResults();
-			if (offset < 0) {
-				offset = 0;
+		String query = LinkUtil.appendQueryParam(wikiLink.getQuery(), "num", Integer.toString(pagination.getNumResults()));
+		if (this.isCursorPagination()) {
+			query = LinkUtil.appendQueryParam(query, "from", cursor);
+		} else {
+			int offset = pagination.getOffset() + pagination.getNumResults();
+			if (previous) {
+				offset = pagination.getOffset() - pagination.getNumResults();
+				if (offset < 0) {
+					offset = 0;
+				}
 			}
+			query += "&amp;offset=" + offset;
 		}
-		String query = LinkUtil.appendQueryParam(wikiLink.getQuery(), "num", Integer.toString(pagination.getNumResults()));
-		query += "&amp;offset=" + offset;
 		wikiLink.setQuery(query);
 		try {
 			output.append(LinkUtil.buildTopicUrl(wikiLink));
@@ -175,6 +211,20 @@ public class PaginationTag extends BodyTagSupport {
 		return output.toString();
 	}
 
+	/**
+	 *
+	 */
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 *
+	 */
+	public void setPreviousCursor(String previousCursor) {
+		this.previousCursor = previousCursor;
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,47 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.web.utils;
+
+import java.util.List;
+import org.incava.util.diff.Difference;
+
+/**
+ * Interface for the algorithm used by {@link DiffUtil} to compare two arrays of
+ * values, such as the lines of two topic versions or the characters of a changed
+ * line.  The diff algorithm is specified using the <code>diff-engine</code>
+ * property.
+ *
+ * Results are returned as a list of Difference objects in ascending order.  Each
+ * Difference specifies the range of deleted elements in the old array and the range
+ * of added elements in the new array.  When no elements were deleted the deleted
+ * end is {@link Difference#NONE} and the deleted start is the position in the old
+ * array where the elements were added, and vice versa for the added range.
+ */
+public interface DiffEngine {
+
+	/**
+	 * Compare two arrays and return the differences between them.
+	 *
+	 * @param oldArray The values that are considered as having changed, ie the
+	 *  lines of the earlier version of a topic.
+	 * @param newArray The values being compared to, ie the lines of the later
+	 *  version of a topic.
+	 * @return A list of Difference objects, or an empty list if the arrays are
+	 *  the same.
+	 */
+	List<Difference> diff(String[] oldArray, String[] newArray);
+}
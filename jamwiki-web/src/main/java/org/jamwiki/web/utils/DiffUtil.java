@@ -19,9 +19,12 @@ package org.jamwiki.web.utils;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.commons.lang3.StringUtils;
-import org.incava.util.diff.Diff;
 import org.incava.util.diff.Difference;
 import org.jamwiki.DataAccessException;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.TopicVersion;
+import org.jamwiki.utils.ResourceUtil;
 import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.web.model.WikiDiff;
@@ -36,8 +39,11 @@ public class DiffUtil {
 	/** The number of lines of unchanged text to display before and after each diff. */
 	// FIXME - make this a property value
 	private static final int DIFF_UNCHANGED_LINE_DISPLAY = 2;
-	/** Cache name for the cache of diff information. */
+	/** Cache name for the cache of diff information, keyed by the topic version IDs being compared and the diff settings. */
 	private static final WikiCache<String, List<WikiDiff>> CACHE_DIFF_INFORMATION = new WikiCache<String, List<WikiDiff>>("org.jamwiki.utils.DiffUtil.CACHE_DIFF_INFORMATION");
+	private static final int TOKEN_PUNCTUATION = 0;
+	private static final int TOKEN_WHITESPACE = 1;
+	private static final int TOKEN_WORD = 2;
 
 	/**
 	 *
@@ -45,14 +51,6 @@ public class DiffUtil {
 	private DiffUtil() {
 	}
 
-	/**
-	 *
-	 */
-	private static void addToCache(String newVersion, String oldVersion, List<WikiDiff> results) {
-		String key = generateCacheKey(newVersion, oldVersion);
-		CACHE_DIFF_INFORMATION.addToCache(key, results);
-	}
-
 	/**
 	 * Utility method for determining whether or not to append lines of context around a diff.
 	 */
@@ -114,10 +112,6 @@ public class DiffUtil {
 	 * @return Returns a list of WikiDiff objects that correspond to the changed text.
 	 */
 	public static List<WikiDiff> diff(String newVersion, String oldVersion) throws DataAccessException {
-		List<WikiDiff> result = DiffUtil.retrieveFromCache(newVersion, oldVersion);
-		if (result != null) {
-			return result;
-		}
 		String version1 = newVersion;
 		String version2 = oldVersion;
 		if (version2 == null) {
@@ -130,34 +124,45 @@ public class DiffUtil {
 		// cut & paste or other issues
 		version2 = StringUtils.remove(version2, '\r');
 		version1 = StringUtils.remove(version1, '\r');
-		result = DiffUtil.process(version1, version2);
-		DiffUtil.addToCache(newVersion, oldVersion, result);
+		return DiffUtil.process(version1, version2);
+	}
+
+	/**
+	 * Return a list of WikiDiff objects that can be used to create a display of the
+	 * diff between two topic versions.  Since the content of a topic version does
+	 * not change the result is cached using the topic version IDs, and version
+	 * content is only loaded if the diff is not already cached.
+	 *
+	 * @param newVersion The topic version that is to be compared to, ie the later
+	 *  version of a topic, or <code>null</code> if there is no later version.  The
+	 *  version may have been retrieved without its content.
+	 * @param oldVersion The topic version that is to be considered as having changed,
+	 *  ie the earlier version of a topic, or <code>null</code> if there is no earlier
+	 *  version.  The version may have been retrieved without its content.
+	 * @return Returns a list of WikiDiff objects that correspond to the changed text.
+	 */
+	public static List<WikiDiff> diffTopicVersions(TopicVersion newVersion, TopicVersion oldVersion) throws DataAccessException {
+		// the diff settings are part of the key so that changing them does not return stale diffs
+		String key = ((newVersion != null) ? newVersion.getTopicVersionId() : -1) + "-" + ((oldVersion != null) ? oldVersion.getTopicVersionId() : -1) + "-" + Environment.getValue(Environment.PROP_DIFF_ENGINE) + "-" + Environment.getBooleanValue(Environment.PROP_DIFF_WORD_LEVEL);
+		List<WikiDiff> result = CACHE_DIFF_INFORMATION.retrieveFromCache(key);
+		if (result == null) {
+			result = DiffUtil.diff(DiffUtil.versionContent(newVersion), DiffUtil.versionContent(oldVersion));
+			CACHE_DIFF_INFORMATION.addToCache(key, result);
+		}
 		return result;
 	}
 
 	/**
-	 * Generate a mostly-unique key to use for the cache.  This key uses the first ten characters
-	 * of the string and a hash of the full string, which is not guaranteed to be unique but should
-	 * be unique enough.
+	 * Return an instance of the diff engine specified by the <code>diff-engine</code>
+	 * property.
 	 */
-	private static String generateCacheKey(String newVersion, String oldVersion) {
-		StringBuilder result = new StringBuilder();
-		if (newVersion == null) {
-			result.append(-1);
-		} else if (newVersion.length() <= 10) {
-			result.append(newVersion);
-		} else {
-			result.append(newVersion.substring(0, 10)).append(newVersion.hashCode());
-		}
-		result.append('-');
-		if (oldVersion == null) {
-			result.append(-1);
-		} else if (oldVersion.length() <= 10) {
-			result.append(oldVersion);
-		} else {
-			result.append(oldVersion.substring(0, 10)).append(oldVersion.hashCode());
-		}
-		return result.toString();
+	private static DiffEngine diffEngine() {
+		String diffEngineClass = Environment.getValue(Environment.PROP_DIFF_ENGINE);
+		try {
+			return (DiffEngine)ResourceUtil.instantiateClass(diffEngineClass);
+		} catch (ClassCastException e) {
+			throw new IllegalStateException("Diff engine specified in jamwiki.properties does not implement org.jamwiki.web.utils.DiffEngine: " + diffEngineClass);
+		}
 	}
 
 	/**
@@ -165,7 +170,8 @@ public class DiffUtil {
 	 * include information about what values are different and also include some unchanged
 	 * values surrounded the changed values, thus giving some context.
 	 */
-	private static List<WikiDiff> generateWikiDiffs(List<Difference> diffs, String[] oldArray, String[] newArray) {
+	private static List<WikiDiff> generateWikiDiffs(DiffEngine diffEngine, List<Difference> diffs, String[] oldArray, String[] newArray) {
+		boolean wordLevel = Environment.getBooleanValue(Environment.PROP_DIFF_WORD_LEVEL);
 		List<WikiDiff> wikiDiffs = new ArrayList<WikiDiff>();
 		Difference previousDiff = null;
 		Difference nextDiff = null;
@@ -183,9 +189,9 @@ public class DiffUtil {
 			// loop through the difference and diff the individual lines so that it is possible to highlight the exact
 			// text that was changed
 			for (WikiDiff changedLineWikiDiff : changedLineWikiDiffs) {
-				oldLineArray = DiffUtil.stringToArray(changedLineWikiDiff.getOldText());
-				newLineArray = DiffUtil.stringToArray(changedLineWikiDiff.getNewText());
-				changedLineDiffs = new Diff<String>(oldLineArray, newLineArray).diff();
+				oldLineArray = (wordLevel) ? DiffUtil.splitWords(changedLineWikiDiff.getOldText()) : DiffUtil.stringToArray(changedLineWikiDiff.getOldText());
+				newLineArray = (wordLevel) ? DiffUtil.splitWords(changedLineWikiDiff.getNewText()) : DiffUtil.stringToArray(changedLineWikiDiff.getNewText());
+				changedLineDiffs = diffEngine.diff(oldLineArray, newLineArray);
 				wikiSubDiffs = new ArrayList<WikiDiff>();
 				int j = 0;
 				for (Difference changedLineDiff : changedLineDiffs) {
@@ -344,9 +350,9 @@ public class DiffUtil {
 		}
 		String[] oldArray = DiffUtil.split(oldVersion);
 		String[] newArray = DiffUtil.split(newVersion);
-		Diff<String> diffObject = new Diff<String>(oldArray, newArray);
-		List<Difference> diffs = diffObject.diff();
-		return DiffUtil.generateWikiDiffs(diffs, oldArray, newArray);
+		DiffEngine diffEngine = DiffUtil.diffEngine();
+		List<Difference> diffs = diffEngine.diff(oldArray, newArray);
+		return DiffUtil.generateWikiDiffs(diffEngine, diffs, oldArray, newArray);
 	}
 
 	/**
@@ -393,24 +399,39 @@ public class DiffUtil {
 	}
 
 	/**
-	 * Determine if diff information is available in the cache.  If so return it,
-	 * otherwise return <code>null</code>.
+	 * Split up a String into an array of values using the specified string pattern.
+	 *
+	 * @param original The value that is being split.
 	 */
-	private static List<WikiDiff> retrieveFromCache(String newVersion, String oldVersion) throws DataAccessException {
-		String key = generateCacheKey(newVersion, oldVersion);
-		return CACHE_DIFF_INFORMATION.retrieveFromCache(key);
+	private static String[] split(String original) {
+		if (original == null) {
+			return new String[0];
+		}
+		return original.split("\n");
 	}
 
 	/**
-	 * Split up a String into an array of values using the specified string pattern.
+	 * Split a line into words, runs of whitespace and individual punctuation
+	 * characters, used when the <code>diff-word-level</code> property specifies
+	 * that changes within a line should be shown by word rather than by
+	 * character.
 	 *
 	 * @param original The value that is being split.
 	 */
-	private static String[] split(String original) {
+	private static String[] splitWords(String original) {
 		if (original == null) {
 			return new String[0];
 		}
-		return original.split("\n");
+		List<String> result = new ArrayList<String>();
+		int start = 0;
+		for (int i = 1; i <= original.length(); i++) {
+			int type = DiffUtil.tokenType(original.charAt(start));
+			if (i == original.length() || type == TOKEN_PUNCTUATION || DiffUtil.tokenType(original.charAt(i)) != type) {
+				result.add(original.substring(start, i));
+				start = i;
+			}
+		}
+		return result.toArray(new String[result.size()]);
 	}
 
 	/**
@@ -428,4 +449,29 @@ public class DiffUtil {
 		}
 		return result;
 	}
+
+	/**
+	 *
+	 */
+	private static int tokenType(char c) {
+		if (Character.isLetterOrDigit(c)) {
+			return TOKEN_WORD;
+		}
+		return (Character.isWhitespace(c)) ? TOKEN_WHITESPACE : TOKEN_PUNCTUATION;
+	}
+
+	/**
+	 * Return the content of a topic version, loading it if the version was
+	 * retrieved without its content.
+	 */
+	private static String versionContent(TopicVersion topicVersion) throws DataAccessException {
+		if (topicVersion == null) {
+			return null;
+		}
+		if (topicVersion.getVersionContent() != null) {
+			return topicVersion.getVersionContent();
+		}
+		TopicVersion fullTopicVersion = WikiBase.getDataHandler().lookupTopicVersion(topicVersion.getTopicVersionId());
+		return (fullTopicVersion != null) ? fullTopicVersion.getVersionContent() : null;
+	}
 }
@@ -0,0 +1,724 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.web.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.BasicAutomata;
+import org.apache.lucene.util.automaton.BasicOperations;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.MinimizationOperations;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Match a large set of case-insensitive regular expressions against text in a
+ * single pass.  Combining many expressions into one <code>a|b|c</code>
+ * java.util.regex pattern forces the backtracking engine to try every
+ * alternative at every position of the text, which becomes very slow for
+ * long texts and large pattern lists.  This class instead splits the patterns
+ * into three groups:
+ *
+ * <ul>
+ * <li>Patterns that are plain literals (after unescaping) are matched with an
+ *  Aho-Corasick automaton.</li>
+ * <li>Patterns that use only regular constructs (character classes,
+ *  alternation, grouping and repetition) are compiled into a single
+ *  deterministic finite automaton.  The automaton is run from each position in
+ *  the text and never backtracks, so the cost of matching does not depend on
+ *  the number of patterns.  A leading unbounded repetition such as
+ *  <code>.*</code> or <code>\w+</code> is reduced to its minimum length, since
+ *  otherwise the automaton would scan to the end of the line from every
+ *  position; this does not change whether a pattern matches.</li>
+ * <li>Any remaining patterns (anchors, word boundaries, back references,
+ *  lookaround, etc) are combined into a java.util.regex pattern.</li>
+ * </ul>
+ *
+ * Matching is case-insensitive for US-ASCII characters, the same as
+ * <code>Pattern.CASE_INSENSITIVE</code>.  Instances are immutable and may be
+ * shared between threads.
+ */
+public class MultiPatternMatcher {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(MultiPatternMatcher.class.getName());
+
+	private final AhoCorasick literalMatcher;
+	private final CharacterRunAutomaton regexMatcher;
+	private final Pattern fallbackPattern;
+	private final int literalCount;
+	private final int regexCount;
+	private final int fallbackCount;
+
+	/**
+	 * Compile a list of regular expressions.  Blank values are ignored.
+	 *
+	 * @param patterns A list of regular expressions using java.util.regex
+	 *  syntax.
+	 * @throws PatternSyntaxException Thrown if any of the patterns is not a valid
+	 *  regular expression.
+	 */
+	public MultiPatternMatcher(Collection<String> patterns) {
+		List<String> literals = new ArrayList<String>();
+		List<Automaton> automata = new ArrayList<Automaton>();
+		List<String> fallback = new ArrayList<String>();
+		for (String pattern : patterns) {
+			if (pattern == null || pattern.trim().length() == 0) {
+				continue;
+			}
+			pattern = pattern.trim();
+			// validate the pattern and report errors using the standard syntax
+			Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
+			String literal = MultiPatternMatcher.toLiteral(pattern);
+			if (literal != null && literal.length() > 0) {
+				literals.add(literal);
+				continue;
+			}
+			try {
+				automata.add(new RegexParser(pattern).parse());
+			} catch (UnsupportedRegexException e) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Pattern cannot be converted to an automaton, using java.util.regex: " + pattern + " (" + e.getMessage() + ")");
+				}
+				fallback.add(pattern);
+			}
+		}
+		this.literalCount = literals.size();
+		this.regexCount = automata.size();
+		this.fallbackCount = fallback.size();
+		this.literalMatcher = (literals.isEmpty()) ? null : new AhoCorasick(literals);
+		if (automata.isEmpty()) {
+			this.regexMatcher = null;
+		} else {
+			// the automaton is anchored at the match start rather than prefixed with
+			// ".*", since determinizing ".*(a|b|c...)" can produce a very large
+			// number of states for patterns with overlapping character classes.
+			Automaton union = BasicOperations.union(automata);
+			MinimizationOperations.minimize(union);
+			this.regexMatcher = new CharacterRunAutomaton(union);
+		}
+		this.fallbackPattern = (fallback.isEmpty()) ? null : Pattern.compile(this.joinPatterns(fallback), Pattern.CASE_INSENSITIVE);
+	}
+
+	/**
+	 * Search the content for text matching any of the patterns.
+	 *
+	 * @param content The text to search.
+	 * @return Text matching one of the patterns, or <code>null</code> if no
+	 *  pattern matches.  If more than one pattern matches there is no guarantee
+	 *  as to which match is returned.
+	 */
+	public String find(String content) {
+		String result = null;
+		if (this.literalMatcher != null) {
+			result = this.literalMatcher.find(content);
+		}
+		if (result == null && this.regexMatcher != null) {
+			result = this.findRegex(content);
+		}
+		if (result == null && this.fallbackPattern != null) {
+			Matcher m = this.fallbackPattern.matcher(content);
+			if (m.find()) {
+				result = m.group(0);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Run the automaton from each position in the text, returning the longest
+	 * match starting at the first position where any pattern matches.  Most
+	 * positions fail after one or two characters since the automaton reaches a
+	 * dead state as soon as no pattern can match.
+	 */
+	private String findRegex(String content) {
+		int initial = this.regexMatcher.getInitialState();
+		for (int start = 0; start <= content.length(); start++) {
+			int state = initial;
+			int end = (this.regexMatcher.isAccept(state)) ? start : -1;
+			for (int i = start; i < content.length(); i++) {
+				state = this.regexMatcher.step(state, MultiPatternMatcher.fold(content.charAt(i)));
+				if (state == -1) {
+					break;
+				}
+				if (this.regexMatcher.isAccept(state)) {
+					end = i + 1;
+				}
+			}
+			if (end != -1) {
+				return content.substring(start, end);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Convert US-ASCII upper case characters to lower case.  This matches the
+	 * behavior of <code>Pattern.CASE_INSENSITIVE</code>.
+	 */
+	private static int fold(int c) {
+		return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+	}
+
+	/**
+	 * Return a count of the patterns handled by each matching strategy, useful
+	 * for logging.
+	 */
+	public String getSummary() {
+		return this.literalCount + " literal, " + this.regexCount + " automaton, " + this.fallbackCount + " java.util.regex";
+	}
+
+	/**
+	 *
+	 */
+	private String joinPatterns(List<String> patterns) {
+		StringBuilder result = new StringBuilder();
+		for (String pattern : patterns) {
+			if (result.length() > 0) {
+				result.append('|');
+			}
+			result.append("(?:").append(pattern).append(')');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * If a pattern contains no regular expression operators return the text
+	 * that it matches (folded to lower case), otherwise return
+	 * <code>null</code>.
+	 */
+	private static String toLiteral(String pattern) {
+		StringBuilder result = new StringBuilder(pattern.length());
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '\\') {
+				if (i + 1 >= pattern.length()) {
+					return null;
+				}
+				char next = pattern.charAt(++i);
+				if (Character.isLetterOrDigit(next)) {
+					return null;
+				}
+				result.append((char)MultiPatternMatcher.fold(next));
+			} else if ("[](){}.*+?^$|".indexOf(c) != -1) {
+				return null;
+			} else {
+				result.append((char)MultiPatternMatcher.fold(c));
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Aho-Corasick automaton for matching a set of literal strings in a single
+	 * pass over the text.
+	 */
+	private static class AhoCorasick {
+
+		private static final char[] EMPTY_KEYS = new char[0];
+		private static final int[] EMPTY_TARGETS = new int[0];
+		/** Sorted transition characters for each node. */
+		private char[][] keys;
+		/** Target node for each transition, indexed the same as keys. */
+		private int[][] targets;
+		/** Failure link for each node. */
+		private int[] failure;
+		/** Length of the shortest literal ending at each node (following failure links), or zero. */
+		private int[] output;
+		private int size = 1;
+
+		/**
+		 *
+		 */
+		AhoCorasick(List<String> literals) {
+			int capacity = 1;
+			for (String literal : literals) {
+				capacity += literal.length();
+			}
+			this.keys = new char[capacity][];
+			this.targets = new int[capacity][];
+			this.failure = new int[capacity];
+			this.output = new int[capacity];
+			this.keys[0] = EMPTY_KEYS;
+			this.targets[0] = EMPTY_TARGETS;
+			for (String literal : literals) {
+				int node = 0;
+				for (int i = 0; i < literal.length(); i++) {
+					node = this.addTransition(node, literal.charAt(i));
+				}
+				if (this.output[node] == 0 || this.output[node] > literal.length()) {
+					this.output[node] = literal.length();
+				}
+			}
+			this.buildFailureLinks();
+		}
+
+		/**
+		 *
+		 */
+		private int addTransition(int node, char c) {
+			int index = Arrays.binarySearch(this.keys[node], c);
+			if (index >= 0) {
+				return this.targets[node][index];
+			}
+			index = -index - 1;
+			int target = this.size++;
+			this.keys[target] = EMPTY_KEYS;
+			this.targets[target] = EMPTY_TARGETS;
+			char[] newKeys = new char[this.keys[node].length + 1];
+			int[] newTargets = new int[newKeys.length];
+			System.arraycopy(this.keys[node], 0, newKeys, 0, index);
+			System.arraycopy(this.targets[node], 0, newTargets, 0, index);
+			newKeys[index] = c;
+			newTargets[index] = target;
+			System.arraycopy(this.keys[node], index, newKeys, index + 1, this.keys[node].length - index);
+			System.arraycopy(this.targets[node], index, newTargets, index + 1, this.targets[node].length - index);
+			this.keys[node] = newKeys;
+			this.targets[node] = newTargets;
+			return target;
+		}
+
+		/**
+		 * Breadth-first traversal to compute the failure link of each node.
+		 */
+		private void buildFailureLinks() {
+			LinkedList<Integer> queue = new LinkedList<Integer>();
+			for (int target : this.targets[0]) {
+				this.failure[target] = 0;
+				queue.add(target);
+			}
+			while (!queue.isEmpty()) {
+				int node = queue.removeFirst();
+				for (int i = 0; i < this.keys[node].length; i++) {
+					int target = this.targets[node][i];
+					int fail = this.transition(this.failure[node], this.keys[node][i]);
+					this.failure[target] = fail;
+					if (this.output[target] == 0) {
+						this.output[target] = this.output[fail];
+					}
+					queue.add(target);
+				}
+			}
+		}
+
+		/**
+		 * Return the text of the first literal found in the content, or
+		 * <code>null</code> if no literal is found.
+		 */
+		String find(String content) {
+			int node = 0;
+			for (int i = 0; i < content.length(); i++) {
+				node = this.transition(node, (char)MultiPatternMatcher.fold(content.charAt(i)));
+				if (this.output[node] != 0) {
+					return content.substring(i + 1 - this.output[node], i + 1);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Follow failure links until a transition for the character is found.
+		 */
+		private int transition(int node, char c) {
+			while (true) {
+				int index = Arrays.binarySearch(this.keys[node], c);
+				if (index >= 0) {
+					return this.targets[node][index];
+				}
+				if (node == 0) {
+					return 0;
+				}
+				node = this.failure[node];
+			}
+		}
+	}
+
+	/**
+	 * Recursive descent parser that converts the regular subset of
+	 * java.util.regex syntax into a Lucene automaton.
+	 */
+	private static class RegexParser {
+
+		/** Nesting depth of the group currently being parsed. */
+		private int depth = 0;
+		private final String pattern;
+		private int pos = 0;
+
+		/**
+		 *
+		 */
+		RegexParser(String pattern) {
+			this.pattern = pattern;
+		}
+
+		/**
+		 *
+		 */
+		Automaton parse() throws UnsupportedRegexException {
+			Automaton result = this.parseUnion();
+			if (this.pos < this.pattern.length()) {
+				throw new UnsupportedRegexException("unexpected character at position " + this.pos);
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 */
+		private Automaton anyCharExcept(Automaton excluded) {
+			return BasicOperations.minus(BasicAutomata.makeAnyChar(), excluded);
+		}
+
+		/**
+		 * Return an automaton matching a single character, including the lower
+		 * case form of any upper case US-ASCII characters in the range.
+		 */
+		private Automaton charRange(int min, int max) {
+			Automaton result = BasicAutomata.makeCharRange(min, max);
+			int upperMin = Math.max(min, 'A');
+			int upperMax = Math.min(max, 'Z');
+			if (upperMin <= upperMax) {
+				result = BasicOperations.union(result, BasicAutomata.makeCharRange(fold(upperMin), fold(upperMax)));
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 */
+		private Automaton chars(String chars) {
+			List<Automaton> result = new ArrayList<Automaton>();
+			for (int i = 0; i < chars.length(); i++) {
+				result.add(BasicAutomata.makeChar(chars.charAt(i)));
+			}
+			return BasicOperations.union(result);
+		}
+
+		/**
+		 *
+		 */
+		private boolean hasNext() {
+			return this.pos < this.pattern.length();
+		}
+
+		/**
+		 *
+		 */
+		private char next() throws UnsupportedRegexException {
+			if (!this.hasNext()) {
+				throw new UnsupportedRegexException("unexpected end of pattern");
+			}
+			return this.pattern.charAt(this.pos++);
+		}
+
+		/**
+		 *
+		 */
+		private char peek() {
+			return this.pattern.charAt(this.pos);
+		}
+
+		/**
+		 *
+		 */
+		private Automaton parseAtom() throws UnsupportedRegexException {
+			char c = this.next();
+			switch (c) {
+				case '(':
+					if (this.hasNext() && this.peek() == '?') {
+						this.next();
+						if (this.next() != ':') {
+							throw new UnsupportedRegexException("lookaround, flags and named groups are not supported");
+						}
+					}
+					this.depth++;
+					Automaton group = this.parseUnion();
+					this.depth--;
+					if (this.next() != ')') {
+						throw new UnsupportedRegexException("unclosed group");
+					}
+					return group;
+				case '[':
+					return this.parseCharClass();
+				case '.':
+					return this.anyCharExcept(this.chars("\n\r\u0085\u2028\u2029"));
+				case '\\':
+					return this.parseEscape();
+				case '^':
+				case '$':
+					throw new UnsupportedRegexException("anchors are not supported");
+				case ')':
+				case '*':
+				case '+':
+				case '?':
+				case '{':
+					throw new UnsupportedRegexException("unexpected '" + c + "'");
+				default:
+					return BasicAutomata.makeChar(fold(c));
+			}
+		}
+
+		/**
+		 *
+		 */
+		private Automaton parseCharClass() throws UnsupportedRegexException {
+			boolean negate = false;
+			if (this.hasNext() && this.peek() == '^') {
+				this.next();
+				negate = true;
+			}
+			List<Automaton> items = new ArrayList<Automaton>();
+			boolean first = true;
+			while (true) {
+				if (!this.hasNext()) {
+					throw new UnsupportedRegexException("unclosed character class");
+				}
+				if (!first && this.peek() == ']') {
+					break;
+				}
+				first = false;
+				char c = this.next();
+				if (c == '[' || (c == '&' && this.hasNext() && this.peek() == '&')) {
+					throw new UnsupportedRegexException("nested character classes are not supported");
+				}
+				if (c == '\\') {
+					char escape = this.next();
+					Automaton shorthand = this.parseShorthand(escape);
+					if (shorthand != null) {
+						items.add(shorthand);
+						continue;
+					}
+					c = this.parseEscapedChar(escape);
+				}
+				int max = c;
+				if (this.pos + 1 < this.pattern.length() && this.peek() == '-' && this.pattern.charAt(this.pos + 1) != ']') {
+					this.next();
+					max = this.next();
+					if (max == '\\') {
+						max = this.parseEscapedChar(this.next());
+					} else if (max == '[') {
+						throw new UnsupportedRegexException("nested character classes are not supported");
+					}
+				}
+				items.add(this.charRange(c, max));
+			}
+			this.next();
+			Automaton result = BasicOperations.union(items);
+			return (negate) ? this.anyCharExcept(result) : result;
+		}
+
+		/**
+		 *
+		 */
+		private Automaton parseConcat() throws UnsupportedRegexException {
+			List<Automaton> parts = new ArrayList<Automaton>();
+			while (this.hasNext() && this.peek() != '|' && this.peek() != ')') {
+				parts.add(this.parseRepeat(parts.isEmpty() && this.depth == 0));
+			}
+			if (parts.isEmpty()) {
+				return BasicAutomata.makeEmptyString();
+			}
+			return BasicOperations.concatenate(parts);
+		}
+
+		/**
+		 * Convert an escaped character (the character following a backslash) to
+		 * the character it represents.
+		 */
+		private char parseEscapedChar(char escape) throws UnsupportedRegexException {
+			switch (escape) {
+				case 't':
+					return '\t';
+				case 'n':
+					return '\n';
+				case 'r':
+					return '\r';
+				case 'f':
+					return '\f';
+				case 'a':
+					return '\u0007';
+				case 'e':
+					return '\u001B';
+				case 'x':
+					return this.parseHex(2);
+				case 'u':
+					return this.parseHex(4);
+				default:
+					if (Character.isLetterOrDigit(escape)) {
+						throw new UnsupportedRegexException("escape sequence \\" + escape + " is not supported");
+					}
+					return escape;
+			}
+		}
+
+		/**
+		 *
+		 */
+		private Automaton parseEscape() throws UnsupportedRegexException {
+			char escape = this.next();
+			Automaton shorthand = this.parseShorthand(escape);
+			return (shorthand != null) ? shorthand : BasicAutomata.makeChar(fold(this.parseEscapedChar(escape)));
+		}
+
+		/**
+		 *
+		 */
+		private char parseHex(int length) throws UnsupportedRegexException {
+			if (this.pos + length > this.pattern.length()) {
+				throw new UnsupportedRegexException("invalid hexadecimal escape");
+			}
+			String hex = this.pattern.substring(this.pos, this.pos + length);
+			this.pos += length;
+			try {
+				return (char)Integer.parseInt(hex, 16);
+			} catch (NumberFormatException e) {
+				throw new UnsupportedRegexException("invalid hexadecimal escape");
+			}
+		}
+
+		/**
+		 *
+		 */
+		private int parseNumber() throws UnsupportedRegexException {
+			int start = this.pos;
+			while (this.hasNext() && Character.isDigit(this.peek())) {
+				this.pos++;
+			}
+			if (start == this.pos) {
+				throw new UnsupportedRegexException("invalid repetition");
+			}
+			return Integer.parseInt(this.pattern.substring(start, this.pos));
+		}
+
+		/**
+		 * Parse an atom and any repetition operators that follow it.  If the atom
+		 * is at the start of a pattern then an unbounded repetition is reduced to
+		 * its minimum count - a text contains a match for <code>x{n,}y</code> if
+		 * and only if it contains a match for <code>x{n}y</code>, and the shorter
+		 * match avoids scanning the rest of the line from every position.
+		 */
+		private Automaton parseRepeat(boolean leading) throws UnsupportedRegexException {
+			Automaton result = this.parseAtom();
+			while (this.hasNext()) {
+				char c = this.peek();
+				if (c == '*') {
+					this.next();
+					result = (leading) ? BasicAutomata.makeEmptyString() : BasicOperations.repeat(result);
+				} else if (c == '+') {
+					this.next();
+					result = (leading) ? result : BasicOperations.repeat(result, 1);
+				} else if (c == '?') {
+					this.next();
+					result = BasicOperations.optional(result);
+				} else if (c == '{') {
+					this.next();
+					int min = this.parseNumber();
+					int max = min;
+					if (this.peek() == ',') {
+						this.next();
+						max = (this.peek() == '}') ? -1 : this.parseNumber();
+					}
+					if (this.next() != '}') {
+						throw new UnsupportedRegexException("invalid repetition");
+					}
+					if (max == -1) {
+						result = (leading) ? BasicOperations.repeat(result, min, min) : BasicOperations.repeat(result, min);
+					} else {
+						result = BasicOperations.repeat(result, min, max);
+					}
+				} else {
+					break;
+				}
+				if (this.hasNext() && this.peek() == '?') {
+					// reluctant quantifiers match the same set of strings
+					this.next();
+				} else if (this.hasNext() && this.peek() == '+') {
+					throw new UnsupportedRegexException("possessive quantifiers are not supported");
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Return an automaton for shorthand character classes such as
+		 * <code>\d</code>, or <code>null</code> if the escape is not a
+		 * shorthand character class.
+		 */
+		private Automaton parseShorthand(char escape) {
+			switch (escape) {
+				case 'd':
+					return BasicAutomata.makeCharRange('0', '9');
+				case 'D':
+					return this.anyCharExcept(BasicAutomata.makeCharRange('0', '9'));
+				case 's':
+					return this.chars(" \t\n\u000B\f\r");
+				case 'S':
+					return this.anyCharExcept(this.chars(" \t\n\u000B\f\r"));
+				case 'w':
+					return this.wordChars();
+				case 'W':
+					return this.anyCharExcept(this.wordChars());
+				default:
+					return null;
+			}
+		}
+
+		/**
+		 *
+		 */
+		private Automaton parseUnion() throws UnsupportedRegexException {
+			List<Automaton> alternatives = new ArrayList<Automaton>();
+			alternatives.add(this.parseConcat());
+			while (this.hasNext() && this.peek() == '|') {
+				this.next();
+				alternatives.add(this.parseConcat());
+			}
+			return (alternatives.size() == 1) ? alternatives.get(0) : BasicOperations.union(alternatives);
+		}
+
+		/**
+		 *
+		 */
+		private Automaton wordChars() {
+			List<Automaton> result = new ArrayList<Automaton>();
+			result.add(BasicAutomata.makeCharRange('a', 'z'));
+			result.add(BasicAutomata.makeCharRange('A', 'Z'));
+			result.add(BasicAutomata.makeCharRange('0', '9'));
+			result.add(BasicAutomata.makeChar('_'));
+			return BasicOperations.union(result);
+		}
+	}
+
+	/**
+	 * Thrown when a pattern uses java.util.regex features that cannot be
+	 * represented as a finite automaton.
+	 */
+	private static class UnsupportedRegexException extends Exception {
+
+		/**
+		 *
+		 */
+		UnsupportedRegexException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.web.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.incava.util.diff.Difference;
+import org.jamwiki.utils.TextDelta;
+
+/**
+ * Diff engine implementing the Myers O(ND) difference algorithm with the
+ * linear space refinement.  The algorithm is implemented by
+ * {@link TextDelta#editScript(List, List)}, which is also used when storing old
+ * topic versions as deltas.  Memory use is proportional to the size of the
+ * inputs and the running time is proportional to the size of the inputs
+ * multiplied by the number of differences, so comparing two large topic
+ * versions with few changes is fast.
+ */
+public class MyersDiffEngine implements DiffEngine {
+
+	/**
+	 *
+	 */
+	public List<Difference> diff(String[] oldArray, String[] newArray) {
+		char[] edits = TextDelta.editScript(Arrays.asList(oldArray), Arrays.asList(newArray));
+		List<Difference> differences = new ArrayList<Difference>();
+		int i = 0;
+		int j = 0;
+		int pos = 0;
+		while (pos < edits.length) {
+			if (edits[pos] == TextDelta.OP_COPY) {
+				i++;
+				j++;
+				pos++;
+				continue;
+			}
+			// group each run of changed elements into a single Difference
+			int deletedStart = i;
+			int addedStart = j;
+			while (pos < edits.length && edits[pos] != TextDelta.OP_COPY) {
+				if (edits[pos] == TextDelta.OP_SKIP) {
+					i++;
+				} else {
+					j++;
+				}
+				pos++;
+			}
+			int deletedEnd = (i > deletedStart) ? (i - 1) : Difference.NONE;
+			int addedEnd = (j > addedStart) ? (j - 1) : Difference.NONE;
+			differences.add(new Difference(deletedStart, deletedEnd, addedStart, addedEnd));
+		}
+		return differences;
+	}
+}
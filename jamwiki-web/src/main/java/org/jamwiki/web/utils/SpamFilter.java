@@ -17,12 +17,10 @@
 package org.jamwiki.web.utils;
 
 import java.io.File;
-import java.util.regex.PatternSyntaxException;
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+import java.util.regex.PatternSyntaxException;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.Environment;
 import org.jamwiki.utils.ResourceUtil;
@@ -30,7 +28,9 @@ import org.jamwiki.utils.WikiLogger;
 
 /**
  * Provide the capability for filtering content based on a predefined list of
- * regular expressions.
+ * regular expressions.  The blacklist is compiled into a
+ * {@link MultiPatternMatcher} so that the cost of checking content does not
+ * grow with the number of blacklist entries.
  */
 public class SpamFilter {
 
@@ -38,7 +38,10 @@ public class SpamFilter {
 	public static final WikiLogger logger = WikiLogger.getLogger(SpamFilter.class.getName());
 	/** Spam blacklist file name. */
 	private static final String SPAM_BLACKLIST_FILE = "spam-blacklist.txt";
-	private static Pattern spamRegexPattern = null;
+	/** Lock used to ensure that only one thread at a time compiles the blacklist. */
+	private static final Object SPAM_FILTER_LOCK = new Object();
+	/** The current matcher.  Replaced atomically on reload so that checks in progress are not blocked. */
+	private static volatile MultiPatternMatcher spamMatcher = null;
 
 	/**
 	 *
@@ -65,14 +68,16 @@ public class SpamFilter {
 			return null;
 		}
 		long start = System.currentTimeMillis();
-		if (spamRegexPattern == null) {
-			SpamFilter.initialize();
-		}
-		Matcher m = spamRegexPattern.matcher(content);
-		String result = null;
-		if (m.find()) {
-			result = m.group(0);
+		MultiPatternMatcher matcher = spamMatcher;
+		if (matcher == null) {
+			synchronized (SPAM_FILTER_LOCK) {
+				if (spamMatcher == null) {
+					SpamFilter.initialize();
+				}
+				matcher = spamMatcher;
+			}
 		}
+		String result = matcher.find(content);
 		if (logger.isDebugEnabled()) {
 			long execution = System.currentTimeMillis() - start;
 			logger.debug("Executed spam filter (" + (execution / 1000.000) + " s.)");
@@ -81,7 +86,8 @@ public class SpamFilter {
 	}
 
 	/**
-	 *
+	 * Read and compile the blacklist, then replace the current matcher.  The
+	 * existing matcher remains in use until the new one is ready.
 	 */
 	private static void initialize() throws DataAccessException {
 		File file = null;
@@ -90,30 +96,23 @@ public class SpamFilter {
 		} catch (IOException e) {
 			throw new DataAccessException("I/O exception while initlaizing spam blacklist", e);
 		}
-		String regex = "";
 		String regexText = null;
 		try {
 			regexText = FileUtils.readFileToString(file, "UTF-8").trim();
 		} catch (IOException e) {
 			throw new DataAccessException("I/O exception while initlaizing spam blacklist", e);
 		}
-		String[] tokens = regexText.split("\n");
-		for (int i = 0; i < tokens.length; i++) {
-			String token = tokens[i];
-			if (StringUtils.isBlank(token)) {
-				continue;
-			}
-			if (i > 0) {
-				regex += "|";
-			}
-			regex += token.trim();
-		}
+		long start = System.currentTimeMillis();
+		MultiPatternMatcher matcher = null;
 		try {
-			spamRegexPattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+			// blank lines and surrounding whitespace are ignored by the matcher
+			matcher = new MultiPatternMatcher(Arrays.asList(regexText.split("\n")));
 		} catch (PatternSyntaxException e) {
 			throw new DataAccessException("Failure while parsing spam regular expression list", e);
 		}
-		logger.info("Loading spam filter regular expressions from " + file.getAbsolutePath());
+		spamMatcher = matcher;
+		long execution = System.currentTimeMillis() - start;
+		logger.info("Loading spam filter regular expressions from " + file.getAbsolutePath() + " (" + matcher.getSummary() + ", " + (execution / 1000.000) + " s.)");
 	}
 
 	/**
@@ -124,6 +123,8 @@ public class SpamFilter {
 	 *  the spam filter regular expressions.
 	 */
 	public static void reload() throws DataAccessException {
-		SpamFilter.initialize();
+		synchronized (SPAM_FILTER_LOCK) {
+			SpamFilter.initialize();
+		}
 	}
 }
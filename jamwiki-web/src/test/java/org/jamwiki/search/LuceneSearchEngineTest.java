@@ -0,0 +1,117 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.search;
+
+import java.util.List;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.Topic;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class LuceneSearchEngineTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNearRealTimeSearch() throws Throwable {
+		String virtualWiki = "en";
+		LuceneSearchEngine searchEngine = new LuceneSearchEngine();
+		Topic topic = new Topic(virtualWiki, Namespace.namespace(Namespace.MAIN_ID), "Lucene Search Engine Test");
+		try {
+			// changes should be visible to searches without an explicit commit
+			topic.setTopicContent("The quick brown zebrafox");
+			searchEngine.addToIndex(topic);
+			assertEquals("Added topic not found", 1, searchEngine.findResults(virtualWiki, "zebrafox", null).size());
+			topic.setTopicContent("The slow green zebrafrog");
+			searchEngine.updateInIndex(topic);
+			assertEquals("Old topic content found after update", 0, searchEngine.findResults(virtualWiki, "zebrafox", null).size());
+			assertEquals("Updated topic not found", 1, searchEngine.findResults(virtualWiki, "zebrafrog", null).size());
+			searchEngine.deleteFromIndex(topic);
+			assertEquals("Deleted topic found", 0, searchEngine.findResults(virtualWiki, "zebrafrog", null).size());
+			// committed changes should be visible after the search engine is re-opened
+			searchEngine.addToIndex(topic);
+			searchEngine.commit(virtualWiki);
+			searchEngine.shutdown();
+			searchEngine = new LuceneSearchEngine();
+			assertEquals("Committed topic not found", 1, searchEngine.findResults(virtualWiki, "zebrafrog", null).size());
+			searchEngine.deleteFromIndex(topic);
+		} finally {
+			searchEngine.shutdown();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResultSummary() throws Throwable {
+		String virtualWiki = "en";
+		LuceneSearchEngine searchEngine = new LuceneSearchEngine();
+		Topic topic = new Topic(virtualWiki, Namespace.namespace(Namespace.MAIN_ID), "Lucene Summary Test");
+		topic.setCurrentVersionId(Integer.MAX_VALUE);
+		try {
+			topic.setTopicContent("Some <b>markup</b> and a zebrahorse.  Another sentence.");
+			searchEngine.addToIndex(topic);
+			List<SearchResultEntry> results = searchEngine.findResults(virtualWiki, "zebrahorse", null);
+			assertEquals("Added topic not found", 1, results.size());
+			String summary = results.get(0).getSummary();
+			assertTrue("Search term not highlighted: " + summary, summary.contains("<span class=\"highlight\">zebrahorse</span>"));
+			assertTrue("Summary not escaped: " + summary, summary.contains("&lt;b&gt;markup&lt;/b&gt;"));
+			// summaries are cached by topic version
+			topic.setTopicContent("Different content with a zebrahorse.");
+			searchEngine.updateInIndex(topic);
+			results = searchEngine.findResults(virtualWiki, "zebrahorse", null);
+			assertEquals("Cached summary not used", summary, results.get(0).getSummary());
+			searchEngine.deleteFromIndex(topic);
+		} finally {
+			searchEngine.shutdown();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRefreshIndex() throws Throwable {
+		String virtualWiki = "en";
+		this.setupTopic(WikiBase.getDataHandler().lookupVirtualWiki(virtualWiki), "Lucene Rebuild Test", "The quick brown zebrabird");
+		LuceneSearchEngine searchEngine = new LuceneSearchEngine();
+		// a topic that is indexed but not in the database should be dropped by a rebuild
+		Topic topic = new Topic(virtualWiki, Namespace.namespace(Namespace.MAIN_ID), "Lucene Rebuild Missing Test");
+		topic.setTopicContent("The slow green zebraghost");
+		try {
+			searchEngine.addToIndex(topic);
+			assertEquals("Added topic not found", 1, searchEngine.findResults(virtualWiki, "zebraghost", null).size());
+			searchEngine.refreshIndex();
+			assertEquals("Topic not in the database found after rebuild", 0, searchEngine.findResults(virtualWiki, "zebraghost", null).size());
+			assertEquals("Database topic not found after rebuild", 1, searchEngine.findResults(virtualWiki, "zebrabird", null).size());
+			// the rebuilt index should be used after the search engine is re-opened
+			searchEngine.shutdown();
+			searchEngine = new LuceneSearchEngine();
+			assertEquals("Database topic not found after re-open", 1, searchEngine.findResults(virtualWiki, "zebrabird", null).size());
+		} finally {
+			searchEngine.shutdown();
+		}
+	}
+}
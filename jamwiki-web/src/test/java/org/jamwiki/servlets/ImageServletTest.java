@@ -0,0 +1,128 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.io.File;
+import java.util.Arrays;
+import org.apache.commons.io.FileUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ImageServletTest extends JAMWikiUnitTest {
+
+	private static final String TEST_FILE_URL = "/files/image-servlet-test.bin";
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFullResponse() throws Throwable {
+		MockHttpServletResponse response = this.executeRequest(null);
+		byte[] data = this.retrieveTestFileData();
+		assertEquals("Status", 200, response.getStatus());
+		assertEquals("Content-Length", Integer.toString(data.length), response.getHeader("Content-Length"));
+		assertTrue("Content", Arrays.equals(data, response.getContentAsByteArray()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSingleRange() throws Throwable {
+		MockHttpServletResponse response = this.executeRequest("bytes=10-19");
+		byte[] data = this.retrieveTestFileData();
+		assertEquals("Status", 206, response.getStatus());
+		assertEquals("Content-Range", "bytes 10-19/" + data.length, response.getHeader("Content-Range"));
+		assertTrue("Content", Arrays.equals(Arrays.copyOfRange(data, 10, 20), response.getContentAsByteArray()));
+		// suffix ranges return the end of the file
+		response = this.executeRequest("bytes=-5");
+		assertEquals("Suffix Content-Range", "bytes " + (data.length - 5) + "-" + (data.length - 1) + "/" + data.length, response.getHeader("Content-Range"));
+		assertTrue("Suffix content", Arrays.equals(Arrays.copyOfRange(data, data.length - 5, data.length), response.getContentAsByteArray()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMultipleRanges() throws Throwable {
+		MockHttpServletResponse response = this.executeRequest("bytes=0-1,100-104");
+		assertEquals("Status", 206, response.getStatus());
+		assertTrue("Content-Type", response.getContentType().startsWith("multipart/byteranges"));
+		assertEquals("Content-Length", Integer.toString(response.getContentAsByteArray().length), response.getHeader("Content-Length"));
+		assertTrue("First part", response.getContentAsString().contains("Content-Range: bytes 0-1/"));
+		assertTrue("Second part", response.getContentAsString().contains("Content-Range: bytes 100-104/"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnsatisfiableRange() throws Throwable {
+		MockHttpServletResponse response = this.executeRequest("bytes=100000000-");
+		assertEquals("Status", 416, response.getStatus());
+		// invalid range syntax is ignored and the complete file is returned
+		response = this.executeRequest("bytes=20-10");
+		assertEquals("Status", 200, response.getStatus());
+	}
+
+	/**
+	 *
+	 */
+	private MockHttpServletResponse executeRequest(String range) throws Exception {
+		this.setupTestFile();
+		MockServletContext mockContext = new MockServletContext();
+		MockHttpServletRequest request = new MockHttpServletRequest(mockContext, "GET", TEST_FILE_URL);
+		if (range != null) {
+			request.addHeader("Range", range);
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		ImageServlet servlet = new ImageServlet();
+		servlet.setServletContext(mockContext);
+		servlet.handleJAMWikiRequest(request, response, null, null);
+		return response;
+	}
+
+	/**
+	 *
+	 */
+	private byte[] retrieveTestFileData() throws Exception {
+		return FileUtils.readFileToByteArray(this.setupTestFile());
+	}
+
+	/**
+	 * Create a test file containing 1000 bytes of data, if it does not already exist.
+	 */
+	private File setupTestFile() throws Exception {
+		File file = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), TEST_FILE_URL);
+		if (!file.exists()) {
+			byte[] data = new byte[1000];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = (byte)i;
+			}
+			FileUtils.writeByteArrayToFile(file, data);
+		}
+		return file;
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SearchServletTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSuggestLimit() throws Throwable {
+		assertEquals("Default limit", 10, SearchServlet.suggestLimit(null));
+		assertEquals("Invalid limit", 10, SearchServlet.suggestLimit("abc"));
+		assertEquals("Requested limit", 25, SearchServlet.suggestLimit("25"));
+		assertEquals("Maximum limit", 50, SearchServlet.suggestLimit("500"));
+		assertEquals("Zero limit", 1, SearchServlet.suggestLimit("0"));
+		assertEquals("Negative limit", 1, SearchServlet.suggestLimit("-5"));
+	}
+}
@@ -19,7 +19,9 @@
 package org.jamwiki.web.utils;
 
 import java.util.List;
+import org.jamwiki.Environment;
 import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.model.TopicVersion;
 import org.jamwiki.web.model.WikiDiff;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -145,5 +147,46 @@ public class DiffUtilTest extends JAMWikiUnitTest {
 		List<WikiDiff> result = DiffUtil.diff("testString", "testString");
 		assertEquals("result.size()", 0, result.size());
 	}
-}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testDiffWordLevel() throws Throwable {
+		Environment.setBooleanValue(Environment.PROP_DIFF_WORD_LEVEL, true);
+		try {
+			List<WikiDiff> result = DiffUtil.diff("line 1\nthe quick red fox\nline 3", "line 1\nthe quick brown fox\nline 3");
+			assertEquals("result.size()", 3, result.size());
+			WikiDiff changed = result.get(1);
+			assertEquals("changed line", "the quick brown fox", changed.getOldText());
+			StringBuilder changedWords = new StringBuilder();
+			for (WikiDiff subDiff : changed.getSubDiffs()) {
+				if (subDiff.getChange()) {
+					changedWords.append(subDiff.getOldText()).append('/').append(subDiff.getNewText());
+				}
+			}
+			assertEquals("changed words", "brown/red", changedWords.toString());
+		} finally {
+			Environment.setBooleanValue(Environment.PROP_DIFF_WORD_LEVEL, false);
+		}
+	}
+
+	/**
+	 * Cached topic version diffs must not be re-used after the diff settings change.
+	 */
+	@Test
+	public void testDiffTopicVersionsSettings() throws Throwable {
+		TopicVersion oldVersion = new TopicVersion(null, null, null, "the quick brown fox", 0);
+		oldVersion.setTopicVersionId(-101);
+		TopicVersion newVersion = new TopicVersion(null, null, null, "the quick red fox", 0);
+		newVersion.setTopicVersionId(-102);
+		int characterSubDiffs = DiffUtil.diffTopicVersions(newVersion, oldVersion).get(0).getSubDiffs().size();
+		Environment.setBooleanValue(Environment.PROP_DIFF_WORD_LEVEL, true);
+		try {
+			int wordSubDiffs = DiffUtil.diffTopicVersions(newVersion, oldVersion).get(0).getSubDiffs().size();
+			assertFalse("diff settings ignored", characterSubDiffs == wordSubDiffs);
+		} finally {
+			Environment.setBooleanValue(Environment.PROP_DIFF_WORD_LEVEL, false);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.web.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class MultiPatternMatcherTest {
+
+	private static final List<String> PATTERNS = Arrays.asList(
+		"\\<a[ ]+h[a]?ref\\=",
+		"\\[url\\=",
+		"(buy|cheap|generic|online)[ \\._\\-](cialis|viagra|xanax)",
+		"(bookmark you|good post|nice site|nice work) (man|dude)?[ ]*(10x|thx)",
+		"([\\[]?http[s]?\\://[^ \\n\\t\\.]+\\.[^ \\n\\t]+[\\]]?[ \\n\\t]+){5,}",
+		"[0-9]{5,}\\.com",
+		"airline\\-tickets\\-cheap",
+		"backlinkboomber\\.com",
+		"louis[\\-_\\.]?vuitton",
+		"(nursing|spam_|virus)([0-9]){2,}",
+		"\\bword\\b",
+		""
+	);
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFind() throws Throwable {
+		MultiPatternMatcher matcher = new MultiPatternMatcher(PATTERNS);
+		assertNull(matcher.find("An ordinary article about tickets, airlines and watches."));
+		assertEquals("Airline-Tickets-Cheap", matcher.find("Find Airline-Tickets-Cheap here"));
+		assertEquals("backlinkboomber.com", matcher.find("visit backlinkboomber.com now"));
+		assertEquals("Cheap Viagra", matcher.find("Get Cheap Viagra today"));
+		assertEquals("louisvuitton", matcher.find("louisvuitton bags"));
+		assertEquals("12345.com", matcher.find("see 12345.com"));
+		assertEquals("virus123", matcher.find("a virus123 file"));
+		assertEquals("[url=", matcher.find("[url=http://example.com]"));
+		assertEquals("<a  href=", matcher.find("text <a  href=\"x\">"));
+		assertEquals("word", matcher.find("a word here"));
+		assertNull(matcher.find("a wordy sentence"));
+		String links = "http://a.example.com http://b.example.com http://c.example.com http://d.example.com http://e.example.com ";
+		assertEquals(links, matcher.find("Links: " + links));
+		assertNull(matcher.find("http://a.example.com http://b.example.com"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomContent() throws Throwable {
+		MultiPatternMatcher matcher = new MultiPatternMatcher(PATTERNS);
+		Pattern pattern = Pattern.compile(this.joinPatterns(PATTERNS), Pattern.CASE_INSENSITIVE);
+		String[] fragments = {"cheap", " ", "-", "Viagra", "http://", "x.com", "\n", "12", "345", ".com", "virus", "9", "louis", "vuitton", "Word", "[url=", "nice site", " dude", "thx", "airline-tickets", "-cheap"};
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			StringBuilder content = new StringBuilder();
+			int count = random.nextInt(12);
+			for (int j = 0; j < count; j++) {
+				content.append(fragments[random.nextInt(fragments.length)]);
+			}
+			String result = matcher.find(content.toString());
+			assertEquals("Match mismatch for: " + content, pattern.matcher(content).find(), (result != null));
+			if (result != null) {
+				assertTrue("Invalid match " + result + " for: " + content, pattern.matcher(result).find());
+			}
+		}
+	}
+
+	/**
+	 * Leading unbounded repetitions must not cause the rest of each line to be
+	 * scanned from every position in the text.
+	 */
+	@Test(timeout = 10000)
+	public void testLeadingRepetition() throws Throwable {
+		MultiPatternMatcher matcher = new MultiPatternMatcher(Arrays.asList(".*casino", "\\w+pills", "[^ ]{2,}loan"));
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 200000; i++) {
+			content.append('x');
+		}
+		assertNull(matcher.find(content.toString()));
+		assertEquals("casino", matcher.find(content + "casino"));
+		assertEquals("xpills", matcher.find(content + "pills"));
+		assertNull(matcher.find("pills"));
+		assertEquals("xxloan", matcher.find(content + "loan"));
+		assertNull(matcher.find("x loan"));
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = PatternSyntaxException.class)
+	public void testInvalidPattern() throws Throwable {
+		new MultiPatternMatcher(Arrays.asList("valid", "(invalid"));
+	}
+
+	/**
+	 *
+	 */
+	private String joinPatterns(List<String> patterns) {
+		List<String> values = new ArrayList<String>();
+		for (String value : patterns) {
+			if (value.length() > 0) {
+				values.add(value);
+			}
+		}
+		StringBuilder result = new StringBuilder();
+		for (String value : values) {
+			if (result.length() > 0) {
+				result.append('|');
+			}
+			result.append("(?:").append(value).append(')');
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.web.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.incava.util.diff.Difference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class MyersDiffEngineTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomArrays() throws Throwable {
+		Random random = new Random(42);
+		DiffEngine engine = new MyersDiffEngine();
+		DiffEngine incava = new IncavaDiffEngine();
+		for (int i = 0; i < 500; i++) {
+			String[] oldArray = this.randomArray(random, random.nextInt(40));
+			String[] newArray = this.randomArray(random, random.nextInt(40));
+			List<Difference> diffs = engine.diff(oldArray, newArray);
+			assertEquals("Invalid diff for " + Arrays.toString(oldArray) + " / " + Arrays.toString(newArray), Arrays.asList(newArray), this.apply(oldArray, newArray, diffs));
+			// both algorithms find a minimal diff, although not necessarily the same one
+			assertEquals("Diff is not minimal", this.editCount(incava.diff(oldArray, newArray)), this.editCount(diffs));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLargeArrays() throws Throwable {
+		String[] oldArray = new String[50000];
+		for (int i = 0; i < oldArray.length; i++) {
+			oldArray[i] = "line " + i;
+		}
+		String[] newArray = oldArray.clone();
+		newArray[100] = "changed";
+		newArray[25000] = "changed";
+		List<Difference> diffs = new MyersDiffEngine().diff(oldArray, newArray);
+		assertEquals("diffs.size()", 2, diffs.size());
+		assertEquals("diff", new Difference(25000, 25000, 25000, 25000), diffs.get(1));
+		// completely different arrays must produce a valid diff
+		String[] differentArray = new String[5000];
+		for (int i = 0; i < differentArray.length; i++) {
+			differentArray[i] = "different " + (i % 7);
+		}
+		diffs = new MyersDiffEngine().diff(oldArray, differentArray);
+		assertEquals("Invalid diff", Arrays.asList(differentArray), this.apply(oldArray, differentArray, diffs));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testManyEdits() throws Throwable {
+		// arrays that share many lines but differ by well over a thousand edits
+		Random random = new Random(17);
+		String[] oldArray = this.randomArray(random, 3000);
+		String[] newArray = this.randomArray(random, 3000);
+		List<Difference> diffs = new MyersDiffEngine().diff(oldArray, newArray);
+		assertEquals("Invalid diff", Arrays.asList(newArray), this.apply(oldArray, newArray, diffs));
+		int minimalEdits = oldArray.length + newArray.length - 2 * this.longestCommonSubsequence(oldArray, newArray);
+		assertTrue("Too few edits for this test", minimalEdits > 1000);
+		assertEquals("Diff is not minimal", minimalEdits, this.editCount(diffs));
+	}
+
+	/**
+	 * Compute the length of the longest common subsequence of two arrays.
+	 */
+	private int longestCommonSubsequence(String[] oldArray, String[] newArray) {
+		int[] previous = new int[newArray.length + 1];
+		int[] current = new int[newArray.length + 1];
+		for (int i = 1; i <= oldArray.length; i++) {
+			for (int j = 1; j <= newArray.length; j++) {
+				current[j] = (oldArray[i - 1].equals(newArray[j - 1])) ? previous[j - 1] + 1 : Math.max(previous[j], current[j - 1]);
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[newArray.length];
+	}
+
+	/**
+	 * Re-create the new array from the old array using a list of differences.
+	 */
+	private List<String> apply(String[] oldArray, String[] newArray, List<Difference> diffs) {
+		List<String> result = new ArrayList<String>();
+		int position = 0;
+		for (Difference diff : diffs) {
+			while (position < diff.getDeletedStart()) {
+				result.add(oldArray[position++]);
+			}
+			if (diff.getAddedEnd() != Difference.NONE) {
+				result.addAll(Arrays.asList(newArray).subList(diff.getAddedStart(), diff.getAddedEnd() + 1));
+			}
+			if (diff.getDeletedEnd() != Difference.NONE) {
+				position = diff.getDeletedEnd() + 1;
+			}
+		}
+		while (position < oldArray.length) {
+			result.add(oldArray[position++]);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	private int editCount(List<Difference> diffs) {
+		int count = 0;
+		for (Difference diff : diffs) {
+			if (diff.getDeletedEnd() != Difference.NONE) {
+				count += diff.getDeletedEnd() - diff.getDeletedStart() + 1;
+			}
+			if (diff.getAddedEnd() != Difference.NONE) {
+				count += diff.getAddedEnd() - diff.getAddedStart() + 1;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Generate an array from a small set of values so that random arrays share content.
+	 */
+	private String[] randomArray(Random random, int length) {
+		String[] result = new String[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = "value " + random.nextInt(6);
+		}
+		return result;
+	}
+}